@@ -1,5 +1,7 @@
 package ch.usi.gassert;
 
+import ch.usi.gassert.evolutionary.Migration;
+import ch.usi.gassert.interpreter.AssertionManager;
 import ch.usi.gassert.search.AVMSearch;
 import ch.usi.gassert.search.VariablesList;
 import ch.usi.gassert.util.random.DynamicWeightedMap;
@@ -56,6 +58,11 @@ public class Config {
      */
     public static String GENERATION_STATS_FILE = null;
 
+    /**
+     * Output per-generation performance stats
+     */
+    public static String PROFILING_STATS_FILE = null;
+
     /**
      * Output final stats
      */
@@ -214,6 +221,12 @@ public class Config {
     public static double MR_INPUT_RELATION_SATISFACTION_THRESHOLD_MIN = .05;
     public static double MR_INPUT_RELATION_SATISFACTION_THRESHOLD_MAX = .50;
 
+    /**
+     * number of candidate MRIPs which MRIPGenerator generates at once and evaluates concurrently.
+     * The generated MRIPs depend on it, so it is not tied to the number of threads.
+     */
+    public static int MRIP_CANDIDATE_BATCH_SIZE = 16;
+
     // ---------------- END TREE GENERATION -------------------
 
     // -------------- BEGIN CONJUNCTIVE MRIP GENERATION ---------------
@@ -244,6 +257,33 @@ public class Config {
     public static boolean ELITE_UNIQUE_SIGNATURES = true;
 
     public static boolean IS_CACHE_ENABLED = false;
+
+    /**
+     * compile the assertions to bytecode for the fitness evaluation
+     */
+    public static boolean IS_COMPILED_EVALUATION_ENABLED = true;
+
+    /**
+     * evaluate the assertions over all the states at once, one tree node at a time
+     */
+    public static boolean IS_VECTORIZED_EVALUATION_ENABLED = true;
+
+    /**
+     * load the states from the binary StateDataset next to the states path, if there is one
+     */
+    public static boolean IS_BINARY_STATES_ENABLED = true;
+
+    /**
+     * memory budget for the values of the subtrees shared by several assertions, 0 to disable.
+     * Disabled by default: it only pays off when the populations share large subtrees over many states,
+     * check the subtreeCache stats before enabling it (e.g. 256MB)
+     */
+    public static long SUBTREE_CACHE_BYTES = 0;
+
+    /**
+     * state batches larger than this are split across the workers of the EvaluationStage
+     */
+    public static int EVALUATION_SPLIT_STATES = 4096;
     public static int MAX_SIZE_CACHE = 100000;
 
     public static int countBestIndividuals = 10;
@@ -314,6 +354,16 @@ public class Config {
 
     public static int generationMigration = 10;
 
+    /**
+     * fitness criteria of each island of the evolution, one thread evolves the population of each island
+     */
+    public static AssertionManager.Type[] ISLANDS = { AssertionManager.Type.FP, AssertionManager.Type.FN };
+
+    /**
+     * islands which receive the migrants of each island, every generationMigration generations
+     */
+    public static Migration.Topology MIGRATION_TOPOLOGY = Migration.Topology.ALL;
+
     public static int generationSaveState = 10;
 
     /**
@@ -336,6 +386,11 @@ public class Config {
 
     public static final int MAX_SIZE_FOR_BEST_MATCHING_LIST = 10;
 
+    /**
+     * max number of coverage bitmaps considered by the best selection, sampled at random when there are more
+     */
+    public static int BEST_MATCH_SAMPLE_SIZE = 256;
+
     public static final float PROB_MERGE_CROSSOVER_AS_IT_IS = 0.70f;
 
     public static final double CONSTANT_VALUE_MUTATION_WEIGHT_MIN = 5.0;
@@ -1,17 +1,19 @@
 package ch.usi.gassert;
 
 import ch.usi.gassert.data.manager.LoaderUtils;
+import ch.usi.gassert.data.manager.method.MethodDataManager;
+import ch.usi.gassert.data.state.StateDataset;
 import ch.usi.gassert.data.state.TestExecution;
 import ch.usi.gassert.data.state.VariablesManager;
 import ch.usi.gassert.data.tree.Tree;
 import ch.usi.gassert.data.tree.TreeReaderGAssert;
-import ch.usi.gassert.evaluator.BasicEvaluator;
+import ch.usi.gassert.evaluator.CompiledEvaluator;
 import ch.usi.gassert.evaluator.IEvaluator;
+import ch.usi.gassert.evaluator.IPreparedTree;
 import ch.usi.gassert.util.ClassUtils;
 import ch.usi.gassert.util.FileUtils;
 import ch.usi.gassert.util.MR;
 import ch.usi.gassert.util.StringUtils;
-import com.google.gson.stream.JsonReader;
 import org.mu.testcase.classification.Classification;
 import org.mu.testcase.classification.TestClassifications;
 import org.mu.testcase.evaluation.TestEvaluationResults;
@@ -22,9 +24,12 @@ import org.mu.util.streams.StreamLoaderFactory;
 import java.io.*;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import static ch.usi.gassert.util.Assert.assertAlways;
 import static org.mu.testcase.classification.Classification.CORRECT;
@@ -45,11 +50,9 @@ public class EvaluateMRs {
         for (String entry : statesDataSource.entries()) {
             if (entry.endsWith(".state.json")) {
                 try {
-                    final JsonReader reader = new JsonReader(statesDataSource.load(entry));
-                    final TestExecution testExecution = TestExecution.fromJson(reader);
+                    final TestExecution testExecution = MethodDataManager.readTestExecution(statesDataSource, entry);
                     final boolean hasInvalidValue = testExecution.getVariables().getValues().values().stream()
                             .anyMatch(v -> v == null || ClassUtils.isErrorType(v.getClass()));
-                    reader.close();
                     // Exclude test executions with invalid values
                     if (!hasInvalidValue) {
                         states.putIfAbsent(testExecution.getSystemId(), new HashMap<>());
@@ -85,8 +88,46 @@ public class EvaluateMRs {
         }
     }
 
-    public static void evaluateMR(final Map<String, Map<String, Map<String, Object>>> sourceStates,
-                                  final Map<String, TestClassifications> sourceClassifications,
+    /**
+     * Read-only view of the variables of a source and a followup state, without copying them
+     */
+    private static final class PairVariables extends AbstractMap<String, Object> {
+
+        private final Map<String, Object> source;
+        private final Map<String, Object> followup;
+
+        PairVariables(final Map<String, Object> source, final Map<String, Object> followup) {
+            this.source = source;
+            this.followup = followup;
+        }
+
+        @Override
+        public Object get(final Object key) {
+            final Object value = source.get(key);
+            return value != null ? value : followup.get(key);
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return source.containsKey(key) || followup.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return source.size() + followup.size();
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            final Set<Entry<String, Object>> entries = new HashSet<>(source.entrySet());
+            entries.addAll(followup.entrySet());
+            return entries;
+        }
+
+    }
+
+    public static void evaluateMR(final Map<String, Object>[][] sourceStates,
+                                  final Classification[][] sourceClassifications,
                                   final Map<String, Integer> systemIds, final Map<String, Integer> systemIdsShort, final Map<String, Integer> testIds,
                                   final Path followupStatesDir, final Path followupClassificationsDir,
                                   final IEvaluator evaluator, final Map<String, Class<?>> variableTypes,
@@ -101,45 +142,50 @@ public class EvaluateMRs {
             }
             // Read output relation
             final String orString = FileUtils.readContentFile(mr);
-            final Tree or = TreeReaderGAssert.getTree(orString, variableTypes);
+            final IPreparedTree or = evaluator.prepare(TreeReaderGAssert.getTree(orString, variableTypes));
             // Load followup states
-            final IStreamLoader sourceStatesStream = StreamLoaderFactory.forPath(followupStatesDir.toString());
-            final Map<String, Map<String, Map<String, Object>>> followupStates = loadStates(sourceStatesStream, MR::VARIABLE_TO_FOLLOWUP);
+            final Map<String, Map<String, Map<String, Object>>> followupStates;
+            try (final IStreamLoader followupStatesStream = StateDataset.forPath(followupStatesDir.toString())) {
+                followupStates = loadStates(followupStatesStream, MR::VARIABLE_TO_FOLLOWUP);
+            }
             // Load followup classifications
-            final IStreamLoader sourceClassificationsStream = StreamLoaderFactory.forPath(followupClassificationsDir.toString());
-            final Map<String, TestClassifications> followupClassifications = LoaderUtils.loadClassifications(sourceClassificationsStream);
+            final Map<String, TestClassifications> followupClassifications;
+            try (final IStreamLoader followupClassificationsStream = StreamLoaderFactory.forPath(followupClassificationsDir.toString())) {
+                followupClassifications = LoaderUtils.loadClassifications(followupClassificationsStream);
+            }
             // Evaluate output relation on all states
             final int classificationsColumnIndex = 0;
             for (final String systemId : followupClassifications.keySet()) {
-                final TestClassifications sourceClassificationsSystem = sourceClassifications.get(systemId);
+                final Integer column = systemIds.get(systemId);
+                final Map<String, Map<String, Object>> followupStatesSystem = followupStates.get(systemId);
+                if (column == null || followupStatesSystem == null) {
+                    continue;
+                }
                 final TestClassifications followupClassificationsSystem = followupClassifications.get(systemId);
-                for (final String followupTestId : followupClassificationsSystem.rowIds.keySet()) {
+                for (final Map.Entry<String, Integer> followupTestIdRow : followupClassificationsSystem.rowIds.entrySet()) {
+                    final String followupTestId = followupTestIdRow.getKey();
                     assertAlways(followupTestId.endsWith("followup"), "Invalid followup testId: " + followupTestId);
                     final String testId = followupTestId.substring(0, followupTestId.length() - "followup".length());
                     try {
-                        final  Map<String, Map<String, Object>> EMPTY_MAP = new HashMap<>(0);
-                        final Map<String, Object> sourceVariables = sourceStates.getOrDefault(systemId, EMPTY_MAP).get(testId);
-                        final Map<String, Object> followupVariables = followupStates.getOrDefault(systemId, EMPTY_MAP).get(followupTestId);
+                        final Integer row = testIds.get(testId);
+                        if (row == null) {
+                            continue;
+                        }
+                        final Map<String, Object> sourceVariables = sourceStates[row][column];
+                        final Map<String, Object> followupVariables = followupStatesSystem.get(followupTestId);
                         if (sourceVariables == null || followupVariables == null) {
                             continue;
                         }
-                        final Integer classificationsSourceRowIndex = sourceClassificationsSystem.rowIds.get(testId);
-                        final Integer classificationsFollowupRowIndex = followupClassificationsSystem.rowIds.get(followupTestId);
-                        if (classificationsSourceRowIndex == null || classificationsFollowupRowIndex == null) {
+                        final Classification sourceClassification = sourceClassifications[row][column];
+                        if (sourceClassification == null) {
                             continue;
                         }
-                        final Classification sourceClassification = sourceClassificationsSystem.get(classificationsSourceRowIndex, classificationsColumnIndex);
-                        final Classification followupClassification = followupClassificationsSystem.get(classificationsFollowupRowIndex, classificationsColumnIndex);
+                        final Classification followupClassification = followupClassificationsSystem.get(followupTestIdRow.getValue(), classificationsColumnIndex);
                         if (sourceClassification == Classification.NONE && followupClassification == Classification.NONE) {
                             continue;
                         }
-                        final Map<String, Object> variables = Stream.concat(sourceVariables.entrySet().stream(), followupVariables.entrySet().stream())
-                                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
                         assertAlways(sourceVariables.size() == followupVariables.size(), "");
-                        assertAlways(variables.size() == sourceVariables.size() + followupVariables.size(), "");
-                        boolean verdict = evaluator.eval(or, variables);
-                        final int row = testIds.get(testId);
-                        final int column = systemIds.get(systemId);
+                        boolean verdict = or.eval(new PairVariables(sourceVariables, followupVariables));
                         TestResult result = getResultFromVerdict(sourceClassification, followupClassification, verdict);
                         results[row][column] = result;
                     } catch (Exception e) {
@@ -149,9 +195,9 @@ public class EvaluateMRs {
             }
             // Write results
             final TestEvaluationResults tableResults = new TestEvaluationResults(mrName, testIds, systemIdsShort, results);
-            final Writer writer = new BufferedWriter(new FileWriter(resultsMR));
-            tableResults.writeTo(writer);
-            writer.flush();
+            try (final Writer writer = new BufferedWriter(new FileWriter(resultsMR))) {
+                tableResults.writeTo(writer);
+            }
         } catch (Exception e) {
             throw new RuntimeException("Error handling MR: " + mr.getPath(), e);
         }
@@ -162,13 +208,17 @@ public class EvaluateMRs {
                                    final Path sourceClassificationsDir, final Path followupClassificationsDir,
                                    final Path resultsDir) {
         // Load source states
-        final IStreamLoader sourceStatesStream = StreamLoaderFactory.forPath(sourceStatesDir.resolve(sut).toString());
-        final Map<String, Map<String, Map<String, Object>>> sourceStates = loadStates(sourceStatesStream, MR::VARIABLE_TO_SOURCE);
+        final Map<String, Map<String, Map<String, Object>>> sourceStates;
+        try (final IStreamLoader sourceStatesStream = StateDataset.forPath(sourceStatesDir.resolve(sut).toString())) {
+            sourceStates = loadStates(sourceStatesStream, MR::VARIABLE_TO_SOURCE);
+        }
         // Load source classifications
-        final IStreamLoader sourceClassificationsStream = StreamLoaderFactory.forPath(sourceClassificationsDir.resolve(sut).toString());
-        final Map<String, TestClassifications> sourceClassifications = LoaderUtils.loadClassifications(sourceClassificationsStream);
+        final Map<String, TestClassifications> sourceClassifications;
+        try (final IStreamLoader sourceClassificationsStream = StreamLoaderFactory.forPath(sourceClassificationsDir.resolve(sut).toString())) {
+            sourceClassifications = LoaderUtils.loadClassifications(sourceClassificationsStream);
+        }
         // Init other stuff
-        final IEvaluator evaluator = new BasicEvaluator();
+        final IEvaluator evaluator = new CompiledEvaluator();
         final Map<String, Object> someStateVariables = sourceStates
                 .values().stream().findAny().orElseThrow(() -> new RuntimeException("sourceStates has no systemIds: " + sut))
                 .values().stream().findAny().orElseThrow(() -> new RuntimeException("sourceStates has no testIds: " + sut));
@@ -201,26 +251,58 @@ public class EvaluateMRs {
         for (int i = 0 ; i < sortedTestIds.size() ; ++i) {
             testIds.put(sortedTestIds.get(i), i);
         }
-        // Iterate followupClassificationsDir and write results 
-        for (final File followupClassificationsDirStrategy : Objects.requireNonNull(followupClassificationsDir.toFile().listFiles())) {
-            final String strategy = followupClassificationsDirStrategy.getName();
-            final Path resultsDirStrategySut = resultsDir.resolve(strategy).resolve(sut);
-            final File resultsDirStrategySutFile = resultsDirStrategySut.toFile();
-            assertAlways(resultsDirStrategySutFile.mkdirs() || resultsDirStrategySutFile.isDirectory(), "Error creating directory: " + resultsDirStrategySut);
-            final Path followupClassificationsDirStrategySut = followupClassificationsDirStrategy.toPath().resolve(sut);
-            for (final File followupClassificationsDirMrip : Objects.requireNonNull(followupClassificationsDirStrategySut.toFile().listFiles())) {
-                final String mrip = followupClassificationsDirMrip.getName();
-                final Path followupStatesDirMrip = followupStatesDir.resolve(strategy).resolve(sut).resolve(mrip);
-                final File resultsMR = resultsDirStrategySut.resolve(mrip + RESULTS_EXTENSION).toFile();
-                final File mr = mrsDir.resolve(strategy).resolve(sut).resolve(mrip + OR_EXTENSION).toFile();
-                evaluateMR(
-                        sourceStates, sourceClassifications,
-                        systemIds, systemIdsShort, testIds,
-                        followupStatesDirMrip, followupClassificationsDirMrip.toPath(),
-                        evaluator, variableTypes,
-                        mr, resultsMR
-                );
+        // Index the source states and classifications like the results matrix, shared by all the MRs
+        @SuppressWarnings("unchecked")
+        final Map<String, Object>[][] sourceStatesIndexed = (Map<String, Object>[][]) new Map<?, ?>[testIds.size()][systemIds.size()];
+        final Classification[][] sourceClassificationsIndexed = new Classification[testIds.size()][systemIds.size()];
+        for (final Map.Entry<String, Integer> systemId : systemIds.entrySet()) {
+            final int column = systemId.getValue();
+            final Map<String, Map<String, Object>> sourceStatesSystem = sourceStates.get(systemId.getKey());
+            final TestClassifications sourceClassificationsSystem = sourceClassifications.get(systemId.getKey());
+            for (final Map.Entry<String, Integer> testId : testIds.entrySet()) {
+                final int row = testId.getValue();
+                sourceStatesIndexed[row][column] = sourceStatesSystem.get(testId.getKey());
+                final Integer classificationsRowIndex = sourceClassificationsSystem != null
+                        ? sourceClassificationsSystem.rowIds.get(testId.getKey()) : null;
+                if (classificationsRowIndex != null) {
+                    sourceClassificationsIndexed[row][column] = sourceClassificationsSystem.get(classificationsRowIndex, 0);
+                }
+            }
+        }
+        // Iterate followupClassificationsDir and evaluate the MRs concurrently, each task loads its own followup states
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Config.numberWorkingThreads));
+        final List<Future<?>> tasks = new ArrayList<>();
+        try {
+            for (final File followupClassificationsDirStrategy : Objects.requireNonNull(followupClassificationsDir.toFile().listFiles())) {
+                final String strategy = followupClassificationsDirStrategy.getName();
+                final Path resultsDirStrategySut = resultsDir.resolve(strategy).resolve(sut);
+                final File resultsDirStrategySutFile = resultsDirStrategySut.toFile();
+                assertAlways(resultsDirStrategySutFile.mkdirs() || resultsDirStrategySutFile.isDirectory(), "Error creating directory: " + resultsDirStrategySut);
+                final Path followupClassificationsDirStrategySut = followupClassificationsDirStrategy.toPath().resolve(sut);
+                for (final File followupClassificationsDirMrip : Objects.requireNonNull(followupClassificationsDirStrategySut.toFile().listFiles())) {
+                    final String mrip = followupClassificationsDirMrip.getName();
+                    final Path followupStatesDirMrip = followupStatesDir.resolve(strategy).resolve(sut).resolve(mrip);
+                    final File resultsMR = resultsDirStrategySut.resolve(mrip + RESULTS_EXTENSION).toFile();
+                    final File mr = mrsDir.resolve(strategy).resolve(sut).resolve(mrip + OR_EXTENSION).toFile();
+                    tasks.add(executor.submit(() -> evaluateMR(
+                            sourceStatesIndexed, sourceClassificationsIndexed,
+                            systemIds, systemIdsShort, testIds,
+                            followupStatesDirMrip, followupClassificationsDirMrip.toPath(),
+                            evaluator, variableTypes,
+                            mr, resultsMR
+                    )));
+                }
+            }
+            for (final Future<?> task : tasks) {
+                task.get();
             }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted evaluating the MRs of " + sut, e);
+        } catch (final ExecutionException e) {
+            throw new RuntimeException("Error evaluating the MRs of " + sut, e.getCause());
+        } finally {
+            executor.shutdownNow();
         }
     }
 
@@ -46,6 +46,7 @@ public class GAssertMRs {
 
             Config.FITNESS_FILE = Config.outputFile + ".fitness.csv";
             Config.GENERATION_STATS_FILE = Config.outputFile + ".generations.csv";
+            Config.PROFILING_STATS_FILE = Config.outputFile + ".profiling.csv";
             Config.FINAL_STATS_FILE = Config.outputFile + ".stats.json";
             Config.BEST_INDIVIDUALS_FILE = Config.outputFile + ".best.txt";
 
@@ -149,6 +150,24 @@ public class GAssertMRs {
                     } catch (Exception ignored) {}
                 }
             }
+
+            // Write per-generation performance stats to file
+            if (Config.PROFILING_STATS_FILE != null) {
+                PrintStream out = null;
+                try {
+                    FileUtils.mkdirsFile(Config.PROFILING_STATS_FILE);
+                    out = new PrintStream(new BufferedOutputStream(new FileOutputStream(Config.PROFILING_STATS_FILE)));
+                    Profiling.getInstance().writeStats(out);
+                } catch(Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    try {
+                        if (out != null) {
+                            out.close();
+                        }
+                    } catch (Exception ignored) {}
+                }
+            }
         } catch (Exception e) {
             System.err.println("GAssertMRs MAIN thread exception!!!");
             e.printStackTrace();
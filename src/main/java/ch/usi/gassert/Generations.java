@@ -24,12 +24,13 @@ public class Generations {
         public double avgComplexity = 0.0;
         public double avgFitnessFPplusFN = 0.0;
         public double avgFitnessFPtimesFN = 0.0;
+        public double workerIdleRatio = 0.0;
         public Data() {
             foundBetter = false;
             bestFP = -1.0;
             bestFN = -1.0;
         }
-        public Data(Population population, Elitism elitism, boolean foundBetter, int generation) {
+        public Data(Population population, Elitism elitism, boolean foundBetter, int generation, double workerIdleRatio) {
             final Individual bestOfTheBest = elitism.getBestOfBestIndividual(generation);
             bestFP = bestOfTheBest.fitnessValueFP;
             bestFN = bestOfTheBest.fitnessValueFN;
@@ -49,6 +50,7 @@ public class Generations {
             avgFitnessFPplusFN /= size;
             avgFitnessFPtimesFN /= size;
             this.foundBetter = foundBetter;
+            this.workerIdleRatio = workerIdleRatio;
         }
     }
 
@@ -69,10 +71,11 @@ public class Generations {
         return instance;
     }
 
-    public void addGeneration(int evolveInstanceIndex, Population population, Elitism elitism, boolean newBest, int generation) {
+    public void addGeneration(int evolveInstanceIndex, Population population, Elitism elitism, boolean newBest, int generation,
+                              double workerIdleRatio) {
         Data data = new Data();
         try {
-            data = new Data(population, elitism, newBest, generation);
+            data = new Data(population, elitism, newBest, generation, workerIdleRatio);
         } catch (Exception ignore) {}
         generationStats.get(evolveInstanceIndex).add(data);
     }
@@ -87,13 +90,13 @@ public class Generations {
                 .mapToInt(List::size)
                 .max()
                 .orElseThrow(() -> new RuntimeException("Empty Generations instance"));
-        final String header = "newBestIndividual[%d],bestFP[%d],bestFN[%d],avgFitnessFP[%d],avgFitnessFN[%d],avgComplexity[%d],avgFitnessFPplusFN[%d],avgFitnessFPtimesFN[%d],";
+        final String header = "newBestIndividual[%d],bestFP[%d],bestFN[%d],avgFitnessFP[%d],avgFitnessFN[%d],avgComplexity[%d],avgFitnessFPplusFN[%d],avgFitnessFPtimesFN[%d],workerIdleRatio[%d],";
         for (int evolveInstance = 0 ; evolveInstance < generationStats.size() ; ++evolveInstance) {
             assert generationStats.get(evolveInstance).size() == maxGeneration;
-            out.printf(header, evolveInstance, evolveInstance, evolveInstance, evolveInstance, evolveInstance, evolveInstance, evolveInstance, evolveInstance);
+            out.printf(header, evolveInstance, evolveInstance, evolveInstance, evolveInstance, evolveInstance, evolveInstance, evolveInstance, evolveInstance, evolveInstance);
         }
         out.println();
-        final String datarow = "%s,%s,%s,%s,%s,%s,%s,%s,";
+        final String datarow = "%s,%s,%s,%s,%s,%s,%s,%s,%s,";
         for (int generation = 0 ; generation < maxGeneration ; ++generation) {
             for (List<Data> generationStat : generationStats) {
                 try {
@@ -106,11 +109,12 @@ public class Generations {
                     String avgComplexity = DECIMAL_FORMAT.format(data.avgComplexity);
                     String avgFitnessFPplusFN = DECIMAL_FORMAT.format(data.avgFitnessFPplusFN);
                     String avgFitnessFPtimesFN = DECIMAL_FORMAT.format(data.avgFitnessFPtimesFN);
-                    out.printf(datarow, newBestIndividual, bestFP, bestFN, avgFitnessFP, avgFitnessFN, avgComplexity, avgFitnessFPplusFN, avgFitnessFPtimesFN);
+                    String workerIdleRatio = DECIMAL_FORMAT.format(data.workerIdleRatio);
+                    out.printf(datarow, newBestIndividual, bestFP, bestFN, avgFitnessFP, avgFitnessFN, avgComplexity, avgFitnessFPplusFN, avgFitnessFPtimesFN, workerIdleRatio);
                 } catch (Exception ignored) {
                     // FIXME: Sometimes the stats for the last generation of some Evolve instance are missing,
                     //  probably because of the way the task was terminated
-                    out.printf(datarow, "?", "?", "?", "?", "?", "?", "?", "?");
+                    out.printf(datarow, "?", "?", "?", "?", "?", "?", "?", "?", "?");
                 }
             }
             out.println();
@@ -0,0 +1,191 @@
+package ch.usi.gassert;
+
+import ch.usi.gassert.evaluator.SubtreeCache;
+import ch.usi.gassert.evolutionary.EvaluationStage;
+import ch.usi.gassert.interpreter.AssertionManager;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-generation performance of each Evolve instance, written next to the Generations stats.
+ * <p>
+ * The phase times are measured on the thread of the Evolve instance, so evaluation is the time it waited for the
+ * EvaluationStage. The cache hit rates, GC time and allocation rate are process-wide, so they include the other
+ * Evolve instances.
+ */
+public class Profiling {
+
+    private static final DecimalFormat DECIMAL_FORMAT = new DecimalFormat("0.00000");
+
+    public static final Time.KeysCounter[] PHASES = {
+            Time.KeysCounter.selection,
+            Time.KeysCounter.crossOver,
+            Time.KeysCounter.mutation,
+            Time.KeysCounter.evaluation,
+            Time.KeysCounter.elitism,
+            Time.KeysCounter.migration,
+            Time.KeysCounter.statesSync,
+    };
+
+    private static Profiling instance = null;
+
+    /**
+     * Counters at a point in time, must be taken by the thread of the Evolve instance
+     */
+    public static final class Sample {
+        final long wallNanos;
+        final long[] phaseNanos;
+        final long evaluatedIndividuals;
+        final long evaluatedStates;
+        final long cacheHits;
+        final long cacheMisses;
+        final long subtreeCacheHits;
+        final long subtreeCacheMisses;
+        final long gcMillis;
+        final long allocatedBytes;
+
+        private Sample(final EvaluationStage.Counts counts, final SubtreeCache<?> subtreeCache) {
+            wallNanos = System.nanoTime();
+            phaseNanos = new long[PHASES.length];
+            for (int i = 0 ; i < PHASES.length ; ++i) {
+                phaseNanos[i] = Time.getInstance().getThreadNanos(PHASES[i]);
+            }
+            evaluatedIndividuals = counts.getIndividuals();
+            evaluatedStates = counts.getStates();
+            cacheHits = AssertionManager.getCacheHits();
+            cacheMisses = AssertionManager.getCacheMisses();
+            subtreeCacheHits = subtreeCache != null ? subtreeCache.getHits() : 0;
+            subtreeCacheMisses = subtreeCache != null ? subtreeCache.getMisses() : 0;
+            gcMillis = gcMillis();
+            allocatedBytes = allocatedBytes();
+        }
+
+        /**
+         * @param subtreeCache SubtreeCache of the assertion evaluator, or null if there is none
+         */
+        public static Sample take(final EvaluationStage.Counts counts, final SubtreeCache<?> subtreeCache) {
+            return new Sample(counts, subtreeCache);
+        }
+
+        private static long gcMillis() {
+            long total = 0;
+            for (final GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+                total += Math.max(0L, gcBean.getCollectionTime());
+            }
+            return total;
+        }
+
+        /**
+         * @return the bytes allocated by the live threads, -1 if not supported by the JVM
+         */
+        private static long allocatedBytes() {
+            final ThreadMXBean threadMxBean = ManagementFactory.getThreadMXBean();
+            if (!(threadMxBean instanceof com.sun.management.ThreadMXBean)) {
+                return -1;
+            }
+            final com.sun.management.ThreadMXBean sunThreadMxBean = (com.sun.management.ThreadMXBean) threadMxBean;
+            if (!sunThreadMxBean.isThreadAllocatedMemorySupported() || !sunThreadMxBean.isThreadAllocatedMemoryEnabled()) {
+                return -1;
+            }
+            long total = 0;
+            for (final long bytes : sunThreadMxBean.getThreadAllocatedBytes(sunThreadMxBean.getAllThreadIds())) {
+                total += Math.max(0L, bytes);
+            }
+            return total;
+        }
+    }
+
+    public static final class Data {
+        public final int generation;
+        public final long wallMillis;
+        public final long evaluatedIndividuals;
+        public final long evaluatedStates;
+        public final double evaluatedStatesPerSecond;
+        public final double cacheHitRate;
+        public final double subtreeCacheHitRate;
+        public final long[] phaseMillis;
+        public final long gcMillis;
+        public final double allocatedMegabytesPerSecond;
+
+        public Data(final int generation, final Sample from, final Sample to) {
+            this.generation = generation;
+            final long wallNanos = Math.max(1L, to.wallNanos - from.wallNanos);
+            final double seconds = wallNanos / 1e9;
+            wallMillis = TimeUnit.NANOSECONDS.toMillis(wallNanos);
+            evaluatedIndividuals = to.evaluatedIndividuals - from.evaluatedIndividuals;
+            evaluatedStates = to.evaluatedStates - from.evaluatedStates;
+            evaluatedStatesPerSecond = evaluatedStates / seconds;
+            final long cacheHits = to.cacheHits - from.cacheHits;
+            final long cacheLookups = cacheHits + to.cacheMisses - from.cacheMisses;
+            cacheHitRate = cacheLookups > 0 ? (double) cacheHits / cacheLookups : 0.0;
+            final long subtreeCacheHits = to.subtreeCacheHits - from.subtreeCacheHits;
+            final long subtreeCacheLookups = subtreeCacheHits + to.subtreeCacheMisses - from.subtreeCacheMisses;
+            subtreeCacheHitRate = subtreeCacheLookups > 0 ? (double) subtreeCacheHits / subtreeCacheLookups : 0.0;
+            phaseMillis = new long[PHASES.length];
+            for (int i = 0 ; i < PHASES.length ; ++i) {
+                phaseMillis[i] = TimeUnit.NANOSECONDS.toMillis(to.phaseNanos[i] - from.phaseNanos[i]);
+            }
+            gcMillis = to.gcMillis - from.gcMillis;
+            // Threads which terminated in the meantime are no longer counted
+            allocatedMegabytesPerSecond = from.allocatedBytes < 0 || to.allocatedBytes < 0 ? -1.0
+                    : Math.max(0L, to.allocatedBytes - from.allocatedBytes) / (1024.0 * 1024.0) / seconds;
+        }
+    }
+
+    private final List<List<Data>> generationStats;
+
+    public static void init(int evolveInstances) {
+        instance = new Profiling(evolveInstances);
+    }
+
+    private Profiling(int evolveInstances) {
+        generationStats = new ArrayList<>(evolveInstances);
+        for (int i = 0 ; i < evolveInstances ; ++i) {
+            generationStats.add(new ArrayList<>());
+        }
+    }
+
+    public static Profiling getInstance() {
+        return instance;
+    }
+
+    public void addGeneration(int evolveInstanceIndex, int generation, Sample from, Sample to) {
+        generationStats.get(evolveInstanceIndex).add(new Data(generation, from, to));
+    }
+
+    public List<List<Data>> getGenerationStats() {
+        return generationStats;
+    }
+
+    /**
+     * Write one CSV row for each generation of each Evolve instance
+     */
+    public void writeStats(PrintStream out) {
+        out.print("island,generation,wallMillis,evaluatedIndividuals,evaluatedStates,evaluatedStatesPerSecond,cacheHitRate,subtreeCacheHitRate,");
+        for (final Time.KeysCounter phase : PHASES) {
+            out.print(phase.name() + "Millis,");
+        }
+        out.println("gcMillis,allocatedMegabytesPerSecond");
+        for (int evolveInstance = 0 ; evolveInstance < generationStats.size() ; ++evolveInstance) {
+            for (final Data data : generationStats.get(evolveInstance)) {
+                out.print(evolveInstance + "," + data.generation + "," + data.wallMillis + ","
+                        + data.evaluatedIndividuals + "," + data.evaluatedStates + ","
+                        + DECIMAL_FORMAT.format(data.evaluatedStatesPerSecond) + ","
+                        + DECIMAL_FORMAT.format(data.cacheHitRate) + ","
+                        + DECIMAL_FORMAT.format(data.subtreeCacheHitRate) + ",");
+                for (final long phaseMillis : data.phaseMillis) {
+                    out.print(phaseMillis + ",");
+                }
+                out.println(data.gcMillis + "," + DECIMAL_FORMAT.format(data.allocatedMegabytesPerSecond));
+            }
+        }
+    }
+
+}
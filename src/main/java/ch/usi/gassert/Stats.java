@@ -1,20 +1,20 @@
 package ch.usi.gassert;
 
 
-import ch.usi.gassert.util.AtomicBigInteger;
-import ch.usi.gassert.util.FileUtils;
-import ch.usi.gassert.util.MyGson;
 import com.google.gson.stream.JsonWriter;
 
 import java.io.IOException;
-import java.io.PrintStream;
 import java.io.Writer;
-import java.math.BigInteger;
+import java.util.EnumMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Counters of the evolution. increment is a LongAdder increment, so that it can be called from hot paths.
+ */
 public class Stats {
 
     static final Set<KeysCounter> KEYS_INIT_WITH_NULL;
@@ -39,8 +39,19 @@ public class Stats {
         generationBestSolution,
         generationGoodSolution,
         timestampGoodSolution,
+        evaluationBusyTime,
+        evaluationIdleTime,
+        assertionCacheHits,
+        assertionCacheMisses,
+        assertionCacheEvictions,
+        subtreeCacheHits,
+        subtreeCacheMisses,
+        subtreeCacheEvictions,
     }
 
+    // Must be initialized before the instance
+    private static final KeysCounter[] KEYS = KeysCounter.values();
+
     static {
         KEYS_INIT_WITH_NULL = new HashSet<>();
         KEYS_INIT_WITH_NULL.add(KeysCounter.generationGoodSolution);
@@ -48,16 +59,18 @@ public class Stats {
         instance = new Stats();
     }
 
-    private final Map<KeysCounter, AtomicBigInteger> key2counterStats;
+    private final LongAdder[] key2counterStats;
+    // 1 if the counter has no value yet
+    private final AtomicIntegerArray key2missing;
 
     private Stats() {
         super();
-        key2counterStats = new ConcurrentHashMap<>();
-        for (final KeysCounter key : KeysCounter.values()) {
+        key2counterStats = new LongAdder[KEYS.length];
+        key2missing = new AtomicIntegerArray(KEYS.length);
+        for (final KeysCounter key : KEYS) {
+            key2counterStats[key.ordinal()] = new LongAdder();
             if (KEYS_INIT_WITH_NULL.contains(key)) {
-                key2counterStats.put(key, new AtomicBigInteger(null));
-            } else {
-                key2counterStats.put(key, new AtomicBigInteger(new BigInteger("0")));
+                key2missing.set(key.ordinal(), 1);
             }
         }
     }
@@ -66,42 +79,66 @@ public class Stats {
         return instance;
     }
 
-    public Map<KeysCounter, AtomicBigInteger> getKey2counterStats() {
-        return key2counterStats;
+    /**
+     * @return a snapshot of the counters, with null for the ones without a value
+     */
+    public Map<KeysCounter, Long> getKey2counterStats() {
+        final Map<KeysCounter, Long> snapshot = new EnumMap<>(KeysCounter.class);
+        for (final KeysCounter key : KEYS) {
+            snapshot.put(key, get(key));
+        }
+        return snapshot;
     }
 
     public void setIfMissing(final KeysCounter key, final long value) {
-        key2counterStats.get(key).setIfMissing(value);
+        if (key2missing.get(key.ordinal()) == 1 && key2missing.compareAndSet(key.ordinal(), 1, 0)) {
+            key2counterStats[key.ordinal()].add(value);
+        }
     }
 
     public void increment(final KeysCounter key) {
-        key2counterStats.get(key).increment();
+        if (key2missing.get(key.ordinal()) == 1) {
+            key2missing.set(key.ordinal(), 0);
+        }
+        key2counterStats[key.ordinal()].increment();
     }
 
     public void set(final KeysCounter key, final int value) {
-        key2counterStats.get(key).set(value);
+        set(key, (long) value);
     }
 
+    /**
+     * Not atomic with respect to concurrent increments of the same key
+     */
     public void set(final KeysCounter key, final long value) {
-        key2counterStats.get(key).set(value);
+        final LongAdder counter = key2counterStats[key.ordinal()];
+        counter.reset();
+        counter.add(value);
+        key2missing.set(key.ordinal(), 0);
     }
 
-    public BigInteger get(final KeysCounter key) {
-        return key2counterStats.get(key).get();
+    public Long get(final KeysCounter key) {
+        if (key2missing.get(key.ordinal()) == 1) {
+            return null;
+        }
+        return key2counterStats[key.ordinal()].sum();
     }
 
     public void print() {
-        System.out.println(key2counterStats);
+        System.out.println(getKey2counterStats());
         //FileUtils.overwriteTextOnFile(Config.GASSERT_HOME + /*"/subjects/" + subjectFolder + */  "/output/evolution-iter" + iteration + ".info", MyGson.getInstance().toJson(key2counterStats));
     }
 
     public void writeStats(Writer out) throws IOException {
         JsonWriter writer = new JsonWriter(out);
         writer.beginObject();
-        for (final KeysCounter key : KeysCounter.values()) {
-            writer.name(key.name()).value(key2counterStats.get(key).get());
+        for (final KeysCounter key : KEYS) {
+            writer.name(key.name()).value(get(key));
         }
+        writer.name("time");
+        Time.getInstance().writeTimes(writer);
         writer.endObject();
+        writer.flush();
     }
 
 }
@@ -1,70 +1,130 @@
 package ch.usi.gassert;
 
 
-import ch.usi.gassert.util.AtomicBigInteger;
-import ch.usi.gassert.util.FileUtils;
-import ch.usi.gassert.util.MyGson;
+import ch.usi.gassert.util.LatencyHistogram;
+import com.google.gson.stream.JsonWriter;
 
-import java.math.BigInteger;
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent in each phase, summed over all the threads.
+ * <p>
+ * start and stop do not allocate nor lock: the start times are kept in a per-thread array, and the durations are
+ * recorded in nanoseconds in a LatencyHistogram for each key. Each thread also keeps its own totals, which are used
+ * to profile the generations of an island.
+ */
 public class Time {
 
     private static Time instance;
 
     public enum KeysCounter {
-        crossOver, selection, mutation, minimization, elitism, computeFitnessFunction, loadState, initialPopulation
+        crossOver, selection, mutation, minimization, elitism, computeFitnessFunction, loadState, initialPopulation,
+        evaluation, migration, statesSync
     }
 
+    private static final KeysCounter[] KEYS = KeysCounter.values();
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+
     static {
         instance = new Time();
     }
 
-    private Map<KeysCounter, AtomicBigInteger> key2counterTime;
-    private Map<Long, Map<KeysCounter, Long>> thread2startTime;
+    private final LatencyHistogram[] key2histogram;
+    private static final class ThreadTimes {
+        final long[] startTimes;
+        final long[] totalNanos;
+
+        ThreadTimes() {
+            startTimes = new long[KEYS.length];
+            Arrays.fill(startTimes, NOT_STARTED);
+            totalNanos = new long[KEYS.length];
+        }
+    }
+
+    private final ThreadLocal<ThreadTimes> thread2times;
 
 
     private Time() {
         super();
-        thread2startTime = new ConcurrentHashMap<>();
-        key2counterTime = new ConcurrentHashMap<>();
-        for (final KeysCounter key : KeysCounter.values()) {
-            key2counterTime.put(key, new AtomicBigInteger(new BigInteger("0")));
+        key2histogram = new LatencyHistogram[KEYS.length];
+        for (final KeysCounter key : KEYS) {
+            key2histogram[key.ordinal()] = new LatencyHistogram();
         }
+        thread2times = ThreadLocal.withInitial(ThreadTimes::new);
     }
 
     public static Time getInstance() {
         return instance;
     }
 
-    public Map<KeysCounter, AtomicBigInteger> getKey2counterTime() {
+    /**
+     * @return a snapshot of the total time in milliseconds for each key
+     */
+    public Map<KeysCounter, Long> getKey2counterTime() {
+        final Map<KeysCounter, Long> key2counterTime = new EnumMap<>(KeysCounter.class);
+        for (final KeysCounter key : KEYS) {
+            key2counterTime.put(key, get(key));
+        }
         return key2counterTime;
     }
 
+    public LatencyHistogram getHistogram(final KeysCounter key) {
+        return key2histogram[key.ordinal()];
+    }
+
     public void start(final KeysCounter key) {
-        thread2startTime.putIfAbsent(Thread.currentThread().getId(), new HashMap<>());
-        thread2startTime.get(Thread.currentThread().getId()).put(key, System.currentTimeMillis());
+        thread2times.get().startTimes[key.ordinal()] = System.nanoTime();
     }
 
     public void stop(final KeysCounter key) {
-        if (thread2startTime.containsKey(Thread.currentThread().getId())) {
-            if (thread2startTime.get(Thread.currentThread().getId()).containsKey(key)) {
-                key2counterTime.get(key).addValue(System.currentTimeMillis() - thread2startTime.get(Thread.currentThread().getId()).get(key));
-            }
+        final ThreadTimes times = thread2times.get();
+        final long startTime = times.startTimes[key.ordinal()];
+        if (startTime != NOT_STARTED) {
+            final long duration = System.nanoTime() - startTime;
+            times.totalNanos[key.ordinal()] += duration;
+            key2histogram[key.ordinal()].record(duration);
         }
     }
 
-    public AtomicBigInteger get(final KeysCounter key) {
-        if (key2counterTime.containsKey(key)) {
-            return key2counterTime.get(key);
-        }
-        return new AtomicBigInteger(BigInteger.ZERO);
+    /**
+     * @return the total time in nanoseconds spent by the current thread
+     */
+    public long getThreadNanos(final KeysCounter key) {
+        return thread2times.get().totalNanos[key.ordinal()];
+    }
+
+    /**
+     * @return the total time in milliseconds
+     */
+    public long get(final KeysCounter key) {
+        return TimeUnit.NANOSECONDS.toMillis(key2histogram[key.ordinal()].getSum());
     }
 
     public void print(final int iteration) {
-        System.out.println(key2counterTime);
+        System.out.println(getKey2counterTime());
         //FileUtils.overwriteTextOnFile(Config.GASSERT_HOME + /*"/subjects/" + subjectFolder + */  "/output/time-iter" + iteration + ".info", MyGson.getInstance().toJson((key2counterTime)));
     }
+
+    /**
+     * Write the count, total and percentiles in nanoseconds for each key as a JSON object
+     */
+    public void writeTimes(final JsonWriter writer) throws IOException {
+        writer.beginObject();
+        for (final KeysCounter key : KEYS) {
+            final LatencyHistogram histogram = key2histogram[key.ordinal()];
+            writer.name(key.name()).beginObject();
+            writer.name("count").value(histogram.getCount());
+            writer.name("totalNanos").value(histogram.getSum());
+            writer.name("p50Nanos").value(histogram.getPercentile(50));
+            writer.name("p90Nanos").value(histogram.getPercentile(90));
+            writer.name("p99Nanos").value(histogram.getPercentile(99));
+            writer.name("maxNanos").value(histogram.getMax());
+            writer.endObject();
+        }
+        writer.endObject();
+    }
 }
@@ -3,6 +3,7 @@ package ch.usi.gassert.data.manager;
 import ch.usi.gassert.Mode;
 import ch.usi.gassert.data.state.ITestExecution;
 import ch.usi.gassert.data.state.IVariablesManager;
+import ch.usi.gassert.data.state.StateTable;
 import ch.usi.gassert.data.state.updater.IStatesUpdater;
 import ch.usi.gassert.data.tree.ITree;
 import ch.usi.gassert.data.tree.template.TreeGroup;
@@ -37,6 +38,8 @@ public interface IDataManager {
     // Correct/Incorrect test executions
     List<ITestExecution> getCorrectTestExecutions();
     List<ITestExecution> getIncorrectTestExecutions();
+    StateTable getCorrectStates();
+    StateTable getIncorrectStates();
 
     // StatesUpdater
     IStatesUpdater getStatesUpdater();
@@ -0,0 +1,223 @@
+package ch.usi.gassert.data.manager.method;
+
+import org.mu.testcase.classification.Classification;
+import org.mu.testcase.classification.TestClassifications;
+
+import java.util.*;
+
+/**
+ * Every ordered pair of distinct tests of each system, split into correct pairs (both tests are correct) and
+ * incorrect pairs (at least one test is incorrect), without materializing them.
+ * <p>
+ * Pairs are addressed by a long index, so that they can be sampled directly instead of enumerating the
+ * cross product of the tests of each system.
+ */
+public class MetamorphicPairSpace {
+
+    private final List<SystemPairs> systems;
+    private final long correctSize;
+    private final long incorrectSize;
+
+    private static final class SystemPairs {
+        final String systemId;
+        // Correct tests
+        final String[] correct;
+        // Incorrect tests first, then all the others
+        final String[] tests;
+        final int incorrectCount;
+        final Map<String, Integer> correctIndex;
+        final Map<String, Integer> testIndex;
+        final long correctOffset;
+        final long incorrectOffset;
+
+        SystemPairs(final String systemId, final String[] correct, final String[] tests, final int incorrectCount,
+                    final long correctOffset, final long incorrectOffset) {
+            this.systemId = systemId;
+            this.correct = correct;
+            this.tests = tests;
+            this.incorrectCount = incorrectCount;
+            this.correctIndex = indexOf(correct);
+            this.testIndex = indexOf(tests);
+            this.correctOffset = correctOffset;
+            this.incorrectOffset = incorrectOffset;
+        }
+
+        long correctPairs() {
+            return (long) correct.length * (correct.length - 1);
+        }
+
+        long incorrectPairs() {
+            final long others = tests.length - incorrectCount;
+            return (long) incorrectCount * (tests.length - 1) + others * incorrectCount;
+        }
+
+        String[] correctPair(final long index) {
+            final int n = correct.length - 1;
+            final int first = (int) (index / n);
+            int second = (int) (index % n);
+            if (second >= first) {
+                ++second;
+            }
+            return new String[]{ systemId, correct[first], correct[second] };
+        }
+
+        String[] incorrectPair(final long index) {
+            final long firstIncorrect = (long) incorrectCount * (tests.length - 1);
+            if (index < firstIncorrect) {
+                // Incorrect test followed by any other test
+                final int n = tests.length - 1;
+                final int first = (int) (index / n);
+                int second = (int) (index % n);
+                if (second >= first) {
+                    ++second;
+                }
+                return new String[]{ systemId, tests[first], tests[second] };
+            }
+            // Test which is not incorrect followed by an incorrect test
+            final long rest = index - firstIncorrect;
+            final int first = incorrectCount + (int) (rest / incorrectCount);
+            final int second = (int) (rest % incorrectCount);
+            return new String[]{ systemId, tests[first], tests[second] };
+        }
+
+        long correctIndexOf(final String source, final String followup) {
+            final Integer first = correctIndex.get(source);
+            final Integer second = correctIndex.get(followup);
+            if (first == null || second == null || first.equals(second)) {
+                return -1;
+            }
+            return (long) first * (correct.length - 1) + (second > first ? second - 1 : second);
+        }
+
+        long incorrectIndexOf(final String source, final String followup) {
+            final Integer first = testIndex.get(source);
+            final Integer second = testIndex.get(followup);
+            if (first == null || second == null || first.equals(second)) {
+                return -1;
+            }
+            if (first < incorrectCount) {
+                return (long) first * (tests.length - 1) + (second > first ? second - 1 : second);
+            }
+            if (second < incorrectCount) {
+                return (long) incorrectCount * (tests.length - 1)
+                        + (long) (first - incorrectCount) * incorrectCount + second;
+            }
+            return -1;
+        }
+
+        private static Map<String, Integer> indexOf(final String[] array) {
+            final Map<String, Integer> index = new HashMap<>(array.length * 2);
+            for (int i = 0; i < array.length; ++i) {
+                index.put(array[i], i);
+            }
+            return index;
+        }
+    }
+
+    public MetamorphicPairSpace(final Map<String, TestClassifications> classifications) {
+        final int columnIndex = 0;
+        systems = new ArrayList<>(classifications.size());
+        long correctOffset = 0;
+        long incorrectOffset = 0;
+        for (final Map.Entry<String, TestClassifications> entry : classifications.entrySet()) {
+            final TestClassifications systemClassifications = entry.getValue();
+            final List<String> correct = new ArrayList<>(systemClassifications.rowIds.size());
+            final List<String> incorrect = new ArrayList<>(systemClassifications.rowIds.size());
+            final List<String> others = new ArrayList<>(systemClassifications.rowIds.size());
+            for (final String testId : systemClassifications.sortedRowIds()) {
+                final Classification classification = systemClassifications.get(
+                        systemClassifications.rowIds.get(testId), columnIndex);
+                if (classification == Classification.INCORRECT) {
+                    incorrect.add(testId);
+                } else {
+                    if (classification == Classification.CORRECT) {
+                        correct.add(testId);
+                    }
+                    others.add(testId);
+                }
+            }
+            final int incorrectCount = incorrect.size();
+            incorrect.addAll(others);
+            final SystemPairs system = new SystemPairs(entry.getKey(), correct.toArray(new String[0]),
+                    incorrect.toArray(new String[0]), incorrectCount, correctOffset, incorrectOffset);
+            systems.add(system);
+            correctOffset += system.correctPairs();
+            incorrectOffset += system.incorrectPairs();
+        }
+        correctSize = correctOffset;
+        incorrectSize = incorrectOffset;
+    }
+
+    public long correctSize() {
+        return correctSize;
+    }
+
+    public long incorrectSize() {
+        return incorrectSize;
+    }
+
+    /**
+     * @return { systemId, sourceTestId, followupTestId } of the correct pair with the given index
+     */
+    public String[] getCorrect(final long index) {
+        final SystemPairs system = find(index, true);
+        return system.correctPair(index - system.correctOffset);
+    }
+
+    /**
+     * @return { systemId, sourceTestId, followupTestId } of the incorrect pair with the given index
+     */
+    public String[] getIncorrect(final long index) {
+        final SystemPairs system = find(index, false);
+        return system.incorrectPair(index - system.incorrectOffset);
+    }
+
+    /**
+     * @return indices of the correct pairs of the given source and followup tests, in any system
+     */
+    public Set<Long> correctIndicesOf(final String source, final String followup) {
+        final Set<Long> indices = new HashSet<>();
+        for (final SystemPairs system : systems) {
+            final long index = system.correctIndexOf(source, followup);
+            if (index >= 0) {
+                indices.add(system.correctOffset + index);
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * @return indices of the incorrect pairs of the given source and followup tests, in any system
+     */
+    public Set<Long> incorrectIndicesOf(final String source, final String followup) {
+        final Set<Long> indices = new HashSet<>();
+        for (final SystemPairs system : systems) {
+            final long index = system.incorrectIndexOf(source, followup);
+            if (index >= 0) {
+                indices.add(system.incorrectOffset + index);
+            }
+        }
+        return indices;
+    }
+
+    private SystemPairs find(final long index, final boolean correct) {
+        if (index < 0 || index >= (correct ? correctSize : incorrectSize)) {
+            throw new IndexOutOfBoundsException("Pair index: " + index);
+        }
+        // Binary search for the last system starting at or before index
+        int low = 0;
+        int high = systems.size() - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            final SystemPairs system = systems.get(mid);
+            if ((correct ? system.correctOffset : system.incorrectOffset) <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        // Systems without pairs share the offset of the next one, so this is always a system with pairs
+        return systems.get(low);
+    }
+
+}
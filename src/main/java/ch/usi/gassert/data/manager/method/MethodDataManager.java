@@ -14,7 +14,9 @@ import ch.usi.gassert.data.tree.selector.*;
 import ch.usi.gassert.data.tree.template.TreeTemplate;
 import ch.usi.gassert.data.tree.builder.GeneratedTreeBuilder;
 import ch.usi.gassert.evaluator.BasicEvaluator;
+import ch.usi.gassert.evaluator.CompiledEvaluator;
 import ch.usi.gassert.evaluator.IEvaluator;
+import ch.usi.gassert.evaluator.VectorizedEvaluator;
 import ch.usi.gassert.evolutionary.TreeBehaviourManager;
 import ch.usi.gassert.evolutionary.BehaviourManager;
 import ch.usi.gassert.evolutionary.crossover.ICrossover;
@@ -47,6 +49,7 @@ import org.mu.util.streams.IStreamLoader;
 import org.mu.util.streams.StreamLoaderFactory;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -89,8 +92,12 @@ public abstract class MethodDataManager implements IDataManager {
     protected final IVariablesManager evaluationVariablesManager;
 
     /**
-     * Correct and Incorrect execution data
+     * Correct and Incorrect execution data, stored in columnar StateTables.
+     * The execution lists only hold the views of the StateTable rows.
      */
+    protected final StateSchema stateSchema;
+    protected final StateTable correctStates;
+    protected final StateTable incorrectStates;
     protected final List<ITestExecution> correctTestExecutions;
     protected final List<ITestExecution> incorrectTestExecutions;
 
@@ -122,13 +129,43 @@ public abstract class MethodDataManager implements IDataManager {
         }
     }
 
+    /**
+     * Load the given entry, decoding it directly if the source is a binary StateDataset
+     */
+    public static TestExecution loadTestExecution(final IStreamLoader statesDataSource, final String entry) {
+        if (!(statesDataSource instanceof StateDataset)) {
+            return loadTestExecution(statesDataSource.load(entry));
+        }
+        final TestExecution testExecution = ((StateDataset) statesDataSource).loadTestExecution(entry);
+        final boolean hasInvalidValue = testExecution.getVariables().getValues().values().stream()
+                .anyMatch(v -> v == null || ClassUtils.isErrorType(v.getClass()));
+        if (hasInvalidValue) {
+            throw new RuntimeException("TestExecution has an invalid value!");
+        }
+        return testExecution;
+    }
+
+    /**
+     * Same as TestExecution.fromJson on the given entry, without checking the values
+     */
+    public static TestExecution readTestExecution(final IStreamLoader statesDataSource, final String entry) {
+        if (statesDataSource instanceof StateDataset) {
+            return ((StateDataset) statesDataSource).loadTestExecution(entry);
+        }
+        try (final JsonReader reader = new JsonReader(statesDataSource.load(entry))) {
+            return TestExecution.fromJson(reader);
+        } catch (IOException e) {
+            throw new RuntimeException("Error loading TestExecution: " + entry, e);
+        }
+    }
+
     public static Map<String, Map<String, TestExecution>> loadAllTestExecutions(final IStreamLoader statesDataSource) {
         // Load inputs
         final Map<String, Map<String, TestExecution>> testExecutions = new HashMap<>();
         for (String entry : statesDataSource.entries()) {
             if (entry.endsWith(".state.json")) {
-                try (final JsonReader reader = new JsonReader(statesDataSource.load(entry))) {
-                    final TestExecution testExecution = TestExecution.fromJson(reader);
+                try {
+                    final TestExecution testExecution = readTestExecution(statesDataSource, entry);
                     final boolean hasInvalidValue = testExecution.getVariables().getValues().values().stream()
                             .anyMatch(v -> v == null || ClassUtils.isErrorType(v.getClass()));
 
@@ -163,12 +200,15 @@ public abstract class MethodDataManager implements IDataManager {
         final Map<String, TestClassifications> classifications = LoaderUtils.loadClassifications(classificationsDataSource);
         classificationsDataSource.close();
         // Init correct/incorrect executions
-        final IStreamLoader statesDataSource = StreamLoaderFactory.forPath(args[1]);
+        final IStreamLoader statesDataSource = StateDataset.forPath(args[1]);
         final Pair<List<ITestExecution>, List<ITestExecution>> correctIncorrectExecutions
                 = initCorrectIncorrectExecutions(dargs, classifications, statesDataSource);
         statesDataSource.close();
-        correctTestExecutions = correctIncorrectExecutions.fst;
-        incorrectTestExecutions = correctIncorrectExecutions.snd;
+        stateSchema = new StateSchema();
+        correctStates = new StateTable(stateSchema);
+        incorrectStates = new StateTable(stateSchema);
+        correctTestExecutions = correctStates.addAll(correctIncorrectExecutions.fst);
+        incorrectTestExecutions = incorrectStates.addAll(correctIncorrectExecutions.snd);
         // Init systemIds and testIds
         systemIds = classifications.keySet().stream().sorted().collect(Collectors.toList());
         testIds = Stream.concat(correctTestExecutions.stream(), incorrectTestExecutions.stream())
@@ -183,7 +223,8 @@ public abstract class MethodDataManager implements IDataManager {
                 .sorted()
                 .collect(Collectors.toList());
         // Init assertion evaluator
-        assertionEvaluator = new BasicEvaluator();
+        final IEvaluator rowEvaluator = Config.IS_COMPILED_EVALUATION_ENABLED ? new CompiledEvaluator() : new BasicEvaluator();
+        assertionEvaluator = Config.IS_VECTORIZED_EVALUATION_ENABLED ? new VectorizedEvaluator(rowEvaluator, Config.SUBTREE_CACHE_BYTES) : rowEvaluator;
         // Init variable types + inputs/outputs
         ITestExecution testExecution = correctTestExecutions.stream().findAny()
                 .orElse(incorrectTestExecutions.stream().findAny().orElse(null));
@@ -263,6 +304,16 @@ public abstract class MethodDataManager implements IDataManager {
         return incorrectTestExecutions;
     }
 
+    @Override
+    public StateTable getCorrectStates() {
+        return correctStates;
+    }
+
+    @Override
+    public StateTable getIncorrectStates() {
+        return incorrectStates;
+    }
+
     @Override
     public IStatesUpdater getStatesUpdater() {
         return this.statesUpdater;
@@ -270,7 +321,7 @@ public abstract class MethodDataManager implements IDataManager {
 
     @Override
     public void addCorrectStates(final List<ITestExecution> correctTestExecutions) {
-        this.correctTestExecutions.addAll(correctTestExecutions);
+        this.correctTestExecutions.addAll(correctStates.addAll(correctTestExecutions));
     }
 
     @Override
@@ -65,26 +65,56 @@ public abstract class MethodMetamorphicDataManager extends MethodDataManager {
             incorrectSelected = incorrect;
         }
         // Load sampled TestExecutions
-        final Cache<String, TestExecution> testExecutionsCache = new Cache<>(entry -> {
+        final Cache<String, TestExecution> testExecutionsCache = newTestExecutionsCache(statesDataSource);
+        return Pair.of(loadTestExecutionPairs(testExecutionsCache, correctSelected.iterator(), correctSelected.size()),
+                loadTestExecutionPairs(testExecutionsCache, incorrectSelected.iterator(), incorrectSelected.size()));
+    }
+
+    private static Cache<String, TestExecution> newTestExecutionsCache(final IStreamLoader statesDataSource) {
+        return new Cache<>(entry -> {
             try {
-                return loadTestExecution(statesDataSource.load(entry));
+                return loadTestExecution(statesDataSource, entry);
             } catch (Exception e) {
                 throw new RuntimeException("Error for entry: " + entry, e);
             }
         });
-        final List<ITestExecution> correctExecutions = new ArrayList<>(correctSelected.size() * 2);
-        for (final String[] id : correctSelected) {
+    }
+
+    /**
+     * @param ids { systemId, sourceTestId, followupTestId } of each pair
+     */
+    private static List<ITestExecution> loadTestExecutionPairs(final Cache<String, TestExecution> testExecutionsCache,
+                                                               final Iterator<String[]> ids, final int size) {
+        final List<ITestExecution> executions = new ArrayList<>(size);
+        while (ids.hasNext()) {
+            final String[] id = ids.next();
             final TestExecution source = testExecutionsCache.get(getTestExecutionEntry(id[0], id[1]));
             final TestExecution followup = testExecutionsCache.get(getTestExecutionEntry(id[0], id[2]));
-            correctExecutions.add(new TestExecutionPair(source, followup));
+            executions.add(new TestExecutionPair(source, followup));
         }
-        final List<ITestExecution> incorrectExecutions = new ArrayList<>(incorrectSelected.size() * 2);
-        for (final String[] id : incorrectSelected) {
-            final TestExecution source = testExecutionsCache.get(getTestExecutionEntry(id[0], id[1]));
-            final TestExecution followup = testExecutionsCache.get(getTestExecutionEntry(id[0], id[2]));
-            incorrectExecutions.add(new TestExecutionPair(source, followup));
+        return executions;
+    }
+
+    /**
+     * Sample the pair indices, keeping those of the mandatory pairs
+     *
+     * @return sorted indices, so that the pairs are loaded grouped by system
+     */
+    private static long[] samplePairIndices(final long size, final Integer maxExecutions, final Set<Long> mandatory) {
+        if (maxExecutions == null || size <= maxExecutions) {
+            if (size > Integer.MAX_VALUE) {
+                throw new RuntimeException("Too many metamorphic states to load: " + size);
+            }
+            final long[] indices = new long[(int) size];
+            for (int i = 0; i < indices.length; ++i) {
+                indices[i] = i;
+            }
+            return indices;
         }
-        return Pair.of(correctExecutions, incorrectExecutions);
+        final long[] indices = MyRandom.getInstance().getRandomLongIndices(size, maxExecutions, mandatory)
+                .stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(indices);
+        return indices;
     }
 
     public static Pair<List<ITestExecution>, List<ITestExecution>>
@@ -92,37 +122,28 @@ public abstract class MethodMetamorphicDataManager extends MethodDataManager {
                                                   List<MRInfo> mrinfosMandatory,
                                                   Map<String, TestClassifications> classifications,
                                                   IStreamLoader statesDataSource) {
-        final int size = classifications.size() * 32; // Assume 32 correct and 32 incorrect executions per systemId
-        final List<String[]> correct = new ArrayList<>(size);
-        final List<String[]> incorrect = new ArrayList<>(size);
-        // Enumerate all possible states
-        System.out.println("enumerate all states");
-        final int columnIndex = 0;
-        classifications.keySet().forEach(systemId -> {
-            final TestClassifications systemClassifications = classifications.get(systemId);
-            // Include every possible test pair combination (in both ways)
-            systemClassifications.rowIds.forEach((testId1, rowIndex1) -> {
-                systemClassifications.rowIds.forEach((testId2, rowIndex2) -> {
-                    if (!testId1.equals(testId2)) {
-                        final Classification cls1 = classifications.get(systemId).get(rowIndex1, columnIndex);
-                        final Classification cls2 = classifications.get(systemId).get(rowIndex2, columnIndex);
-                        if (cls1 == Classification.CORRECT && cls2 == Classification.CORRECT) {
-                            // A pair where both executions are correct is a correct sample
-                            correct.add(new String[]{ systemId, testId1, testId2 });
-                            correct.add(new String[]{ systemId, testId2, testId1 });
-                        } else if (cls1 == Classification.INCORRECT || cls2 == Classification.INCORRECT) {
-                            // A pair where at least one execution is incorrect is an incorrect sample
-                            incorrect.add(new String[]{ systemId, testId1, testId2 });
-                            incorrect.add(new String[]{ systemId, testId2, testId1 });
-                        }
-                    }
-                });
-            });
-        });
-        System.out.println("metamorphic states: correct=" + correct.size() + ", incorrect=" + incorrect.size());
-        System.out.println("call sampleAndLoadMetamorphicStates");
-        return sampleAndLoadMetamorphicStates(statesDataSource, correct, incorrect,
-                dargs.maxCorrectExecutions, dargs.maxIncorrectExecutions, mrinfosMandatory);
+        // Every possible test pair combination (in both ways), sampled by index without enumerating them.
+        // A pair where both executions are correct is a correct sample,
+        // and a pair where at least one execution is incorrect is an incorrect sample.
+        final MetamorphicPairSpace pairs = new MetamorphicPairSpace(classifications);
+        System.out.println("metamorphic states: correct=" + pairs.correctSize() + ", incorrect=" + pairs.incorrectSize());
+        final Set<Long> mandatoryCorrect = new HashSet<>();
+        final Set<Long> mandatoryIncorrect = new HashSet<>();
+        for (final MRInfo mrinfo : mrinfosMandatory) {
+            mandatoryCorrect.addAll(pairs.correctIndicesOf(mrinfo.source, mrinfo.followup));
+            mandatoryIncorrect.addAll(pairs.incorrectIndicesOf(mrinfo.source, mrinfo.followup));
+        }
+        final long[] correctSelected = samplePairIndices(pairs.correctSize(),
+                dargs.maxCorrectExecutions, mandatoryCorrect);
+        final long[] incorrectSelected = samplePairIndices(pairs.incorrectSize(),
+                dargs.maxIncorrectExecutions, mandatoryIncorrect);
+        // Load sampled TestExecutions
+        final Cache<String, TestExecution> testExecutionsCache = newTestExecutionsCache(statesDataSource);
+        return Pair.of(
+                loadTestExecutionPairs(testExecutionsCache,
+                        Arrays.stream(correctSelected).mapToObj(pairs::getCorrect).iterator(), correctSelected.length),
+                loadTestExecutionPairs(testExecutionsCache,
+                        Arrays.stream(incorrectSelected).mapToObj(pairs::getIncorrect).iterator(), incorrectSelected.length));
     }
 
     public static Pair<List<ITestExecution>, List<ITestExecution>>
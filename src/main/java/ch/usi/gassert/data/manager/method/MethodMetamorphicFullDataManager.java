@@ -17,8 +17,11 @@ import ch.usi.gassert.evolutionary.crossover.ICrossover;
 import ch.usi.gassert.evolutionary.crossover.SingleCrossover;
 import ch.usi.gassert.evolutionary.crossover.SwappingCrossover;
 import ch.usi.gassert.evolutionary.fitness.IValidator;
+import ch.usi.gassert.evolutionary.fitness.ImplicationEvaluator;
 import ch.usi.gassert.evolutionary.fitness.InputRelationSatisfactionValidator;
 import ch.usi.gassert.evolutionary.fitness.IsMetamorphicOutputRelationValidator;
+import ch.usi.gassert.evolutionary.fitness.NumberFNFitnessFunction;
+import ch.usi.gassert.evolutionary.fitness.NumberFPFitnessFunction;
 import ch.usi.gassert.util.Pair;
 import ch.usi.gassert.util.random.IRandomSelector;
 import ch.usi.gassert.util.random.WeightedMap;
@@ -107,8 +110,12 @@ public class MethodMetamorphicFullDataManager extends MethodMetamorphicDataManag
         // Set validator
         TreeTemplate irTemplate = treeTemplate.getLeft();
         TreeTemplate orTemplate = treeTemplate.getRight();
+        // The input relation is evaluated once for the validator and the fitness functions
+        final ImplicationEvaluator implicationEvaluator = new ImplicationEvaluator(treeTemplate, assertionEvaluator);
+        behaviourManager.setFitnessFP(new NumberFPFitnessFunction(this, implicationEvaluator));
+        behaviourManager.setFitnessFN(new NumberFNFitnessFunction(this, implicationEvaluator));
         IValidator irSatisfaction = new InputRelationSatisfactionValidator(irTemplate,
-                correctTestExecutions, assertionEvaluator,
+                correctStates, assertionEvaluator, implicationEvaluator,
                 Config.MR_INPUT_RELATION_SATISFACTION_THRESHOLD_MIN,
                 Config.MR_INPUT_RELATION_SATISFACTION_THRESHOLD_MAX);
         IValidator irComplexity =
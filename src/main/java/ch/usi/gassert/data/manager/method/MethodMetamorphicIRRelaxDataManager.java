@@ -21,9 +21,13 @@ import ch.usi.gassert.evolutionary.crossover.SwappingCrossover;
 import ch.usi.gassert.evolutionary.crossover.conjunctive.IConjunctiveCrossover;
 import ch.usi.gassert.evolutionary.crossover.conjunctive.SinglePointConjunctiveCrossover;
 import ch.usi.gassert.evolutionary.fitness.ConjunctiveClauseSelectedValidator;
+import ch.usi.gassert.evolutionary.fitness.ConjunctiveClausesBitmaps;
 import ch.usi.gassert.evolutionary.fitness.IValidator;
+import ch.usi.gassert.evolutionary.fitness.ImplicationEvaluator;
 import ch.usi.gassert.evolutionary.fitness.InputRelationSatisfactionValidator;
 import ch.usi.gassert.evolutionary.fitness.IsMetamorphicOutputRelationValidator;
+import ch.usi.gassert.evolutionary.fitness.NumberFNFitnessFunction;
+import ch.usi.gassert.evolutionary.fitness.NumberFPFitnessFunction;
 import ch.usi.gassert.evolutionary.mutation.conjunctive.ClauseSelectionConjunctiveMutation;
 import ch.usi.gassert.evolutionary.mutation.conjunctive.IConjunctiveMutation;
 import ch.usi.gassert.evolutionary.mutation.conjunctive.RelaxOperatorConjunctiveMutation;
@@ -124,8 +128,15 @@ public class MethodMetamorphicIRRelaxDataManager extends MethodMetamorphicDataMa
         TreeTemplate irTemplate = treeTemplate.getLeft();
         TreeTemplate orTemplate = treeTemplate.getRight();
 
+        // The clauses of the input relation are evaluated once for every state, and then only combined
+        final ConjunctiveClausesTreeBuilder irBuilder = (ConjunctiveClausesTreeBuilder) irTemplate.getTreeBuilder();
+        final ImplicationEvaluator implicationEvaluator = new ImplicationEvaluator(treeTemplate, assertionEvaluator)
+                .addClauseBitmaps(new ConjunctiveClausesBitmaps(correctStates, assertionEvaluator, irBuilder.originalClauses))
+                .addClauseBitmaps(new ConjunctiveClausesBitmaps(incorrectStates, assertionEvaluator, irBuilder.originalClauses));
+        behaviourManager.setFitnessFP(new NumberFPFitnessFunction(this, implicationEvaluator));
+        behaviourManager.setFitnessFN(new NumberFNFitnessFunction(this, implicationEvaluator));
         IValidator irSatisfaction = new InputRelationSatisfactionValidator(irTemplate,
-                correctTestExecutions, assertionEvaluator,
+                correctStates, assertionEvaluator, implicationEvaluator,
                 0.0,
                 Config.MR_INPUT_RELATION_SATISFACTION_THRESHOLD_MAX);
         IValidator irComplexity = new ConjunctiveClauseSelectedValidator(irTemplate);
@@ -59,7 +59,7 @@ public class MethodRegularDataManager extends MethodDataManager {
         // Load sampled TestExecutions
         final Cache<String, TestExecution> testExecutionsCache = new Cache<>(entry -> {
             try {
-                return loadTestExecution(statesDataSource.load(entry));
+                return loadTestExecution(statesDataSource, entry);
             } catch (Exception e) {
                 throw new RuntimeException("Error for entry: " + entry, e);
             }
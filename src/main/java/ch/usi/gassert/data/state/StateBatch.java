@@ -0,0 +1,41 @@
+package ch.usi.gassert.data.state;
+
+/**
+ * A range of rows [from, to) of a StateTable, evaluated together
+ */
+public class StateBatch {
+
+    private final StateTable table;
+    private final int from;
+    private final int to;
+
+    public StateBatch(final StateTable table, final int from, final int to) {
+        if (from < 0 || from > to || to > table.size()) {
+            throw new IndexOutOfBoundsException("Invalid StateBatch [" + from + ", " + to + ") for size " + table.size());
+        }
+        this.table = table;
+        this.from = from;
+        this.to = to;
+    }
+
+    public StateTable getTable() {
+        return table;
+    }
+
+    public int getFrom() {
+        return from;
+    }
+
+    public int getTo() {
+        return to;
+    }
+
+    public int size() {
+        return to - from;
+    }
+
+    public boolean isEmpty() {
+        return from == to;
+    }
+
+}
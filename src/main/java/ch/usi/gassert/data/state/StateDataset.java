@@ -0,0 +1,479 @@
+package ch.usi.gassert.data.state;
+
+import ch.usi.gassert.Config;
+import ch.usi.gassert.data.types.ErrorValue;
+import ch.usi.gassert.data.types.Sequence;
+import ch.usi.gassert.util.ClassUtils;
+import ch.usi.gassert.util.OpaqueObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.mu.util.streams.IStreamLoader;
+import org.mu.util.streams.StreamLoaderFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Binary, columnar version of a states dataset (the *.state.json entries of a directory or zip file).
+ * <p>
+ * The file is memory-mapped and only the header is read when opened, the TestExecutions are decoded on demand,
+ * so loading a sample of the states does not read the whole dataset.
+ * <p>
+ * Layout: a header with the dictionary of strings (entry names, system and test IDs, variable names), the IDs of
+ * each row and the descriptors of the columns, followed by the columns and a blob. Each column has one tag byte
+ * per row, the numbers of all the rows if it has any, and the offsets into the blob of the sequences and errors.
+ * <p>
+ * The dataset is produced once with main (or write), and used instead of the original states if it is found
+ * next to them (see forPath).
+ */
+public class StateDataset implements IStreamLoader {
+
+    public static final String EXTENSION = ".gstates";
+
+    private static final long MAGIC = 0x4741535354415445L; // "GASSTATE"
+    private static final int VERSION = 1;
+
+    // Value tags
+    private static final byte ABSENT = 0;
+    private static final byte NULL = 1;
+    private static final byte FALSE = 2;
+    private static final byte TRUE = 3;
+    private static final byte NUMBER = 4;
+    private static final byte OPAQUE = 5;
+    private static final byte BLOB = 6;
+    // Blob value tags, also used for the sequence items along with the above
+    private static final byte STRING_SEQUENCE = 7;
+    private static final byte ARRAY_SEQUENCE = 8;
+    private static final byte LIST_SEQUENCE = 9;
+    private static final byte ERROR = 10;
+
+    // Column flags
+    private static final byte HAS_NUMBERS = 1;
+    private static final byte HAS_BLOB = 2;
+
+    private final ByteBuffer data;
+    private final int rows;
+    private final String[] entryNames;
+    private final String[] systemIds;
+    private final String[] testIds;
+    private final Map<String, Integer> entryToRow;
+    private final Column[] columns;
+    private final int blobOffset;
+
+    private static final class Column {
+        final String name;
+        final boolean isInput;
+        final byte flags;
+        final int offset;
+
+        Column(final String name, final boolean isInput, final byte flags, final int offset) {
+            this.name = name;
+            this.isInput = isInput;
+            this.flags = flags;
+            this.offset = offset;
+        }
+    }
+
+    private StateDataset(final ByteBuffer buffer) {
+        if (buffer.getLong() != MAGIC) {
+            throw new RuntimeException("Not a states dataset");
+        }
+        final int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new RuntimeException("Unsupported states dataset version: " + version);
+        }
+        final String[] strings = new String[buffer.getInt()];
+        for (int i = 0; i < strings.length; ++i) {
+            strings[i] = readString(buffer);
+        }
+        rows = buffer.getInt();
+        entryNames = new String[rows];
+        systemIds = new String[rows];
+        testIds = new String[rows];
+        entryToRow = new HashMap<>(rows * 2);
+        for (int row = 0; row < rows; ++row) {
+            entryNames[row] = strings[buffer.getInt()];
+            systemIds[row] = strings[buffer.getInt()];
+            testIds[row] = strings[buffer.getInt()];
+            entryToRow.put(entryNames[row], row);
+        }
+        columns = new Column[buffer.getInt()];
+        for (int i = 0; i < columns.length; ++i) {
+            columns[i] = new Column(strings[buffer.getInt()], buffer.get() != 0, buffer.get(), buffer.getInt());
+        }
+        blobOffset = buffer.getInt();
+        // Offsets are relative to the end of the header
+        data = buffer.slice();
+    }
+
+    /**
+     * Memory-map the given states dataset
+     */
+    public static StateDataset open(final File file) {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new RuntimeException("States dataset too large: " + file);
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new StateDataset(buffer);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not load states dataset: " + file, e);
+        }
+    }
+
+    /**
+     * @return the binary states dataset for the given path if it exists and is up to date,
+     * otherwise the StreamLoaderFactory loader for the path
+     */
+    public static IStreamLoader forPath(final String path) {
+        final File file = new File(path).getAbsoluteFile();
+        if (file.getName().endsWith(EXTENSION)) {
+            return open(file);
+        }
+        final File binary = binaryFileFor(file);
+        if (Config.IS_BINARY_STATES_ENABLED && binary.isFile() && binary.lastModified() >= lastModified(file)) {
+            return open(binary);
+        }
+        return StreamLoaderFactory.forPath(path);
+    }
+
+    /**
+     * @return the last modification time of the file, or of the newest file of the directory: editing a file
+     * does not change the modification time of its directory
+     */
+    private static long lastModified(final File file) {
+        long lastModified = file.lastModified();
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                lastModified = Math.max(lastModified, child.lastModified());
+            }
+        }
+        return lastModified;
+    }
+
+    public static File binaryFileFor(final File statesPath) {
+        final File file = statesPath.getAbsoluteFile();
+        return new File(file.getParentFile(), file.getName() + EXTENSION);
+    }
+
+    public int size() {
+        return rows;
+    }
+
+    @Override
+    public List<String> entries() {
+        return Collections.unmodifiableList(Arrays.asList(entryNames));
+    }
+
+    /**
+     * Same as TestExecution.fromJson on the entry, for compatibility with the loaders of JSON entries
+     */
+    @Override
+    public BufferedReader load(final String name) {
+        final StringWriter json = new StringWriter();
+        try (final JsonWriter writer = new JsonWriter(json)) {
+            loadTestExecution(name).toJson(writer);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not load entry: " + name, e);
+        }
+        return new BufferedReader(new StringReader(json.toString()));
+    }
+
+    public boolean contains(final String entry) {
+        return entryToRow.containsKey(entry);
+    }
+
+    /**
+     * Decode the TestExecution of the given entry, without going through JSON
+     */
+    public TestExecution loadTestExecution(final String entry) {
+        final Integer row = entryToRow.get(entry);
+        if (row == null) {
+            throw new RuntimeException("Entry not found: " + entry);
+        }
+        return loadTestExecution(row);
+    }
+
+    public TestExecution loadTestExecution(final int row) {
+        final Variables variables = new Variables();
+        for (final Column column : columns) {
+            final byte tag = data.get(column.offset + row);
+            if (tag != ABSENT) {
+                variables.add(column.name, readValue(column, row, tag), column.isInput);
+            }
+        }
+        return new TestExecution(systemIds[row], testIds[row], variables);
+    }
+
+    @Override
+    public void close() {}
+
+    private Object readValue(final Column column, final int row, final byte tag) {
+        switch (tag) {
+            case NULL:
+                return null;
+            case FALSE:
+                return false;
+            case TRUE:
+                return true;
+            case NUMBER:
+                return data.getDouble(column.offset + rows + row * Double.BYTES);
+            case OPAQUE:
+                return OpaqueObject.get();
+            case BLOB: {
+                final int numbers = (column.flags & HAS_NUMBERS) != 0 ? rows * Double.BYTES : 0;
+                final int offset = data.getInt(column.offset + rows + numbers + row * Integer.BYTES);
+                final ByteBuffer blob = data.duplicate();
+                blob.position(blobOffset + offset);
+                return readBlobValue(blob);
+            }
+            default:
+                throw new RuntimeException("Invalid value tag: " + tag);
+        }
+    }
+
+    private static Object readBlobValue(final ByteBuffer blob) {
+        final byte tag = blob.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case FALSE:
+                return false;
+            case TRUE:
+                return true;
+            case NUMBER:
+                return blob.getDouble();
+            case OPAQUE:
+                return OpaqueObject.get();
+            case STRING_SEQUENCE:
+                return new Sequence.StringSequence(readString(blob));
+            case ARRAY_SEQUENCE:
+            case LIST_SEQUENCE: {
+                final int length = blob.getInt();
+                final List<Object> items = new ArrayList<>(length);
+                for (int i = 0; i < length; ++i) {
+                    items.add(readBlobValue(blob));
+                }
+                return tag == ARRAY_SEQUENCE
+                        ? new Sequence.ArraySequence(items.toArray())
+                        : new Sequence.ListSequence(items);
+            }
+            case ERROR:
+                return new ErrorValue(readString(blob));
+            default:
+                throw new RuntimeException("Invalid value tag: " + tag);
+        }
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Convert all the *.state.json entries of the given source into a states dataset
+     */
+    public static void write(final IStreamLoader source, final File target) {
+        // Load all the entries
+        final List<String> entries = new ArrayList<>();
+        final List<TestExecution> testExecutions = new ArrayList<>();
+        for (final String entry : source.entries()) {
+            if (entry.endsWith(".state.json")) {
+                try (final JsonReader reader = new JsonReader(source.load(entry))) {
+                    testExecutions.add(TestExecution.fromJson(reader));
+                    entries.add(entry);
+                } catch (Exception e) {
+                    throw new RuntimeException("Error loading states entry: " + entry, e);
+                }
+            }
+        }
+        final int rows = testExecutions.size();
+        // Dictionary of strings and columns
+        final Map<String, Integer> strings = new LinkedHashMap<>();
+        final Map<String, Integer> columnIndexes = new LinkedHashMap<>();
+        final List<Boolean> columnInputs = new ArrayList<>();
+        for (int row = 0; row < rows; ++row) {
+            final TestExecution testExecution = testExecutions.get(row);
+            strings.putIfAbsent(entries.get(row), strings.size());
+            strings.putIfAbsent(testExecution.getSystemId(), strings.size());
+            strings.putIfAbsent(testExecution.getTestId(), strings.size());
+            final Variables variables = testExecution.getVariables();
+            for (final String name : variables.getNames()) {
+                final boolean isInput = variables.getInputs().contains(name);
+                if (!columnIndexes.containsKey(columnKey(name, isInput))) {
+                    columnIndexes.put(columnKey(name, isInput), columnIndexes.size());
+                    columnInputs.add(isInput);
+                    strings.putIfAbsent(name, strings.size());
+                }
+            }
+        }
+        // Encode the values
+        final byte[][] tags = new byte[columnIndexes.size()][rows];
+        final double[][] numbers = new double[columnIndexes.size()][];
+        final int[][] blobOffsets = new int[columnIndexes.size()][];
+        final ByteArrayOutputStream blobBytes = new ByteArrayOutputStream();
+        final DataOutputStream blob = new DataOutputStream(blobBytes);
+        try {
+            for (int row = 0; row < rows; ++row) {
+                final Variables variables = testExecutions.get(row).getVariables();
+                for (final String name : variables.getNames()) {
+                    final int column = columnIndexes.get(columnKey(name, variables.getInputs().contains(name)));
+                    final Object value = variables.get(name);
+                    final byte tag = valueTag(value);
+                    tags[column][row] = tag;
+                    if (tag == NUMBER) {
+                        if (numbers[column] == null) {
+                            numbers[column] = new double[rows];
+                        }
+                        numbers[column][row] = ClassUtils.numericAsDouble(value);
+                    } else if (tag == BLOB) {
+                        if (blobOffsets[column] == null) {
+                            blobOffsets[column] = new int[rows];
+                        }
+                        blobOffsets[column][row] = blob.size();
+                        writeBlobValue(blob, value);
+                    }
+                }
+            }
+            blob.flush();
+            // Write the file
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target)))) {
+                out.writeLong(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(strings.size());
+                for (final String string : strings.keySet()) {
+                    writeString(out, string);
+                }
+                out.writeInt(rows);
+                for (int row = 0; row < rows; ++row) {
+                    final TestExecution testExecution = testExecutions.get(row);
+                    out.writeInt(strings.get(entries.get(row)));
+                    out.writeInt(strings.get(testExecution.getSystemId()));
+                    out.writeInt(strings.get(testExecution.getTestId()));
+                }
+                out.writeInt(columnIndexes.size());
+                long offset = 0;
+                for (final Map.Entry<String, Integer> column : columnIndexes.entrySet()) {
+                    final int index = column.getValue();
+                    final byte flags = (byte) ((numbers[index] != null ? HAS_NUMBERS : 0)
+                            | (blobOffsets[index] != null ? HAS_BLOB : 0));
+                    out.writeInt(strings.get(column.getKey().substring(1)));
+                    out.writeByte(columnInputs.get(index) ? 1 : 0);
+                    out.writeByte(flags);
+                    out.writeInt(checkedOffset(offset));
+                    offset += rows
+                            + (numbers[index] != null ? (long) rows * Double.BYTES : 0)
+                            + (blobOffsets[index] != null ? (long) rows * Integer.BYTES : 0);
+                }
+                out.writeInt(checkedOffset(offset));
+                checkedOffset(offset + blob.size());
+                for (int index = 0; index < columnIndexes.size(); ++index) {
+                    out.write(tags[index]);
+                    if (numbers[index] != null) {
+                        for (final double number : numbers[index]) {
+                            out.writeDouble(number);
+                        }
+                    }
+                    if (blobOffsets[index] != null) {
+                        for (final int blobOffset : blobOffsets[index]) {
+                            out.writeInt(blobOffset);
+                        }
+                    }
+                }
+                blobBytes.writeTo(out);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing states dataset: " + target, e);
+        }
+    }
+
+    private static String columnKey(final String name, final boolean isInput) {
+        return (isInput ? "i" : "o") + name;
+    }
+
+    private static int checkedOffset(final long offset) {
+        if (offset > Integer.MAX_VALUE) {
+            throw new RuntimeException("States dataset too large");
+        }
+        return (int) offset;
+    }
+
+    /**
+     * Same classification of the values as Variables.toJson
+     */
+    private static byte valueTag(final Object value) {
+        if (value == null) {
+            return NULL;
+        }
+        final Class<?> clazz = value.getClass();
+        if (ClassUtils.isBooleanType(clazz)) {
+            return ClassUtils.booleanAsBoolean(value) ? TRUE : FALSE;
+        } else if (ClassUtils.isNumericType(clazz)) {
+            return NUMBER;
+        } else if (ClassUtils.isSequenceType(clazz) || ClassUtils.isErrorType(clazz)) {
+            return BLOB;
+        }
+        return OPAQUE;
+    }
+
+    private static void writeBlobValue(final DataOutputStream out, final Object value) throws IOException {
+        final byte tag = valueTag(value);
+        if (tag == NUMBER) {
+            out.writeByte(NUMBER);
+            out.writeDouble(ClassUtils.numericAsDouble(value));
+        } else if (tag != BLOB) {
+            out.writeByte(tag);
+        } else if (ClassUtils.isErrorType(value.getClass())) {
+            out.writeByte(ERROR);
+            writeString(out, ClassUtils.errorAsError(value).type);
+        } else {
+            final Sequence sequence = ClassUtils.sequenceAsSequence(value);
+            switch (sequence.getType()) {
+                case "string":
+                    out.writeByte(STRING_SEQUENCE);
+                    writeString(out, sequence.getValue().toString());
+                    break;
+                case "array":
+                case "list": {
+                    out.writeByte(sequence.getType().equals("array") ? ARRAY_SEQUENCE : LIST_SEQUENCE);
+                    out.writeInt(sequence.length());
+                    final Iterator<?> items = sequence.items().iterator();
+                    while (items.hasNext()) {
+                        writeBlobValue(out, items.next());
+                    }
+                    break;
+                }
+                default:
+                    throw new RuntimeException("Unsupported sequence type: " + sequence.getType());
+            }
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String string) throws IOException {
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Wrong number of parameters: 1 or 2 arguments expected, got " + args.length);
+            System.err.println("States directory or zip file");
+            System.err.println("[Output file, defaults to the states path + " + EXTENSION + "]");
+            System.exit(1);
+        }
+        final File target = args.length > 1 ? new File(args[1]) : binaryFileFor(new File(args[0]));
+        final IStreamLoader source = StreamLoaderFactory.forPath(args[0]);
+        write(source, target);
+        source.close();
+        System.out.println("Written " + target);
+    }
+
+}
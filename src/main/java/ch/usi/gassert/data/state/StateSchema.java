@@ -0,0 +1,57 @@
+package ch.usi.gassert.data.state;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Column indexes for the variables stored in StateTables.
+ * <p>
+ * Columns are only ever appended, so a column index never changes once assigned.
+ */
+public class StateSchema {
+
+    private final Map<String, Integer> indexes = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[0];
+    private volatile boolean[] inputs = new boolean[0];
+
+    /**
+     * @return the column index of the given variable, or -1 if there is no such column
+     */
+    public int indexOf(final String name) {
+        final Integer index = indexes.get(name);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @return the column index of the given variable, adding a new column if needed
+     */
+    public synchronized int add(final String name, final boolean isInput) {
+        final Integer index = indexes.get(name);
+        if (index != null) {
+            return index;
+        }
+        final int newIndex = names.length;
+        final String[] newNames = Arrays.copyOf(names, newIndex + 1);
+        final boolean[] newInputs = Arrays.copyOf(inputs, newIndex + 1);
+        newNames[newIndex] = name;
+        newInputs[newIndex] = isInput;
+        inputs = newInputs;
+        names = newNames;
+        indexes.put(name, newIndex);
+        return newIndex;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String getName(final int index) {
+        return names[index];
+    }
+
+    public boolean isInput(final int index) {
+        return inputs[index];
+    }
+
+}
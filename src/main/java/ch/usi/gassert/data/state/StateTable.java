@@ -0,0 +1,451 @@
+package ch.usi.gassert.data.state;
+
+import ch.usi.gassert.data.types.Sequence;
+
+import java.util.*;
+
+/**
+ * Columnar store for the variable values of many test executions.
+ * <p>
+ * Each variable has its own column: a double[] for numbers, a BitSet for booleans and a Sequence[] for sequences.
+ * Any other value, or a variable with values of different kinds, is stored in an Object[].
+ * Columns are addressed by the index given by the StateSchema, which can be shared by several tables.
+ * <p>
+ * Rows are appended from the evolution thread only, while no evaluation is running.
+ */
+public class StateTable {
+
+    public enum Kind {
+        NUMBER, BOOLEAN, SEQUENCE, OBJECT
+    }
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final StateSchema schema;
+    private Column[] columns;
+    private String[] systemIds;
+    private String[] testIds;
+    private int capacity;
+    private int size;
+
+    public StateTable(final StateSchema schema) {
+        this.schema = schema;
+        this.columns = new Column[0];
+        this.capacity = INITIAL_CAPACITY;
+        this.systemIds = new String[capacity];
+        this.testIds = new String[capacity];
+        this.size = 0;
+    }
+
+    public StateSchema getSchema() {
+        return schema;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Append the variable values of the given test execution
+     *
+     * @return the view of the new row
+     */
+    public synchronized Row add(final ITestExecution testExecution) {
+        final Variables variables = testExecution.getVariables();
+        final Set<String> inputs = variables.getInputs();
+        if (size == capacity) {
+            grow();
+        }
+        final int row = size;
+        for (final Map.Entry<String, Object> variable : variables.getValues().entrySet()) {
+            final int index = schema.add(variable.getKey(), inputs.contains(variable.getKey()));
+            column(index).set(row, variable.getValue());
+        }
+        systemIds[row] = testExecution.getSystemId();
+        testIds[row] = testExecution.getTestId();
+        size = row + 1;
+        return new Row(row);
+    }
+
+    /**
+     * Append the variable values of the given test executions
+     *
+     * @return the views of the new rows
+     */
+    public synchronized List<ITestExecution> addAll(final Collection<? extends ITestExecution> testExecutions) {
+        final List<ITestExecution> rows = new ArrayList<>(testExecutions.size());
+        for (final ITestExecution testExecution : testExecutions) {
+            rows.add(add(testExecution));
+        }
+        return rows;
+    }
+
+    /**
+     * @return the views of all the rows
+     */
+    public List<ITestExecution> rows() {
+        final List<ITestExecution> rows = new ArrayList<>(size);
+        for (int row = 0; row < size; ++row) {
+            rows.add(new Row(row));
+        }
+        return rows;
+    }
+
+    /**
+     * @return all the rows from the given one, as a StateBatch
+     */
+    public StateBatch batch(final int from) {
+        return new StateBatch(this, from, size);
+    }
+
+    public Kind getKind(final int column) {
+        return column >= 0 && column < columns.length && columns[column] != null ? columns[column].kind : null;
+    }
+
+    public boolean isPresent(final int column, final int row) {
+        return column >= 0 && column < columns.length && columns[column] != null && columns[column].present.get(row);
+    }
+
+    /**
+     * Same as TreeEval.num on the boxed value
+     */
+    public double getNumber(final int column, final int row) {
+        final Column c = present(column, row);
+        switch (c.kind) {
+            case NUMBER:
+                return c.numbers[row];
+            case OBJECT:
+                return ((Number) c.objects[row]).doubleValue();
+            default:
+                throw new ClassCastException("Column " + schema.getName(column) + " is not a number");
+        }
+    }
+
+    /**
+     * Same as TreeEval.bool on the boxed value
+     */
+    public boolean getBoolean(final int column, final int row) {
+        final Column c = present(column, row);
+        switch (c.kind) {
+            case BOOLEAN:
+                return c.booleans.get(row);
+            case OBJECT:
+                return (Boolean) c.objects[row];
+            default:
+                throw new ClassCastException("Column " + schema.getName(column) + " is not a boolean");
+        }
+    }
+
+    /**
+     * Same as TreeEval.seq on the boxed value
+     */
+    public Sequence getSequence(final int column, final int row) {
+        final Column c = present(column, row);
+        switch (c.kind) {
+            case SEQUENCE:
+                return c.sequences[row];
+            case OBJECT:
+                return (Sequence) c.objects[row];
+            default:
+                throw new ClassCastException("Column " + schema.getName(column) + " is not a sequence");
+        }
+    }
+
+    /**
+     * Backing arrays of the columns, for the evaluators working on whole columns.
+     * They must not be modified, and their length can be larger than the size of the table.
+     */
+    public BitSet getPresentColumn(final int column) {
+        return columns[column].present;
+    }
+
+    public double[] getNumberColumn(final int column) {
+        return columns[column].numbers;
+    }
+
+    public BitSet getBooleanColumn(final int column) {
+        return columns[column].booleans;
+    }
+
+    public Sequence[] getSequenceColumn(final int column) {
+        return columns[column].sequences;
+    }
+
+    /**
+     * @return the boxed value, or null if missing
+     */
+    public Object get(final int column, final int row) {
+        if (!isPresent(column, row)) {
+            return null;
+        }
+        final Column c = columns[column];
+        switch (c.kind) {
+            case NUMBER:
+                return c.numbers[row];
+            case BOOLEAN:
+                return c.booleans.get(row);
+            case SEQUENCE:
+                return c.sequences[row];
+            default:
+                return c.objects[row];
+        }
+    }
+
+    public Object get(final String name, final int row) {
+        return get(schema.indexOf(name), row);
+    }
+
+    /**
+     * @return read-only view of the variable values of the given row
+     */
+    public Map<String, Object> getValues(final int row) {
+        return new RowValues(row);
+    }
+
+    private Column present(final int column, final int row) {
+        if (!isPresent(column, row)) {
+            throw new NoSuchElementException("Missing value for column " + column + " at row " + row);
+        }
+        return columns[column];
+    }
+
+    private Column column(final int index) {
+        if (index >= columns.length) {
+            columns = Arrays.copyOf(columns, schema.size());
+        }
+        if (columns[index] == null) {
+            columns[index] = new Column(capacity);
+        }
+        return columns[index];
+    }
+
+    private void grow() {
+        capacity = capacity * 2;
+        systemIds = Arrays.copyOf(systemIds, capacity);
+        testIds = Arrays.copyOf(testIds, capacity);
+        for (final Column c : columns) {
+            if (c != null) {
+                c.grow(capacity);
+            }
+        }
+    }
+
+    private static Kind kindOf(final Object value) {
+        if (value instanceof Number) {
+            return Kind.NUMBER;
+        } else if (value instanceof Boolean) {
+            return Kind.BOOLEAN;
+        } else if (value instanceof Sequence) {
+            return Kind.SEQUENCE;
+        }
+        return Kind.OBJECT;
+    }
+
+    /**
+     * Values of a single variable, only one of the arrays is used depending on the kind
+     */
+    private static final class Column {
+
+        Kind kind;
+        double[] numbers;
+        BitSet booleans;
+        Sequence[] sequences;
+        Object[] objects;
+        final BitSet present;
+        int capacity;
+
+        Column(final int capacity) {
+            this.kind = null;
+            this.present = new BitSet();
+            this.capacity = capacity;
+        }
+
+        void set(final int row, final Object value) {
+            if (value == null) {
+                return;
+            }
+            final Kind valueKind = kindOf(value);
+            if (kind == null) {
+                allocate(valueKind);
+            } else if (kind != valueKind && kind != Kind.OBJECT) {
+                toObjects();
+            }
+            switch (kind) {
+                case NUMBER:
+                    numbers[row] = ((Number) value).doubleValue();
+                    break;
+                case BOOLEAN:
+                    booleans.set(row, (Boolean) value);
+                    break;
+                case SEQUENCE:
+                    sequences[row] = (Sequence) value;
+                    break;
+                default:
+                    objects[row] = value;
+                    break;
+            }
+            present.set(row);
+        }
+
+        void allocate(final Kind kind) {
+            this.kind = kind;
+            switch (kind) {
+                case NUMBER:
+                    numbers = new double[capacity];
+                    break;
+                case BOOLEAN:
+                    booleans = new BitSet(capacity);
+                    break;
+                case SEQUENCE:
+                    sequences = new Sequence[capacity];
+                    break;
+                default:
+                    objects = new Object[capacity];
+                    break;
+            }
+        }
+
+        /**
+         * Mixed kinds: box all the values stored so far
+         */
+        void toObjects() {
+            final Object[] boxed = new Object[capacity];
+            for (int row = present.nextSetBit(0); row >= 0; row = present.nextSetBit(row + 1)) {
+                switch (kind) {
+                    case NUMBER:
+                        boxed[row] = numbers[row];
+                        break;
+                    case BOOLEAN:
+                        boxed[row] = booleans.get(row);
+                        break;
+                    case SEQUENCE:
+                        boxed[row] = sequences[row];
+                        break;
+                }
+            }
+            numbers = null;
+            booleans = null;
+            sequences = null;
+            objects = boxed;
+            kind = Kind.OBJECT;
+        }
+
+        void grow(final int newCapacity) {
+            capacity = newCapacity;
+            if (numbers != null) {
+                numbers = Arrays.copyOf(numbers, newCapacity);
+            }
+            if (sequences != null) {
+                sequences = Arrays.copyOf(sequences, newCapacity);
+            }
+            if (objects != null) {
+                objects = Arrays.copyOf(objects, newCapacity);
+            }
+        }
+
+    }
+
+    /**
+     * Read-only Map view of a row, for the evaluators working on name2value maps
+     */
+    private final class RowValues extends AbstractMap<String, Object> {
+
+        private final int row;
+
+        RowValues(final int row) {
+            this.row = row;
+        }
+
+        @Override
+        public Object get(final Object key) {
+            return key instanceof String ? StateTable.this.get((String) key, row) : null;
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return key instanceof String && isPresent(schema.indexOf((String) key), row);
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            final Set<Entry<String, Object>> entries = new LinkedHashSet<>();
+            for (int column = 0; column < columns.length; ++column) {
+                if (isPresent(column, row)) {
+                    entries.add(new SimpleImmutableEntry<>(schema.getName(column), StateTable.this.get(column, row)));
+                }
+            }
+            return entries;
+        }
+
+    }
+
+    /**
+     * View of a row as an ITestExecution, the Variables are rebuilt on each call
+     */
+    public final class Row implements ITestExecution {
+
+        private final int row;
+
+        private Row(final int row) {
+            this.row = row;
+        }
+
+        public StateTable getTable() {
+            return StateTable.this;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        @Override
+        public String getSystemId() {
+            return systemIds[row];
+        }
+
+        @Override
+        public String getTestId() {
+            return testIds[row];
+        }
+
+        @Override
+        public Variables getVariables() {
+            final Map<String, Object> values = new HashMap<>();
+            final Set<String> inputs = new HashSet<>();
+            final Set<String> outputs = new HashSet<>();
+            for (int column = 0; column < columns.length; ++column) {
+                if (isPresent(column, row)) {
+                    final String name = schema.getName(column);
+                    values.put(name, get(column, row));
+                    (schema.isInput(column) ? inputs : outputs).add(name);
+                }
+            }
+            return new Variables(values, inputs, outputs);
+        }
+
+        @Override
+        public String toString() {
+            return "TestExecution { versionId: \"" + getSystemId() + "\", testId: \"" + getTestId() + "\" }";
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Row)) return false;
+            final Row that = (Row) o;
+            return Objects.equals(getSystemId(), that.getSystemId()) &&
+                    Objects.equals(getTestId(), that.getTestId());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(getSystemId(), getTestId());
+        }
+
+    }
+
+}
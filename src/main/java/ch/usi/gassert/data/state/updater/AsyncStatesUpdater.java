@@ -0,0 +1,122 @@
+package ch.usi.gassert.data.state.updater;
+
+import ch.usi.gassert.data.state.ITestExecution;
+import ch.usi.gassert.data.tree.template.TreeGroup;
+import ch.usi.gassert.evolutionary.Individual;
+import ch.usi.gassert.util.LogUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs IStatesUpdater.sync in a background thread, so that the evolution does not wait for it.
+ * <p>
+ * Only one sync runs at a time. Its new states are returned by poll once it finishes, and they are added by the
+ * evolution at the next generation. Since sync runs concurrently with the evolution, it must not access the
+ * states of the IDataManager, and it is given copies of the individuals.
+ * A failed sync is logged and its round dropped, so that the evolution goes on.
+ */
+public class AsyncStatesUpdater {
+
+    private final IStatesUpdater statesUpdater;
+    private final ExecutorService executor;
+    private Future<List<ITestExecution>> pending;
+
+    public AsyncStatesUpdater(final IStatesUpdater statesUpdater) {
+        this.statesUpdater = statesUpdater;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "states-updater");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pending = null;
+    }
+
+    /**
+     * Start a sync with the given individuals, unless the previous one is still running
+     *
+     * @return whether the sync was started
+     */
+    public synchronized boolean submit(final Collection<Individual> individuals, final int timeBudget) {
+        if (pending != null) {
+            return false;
+        }
+        final List<Individual> snapshot = new ArrayList<>(individuals.size());
+        for (final Individual individual : individuals) {
+            snapshot.add(snapshot(individual));
+        }
+        pending = executor.submit(() -> statesUpdater.sync(snapshot, timeBudget));
+        return true;
+    }
+
+    /**
+     * @return a copy of the Tree and the computed values of the individual, which the evolution cannot modify
+     */
+    private static Individual snapshot(final Individual individual) {
+        final Individual copy = new Individual(individual.getTree().cloneTree(), (TreeGroup) null);
+        copy.valid = individual.valid;
+        copy.eliteValid = individual.eliteValid;
+        copy.fitnessValueFP = individual.fitnessValueFP;
+        copy.fitnessValueFN = individual.fitnessValueFN;
+        return copy;
+    }
+
+    public synchronized boolean isRunning() {
+        return pending != null && !pending.isDone();
+    }
+
+    /**
+     * @return the states of the finished sync, or an empty list if there is none
+     */
+    public synchronized List<ITestExecution> poll() {
+        if (pending == null || !pending.isDone()) {
+            return NullStatesUpdater.EMPTY_STATES_LIST;
+        }
+        try {
+            return pending.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return NullStatesUpdater.EMPTY_STATES_LIST;
+        } catch (final ExecutionException e) {
+            LogUtils.log().error("Error synchronizing with the IStatesUpdater, dropping its states", e.getCause());
+            return NullStatesUpdater.EMPTY_STATES_LIST;
+        } finally {
+            pending = null;
+        }
+    }
+
+    /**
+     * Wait for the running sync to finish, if any
+     *
+     * @return whether no sync is running anymore
+     */
+    public boolean awaitSync(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final Future<List<ITestExecution>> running;
+        synchronized (this) {
+            running = pending;
+        }
+        if (running == null) {
+            return true;
+        }
+        try {
+            running.get(timeout, unit);
+        } catch (final ExecutionException ignored) {
+            // Reported by poll
+        } catch (final TimeoutException e) {
+            return false;
+        }
+        return true;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,276 @@
+package ch.usi.gassert.data.state.updater;
+
+import ch.usi.gassert.Config;
+import ch.usi.gassert.Mode;
+import ch.usi.gassert.data.manager.IDataManager;
+import ch.usi.gassert.data.state.ITestExecution;
+import ch.usi.gassert.data.state.TestExecution;
+import ch.usi.gassert.data.state.TestExecutionPair;
+import ch.usi.gassert.evaluator.IEvaluator;
+import ch.usi.gassert.evaluator.IPreparedTree;
+import ch.usi.gassert.evolutionary.Individual;
+import ch.usi.gassert.serialization.OnlineStateSerializingMethodVisitor;
+import ch.usi.gassert.util.ClassUtils;
+import ch.usi.gassert.util.LogUtils;
+import ch.usi.methodtest.MethodParameter;
+import ch.usi.methodtest.MethodTest;
+import ch.usi.methodtest.MethodTestRunner;
+import ch.usi.methodtest.MethodTestTransformerConfig;
+import ch.usi.methodtest.transformations.MethodTestTransformation;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * IStatesUpdater which looks for counterexamples to the current best individuals by executing the SUT in-process.
+ * <p>
+ * The SUT must be instrumented with the OnlineStateSerializingMethodVisitor. Within the time budget (in seconds),
+ * the known MethodTests are mutated with the MethodTestTransformations and executed on a MethodTestRunner.
+ * The executions of the original SUT are correct, so those for which some individual is false are returned as new
+ * correct states. In metamorphic modes, each mutated MethodTest is the source, and a transformation of it the followup.
+ * The inputs of the counterexamples are mutated further in the next syncs, up to MAX_COUNTEREXAMPLE_INPUTS of them.
+ * <p>
+ * Args: MethodTests file or directory ; [number of workers, default 1] ; [max new states per sync, default 100]
+ */
+public class MethodTestStatesUpdater implements IStatesUpdater {
+
+    private static final int MAX_MUTATIONS = 3;
+    private static final int MAX_COUNTEREXAMPLE_INPUTS = 1000;
+
+    // The loaded MethodTests, followed by the inputs of the counterexamples
+    private final List<String> knownInputs;
+    private final int loadedInputs;
+    private final List<MethodTestTransformation> transformations;
+    private final int numberWorkers;
+    private final int maxNewStates;
+    private final Random random;
+    private IDataManager dataManager;
+    private MethodTestRunner runner;
+    private long nextTestId;
+    private List<ITestExecution> newStates;
+
+    public MethodTestStatesUpdater(final List<String> args) {
+        if (args.isEmpty() || args.size() > 3) {
+            throw new RuntimeException("MethodTestStatesUpdater expects 1 to 3 args, got " + args.size());
+        }
+        final File inputs = new File(args.get(0));
+        final List<File> inputsFiles = new ArrayList<>();
+        if (inputs.isDirectory()) {
+            inputsFiles.addAll(Arrays.asList(Objects.requireNonNull(inputs.listFiles(
+                    (file, name) -> name.endsWith(MethodTest.EXTENSION)))));
+            inputsFiles.sort(Comparator.comparing(File::getName));
+        } else {
+            inputsFiles.add(inputs);
+        }
+        this.knownInputs = new ArrayList<>(inputsFiles.size());
+        for (final File inputsFile : inputsFiles) {
+            knownInputs.add(toXML(MethodTest.fromXML(inputsFile)));
+        }
+        this.loadedInputs = knownInputs.size();
+        this.transformations = MethodTestTransformerConfig.DEFAULT_TRANSFORMATIONS;
+        this.numberWorkers = args.size() > 1 ? Integer.parseInt(args.get(1)) : 1;
+        this.maxNewStates = args.size() > 2 ? Integer.parseInt(args.get(2)) : 100;
+        this.random = new Random(Config.seed);
+        this.nextTestId = 0;
+        this.newStates = NullStatesUpdater.EMPTY_STATES_LIST;
+    }
+
+    private static String toXML(final MethodTest methodTest) {
+        final StringWriter writer = new StringWriter();
+        methodTest.toXML(writer);
+        return writer.toString();
+    }
+
+    @Override
+    public void setDataManager(final IDataManager dataManager) {
+        this.dataManager = dataManager;
+    }
+
+    /**
+     * @return the given MethodTest with a random applicable transformation, or null if there is none
+     */
+    private MethodTest transform(final MethodTest methodTest) {
+        final MethodTestTransformation transformation = transformations.get(random.nextInt(transformations.size()));
+        final List<List<Integer>> applicable = transformation.findTransformations(methodTest);
+        if (applicable.isEmpty()) {
+            return null;
+        }
+        final List<Integer> paramIndices = applicable.get(random.nextInt(applicable.size()));
+        final List<MethodParameter> paramsTransformed = transformation.transform(
+                paramIndices.stream().map(i -> methodTest.methodParameters[i]).collect(Collectors.toList()));
+        if (paramsTransformed == null) {
+            return null;
+        }
+        final MethodTest transformed = new MethodTest(methodTest);
+        for (int i = 0 ; i < paramIndices.size() ; ++i) {
+            transformed.methodParameters[paramIndices.get(i)] = paramsTransformed.get(i);
+        }
+        return transformed;
+    }
+
+    /**
+     * Keep the input of a counterexample, replacing a random one of the previous counterexamples if there are too many
+     */
+    private void addCounterexampleInput(final String input) {
+        if (knownInputs.size() - loadedInputs < MAX_COUNTEREXAMPLE_INPUTS) {
+            knownInputs.add(input);
+        } else {
+            knownInputs.set(loadedInputs + random.nextInt(MAX_COUNTEREXAMPLE_INPUTS), input);
+        }
+    }
+
+    private MethodTest mutate(final MethodTest methodTest) {
+        MethodTest mutated = methodTest;
+        final int mutations = 1 + random.nextInt(MAX_MUTATIONS);
+        for (int i = 0 ; i < mutations ; ++i) {
+            final MethodTest transformed = transform(mutated);
+            if (transformed != null) {
+                mutated = transformed;
+            }
+        }
+        return mutated;
+    }
+
+    /**
+     * Wait for the results until the deadline, and cancel those still pending after it
+     */
+    private static void awaitResults(final List<CompletableFuture<MethodTestRunner.Result>> results, final long deadline)
+            throws InterruptedException, ExecutionException {
+        boolean expired = false;
+        for (final CompletableFuture<MethodTestRunner.Result> result : results) {
+            if (!expired) {
+                try {
+                    result.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (final TimeoutException e) {
+                    expired = true;
+                }
+            }
+            if (expired) {
+                result.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * @return the execution with the given testId, or null if the MethodTest did not complete or has invalid values
+     */
+    private static TestExecution findExecution(final Map<String, TestExecution> executions, final String testId,
+                                               final CompletableFuture<MethodTestRunner.Result> result)
+            throws InterruptedException, ExecutionException {
+        if (!result.isDone() || result.isCancelled() || !result.get().isSuccess()) {
+            return null;
+        }
+        final TestExecution execution = executions.get(testId);
+        if (execution == null || execution.getVariables().getValues().values().stream()
+                .anyMatch(v -> v == null || ClassUtils.isErrorType(v.getClass()))) {
+            return null;
+        }
+        return execution;
+    }
+
+    @Override
+    public void writeIndividuals(final Collection<Individual> individuals, final int timeBudget) {
+        if (dataManager == null || knownInputs.isEmpty() || individuals.isEmpty()) {
+            return;
+        }
+        if (runner == null) {
+            runner = new MethodTestRunner(numberWorkers);
+        }
+        final boolean metamorphic = dataManager.getMode() != Mode.REGULAR_ASSERTIONS;
+        final IEvaluator evaluator = dataManager.getAssertionEvaluator();
+        final List<IPreparedTree> assertions = individuals.stream()
+                .map(individual -> evaluator.prepare(individual.getTree().asTree()))
+                .collect(Collectors.toList());
+        final List<ITestExecution> counterexamples = new ArrayList<>();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeBudget);
+        int evaluationErrors = 0;
+        RuntimeException evaluationError = null;
+        try {
+            while (System.nanoTime() < deadline && counterexamples.size() < maxNewStates) {
+                // Execute a batch of mutated inputs, and the followups in metamorphic modes
+                final int batchSize = numberWorkers * 4;
+                final List<String> sourceInputs = new ArrayList<>(batchSize);
+                final List<String> sourceIds = new ArrayList<>(batchSize);
+                final List<String> followupIds = new ArrayList<>(batchSize);
+                final List<CompletableFuture<MethodTestRunner.Result>> sourceResults = new ArrayList<>(batchSize);
+                final List<CompletableFuture<MethodTestRunner.Result>> followupResults = new ArrayList<>(batchSize);
+                for (int i = 0 ; i < batchSize && System.nanoTime() < deadline ; ++i) {
+                    final MethodTest source = mutate(MethodTest.fromXML(knownInputs.get(random.nextInt(knownInputs.size()))));
+                    final MethodTest followup = metamorphic ? transform(MethodTest.fromXML(toXML(source))) : null;
+                    if (metamorphic && followup == null) {
+                        continue;
+                    }
+                    // The execution may modify the parameters in place
+                    sourceInputs.add(toXML(source));
+                    final String sourceId = "updater" + (nextTestId++);
+                    sourceIds.add(sourceId);
+                    sourceResults.add(runner.submit(source, sourceId));
+                    if (metamorphic) {
+                        final String followupId = sourceId + "followup";
+                        followupIds.add(followupId);
+                        followupResults.add(runner.submit(followup, followupId));
+                    }
+                }
+                awaitResults(sourceResults, deadline);
+                awaitResults(followupResults, deadline);
+                final Map<String, TestExecution> executions = new HashMap<>();
+                for (final TestExecution execution : OnlineStateSerializingMethodVisitor.drainTestExecutions()) {
+                    executions.putIfAbsent(execution.getTestId(), execution);
+                }
+                for (int i = 0 ; i < sourceIds.size() && counterexamples.size() < maxNewStates ; ++i) {
+                    final TestExecution source = findExecution(executions, sourceIds.get(i), sourceResults.get(i));
+                    if (source == null) {
+                        continue;
+                    }
+                    final ITestExecution state;
+                    if (metamorphic) {
+                        final TestExecution followup = findExecution(executions, followupIds.get(i), followupResults.get(i));
+                        if (followup == null) {
+                            continue;
+                        }
+                        state = new TestExecutionPair(source, followup);
+                    } else {
+                        state = source;
+                    }
+                    final Map<String, Object> values = state.getVariables().getValues();
+                    final boolean violated;
+                    try {
+                        violated = assertions.stream().anyMatch(assertion -> !assertion.eval(values));
+                    } catch (final RuntimeException e) {
+                        // Skip the state rather than failing the whole sync
+                        ++evaluationErrors;
+                        evaluationError = e;
+                        continue;
+                    }
+                    if (violated) {
+                        counterexamples.add(state);
+                        addCounterexampleInput(sourceInputs.get(i));
+                    }
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException e) {
+            throw new RuntimeException("Error executing the method tests", e.getCause());
+        }
+        if (evaluationErrors > 0) {
+            LogUtils.log().warn("Skipped " + evaluationErrors + " states on which the assertions could not be evaluated",
+                    evaluationError);
+        }
+        newStates = counterexamples;
+    }
+
+    @Override
+    public List<ITestExecution> readStates() {
+        final List<ITestExecution> states = newStates;
+        newStates = NullStatesUpdater.EMPTY_STATES_LIST;
+        return states;
+    }
+
+}
@@ -4,6 +4,7 @@ import ch.usi.gassert.Config;
 import ch.usi.gassert.data.TreeList;
 
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This is the data structure that represents the assertion
@@ -24,6 +25,7 @@ public class Tree implements ITree {
             if (left.getType().equals(Type.BOOLEAN) && right.getType().equals(Type.BOOLEAN)) {
                 value = "<=>";
                 type = Type.BOOLEAN;
+                modified();
             }
         }
         if (left != null) {
@@ -93,6 +95,48 @@ public class Tree implements ITree {
      */
     private Type type;
 
+    /**
+     * string, hash code and number of nodes, computed on first use (see memo)
+     */
+    private volatile Memo memo;
+    // Value of MODIFICATIONS when the memo was last known to be valid
+    private volatile long memoModifications = -1;
+
+    /**
+     * Number of modifications of any Tree. A modified node drops its own Memo, but it does not know its parents,
+     * so the Memos of the ancestors are only checked again after some Tree has been modified.
+     */
+    private static final AtomicLong MODIFICATIONS = new AtomicLong();
+
+    /**
+     * Cached data of a node, which is only valid as long as the value, the type and the Memos of the children
+     * are the same as when computed. Once some Tree is modified, the validity is checked from the root on the next
+     * access: only the path from a modified node to the root is recomputed.
+     */
+    private static final class Memo {
+        final Object value;
+        final Type type;
+        final Memo left;
+        final Memo right;
+        final String string;
+        final int hash;
+        final int numberOfNodes;
+
+        Memo(final Tree tree, final Memo left, final Memo right) {
+            this.value = tree.value;
+            this.type = tree.type;
+            this.left = left;
+            this.right = right;
+            this.string = tree.buildString(left, right);
+            this.hash = Objects.hash(value, left != null ? left.hash : null, right != null ? right.hash : null, type);
+            this.numberOfNodes = 1 + (left != null ? left.numberOfNodes : 0) + (right != null ? right.numberOfNodes : 0);
+        }
+
+        boolean isValid(final Tree tree, final Memo left, final Memo right) {
+            return value == tree.value && type == tree.type && this.left == left && this.right == right;
+        }
+    }
+
     /**
      * create a terminal node
      *
@@ -124,6 +168,9 @@ public class Tree implements ITree {
         this.left = root.left == null ? null : new Tree(root.left);
         this.right = root.right == null ? null : new Tree(root.right);
         this.type = root.type;
+        // The copied children share the Memos of the original ones, so the Memo is still valid
+        this.memoModifications = root.memoModifications;
+        this.memo = root.memo;
     }
 
 
@@ -133,6 +180,7 @@ public class Tree implements ITree {
 
     public void setValue(final Object value) {
         this.value = value;
+        modified();
     }
 
     public Tree getLeft() {
@@ -149,6 +197,7 @@ public class Tree implements ITree {
 
     public void setType(final Type type) {
         this.type = type;
+        modified();
     }
 
     public TreeList getListOfNodes() {
@@ -167,10 +216,16 @@ public class Tree implements ITree {
         } else {
             throw new RuntimeException("something is wrong here");
         }
+        modified();
+    }
+
+    private void modified() {
+        memo = null;
+        MODIFICATIONS.incrementAndGet();
     }
 
     public Integer getNumberOfNodes() {
-        return this.isLeaf() ? 1 : 1 + (left != null ? left.getNumberOfNodes() : 0) + (right != null ? right.getNumberOfNodes() : 0);
+        return memo().numberOfNodes;
     }
 
     public boolean hasVariables() {
@@ -195,8 +250,29 @@ public class Tree implements ITree {
         return Character.isLetter(ch) || ch == '_';
     }
 
+    private Memo memo() {
+        final long modifications = MODIFICATIONS.get();
+        Memo current = memo;
+        if (current != null && memoModifications == modifications) {
+            return current;
+        }
+        final Memo leftMemo = left != null ? left.memo() : null;
+        final Memo rightMemo = right != null ? right.memo() : null;
+        current = memo;
+        if (current == null || !current.isValid(this, leftMemo, rightMemo)) {
+            current = new Memo(this, leftMemo, rightMemo);
+            memo = current;
+        }
+        memoModifications = modifications;
+        return current;
+    }
+
     @Override
     public String toString() {
+        return memo().string;
+    }
+
+    private String buildString(final Memo left, final Memo right) {
         if (this.isLeaf()) {
             if (value.toString().contains("ch.usi.gassert.util.Implies.implies")) {
                 return "(" + value.toString().replace(", ", ",") + ")";
@@ -207,12 +283,12 @@ public class Tree implements ITree {
             }
         } else if (isIdentifier(value.toString())) {
             return value.toString() + "(" 
-                + left.toString() 
-                + (right != null ? (", " + right.toString()) : "") 
+                + left.string 
+                + (right != null ? (", " + right.string) : "") 
                 + ")";
         } else {
-            return "(" + (left != null ? left.toString() : "") +
-                " " + value.toString() + " " + (right != null ? right.toString() : "") + ")";
+            return "(" + (left != null ? left.string : "") +
+                " " + value.toString() + " " + (right != null ? right.string : "") + ")";
         }
     }
 
@@ -226,15 +302,26 @@ public class Tree implements ITree {
             return false;
         }
         final Tree tree = (Tree) o;
-        return getType() == tree.getType() &&
-                Objects.equals(getValue(), tree.getValue()) &&
-                Objects.equals(getLeft(), tree.getLeft()) &&
-                Objects.equals(getRight(), tree.getRight());
+        // The cached hash codes are only compared at the root
+        return hashCode() == tree.hashCode() && equalNodes(this, tree);
+    }
+
+    private static boolean equalNodes(final Tree a, final Tree b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        return a.type == b.type &&
+                Objects.equals(a.value, b.value) &&
+                equalNodes(a.left, b.left) &&
+                equalNodes(a.right, b.right);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(getValue(), getLeft(), getRight(), getType());
+        return memo().hash;
     }
 }
 
@@ -0,0 +1,58 @@
+package ch.usi.gassert.evaluator;
+
+import ch.usi.gassert.Config;
+import ch.usi.gassert.data.state.StateTable;
+import ch.usi.gassert.data.tree.Tree;
+
+import java.util.Map;
+
+/**
+ * Evaluator which compiles each prepared Tree to bytecode (see TreeCompiler).
+ * <p>
+ * Trees that cannot be compiled, and states for which the compiled Tree throws,
+ * are evaluated with the BasicEvaluator, so the results are always the same.
+ */
+public class CompiledEvaluator implements IEvaluator {
+
+    private final BasicEvaluator fallback;
+
+    public CompiledEvaluator() {
+        this(false);
+    }
+
+    public CompiledEvaluator(boolean onError) {
+        this.fallback = new BasicEvaluator(onError);
+    }
+
+    @Override
+    public boolean eval(final Tree tree, final Map<String, Object> name2value) {
+        // Not worth compiling for a single evaluation
+        return fallback.eval(tree, name2value);
+    }
+
+    @Override
+    public IPreparedTree prepare(final Tree tree) {
+        final IPreparedTree compiled = TreeCompiler.compile(tree, Config.EVAL_NUMBER_PRECISION);
+        if (compiled == null) {
+            return fallback.prepare(tree);
+        }
+        return new IPreparedTree() {
+            @Override
+            public boolean eval(final Map<String, Object> name2value) {
+                try {
+                    return compiled.eval(name2value);
+                } catch (Throwable ignored) {}
+                return fallback.eval(tree, name2value);
+            }
+
+            @Override
+            public boolean eval(final StateTable states, final int row) {
+                try {
+                    return compiled.eval(states, row);
+                } catch (Throwable ignored) {}
+                return fallback.eval(tree, states.getValues(row));
+            }
+        };
+    }
+
+}
@@ -0,0 +1,61 @@
+package ch.usi.gassert.evaluator;
+
+import ch.usi.gassert.data.state.StateSchema;
+import ch.usi.gassert.data.state.StateTable;
+
+/**
+ * Base class for the Trees compiled by TreeCompiler.
+ * <p>
+ * The variables of the Tree are resolved to StateTable column indexes once per StateSchema,
+ * and the generated evalRow reads the columns by index.
+ */
+public abstract class CompiledTree implements IPreparedTree {
+
+    /**
+     * Column indexes resolved for a StateSchema
+     */
+    private static final class Binding {
+        final StateSchema schema;
+        final int schemaSize;
+        final int[] columns;
+
+        Binding(final StateSchema schema, final int schemaSize, final int[] columns) {
+            this.schema = schema;
+            this.schemaSize = schemaSize;
+            this.columns = columns;
+        }
+    }
+
+    private final String[] variables;
+    private volatile Binding binding;
+
+    protected CompiledTree(final String[] variables) {
+        this.variables = variables;
+    }
+
+    @Override
+    public final boolean eval(final StateTable states, final int row) {
+        return evalRow(states, row, columns(states.getSchema()));
+    }
+
+    /**
+     * Generated evaluation over a StateTable row, where columns[i] is the column index of the i-th variable
+     */
+    protected abstract boolean evalRow(final StateTable states, final int row, final int[] columns);
+
+    private int[] columns(final StateSchema schema) {
+        final Binding current = binding;
+        // Resolve again if variables missing from the schema may have been added since
+        if (current != null && current.schema == schema && current.schemaSize == schema.size()) {
+            return current.columns;
+        }
+        final int schemaSize = schema.size();
+        final int[] columns = new int[variables.length];
+        for (int i = 0; i < variables.length; ++i) {
+            columns[i] = schema.indexOf(variables[i]);
+        }
+        binding = new Binding(schema, schemaSize, columns);
+        return columns;
+    }
+
+}
@@ -0,0 +1,36 @@
+package ch.usi.gassert.evaluator;
+
+import ch.usi.gassert.util.Bitmap;
+
+/**
+ * Result of a boolean Tree for a StateBatch, with the states for which the evaluation fails kept apart.
+ * Both bitmaps are indexed by row, and the rows with errors are not set in values.
+ */
+public final class EvalResult {
+
+    public final long[] values;
+    public final long[] errors;
+
+    public EvalResult(final long[] values, final long[] errors) {
+        this.values = values;
+        this.errors = errors;
+    }
+
+    public boolean hasErrors() {
+        for (final long bucket : errors) {
+            if (bucket != 0L) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Merge the results of the rows before the given one, both EvalResults being for consecutive batches
+     */
+    public void orBuckets(final EvalResult previous, final int length) {
+        Bitmap.orBuckets(previous.values, values, length);
+        Bitmap.orBuckets(previous.errors, errors, length);
+    }
+
+}
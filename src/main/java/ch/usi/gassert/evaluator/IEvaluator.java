@@ -1,10 +1,25 @@
 package ch.usi.gassert.evaluator;
 
+import ch.usi.gassert.data.state.StateBatch;
 import ch.usi.gassert.data.tree.Tree;
-import com.udojava.evalex.Expression;
 
 import java.util.Map;
 
 public interface IEvaluator {
     boolean eval(final Tree tree, final Map<String, Object> name2value);
+
+    /**
+     * Prepare the given Tree to be evaluated repeatedly.
+     * By default, the Tree is simply bound to this evaluator.
+     */
+    default IPreparedTree prepare(final Tree tree) {
+        return name2value -> eval(tree, name2value);
+    }
+
+    /**
+     * Evaluate the given Tree over all the rows of the batch (see IPreparedTree.evalAll)
+     */
+    default long[] evalAll(final Tree tree, final StateBatch batch) {
+        return prepare(tree).evalAll(batch);
+    }
 }
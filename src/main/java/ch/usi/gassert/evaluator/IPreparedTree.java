@@ -0,0 +1,48 @@
+package ch.usi.gassert.evaluator;
+
+import ch.usi.gassert.data.state.StateBatch;
+import ch.usi.gassert.data.state.StateTable;
+import ch.usi.gassert.util.Bitmap;
+
+import java.util.Map;
+
+/**
+ * A Tree bound to an IEvaluator, ready to be evaluated over many states
+ */
+public interface IPreparedTree {
+    boolean eval(final Map<String, Object> name2value);
+
+    /**
+     * Evaluate the given row of a StateTable.
+     * By default, the row is evaluated through its Map view.
+     */
+    default boolean eval(final StateTable states, final int row) {
+        return eval(states.getValues(row));
+    }
+
+    /**
+     * Evaluate all the rows of the given batch.
+     *
+     * @return Bitmap indexed by row, where only the rows of the batch can be set
+     */
+    default long[] evalAll(final StateBatch batch) {
+        final StateTable states = batch.getTable();
+        final long[] result = Bitmap.create(batch.getTo());
+        for (int row = batch.getFrom(); row < batch.getTo(); ++row) {
+            if (eval(states, row)) {
+                Bitmap.set(result, row);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Evaluate all the rows of the given batch, without evaluating the rows for which the evaluation fails.
+     * By default, the errors cannot be told apart from false.
+     *
+     * @return the values and errors, or null if not supported, in which case evalAll must be used
+     */
+    default EvalResult evalAllWithErrors(final StateBatch batch) {
+        return null;
+    }
+}
@@ -0,0 +1,221 @@
+package ch.usi.gassert.evaluator;
+
+import ch.usi.gassert.data.state.StateTable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache for the values of subtrees over a range of rows of a StateTable.
+ * <p>
+ * The rows of a StateTable never change once added, so the values of a subtree for a given range stay valid.
+ * A value is only stored the second time its subtree is requested, so that the subtrees shared by several
+ * individuals are kept instead of those evaluated only once. Entries are evicted in LRU order when the
+ * estimated size of the stored values exceeds the budget.
+ * The keys are spread over independently locked shards (like SegmentedLruCache), each with an even part of the
+ * budget, so that the workers of the EvaluationStage rarely wait for each other.
+ */
+public class SubtreeCache<V> {
+
+    private static final int SHARDS = 16;
+
+    /**
+     * Max number of subtrees remembered as requested once
+     */
+    private static final int MAX_CANDIDATES = 1 << 14;
+
+    private final Shard<V>[] shards;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public SubtreeCache(final long maxBytes) {
+        shards = (Shard<V>[]) new Shard<?>[SHARDS];
+        for (int i = 0; i < SHARDS; ++i) {
+            shards[i] = new Shard<>(Math.max(1, maxBytes / SHARDS), Math.max(1, MAX_CANDIDATES / SHARDS));
+        }
+    }
+
+    private Shard<V> shard(final Key key) {
+        final int hash = key.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & (SHARDS - 1)];
+    }
+
+    /**
+     * @return the cached value, or null if missing
+     */
+    public V get(final String subtree, final StateTable states, final int start, final int n) {
+        final Key key = new Key(subtree, states, start, n);
+        final V value = shard(key).get(key);
+        (value != null ? hits : misses).increment();
+        return value;
+    }
+
+    /**
+     * Store the value of the subtree if it was already requested before
+     *
+     * @param valueBytes estimated size of the value
+     * @return whether the value was stored, in which case it must not be modified anymore
+     */
+    public boolean put(final String subtree, final StateTable states, final int start, final int n,
+                       final V value, final long valueBytes) {
+        final Key key = new Key(subtree, states, start, n);
+        final Shard<V> shard = shard(key);
+        final int evicted;
+        synchronized (shard) {
+            if (valueBytes > shard.maxBytes || !shard.isCandidate(key)) {
+                return false;
+            }
+            evicted = shard.put(key, value, valueBytes);
+        }
+        evictions.add(evicted);
+        return true;
+    }
+
+    public void clear() {
+        for (final Shard<V> shard : shards) {
+            synchronized (shard) {
+                shard.entries.clear();
+                shard.candidates.clear();
+                shard.bytes = 0;
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (final Shard<V> shard : shards) {
+            synchronized (shard) {
+                size += shard.entries.size();
+            }
+        }
+        return size;
+    }
+
+    public long getBytes() {
+        long bytes = 0;
+        for (final Shard<V> shard : shards) {
+            synchronized (shard) {
+                bytes += shard.bytes;
+            }
+        }
+        return bytes;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private static final class Shard<V> {
+
+        final long maxBytes;
+        final LinkedHashMap<Key, Entry<V>> entries;
+        final LinkedHashMap<Key, Boolean> candidates;
+        long bytes;
+
+        Shard(final long maxBytes, final int maxCandidates) {
+            this.maxBytes = maxBytes;
+            this.entries = new LinkedHashMap<>(16, 0.75f, true);
+            this.candidates = new LinkedHashMap<Key, Boolean>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<Key, Boolean> eldest) {
+                    return size() > maxCandidates;
+                }
+            };
+            this.bytes = 0;
+        }
+
+        synchronized V get(final Key key) {
+            final Entry<V> entry = entries.get(key);
+            return entry == null ? null : entry.value;
+        }
+
+        /**
+         * @return whether the key was requested before, otherwise remember it for the next time
+         */
+        boolean isCandidate(final Key key) {
+            if (candidates.remove(key) == null) {
+                candidates.put(key, Boolean.TRUE);
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * @return number of evicted entries
+         */
+        int put(final Key key, final V value, final long valueBytes) {
+            final Entry<V> previous = entries.put(key, new Entry<>(value, valueBytes));
+            if (previous != null) {
+                bytes -= previous.bytes;
+            }
+            bytes += valueBytes;
+            int evicted = 0;
+            final Iterator<Entry<V>> eldest = entries.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().bytes;
+                eldest.remove();
+                ++evicted;
+            }
+            return evicted;
+        }
+
+    }
+
+    private static final class Entry<V> {
+
+        final V value;
+        final long bytes;
+
+        Entry(final V value, final long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+
+    }
+
+    /**
+     * Subtree and range of rows, the StateTable is compared by identity
+     */
+    private static final class Key {
+
+        final String subtree;
+        final StateTable states;
+        final int start;
+        final int n;
+
+        Key(final String subtree, final StateTable states, final int start, final int n) {
+            this.subtree = subtree;
+            this.states = states;
+            this.start = start;
+            this.n = n;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            final Key key = (Key) o;
+            return states == key.states && start == key.start && n == key.n && subtree.equals(key.subtree);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(subtree, System.identityHashCode(states), start, n);
+        }
+
+    }
+
+}
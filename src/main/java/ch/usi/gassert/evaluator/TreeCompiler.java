@@ -0,0 +1,426 @@
+package ch.usi.gassert.evaluator;
+
+import ch.usi.gassert.data.state.StateTable;
+import ch.usi.gassert.data.tree.Tree;
+import ch.usi.gassert.data.tree.TreeEval;
+import ch.usi.gassert.data.types.Sequence;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * This class compiles a Tree into a subclass of CompiledTree.
+ * <p>
+ * The generated eval methods (over a name2value Map and over a StateTable row) follow the semantics of TreeEval.eval, but works on primitive values:
+ * NUMBER nodes are double, BOOLEAN nodes are boolean and SEQUENCE nodes are Sequence.
+ * As in TreeEval, both operands are always evaluated (no short-circuit), so that a compiled Tree
+ * throws for the same states as the interpreted one.
+ */
+public class TreeCompiler {
+
+    /**
+     * Trees larger than this are not compiled, to stay well below the JVM method size limit
+     */
+    public static final int MAX_NODES = 2000;
+
+    private static final String PACKAGE = TreeCompiler.class.getPackage().getName().replace('.', '/');
+    private static final String COMPILED_TREE = Type.getInternalName(CompiledTree.class);
+    private static final String STATE_TABLE = Type.getInternalName(StateTable.class);
+    private static final String TREE_EVAL = Type.getInternalName(TreeEval.class);
+    private static final String SEQUENCE = Type.getInternalName(Sequence.class);
+    private static final String MAP = Type.getInternalName(Map.class);
+    private static final String NUMBER = Type.getInternalName(Number.class);
+    private static final String BOOLEAN = Type.getInternalName(Boolean.class);
+    private static final String DOUBLE = Type.getInternalName(Double.class);
+    private static final String MATH = Type.getInternalName(Math.class);
+
+    private static final AtomicLong classCounter = new AtomicLong(0);
+
+    /**
+     * Kind of value left on the operand stack by a compiled node
+     */
+    enum Kind {
+        DOUBLE, INT, BOOLEAN, SEQUENCE
+    }
+
+    /**
+     * Thrown while generating code for a Tree that cannot be compiled
+     */
+    static class UnsupportedTreeException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedTreeException(final String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * Each compiled Tree is defined in its own ClassLoader, so that it can be unloaded
+     * as soon as the IPreparedTree is not referenced anymore.
+     */
+    private static class CompiledTreeLoader extends ClassLoader {
+        CompiledTreeLoader() {
+            super(IPreparedTree.class.getClassLoader());
+        }
+        Class<?> define(final String name, final byte[] bytecode) {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+
+    /**
+     * Where the generated code reads the variables from
+     */
+    private enum Source {
+        MAP, STATE_TABLE
+    }
+
+    /**
+     * Compile the given Tree.
+     *
+     * @return the compiled Tree, or null if the Tree contains unsupported operators or values
+     */
+    public static IPreparedTree compile(final Tree tree, final double precision) {
+        if (tree.getNumberOfNodes() > MAX_NODES) {
+            return null;
+        }
+        final String className = PACKAGE + "/CompiledTree$" + classCounter.incrementAndGet();
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+            @Override
+            protected String getCommonSuperClass(final String type1, final String type2) {
+                // Generated code never merges different reference types
+                return "java/lang/Object";
+            }
+        };
+        cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, className, null, COMPILED_TREE, null);
+        // Constructor
+        final MethodVisitor init = cw.visitMethod(ACC_PUBLIC, "<init>", "([Ljava/lang/String;)V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitVarInsn(ALOAD, 1);
+        init.visitMethodInsn(INVOKESPECIAL, COMPILED_TREE, "<init>", "([Ljava/lang/String;)V", false);
+        init.visitInsn(RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+        final Map<String, Integer> variables = new LinkedHashMap<>();
+        try {
+            // boolean eval(Map<String, Object> name2value)
+            final MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "eval", "(L" + MAP + ";)Z", null, null);
+            mv.visitCode();
+            new TreeCompiler(mv, precision, Source.MAP, variables).compileNode(tree, Kind.BOOLEAN);
+            mv.visitInsn(IRETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+            // boolean evalRow(StateTable states, int row, int[] columns)
+            final MethodVisitor rowMv = cw.visitMethod(ACC_PROTECTED, "evalRow", "(L" + STATE_TABLE + ";I[I)Z", null, null);
+            rowMv.visitCode();
+            new TreeCompiler(rowMv, precision, Source.STATE_TABLE, variables).compileNode(tree, Kind.BOOLEAN);
+            rowMv.visitInsn(IRETURN);
+            rowMv.visitMaxs(0, 0);
+            rowMv.visitEnd();
+        } catch (UnsupportedTreeException e) {
+            return null;
+        }
+        cw.visitEnd();
+        try {
+            final Class<?> clazz = new CompiledTreeLoader().define(className.replace('/', '.'), cw.toByteArray());
+            return (IPreparedTree) clazz.getConstructor(String[].class)
+                    .newInstance((Object) variables.keySet().toArray(new String[0]));
+        } catch (Exception | LinkageError e) {
+            throw new RuntimeException("Error loading compiled Tree: " + tree, e);
+        }
+    }
+
+    private final MethodVisitor mv;
+    private final double precision;
+    private final Source source;
+    private final Map<String, Integer> variables;
+
+    private TreeCompiler(final MethodVisitor mv, final double precision,
+                         final Source source, final Map<String, Integer> variables) {
+        this.mv = mv;
+        this.precision = precision;
+        this.source = source;
+        this.variables = variables;
+    }
+
+    /**
+     * Emit the code for a node, leaving a value of the expected kind on the operand stack
+     */
+    private void compileNode(final Tree node, final Kind expected) throws UnsupportedTreeException {
+        if (node.isLeaf()) {
+            compileLeaf(node, expected);
+            return;
+        }
+        final String operator = node.getValue().toString();
+        final Kind kind = resultKind(operator);
+        if (expected == Kind.INT && kind == Kind.DOUBLE) {
+            compileOperator(node, operator);
+            mv.visitInsn(D2I);
+        } else if (expected == kind) {
+            compileOperator(node, operator);
+        } else {
+            throw new UnsupportedTreeException("Unexpected result for operator " + operator);
+        }
+    }
+
+    private void compileLeaf(final Tree node, final Kind expected) throws UnsupportedTreeException {
+        final Object value = node.getValue();
+        final String valueString = value.toString();
+        if (TreeEval.isLiteral(valueString)) {
+            if (expected == Kind.BOOLEAN && value instanceof Boolean) {
+                mv.visitInsn((Boolean) value ? ICONST_1 : ICONST_0);
+            } else if (expected == Kind.DOUBLE && value instanceof Number) {
+                mv.visitLdcInsn(((Number) value).doubleValue());
+            } else if (expected == Kind.INT && value instanceof Number) {
+                mv.visitLdcInsn(((Number) value).intValue());
+            } else {
+                throw new UnsupportedTreeException("Unsupported literal: " + valueString);
+            }
+        } else if (source == Source.MAP) {
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitLdcInsn(valueString);
+            mv.visitMethodInsn(INVOKEINTERFACE, MAP, "get", "(Ljava/lang/Object;)Ljava/lang/Object;", true);
+            unboxValue(expected);
+        } else {
+            loadColumnValue(valueString, expected);
+        }
+    }
+
+    /**
+     * Read a variable from the StateTable (local 1) at the row (local 2),
+     * using the column index resolved in the columns array (local 3)
+     */
+    private void loadColumnValue(final String variable, final Kind expected) {
+        final int index = variables.computeIfAbsent(variable, v -> variables.size());
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitVarInsn(ALOAD, 3);
+        mv.visitLdcInsn(index);
+        mv.visitInsn(IALOAD);
+        mv.visitVarInsn(ILOAD, 2);
+        switch (expected) {
+            case DOUBLE:
+                mv.visitMethodInsn(INVOKEVIRTUAL, STATE_TABLE, "getNumber", "(II)D", false);
+                break;
+            case INT:
+                mv.visitMethodInsn(INVOKEVIRTUAL, STATE_TABLE, "getNumber", "(II)D", false);
+                mv.visitInsn(D2I);
+                break;
+            case BOOLEAN:
+                mv.visitMethodInsn(INVOKEVIRTUAL, STATE_TABLE, "getBoolean", "(II)Z", false);
+                break;
+            case SEQUENCE:
+                mv.visitMethodInsn(INVOKEVIRTUAL, STATE_TABLE, "getSequence", "(II)L" + SEQUENCE + ";", false);
+                break;
+        }
+    }
+
+    /**
+     * Convert the Object on top of the operand stack to the expected kind, like TreeEval.num/bool/seq do
+     */
+    private void unboxValue(final Kind expected) {
+        switch (expected) {
+            case DOUBLE:
+                mv.visitTypeInsn(CHECKCAST, NUMBER);
+                mv.visitMethodInsn(INVOKEVIRTUAL, NUMBER, "doubleValue", "()D", false);
+                break;
+            case INT:
+                mv.visitTypeInsn(CHECKCAST, NUMBER);
+                mv.visitMethodInsn(INVOKEVIRTUAL, NUMBER, "intValue", "()I", false);
+                break;
+            case BOOLEAN:
+                mv.visitTypeInsn(CHECKCAST, BOOLEAN);
+                mv.visitMethodInsn(INVOKEVIRTUAL, BOOLEAN, "booleanValue", "()Z", false);
+                break;
+            case SEQUENCE:
+                mv.visitTypeInsn(CHECKCAST, SEQUENCE);
+                break;
+        }
+    }
+
+    static Kind resultKind(final String operator) throws UnsupportedTreeException {
+        switch (operator) {
+            case "+": case "-": case "*": case "/": case "^":
+            case "ABS": case "length": case "sum":
+                return Kind.DOUBLE;
+            case "==": case "!=": case "<>": case "<": case ">": case "<=": case ">=":
+            case "&&": case "||": case "=>": case "<=>": case "NOT":
+                return Kind.BOOLEAN;
+            case "string": case "flip": case "remove": case "truncate":
+                return Kind.SEQUENCE;
+            default:
+                throw new UnsupportedTreeException("Unsupported operator: " + operator);
+        }
+    }
+
+    /**
+     * Kind of the value that TreeEval would produce for the given node.
+     * For variables, we rely on the type of the node.
+     */
+    static Kind valueKind(final Tree node) throws UnsupportedTreeException {
+        if (!node.isLeaf()) {
+            return resultKind(node.getValue().toString());
+        }
+        final Object value = node.getValue();
+        if (TreeEval.isLiteral(value.toString())) {
+            if (value instanceof Boolean) {
+                return Kind.BOOLEAN;
+            } else if (value instanceof Number) {
+                return Kind.DOUBLE;
+            }
+            throw new UnsupportedTreeException("Unsupported literal: " + value);
+        }
+        switch (node.getType()) {
+            case NUMBER: return Kind.DOUBLE;
+            case BOOLEAN: return Kind.BOOLEAN;
+            case SEQUENCE: return Kind.SEQUENCE;
+            default: throw new UnsupportedTreeException("Unsupported type: " + node.getType());
+        }
+    }
+
+    private void compileOperator(final Tree node, final String operator) throws UnsupportedTreeException {
+        final Tree left = node.getLeft();
+        final Tree right = node.getRight();
+        if (left == null) {
+            throw new UnsupportedTreeException("Missing operand for operator " + operator);
+        }
+        switch (operator) {
+            /* NUMERIC OPERATORS */
+            case "+": binary(left, right, Kind.DOUBLE, Kind.DOUBLE); mv.visitInsn(DADD); break;
+            case "-": binary(left, right, Kind.DOUBLE, Kind.DOUBLE); mv.visitInsn(DSUB); break;
+            case "*": binary(left, right, Kind.DOUBLE, Kind.DOUBLE); mv.visitInsn(DMUL); break;
+            case "/":
+                binary(left, right, Kind.DOUBLE, Kind.DOUBLE);
+                mv.visitLdcInsn(precision);
+                mv.visitMethodInsn(INVOKESTATIC, TREE_EVAL, "protectedDivision", "(DDD)D", false);
+                break;
+            case "^":
+                binary(left, right, Kind.DOUBLE, Kind.DOUBLE);
+                mv.visitMethodInsn(INVOKESTATIC, MATH, "pow", "(DD)D", false);
+                break;
+            /* NUMBER TO BOOLEAN OPERATORS */
+            case "==": equals(left, right); break;
+            case "!=": case "<>": equals(left, right); not(); break;
+            case "<": binary(left, right, Kind.DOUBLE, Kind.DOUBLE); compare(DCMPG, IFGE); break;
+            case ">": binary(left, right, Kind.DOUBLE, Kind.DOUBLE); compare(DCMPL, IFLE); break;
+            case "<=": binary(left, right, Kind.DOUBLE, Kind.DOUBLE); compare(DCMPG, IFGT); break;
+            case ">=": binary(left, right, Kind.DOUBLE, Kind.DOUBLE); compare(DCMPL, IFLT); break;
+            /* BOOLEAN OPERATORS */
+            case "&&": binary(left, right, Kind.BOOLEAN, Kind.BOOLEAN); mv.visitInsn(IAND); break;
+            case "||": binary(left, right, Kind.BOOLEAN, Kind.BOOLEAN); mv.visitInsn(IOR); break;
+            case "=>":
+                compileNode(left, Kind.BOOLEAN);
+                not();
+                compileNode(requireOperand(right, operator), Kind.BOOLEAN);
+                mv.visitInsn(IOR);
+                break;
+            case "<=>": binary(left, right, Kind.BOOLEAN, Kind.BOOLEAN); mv.visitInsn(IXOR); not(); break;
+            /* FUNCTIONS */
+            case "NOT": unary(left, right, Kind.BOOLEAN); not(); break;
+            case "ABS":
+                unary(left, right, Kind.DOUBLE);
+                mv.visitMethodInsn(INVOKESTATIC, MATH, "abs", "(D)D", false);
+                break;
+            case "string":
+                unary(left, right, Kind.DOUBLE);
+                mv.visitMethodInsn(INVOKESTATIC, DOUBLE, "valueOf", "(D)Ljava/lang/Double;", false);
+                mv.visitMethodInsn(INVOKESTATIC, SEQUENCE, "fromNumber", "(Ljava/lang/Number;)L" + SEQUENCE + ";", false);
+                break;
+            case "length":
+                unary(left, right, Kind.SEQUENCE);
+                mv.visitMethodInsn(INVOKEVIRTUAL, SEQUENCE, "length", "()I", false);
+                mv.visitInsn(I2D);
+                break;
+            case "sum":
+                unary(left, right, Kind.SEQUENCE);
+                mv.visitMethodInsn(INVOKEVIRTUAL, SEQUENCE, "sum", "()D", false);
+                break;
+            case "flip":
+                unary(left, right, Kind.SEQUENCE);
+                mv.visitMethodInsn(INVOKEVIRTUAL, SEQUENCE, "flip", "()L" + SEQUENCE + ";", false);
+                break;
+            case "remove":
+                binary(left, right, Kind.SEQUENCE, Kind.INT);
+                mv.visitMethodInsn(INVOKEVIRTUAL, SEQUENCE, "remove", "(I)L" + SEQUENCE + ";", false);
+                break;
+            case "truncate":
+                binary(left, right, Kind.SEQUENCE, Kind.INT);
+                mv.visitMethodInsn(INVOKEVIRTUAL, SEQUENCE, "truncate", "(I)L" + SEQUENCE + ";", false);
+                break;
+            /* DEFAULT */
+            default: throw new UnsupportedTreeException("Unsupported operator: " + operator);
+        }
+    }
+
+    private static Tree requireOperand(final Tree operand, final String operator) throws UnsupportedTreeException {
+        if (operand == null) {
+            throw new UnsupportedTreeException("Missing operand for operator " + operator);
+        }
+        return operand;
+    }
+
+    private void binary(final Tree left, final Tree right, final Kind leftKind, final Kind rightKind)
+            throws UnsupportedTreeException {
+        compileNode(left, leftKind);
+        compileNode(requireOperand(right, "binary operator"), rightKind);
+    }
+
+    private void unary(final Tree left, final Tree right, final Kind kind) throws UnsupportedTreeException {
+        if (right != null) {
+            // TreeEval would evaluate the right operand anyway
+            throw new UnsupportedTreeException("Unexpected operand for unary operator");
+        }
+        compileNode(left, kind);
+    }
+
+    /**
+     * Same as TreeEval.eq, where the comparison depends on the kind of the left operand
+     */
+    private void equals(final Tree left, final Tree right) throws UnsupportedTreeException {
+        final Kind kind = valueKind(left);
+        binary(left, right, kind, kind);
+        switch (kind) {
+            case DOUBLE:
+                mv.visitLdcInsn(precision);
+                mv.visitMethodInsn(INVOKESTATIC, TREE_EVAL, "numericEquals", "(DDD)Z", false);
+                break;
+            case BOOLEAN:
+                mv.visitInsn(IXOR);
+                not();
+                break;
+            case SEQUENCE:
+                mv.visitLdcInsn(precision);
+                mv.visitMethodInsn(INVOKEVIRTUAL, SEQUENCE, "equals", "(L" + SEQUENCE + ";D)Z", false);
+                break;
+            default:
+                throw new UnsupportedTreeException("Unsupported operands for ==");
+        }
+    }
+
+    private void not() {
+        mv.visitInsn(ICONST_1);
+        mv.visitInsn(IXOR);
+    }
+
+    /**
+     * Compare the two doubles on top of the operand stack, jumping to false with the given opcode
+     */
+    private void compare(final int cmpOpcode, final int jumpIfFalseOpcode) {
+        final Label isFalse = new Label();
+        final Label end = new Label();
+        mv.visitInsn(cmpOpcode);
+        mv.visitJumpInsn(jumpIfFalseOpcode, isFalse);
+        mv.visitInsn(ICONST_1);
+        mv.visitJumpInsn(GOTO, end);
+        mv.visitLabel(isFalse);
+        mv.visitInsn(ICONST_0);
+        mv.visitLabel(end);
+    }
+
+}
@@ -0,0 +1,580 @@
+package ch.usi.gassert.evaluator;
+
+import ch.usi.gassert.Config;
+import ch.usi.gassert.data.state.StateBatch;
+import ch.usi.gassert.data.state.StateTable;
+import ch.usi.gassert.data.tree.Tree;
+import ch.usi.gassert.data.tree.TreeEval;
+import ch.usi.gassert.data.types.Sequence;
+import ch.usi.gassert.evaluator.TreeCompiler.Kind;
+import ch.usi.gassert.evaluator.TreeCompiler.UnsupportedTreeException;
+import ch.usi.gassert.util.Bitmap;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+import static ch.usi.gassert.evaluator.TreeCompiler.resultKind;
+import static ch.usi.gassert.evaluator.TreeCompiler.valueKind;
+
+/**
+ * Evaluator which evaluates each node of a Tree only once for a whole StateBatch.
+ * <p>
+ * NUMBER nodes produce a double[], BOOLEAN nodes a bitmap and SEQUENCE nodes a Sequence[], along with a bitmap
+ * of the states for which TreeEval would throw. Those states, as well as the Trees with operators or variables
+ * that cannot be evaluated column by column, are evaluated one by one with the row evaluator.
+ * The results are the same as with the row evaluator.
+ * <p>
+ * The values of the inner nodes can be kept in a SubtreeCache, so that the offsprings which share most of their
+ * subtrees with their parents only evaluate the nodes from the changed subtree to the root.
+ */
+public class VectorizedEvaluator implements IEvaluator {
+
+    private final IEvaluator rowEvaluator;
+    private final SubtreeCache<Vector> subtreeCache;
+
+    public VectorizedEvaluator(final IEvaluator rowEvaluator) {
+        this(rowEvaluator, 0);
+    }
+
+    /**
+     * @param subtreeCacheBytes memory budget of the SubtreeCache, 0 to disable it
+     */
+    public VectorizedEvaluator(final IEvaluator rowEvaluator, final long subtreeCacheBytes) {
+        this.rowEvaluator = rowEvaluator;
+        this.subtreeCache = subtreeCacheBytes > 0 ? new SubtreeCache<>(subtreeCacheBytes) : null;
+    }
+
+    /**
+     * @return the SubtreeCache, or null if disabled
+     */
+    public SubtreeCache<?> getSubtreeCache() {
+        return subtreeCache;
+    }
+
+    @Override
+    public boolean eval(final Tree tree, final Map<String, Object> name2value) {
+        return rowEvaluator.eval(tree, name2value);
+    }
+
+    @Override
+    public IPreparedTree prepare(final Tree tree) {
+        return new VectorizedTree(tree);
+    }
+
+    /**
+     * Thrown for variables stored as Object, which must be evaluated one by one
+     */
+    private static class UnsupportedColumnException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedColumnException(final String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private final class VectorizedTree implements IPreparedTree {
+
+        private final Tree tree;
+        private volatile boolean isSupported;
+        private IPreparedTree rowTree;
+
+        VectorizedTree(final Tree tree) {
+            this.tree = tree;
+            this.isSupported = true;
+            this.rowTree = null;
+        }
+
+        /**
+         * The row evaluator is only prepared when needed, since preparing may be expensive (see CompiledEvaluator)
+         */
+        private synchronized IPreparedTree rowTree() {
+            if (rowTree == null) {
+                rowTree = rowEvaluator.prepare(tree);
+            }
+            return rowTree;
+        }
+
+        @Override
+        public boolean eval(final Map<String, Object> name2value) {
+            return rowTree().eval(name2value);
+        }
+
+        @Override
+        public boolean eval(final StateTable states, final int row) {
+            return rowTree().eval(states, row);
+        }
+
+        @Override
+        public long[] evalAll(final StateBatch batch) {
+            final EvalResult result = evalAllWithErrors(batch);
+            if (result == null) {
+                return rowTree().evalAll(batch);
+            }
+            // Evaluate the rows with errors one by one
+            final StateTable states = batch.getTable();
+            for (int bucket = 0; bucket < result.errors.length; ++bucket) {
+                long errors = result.errors[bucket];
+                while (errors != 0) {
+                    final int row = bucket * Long.SIZE + Long.numberOfTrailingZeros(errors);
+                    errors &= errors - 1;
+                    if (rowTree().eval(states, row)) {
+                        Bitmap.set(result.values, row);
+                    }
+                }
+            }
+            return result.values;
+        }
+
+        @Override
+        public EvalResult evalAllWithErrors(final StateBatch batch) {
+            if (!isSupported || batch.isEmpty()) {
+                return null;
+            }
+            final int from = batch.getFrom();
+            final int to = batch.getTo();
+            // Start at the beginning of a bucket, so that the result can be copied into the bitmap as is
+            final int start = from - Bitmap.bitForIndex(from);
+            final Vector result;
+            try {
+                result = new BatchEval(batch.getTable(), start, to - start, subtreeCache).evalNode(tree, Kind.BOOLEAN);
+            } catch (UnsupportedTreeException e) {
+                isSupported = false;
+                return null;
+            } catch (UnsupportedColumnException e) {
+                return null;
+            }
+            final long[] values = toBitmap(result.bits, start, from, to);
+            final long[] errors = result.errors != null ? toBitmap(result.errors, start, from, to) : Bitmap.create(to);
+            Bitmap.andNot(values, errors);
+            return new EvalResult(values, errors);
+        }
+
+        /**
+         * Copy the bits of the Vector starting at start, clearing the rows outside of the batch
+         */
+        private long[] toBitmap(final long[] bits, final int start, final int from, final int to) {
+            final long[] bitmap = Bitmap.create(to);
+            System.arraycopy(bits, 0, bitmap, Bitmap.bucketForIndex(start), bits.length);
+            for (int row = start; row < from; ++row) {
+                Bitmap.unset(bitmap, row);
+            }
+            if (Bitmap.bitForIndex(to) != 0) {
+                bitmap[bitmap.length - 1] &= (1L << Bitmap.bitForIndex(to)) - 1;
+            }
+            return bitmap;
+        }
+
+    }
+
+    /**
+     * Values of a node for all the states, only one of the arrays is used depending on the kind.
+     * The values of the states set in errors are meaningless.
+     */
+    private static final class Vector {
+
+        double[] numbers;
+        long[] bits;
+        Sequence[] sequences;
+        long[] errors;
+
+        static Vector ofNumbers(final double[] numbers, final long[] errors) {
+            final Vector vector = new Vector();
+            vector.numbers = numbers;
+            vector.errors = errors;
+            return vector;
+        }
+
+        static Vector ofBits(final long[] bits, final long[] errors) {
+            final Vector vector = new Vector();
+            vector.bits = bits;
+            vector.errors = errors;
+            return vector;
+        }
+
+        static Vector ofSequences(final Sequence[] sequences, final long[] errors) {
+            final Vector vector = new Vector();
+            vector.sequences = sequences;
+            vector.errors = errors;
+            return vector;
+        }
+
+        Vector copy() {
+            final Vector vector = new Vector();
+            vector.numbers = numbers != null ? numbers.clone() : null;
+            vector.bits = bits != null ? bits.clone() : null;
+            vector.sequences = sequences != null ? sequences.clone() : null;
+            vector.errors = errors != null ? errors.clone() : null;
+            return vector;
+        }
+
+        /**
+         * @return estimated size in bytes, the Sequences are counted as references only
+         */
+        long bytes() {
+            long bytes = 0;
+            bytes += numbers != null ? (long) numbers.length * Double.BYTES : 0;
+            bytes += bits != null ? (long) bits.length * Long.BYTES : 0;
+            bytes += sequences != null ? (long) sequences.length * Long.BYTES : 0;
+            bytes += errors != null ? (long) errors.length * Long.BYTES : 0;
+            return bytes;
+        }
+
+    }
+
+    /**
+     * Evaluation of the nodes of a Tree for n states, starting at the given row.
+     * Same semantics as TreeEval.eval (and TreeCompiler), including the evaluation of both operands.
+     */
+    private static final class BatchEval {
+
+        private final StateTable states;
+        private final int start;
+        private final int n;
+        private final int buckets;
+        private final double precision;
+        private final SubtreeCache<Vector> cache;
+
+        BatchEval(final StateTable states, final int start, final int n, final SubtreeCache<Vector> cache) {
+            this.states = states;
+            this.start = start;
+            this.n = n;
+            this.buckets = Bitmap.bucketsForSize(n);
+            this.precision = Config.EVAL_NUMBER_PRECISION;
+            this.cache = cache;
+        }
+
+        Vector evalNode(final Tree node, final Kind expected) throws UnsupportedTreeException, UnsupportedColumnException {
+            if (node.isLeaf()) {
+                return evalLeaf(node, expected);
+            }
+            final String operator = node.getValue().toString();
+            final Kind kind = resultKind(operator);
+            if (expected != kind && !(expected == Kind.INT && kind == Kind.DOUBLE)) {
+                throw new UnsupportedTreeException("Unexpected result for operator " + operator);
+            }
+            if (cache == null) {
+                return evalOperator(node, operator);
+            }
+            // The operators modify the values of their operands, so the cached values are always copied
+            final String subtree = node.toString();
+            final Vector cached = cache.get(subtree, states, start, n);
+            if (cached != null) {
+                return cached.copy();
+            }
+            final Vector vector = evalOperator(node, operator);
+            return cache.put(subtree, states, start, n, vector, vector.bytes()) ? vector.copy() : vector;
+        }
+
+        private Vector evalLeaf(final Tree node, final Kind expected) throws UnsupportedTreeException, UnsupportedColumnException {
+            final Object value = node.getValue();
+            final String valueString = value.toString();
+            if (TreeEval.isLiteral(valueString)) {
+                if (expected == Kind.BOOLEAN && value instanceof Boolean) {
+                    final long[] bits = new long[buckets];
+                    Arrays.fill(bits, (Boolean) value ? -1L : 0L);
+                    return Vector.ofBits(bits, null);
+                } else if ((expected == Kind.DOUBLE || expected == Kind.INT) && value instanceof Number) {
+                    final double[] numbers = new double[n];
+                    Arrays.fill(numbers, ((Number) value).doubleValue());
+                    return Vector.ofNumbers(numbers, null);
+                }
+                throw new UnsupportedTreeException("Unsupported literal: " + valueString);
+            }
+            final int column = states.getSchema().indexOf(valueString);
+            final StateTable.Kind columnKind = states.getKind(column);
+            if (columnKind == StateTable.Kind.OBJECT) {
+                throw new UnsupportedColumnException("Variable stored as Object: " + valueString);
+            }
+            switch (expected) {
+                case DOUBLE:
+                case INT:
+                    if (columnKind == StateTable.Kind.NUMBER) {
+                        return Vector.ofNumbers(
+                                Arrays.copyOfRange(states.getNumberColumn(column), start, start + n),
+                                missing(column));
+                    }
+                    return Vector.ofNumbers(new double[n], allErrors());
+                case BOOLEAN:
+                    if (columnKind == StateTable.Kind.BOOLEAN) {
+                        return Vector.ofBits(
+                                Arrays.copyOf(states.getBooleanColumn(column).get(start, start + n).toLongArray(), buckets),
+                                missing(column));
+                    }
+                    return Vector.ofBits(new long[buckets], allErrors());
+                case SEQUENCE:
+                    if (columnKind == StateTable.Kind.SEQUENCE) {
+                        return Vector.ofSequences(
+                                Arrays.copyOfRange(states.getSequenceColumn(column), start, start + n),
+                                missing(column));
+                    }
+                    return Vector.ofSequences(new Sequence[n], allErrors());
+                default:
+                    throw new UnsupportedTreeException("Unsupported kind: " + expected);
+            }
+        }
+
+        /**
+         * @return the errors for the missing values of a column, or null if there are none
+         */
+        private long[] missing(final int column) {
+            final BitSet present = states.getPresentColumn(column);
+            if (present.nextClearBit(start) >= start + n) {
+                return null;
+            }
+            final long[] errors = Arrays.copyOf(present.get(start, start + n).toLongArray(), buckets);
+            for (int i = 0; i < buckets; ++i) {
+                errors[i] = ~errors[i];
+            }
+            return errors;
+        }
+
+        private long[] allErrors() {
+            final long[] errors = new long[buckets];
+            Arrays.fill(errors, -1L);
+            return errors;
+        }
+
+        private static long[] errors(final Vector a, final Vector b) {
+            if (a.errors == null) {
+                return b.errors;
+            } else if (b.errors == null) {
+                return a.errors;
+            }
+            final long[] errors = a.errors.clone();
+            Bitmap.or(errors, b.errors);
+            return errors;
+        }
+
+        private static boolean isError(final long[] errors, final int i) {
+            return errors != null && Bitmap.isSet(errors, i);
+        }
+
+        private Vector evalOperator(final Tree node, final String operator) throws UnsupportedTreeException, UnsupportedColumnException {
+            final Tree left = node.getLeft();
+            final Tree right = node.getRight();
+            if (left == null) {
+                throw new UnsupportedTreeException("Missing operand for operator " + operator);
+            }
+            switch (operator) {
+                /* NUMERIC OPERATORS */
+                case "+": case "-": case "*": case "/": case "^":
+                    return arithmetic(operator, evalNode(left, Kind.DOUBLE), evalNode(requireOperand(right, operator), Kind.DOUBLE));
+                /* NUMBER TO BOOLEAN OPERATORS */
+                case "==":
+                    return equals(left, requireOperand(right, operator));
+                case "!=": case "<>":
+                    return not(equals(left, requireOperand(right, operator)));
+                case "<": case ">": case "<=": case ">=":
+                    return compare(operator, evalNode(left, Kind.DOUBLE), evalNode(requireOperand(right, operator), Kind.DOUBLE));
+                /* BOOLEAN OPERATORS */
+                case "&&": case "||": case "=>": case "<=>":
+                    return logical(operator, evalNode(left, Kind.BOOLEAN), evalNode(requireOperand(right, operator), Kind.BOOLEAN));
+                /* FUNCTIONS */
+                case "NOT":
+                    return not(unary(left, right, Kind.BOOLEAN));
+                case "ABS": {
+                    final Vector a = unary(left, right, Kind.DOUBLE);
+                    for (int i = 0; i < n; ++i) {
+                        a.numbers[i] = Math.abs(a.numbers[i]);
+                    }
+                    return a;
+                }
+                case "string": {
+                    final Vector a = unary(left, right, Kind.DOUBLE);
+                    final Sequence[] sequences = new Sequence[n];
+                    for (int i = 0; i < n; ++i) {
+                        sequences[i] = Sequence.fromNumber(a.numbers[i]);
+                    }
+                    return Vector.ofSequences(sequences, a.errors);
+                }
+                case "length": case "sum":
+                    return sequenceToNumber(operator, unary(left, right, Kind.SEQUENCE));
+                case "flip":
+                    return sequenceToSequence(operator, unary(left, right, Kind.SEQUENCE), null);
+                case "remove": case "truncate":
+                    return sequenceToSequence(operator, evalNode(left, Kind.SEQUENCE), evalNode(requireOperand(right, operator), Kind.INT));
+                /* DEFAULT */
+                default:
+                    throw new UnsupportedTreeException("Unsupported operator: " + operator);
+            }
+        }
+
+        private static Tree requireOperand(final Tree operand, final String operator) throws UnsupportedTreeException {
+            if (operand == null) {
+                throw new UnsupportedTreeException("Missing operand for operator " + operator);
+            }
+            return operand;
+        }
+
+        private Vector unary(final Tree left, final Tree right, final Kind kind) throws UnsupportedTreeException, UnsupportedColumnException {
+            if (right != null) {
+                // TreeEval would evaluate the right operand anyway
+                throw new UnsupportedTreeException("Unexpected operand for unary operator");
+            }
+            return evalNode(left, kind);
+        }
+
+        private Vector arithmetic(final String operator, final Vector a, final Vector b) {
+            final double[] x = a.numbers;
+            final double[] y = b.numbers;
+            switch (operator) {
+                case "+":
+                    for (int i = 0; i < n; ++i) x[i] = x[i] + y[i];
+                    break;
+                case "-":
+                    for (int i = 0; i < n; ++i) x[i] = x[i] - y[i];
+                    break;
+                case "*":
+                    for (int i = 0; i < n; ++i) x[i] = x[i] * y[i];
+                    break;
+                case "/":
+                    for (int i = 0; i < n; ++i) x[i] = TreeEval.protectedDivision(x[i], y[i], precision);
+                    break;
+                default:
+                    for (int i = 0; i < n; ++i) x[i] = Math.pow(x[i], y[i]);
+                    break;
+            }
+            return Vector.ofNumbers(x, errors(a, b));
+        }
+
+        private Vector compare(final String operator, final Vector a, final Vector b) {
+            final double[] x = a.numbers;
+            final double[] y = b.numbers;
+            final long[] bits = new long[buckets];
+            switch (operator) {
+                case "<":
+                    for (int i = 0; i < n; ++i) if (x[i] < y[i]) bits[i >>> 6] |= 1L << i;
+                    break;
+                case ">":
+                    for (int i = 0; i < n; ++i) if (x[i] > y[i]) bits[i >>> 6] |= 1L << i;
+                    break;
+                case "<=":
+                    for (int i = 0; i < n; ++i) if (x[i] <= y[i]) bits[i >>> 6] |= 1L << i;
+                    break;
+                default:
+                    for (int i = 0; i < n; ++i) if (x[i] >= y[i]) bits[i >>> 6] |= 1L << i;
+                    break;
+            }
+            return Vector.ofBits(bits, errors(a, b));
+        }
+
+        private Vector logical(final String operator, final Vector a, final Vector b) {
+            final long[] x = a.bits;
+            final long[] y = b.bits;
+            switch (operator) {
+                case "&&":
+                    for (int i = 0; i < buckets; ++i) x[i] = x[i] & y[i];
+                    break;
+                case "||":
+                    for (int i = 0; i < buckets; ++i) x[i] = x[i] | y[i];
+                    break;
+                case "=>":
+                    for (int i = 0; i < buckets; ++i) x[i] = ~x[i] | y[i];
+                    break;
+                default:
+                    for (int i = 0; i < buckets; ++i) x[i] = ~(x[i] ^ y[i]);
+                    break;
+            }
+            return Vector.ofBits(x, errors(a, b));
+        }
+
+        private Vector not(final Vector a) {
+            for (int i = 0; i < buckets; ++i) {
+                a.bits[i] = ~a.bits[i];
+            }
+            return a;
+        }
+
+        /**
+         * Same as TreeEval.eq, where the comparison depends on the kind of the left operand
+         */
+        private Vector equals(final Tree left, final Tree right) throws UnsupportedTreeException, UnsupportedColumnException {
+            final Kind kind = valueKind(left);
+            final Vector a = evalNode(left, kind);
+            final Vector b = evalNode(right, kind);
+            switch (kind) {
+                case DOUBLE: {
+                    final long[] bits = new long[buckets];
+                    for (int i = 0; i < n; ++i) {
+                        if (TreeEval.numericEquals(a.numbers[i], b.numbers[i], precision)) bits[i >>> 6] |= 1L << i;
+                    }
+                    return Vector.ofBits(bits, errors(a, b));
+                }
+                case BOOLEAN:
+                    return logical("<=>", a, b);
+                case SEQUENCE: {
+                    final long[] bits = new long[buckets];
+                    final long[] errors = errors(a, b);
+                    final long[] newErrors = new long[buckets];
+                    for (int i = 0; i < n; ++i) {
+                        if (isError(errors, i)) continue;
+                        try {
+                            if (a.sequences[i].equals(b.sequences[i], precision)) bits[i >>> 6] |= 1L << i;
+                        } catch (Throwable e) {
+                            Bitmap.set(newErrors, i);
+                        }
+                    }
+                    return Vector.ofBits(bits, mergeErrors(errors, newErrors));
+                }
+                default:
+                    throw new UnsupportedTreeException("Unsupported operands for ==");
+            }
+        }
+
+        private Vector sequenceToNumber(final String operator, final Vector a) {
+            final double[] numbers = new double[n];
+            final long[] newErrors = new long[buckets];
+            for (int i = 0; i < n; ++i) {
+                if (isError(a.errors, i)) continue;
+                try {
+                    numbers[i] = operator.equals("length") ? (double) a.sequences[i].length() : a.sequences[i].sum();
+                } catch (Throwable e) {
+                    Bitmap.set(newErrors, i);
+                }
+            }
+            return Vector.ofNumbers(numbers, mergeErrors(a.errors, newErrors));
+        }
+
+        private Vector sequenceToSequence(final String operator, final Vector a, final Vector index) {
+            final long[] errors = index == null ? a.errors : errors(a, index);
+            final Sequence[] sequences = new Sequence[n];
+            final long[] newErrors = new long[buckets];
+            for (int i = 0; i < n; ++i) {
+                if (isError(errors, i)) continue;
+                try {
+                    switch (operator) {
+                        case "flip":
+                            sequences[i] = a.sequences[i].flip();
+                            break;
+                        case "remove":
+                            sequences[i] = a.sequences[i].remove((int) index.numbers[i]);
+                            break;
+                        default:
+                            sequences[i] = a.sequences[i].truncate((int) index.numbers[i]);
+                            break;
+                    }
+                } catch (Throwable e) {
+                    Bitmap.set(newErrors, i);
+                }
+            }
+            return Vector.ofSequences(sequences, mergeErrors(errors, newErrors));
+        }
+
+        /**
+         * @return errors | newErrors, or null if there are no errors at all
+         */
+        private static long[] mergeErrors(final long[] errors, final long[] newErrors) {
+            boolean hasErrors = false;
+            for (int i = 0; i < newErrors.length; ++i) {
+                if (errors != null) {
+                    newErrors[i] |= errors[i];
+                }
+                hasErrors |= newErrors[i] != 0;
+            }
+            return hasErrors ? newErrors : null;
+        }
+
+    }
+
+}
@@ -14,6 +14,9 @@ public class Elitism {
 
     public Individual bestOfTheBest;
     public int generation;
+    // Result of getAllBestIndividuals, until the elite changes
+    private List<Individual> allBestIndividuals;
+    private int allBestIndividualsGeneration;
 
     public Elitism() {
         criteria2bestIndividuals = new HashMap<>();
@@ -24,6 +27,9 @@ public class Elitism {
     }
 
     public List<Individual> getAllBestIndividuals(final int gen) {
+        if (allBestIndividuals != null && allBestIndividualsGeneration == gen) {
+            return allBestIndividuals;
+        }
         final List<Individual> toSort = new ArrayList<>(criteria2bestIndividuals.size() * Config.sizeForElitism);
         for (final CriteriaCompareIndividuals criteria : criteria2bestIndividuals.keySet()) {
             toSort.addAll(criteria2bestIndividuals.get(criteria));
@@ -38,7 +44,9 @@ public class Elitism {
             bestOfTheBest = bestOfBestIndividual;
             generation = gen;
         }
-        return toSort;
+        allBestIndividuals = Collections.unmodifiableList(toSort);
+        allBestIndividualsGeneration = gen;
+        return allBestIndividuals;
     }
 
     public List<Individual> getBestIndividuals(final int gen) {
@@ -56,31 +64,41 @@ public class Elitism {
         return criteria2bestIndividuals.get(criteria);
     }
 
+    /**
+     * Update the elite of each criteria with the best distinct elite valid individuals of the population,
+     * in a single pass over the population.
+     */
     public List<Individual> updateAndGetElitism(final Population population, final int gen) {
 
         final List<Individual> elite = new ArrayList<>(Config.sizeForElitism * criteria2bestIndividuals.values().size());
-        final List<Individual> p = population.getPopulation();
-        for (final CriteriaCompareIndividuals criteria : CriteriaCompareIndividuals.values()) {
-            final List<Individual> toSort = new ArrayList<>(p.size() + Config.sizeForElitism);
-            toSort.addAll(p);
-            final List<Individual> currentElite = criteria2bestIndividuals.get(criteria);
-            toSort.addAll(currentElite);
-            toSort.sort(criteria.getComparator(gen));
-            criteria2bestIndividuals.get(criteria).clear();
-            criteria2bestIndividuals.put(
-                    criteria,
-                    Elitism.distinctIndividuals(toSort)
-                            .filter(Individual::isEliteValid)
-                            .limit(Config.sizeForElitism)
-                            .collect(Collectors.toList())
-            );
-            elite.addAll(criteria2bestIndividuals.get(criteria));
+        final CriteriaCompareIndividuals[] criterias = CriteriaCompareIndividuals.values();
+        final TopIndividuals[] tops = new TopIndividuals[criterias.length];
+        for (int i = 0 ; i < criterias.length ; ++i) {
+            tops[i] = new TopIndividuals(criterias[i].getComparator(gen), Config.sizeForElitism, Elitism::distinctKey);
+        }
+        for (final Individual individual : population.getPopulation()) {
+            if (individual.isEliteValid()) {
+                for (final TopIndividuals top : tops) {
+                    top.offer(individual);
+                }
+            }
         }
+        for (int i = 0 ; i < criterias.length ; ++i) {
+            for (final Individual individual : criteria2bestIndividuals.get(criterias[i])) {
+                if (individual.isEliteValid()) {
+                    tops[i].offer(individual);
+                }
+            }
+            criteria2bestIndividuals.put(criterias[i], tops[i].toList());
+            elite.addAll(criteria2bestIndividuals.get(criterias[i]));
+        }
+        allBestIndividuals = null;
 
         return elite;
     }
 
     public void recomputeFitness(final BehaviourManager behaviourManager) {
+        allBestIndividuals = null;
         for (final List<Individual> best : criteria2bestIndividuals.values()) {
             for (final Individual individual : best) {
                 individual.recompute(behaviourManager);
@@ -88,12 +106,19 @@ public class Elitism {
         }
     }
 
+    /**
+     * Individuals with the same key are considered duplicates, see distinctIndividuals
+     */
+    public static Object distinctKey(final Individual individual) {
+        return Config.ELITE_UNIQUE_SIGNATURES ? individual.getSignature() : individual;
+    }
+
     public static Stream<Individual> distinctIndividuals(final List<Individual> individuals) {
         if (Config.ELITE_UNIQUE_SIGNATURES) {
             final Stream.Builder<Individual> builder = Stream.builder();
             final Set<Integer> signatures = new HashSet<>(256);
             for (final Individual individual : individuals) {
-                final int signature = Arrays.hashCode(individual.idsFNGOOD);
+                final int signature = individual.getSignature();
                     if (!signatures.contains(signature)) {
                         builder.accept(individual);
                         signatures.add(signature);
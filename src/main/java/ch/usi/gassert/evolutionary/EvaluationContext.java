@@ -0,0 +1,57 @@
+package ch.usi.gassert.evolutionary;
+
+import ch.usi.gassert.data.state.StateBatch;
+import ch.usi.gassert.data.state.StateTable;
+import ch.usi.gassert.data.tree.template.TreeTemplate;
+import ch.usi.gassert.evaluator.EvalResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Results of the trees of the TreeGroup of an Individual, kept while its fitness is computed (see Individual.compute),
+ * so that the validators and the fitness functions evaluate each of them only once for the same states.
+ */
+public class EvaluationContext {
+
+    private static final class Entry {
+        final TreeTemplate template;
+        final StateTable states;
+        final int from;
+        final int to;
+        final EvalResult result;
+
+        Entry(final TreeTemplate template, final StateBatch batch, final EvalResult result) {
+            this.template = template;
+            this.states = batch.getTable();
+            this.from = batch.getFrom();
+            this.to = batch.getTo();
+            this.result = result;
+        }
+
+        boolean matches(final TreeTemplate template, final StateBatch batch) {
+            return this.template == template && states == batch.getTable()
+                    && from == batch.getFrom() && to == batch.getTo();
+        }
+    }
+
+    // Only a few templates and state sets, so a list is enough
+    private final List<Entry> entries = new ArrayList<>(4);
+
+    /**
+     * @return the result of the given template for the given batch, computing it if needed (it can be null)
+     */
+    public EvalResult computeIfAbsent(final TreeTemplate template, final StateBatch batch,
+                                      final Supplier<EvalResult> compute) {
+        for (final Entry entry : entries) {
+            if (entry.matches(template, batch)) {
+                return entry.result;
+            }
+        }
+        final EvalResult result = compute.get();
+        entries.add(new Entry(template, batch, result));
+        return result;
+    }
+
+}
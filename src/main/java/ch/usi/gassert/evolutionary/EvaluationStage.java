@@ -0,0 +1,422 @@
+package ch.usi.gassert.evolutionary;
+
+import ch.usi.gassert.Config;
+import ch.usi.gassert.Stats;
+import ch.usi.gassert.Time;
+import ch.usi.gassert.data.state.StateBatch;
+import ch.usi.gassert.evaluator.EvalResult;
+import ch.usi.gassert.evaluator.IPreparedTree;
+import ch.usi.gassert.interpreter.MinimizationAssertion;
+import ch.usi.gassert.util.Bitmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stage of the EvolutionaryAlgorithm where the fitness of a batch of candidate Individuals is computed.
+ * <p>
+ * The Individuals are evaluated in a ForkJoinPool shared by the Evolve instances, so that idle workers steal
+ * the pending work instead of waiting for the slowest fixed partition.
+ * The states of a single Individual can also be split across workers (see evalAll).
+ * The same Individual object may be given more than once (e.g. cached Individuals), it is computed only once.
+ */
+public class EvaluationStage {
+
+    /**
+     * Busy and idle time of the workers, cumulative since the creation of the EvaluationStage.
+     * The time a worker spends waiting in a join is not busy time, the tasks it runs meanwhile count their own.
+     */
+    public static final class Metrics {
+
+        public final long wallNanos;
+        public final long busyNanos;
+        public final int parallelism;
+
+        Metrics(final long wallNanos, final long busyNanos, final int parallelism) {
+            this.wallNanos = wallNanos;
+            this.busyNanos = busyNanos;
+            this.parallelism = parallelism;
+        }
+
+        public long idleNanos() {
+            return Math.max(0L, wallNanos * parallelism - busyNanos);
+        }
+
+        /**
+         * @return the fraction of the worker time spent idle since the previous Metrics
+         */
+        public double idleRatioSince(final Metrics previous) {
+            final long wall = (wallNanos - previous.wallNanos) * parallelism;
+            if (wall <= 0) {
+                return 0.0;
+            }
+            final long busy = busyNanos - previous.busyNanos;
+            return Math.max(0.0, Math.min(1.0, 1.0 - (double) busy / (double) wall));
+        }
+
+    }
+
+    /**
+     * Individuals and states evaluated by the computations which were given this Counts
+     */
+    public static final class Counts {
+
+        private final LongAdder individuals = new LongAdder();
+        private final LongAdder states = new LongAdder();
+
+        public long getIndividuals() {
+            return individuals.sum();
+        }
+
+        /**
+         * @return the number of (Individual, state) evaluations
+         */
+        public long getStates() {
+            return states.sum();
+        }
+
+    }
+
+    /**
+     * Worker of the pool, measuring the time it spends running tasks
+     */
+    private static final class Worker extends ForkJoinWorkerThread {
+
+        final LongAdder busyNanos;
+        // Start of the busy period being measured, -1 if not measuring
+        long busyStart = -1;
+
+        Worker(final ForkJoinPool pool, final LongAdder busyNanos) {
+            super(pool);
+            this.busyNanos = busyNanos;
+        }
+
+    }
+
+    private final LongAdder busyNanos;
+    private final ForkJoinPool pool;
+    private final long startNanos;
+
+    public EvaluationStage(final int parallelism) {
+        this.busyNanos = new LongAdder();
+        this.pool = new ForkJoinPool(Math.max(1, parallelism), p -> new Worker(p, busyNanos), null, false);
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Start measuring the busy time of the current worker
+     *
+     * @return false if not in a worker, or if it was measuring already
+     */
+    private static boolean startBusy() {
+        final Thread thread = Thread.currentThread();
+        if (thread instanceof Worker) {
+            final Worker worker = (Worker) thread;
+            if (worker.busyStart < 0) {
+                worker.busyStart = System.nanoTime();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stop measuring the busy time of the current worker
+     *
+     * @return whether it was measuring
+     */
+    private static boolean stopBusy() {
+        final Thread thread = Thread.currentThread();
+        if (thread instanceof Worker) {
+            final Worker worker = (Worker) thread;
+            if (worker.busyStart >= 0) {
+                worker.busyNanos.add(System.nanoTime() - worker.busyStart);
+                worker.busyStart = -1;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Join the task without counting the wait as busy time
+     */
+    private static <T> T joinIdle(final ForkJoinTask<T> task) {
+        final boolean wasBusy = stopBusy();
+        try {
+            return task.join();
+        } finally {
+            if (wasBusy) {
+                startBusy();
+            }
+        }
+    }
+
+    /**
+     * @return the distinct Individuals (by identity) in order, and the index of each of them in the returned list
+     */
+    private static List<Individual> distinct(final List<Individual> individuals, final Map<Individual, Integer> indices) {
+        final List<Individual> distinct = new ArrayList<>(individuals.size());
+        for (final Individual individual : individuals) {
+            if (indices.putIfAbsent(individual, distinct.size()) == null) {
+                distinct.add(individual);
+            }
+        }
+        return distinct;
+    }
+
+    /**
+     * Compute the fitness of the given Individuals, minimizing them first if requested.
+     *
+     * @return the computed Individuals in the same order, null for those which could not be computed
+     */
+    public List<Individual> computeAll(final List<Individual> individuals, final BehaviourManager behaviourManager,
+                                       final boolean minimize) {
+        return computeAll(individuals, behaviourManager, minimize, null);
+    }
+
+    /**
+     * Same as computeAll, adding the evaluated Individuals and states to the given Counts
+     */
+    public List<Individual> computeAll(final List<Individual> individuals, final BehaviourManager behaviourManager,
+                                       final boolean minimize, final Counts counts) {
+        final Map<Individual, Integer> indices = new IdentityHashMap<>(individuals.size());
+        final List<Individual> distinct = distinct(individuals, indices);
+        final Individual[] results = new Individual[distinct.size()];
+        if (!distinct.isEmpty()) {
+            pool.invoke(new ComputeTask(distinct, results, 0, results.length, behaviourManager, minimize, false, counts));
+        }
+        if (distinct.size() == individuals.size()) {
+            return Arrays.asList(results);
+        }
+        final List<Individual> computed = new ArrayList<>(individuals.size());
+        for (final Individual individual : individuals) {
+            computed.add(results[indices.get(individual)]);
+        }
+        return computed;
+    }
+
+    /**
+     * Recompute the fitness of the given Individuals, after new states have been added
+     */
+    public void recomputeAll(final List<Individual> individuals, final BehaviourManager behaviourManager) {
+        recomputeAll(individuals, behaviourManager, null);
+    }
+
+    /**
+     * Same as recomputeAll, adding the evaluated Individuals and states to the given Counts
+     */
+    public void recomputeAll(final List<Individual> individuals, final BehaviourManager behaviourManager,
+                             final Counts counts) {
+        final List<Individual> distinct = distinct(individuals, new IdentityHashMap<>(individuals.size()));
+        if (!distinct.isEmpty()) {
+            pool.invoke(new ComputeTask(distinct, new Individual[distinct.size()], 0, distinct.size(),
+                    behaviourManager, false, true, counts));
+        }
+    }
+
+    public Metrics getMetrics() {
+        return new Metrics(System.nanoTime() - startNanos, busyNanos.sum(), pool.getParallelism());
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+        try {
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (final InterruptedException ignored) {}
+    }
+
+    private final class ComputeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        final List<Individual> individuals;
+        final Individual[] results;
+        final int from;
+        final int to;
+        final BehaviourManager behaviourManager;
+        final boolean minimize;
+        final boolean recompute;
+        final Counts counts;
+
+        ComputeTask(final List<Individual> individuals, final Individual[] results, final int from, final int to,
+                    final BehaviourManager behaviourManager, final boolean minimize, final boolean recompute,
+                    final Counts counts) {
+            this.individuals = individuals;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.behaviourManager = behaviourManager;
+            this.minimize = minimize;
+            this.recompute = recompute;
+            this.counts = counts;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new ComputeTask(individuals, results, from, mid, behaviourManager, minimize, recompute, counts),
+                        new ComputeTask(individuals, results, mid, to, behaviourManager, minimize, recompute, counts));
+                return;
+            }
+            final boolean measuring = startBusy();
+            try {
+                Individual individual = individuals.get(from);
+                long statesBefore = computedStates(individual);
+                if (recompute) {
+                    // Not recomputed if another thread is recomputing it, over the same states
+                    individual.recompute(behaviourManager);
+                } else {
+                    if (minimize) {
+                        individual = MinimizationAssertion.minimize(individual, behaviourManager);
+                        statesBefore = computedStates(individual);
+                    }
+                    if (!individual.isComputed()) {
+                        Stats.getInstance().increment(Stats.KeysCounter.numberCacheMissAssertion);
+                        Time.getInstance().start(Time.KeysCounter.computeFitnessFunction);
+                        if (!individual.compute(behaviourManager)) {
+                            // Another thread is computing it, and this one cannot wait: compute a copy instead
+                            individual = new Individual(individual.getTree().cloneTree(), individual.getTreeGroup());
+                            statesBefore = 0;
+                            individual.compute(behaviourManager);
+                        }
+                        Time.getInstance().stop(Time.KeysCounter.computeFitnessFunction);
+                    }
+                }
+                results[from] = individual;
+                if (counts != null) {
+                    // States which were not computed before, 0 if the Individual was already computed
+                    final long states = computedStates(individual) - statesBefore;
+                    if (states > 0) {
+                        counts.individuals.increment();
+                        counts.states.add(states);
+                    }
+                }
+            } catch (final ArithmeticException ignored) {
+                // Same as Population.add
+            } finally {
+                if (measuring) {
+                    stopBusy();
+                }
+            }
+        }
+
+    }
+
+    private static long computedStates(final Individual individual) {
+        return (long) individual.getLastComputedCorrectTestExecutionsSize()
+                + individual.getLastComputedIncorrectTestExecutionsSize();
+    }
+
+    /**
+     * Evaluate the given prepared Tree over the batch.
+     * Within the EvaluationStage, batches larger than Config.EVALUATION_SPLIT_STATES are split across the workers.
+     */
+    public static long[] evalAll(final IPreparedTree tree, final StateBatch batch) {
+        if (batch.size() <= Config.EVALUATION_SPLIT_STATES || !ForkJoinTask.inForkJoinPool()) {
+            return tree.evalAll(batch);
+        }
+        return new EvalAllTask(tree, batch).invoke();
+    }
+
+    /**
+     * Same as evalAll, for IPreparedTree.evalAllWithErrors
+     */
+    public static EvalResult evalAllWithErrors(final IPreparedTree tree, final StateBatch batch) {
+        if (batch.size() <= Config.EVALUATION_SPLIT_STATES || !ForkJoinTask.inForkJoinPool()) {
+            return tree.evalAllWithErrors(batch);
+        }
+        return new EvalAllWithErrorsTask(tree, batch).invoke();
+    }
+
+    private static final class EvalAllWithErrorsTask extends RecursiveTask<EvalResult> {
+
+        private static final long serialVersionUID = 1L;
+
+        final IPreparedTree tree;
+        final StateBatch batch;
+
+        EvalAllWithErrorsTask(final IPreparedTree tree, final StateBatch batch) {
+            this.tree = tree;
+            this.batch = batch;
+        }
+
+        @Override
+        protected EvalResult compute() {
+            final boolean measuring = startBusy();
+            try {
+                final int from = batch.getFrom();
+                final int to = batch.getTo();
+                // Split at a bucket boundary, so that both halves write to different buckets
+                final int mid = ((from + to) >>> 1) & -Long.SIZE;
+                if (batch.size() <= Config.EVALUATION_SPLIT_STATES || mid <= from) {
+                    return tree.evalAllWithErrors(batch);
+                }
+                final EvalAllWithErrorsTask left = new EvalAllWithErrorsTask(tree, new StateBatch(batch.getTable(), from, mid));
+                left.fork();
+                final EvalResult result = new EvalAllWithErrorsTask(tree, new StateBatch(batch.getTable(), mid, to)).compute();
+                final EvalResult leftResult = joinIdle(left);
+                if (result == null || leftResult == null) {
+                    return null;
+                }
+                result.orBuckets(leftResult, mid);
+                return result;
+            } finally {
+                if (measuring) {
+                    stopBusy();
+                }
+            }
+        }
+
+    }
+
+    private static final class EvalAllTask extends RecursiveTask<long[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        final IPreparedTree tree;
+        final StateBatch batch;
+
+        EvalAllTask(final IPreparedTree tree, final StateBatch batch) {
+            this.tree = tree;
+            this.batch = batch;
+        }
+
+        @Override
+        protected long[] compute() {
+            final boolean measuring = startBusy();
+            try {
+                final int from = batch.getFrom();
+                final int to = batch.getTo();
+                // Split at a bucket boundary, so that both halves write to different buckets
+                final int mid = ((from + to) >>> 1) & -Long.SIZE;
+                if (batch.size() <= Config.EVALUATION_SPLIT_STATES || mid <= from) {
+                    return tree.evalAll(batch);
+                }
+                final EvalAllTask left = new EvalAllTask(tree, new StateBatch(batch.getTable(), from, mid));
+                left.fork();
+                final long[] result = new EvalAllTask(tree, new StateBatch(batch.getTable(), mid, to)).compute();
+                final long[] leftResult = joinIdle(left);
+                Bitmap.orBuckets(leftResult, result, mid);
+                return result;
+            } finally {
+                if (measuring) {
+                    stopBusy();
+                }
+            }
+        }
+
+    }
+
+}
@@ -3,9 +3,12 @@ package ch.usi.gassert.evolutionary;
 import ch.usi.gassert.*;
 import ch.usi.gassert.data.manager.IDataManager;
 import ch.usi.gassert.data.state.ITestExecution;
+import ch.usi.gassert.data.state.updater.AsyncStatesUpdater;
 import ch.usi.gassert.data.tree.ITree;
 import ch.usi.gassert.data.tree.Tree;
 import ch.usi.gassert.data.tree.template.TreeGroup;
+import ch.usi.gassert.evaluator.SubtreeCache;
+import ch.usi.gassert.evaluator.VectorizedEvaluator;
 import ch.usi.gassert.interpreter.AssertionManager;
 import ch.usi.gassert.interpreter.CriteriaCompareIndividuals;
 import ch.usi.gassert.interpreter.MinimizationAssertion;
@@ -15,6 +18,8 @@ import ch.usi.gassert.util.random.MyRandom;
 import java.lang.management.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
 
 public class EvolutionaryAlgorithm {
@@ -25,13 +30,16 @@ public class EvolutionaryAlgorithm {
     public final BestIndividuals bestIndividuals;
 
     private final List<String> initialAssertions;
-    //+ 2 because we need the thread to execute the algorithms
-    public final ExecutorService executor = Executors.newFixedThreadPool(Config.numberWorkingThreads + 2);
-    final CyclicBarrier barrier = new CyclicBarrier(2);
+    // one thread for each island, the fitness is computed by the evaluationStage workers
+    public final ExecutorService executor = Executors.newFixedThreadPool(Config.ISLANDS.length);
+    public final EvaluationStage evaluationStage = new EvaluationStage(Config.numberWorkingThreads);
+    public final Migration migration = new Migration(Config.ISLANDS.length, Config.MIGRATION_TOPOLOGY);
+    // the islands hold the read lock while evolving a generation, new states are added with the write lock
+    final ReadWriteLock statesLock = new ReentrantReadWriteLock();
+    public final AsyncStatesUpdater statesUpdater;
 
     public long timestampEnd;
     public int currentGeneration;
-    boolean recomputeFitness;
 
     public Individual getOutputAssertion() {
         System.out.println("before minimization: " + outputAssertion.toString());
@@ -60,7 +68,15 @@ public class EvolutionaryAlgorithm {
         this.iteration = iteration;
         this.timestampEnd = Long.MAX_VALUE;
         this.currentGeneration = 0;
-        this.recomputeFitness = false;
+        this.statesUpdater = new AsyncStatesUpdater(dataManager.getStatesUpdater());
+    }
+
+    /**
+     * @return the SubtreeCache of the assertion evaluator, or null if there is none
+     */
+    public SubtreeCache<?> getSubtreeCache() {
+        return dataManager.getAssertionEvaluator() instanceof VectorizedEvaluator
+                ? ((VectorizedEvaluator) dataManager.getAssertionEvaluator()).getSubtreeCache() : null;
     }
 
     private void onNextGen(int gen) {
@@ -77,51 +93,91 @@ public class EvolutionaryAlgorithm {
         final Population initialPopulation = initializePopulation();
         Time.getInstance().stop(Time.KeysCounter.initialPopulation);
         LogUtils.log().info("finish initialization population");
-        final Evolve FP = new Evolve(this, 0, initialPopulation, this::onNextGen);
-        final Evolve FN = new Evolve(this, 1, initialPopulation.clone());
-        Generations.init(2);
+        final List<Evolve> islands = new ArrayList<>(Config.ISLANDS.length);
+        for (int i = 0 ; i < Config.ISLANDS.length ; ++i) {
+            islands.add(i == 0
+                    ? new Evolve(this, i, Config.ISLANDS[i], initialPopulation, this::onNextGen)
+                    : new Evolve(this, i, Config.ISLANDS[i], initialPopulation.clone()));
+        }
+        Generations.init(islands.size());
+        Profiling.init(islands.size());
         try {
             timestampEnd = System.currentTimeMillis() + (((long) Config.TIME_BUDGET_MINUTES) * 60 * 1000);
-            executor.submit(FP);
-            executor.submit(FN);
+            for (final Evolve island : islands) {
+                executor.submit(island);
+            }
             executor.awaitTermination(Config.TIME_BUDGET_MINUTES, TimeUnit.MINUTES);
             finish();
         } catch (final Exception e) {
             e.printStackTrace();
         }
 
-        final List<Individual> bestFPAll = FP.elitism.getBestIndividuals(currentGeneration);
-        this.bestIndividuals.writeIndividuals(currentGeneration, bestFPAll);
-
-        final Individual bestFP = FP.elitism.bestOfTheBest;
-        final Individual bestFN = FN.elitism.getBestOfBestIndividual(currentGeneration);
-        outputAssertion = CriteriaCompareIndividuals.FP_FN_complexity.getComparator(currentGeneration).compare(bestFN, bestFP) < 0 ? bestFN : bestFP;
+        final List<Individual> bestAll = islands.get(0).elitism.getBestIndividuals(currentGeneration);
+        this.bestIndividuals.writeIndividuals(currentGeneration, bestAll);
 
-        final int generationFoundBest;
-        if (bestFP.equals(bestFN)) {
-            generationFoundBest = Math.min(FP.elitism.generation, FN.elitism.generation);
-        } else {
-            generationFoundBest = bestFP.equals(outputAssertion) ? FP.elitism.generation : FN.elitism.generation;
+        // Best individual among the islands, the earliest island wins ties
+        final Comparator<Individual> comparator = CriteriaCompareIndividuals.FP_FN_complexity.getComparator(currentGeneration);
+        int generationFoundBest = -1;
+        for (final Evolve island : islands) {
+            final Individual best = island.elitism.getBestOfBestIndividual(currentGeneration);
+            if (best == null) {
+                continue;
+            }
+            if (outputAssertion == null || comparator.compare(best, outputAssertion) < 0) {
+                outputAssertion = best;
+                generationFoundBest = island.elitism.generation;
+            } else if (best.equals(outputAssertion)) {
+                generationFoundBest = Math.min(generationFoundBest, island.elitism.generation);
+            }
         }
         Stats.getInstance().setIfMissing(Stats.KeysCounter.generationGoodSolution, -1);
         Stats.getInstance().setIfMissing(Stats.KeysCounter.timestampGoodSolution, 0);
         Stats.getInstance().set(Stats.KeysCounter.generationBestSolution, generationFoundBest);
+        final EvaluationStage.Metrics evaluationMetrics = evaluationStage.getMetrics();
+        Stats.getInstance().set(Stats.KeysCounter.evaluationBusyTime, TimeUnit.NANOSECONDS.toMillis(evaluationMetrics.busyNanos));
+        Stats.getInstance().set(Stats.KeysCounter.evaluationIdleTime, TimeUnit.NANOSECONDS.toMillis(evaluationMetrics.idleNanos()));
+        Stats.getInstance().set(Stats.KeysCounter.assertionCacheHits, AssertionManager.getCacheHits());
+        Stats.getInstance().set(Stats.KeysCounter.assertionCacheMisses, AssertionManager.getCacheMisses());
+        Stats.getInstance().set(Stats.KeysCounter.assertionCacheEvictions, AssertionManager.getCacheEvictions());
+        final SubtreeCache<?> subtreeCache = getSubtreeCache();
+        if (subtreeCache != null) {
+            Stats.getInstance().set(Stats.KeysCounter.subtreeCacheHits, subtreeCache.getHits());
+            Stats.getInstance().set(Stats.KeysCounter.subtreeCacheMisses, subtreeCache.getMisses());
+            Stats.getInstance().set(Stats.KeysCounter.subtreeCacheEvictions, subtreeCache.getEvictions());
+        }
         Stats.getInstance().print();
         Time.getInstance().print(iteration);
         LogUtils.log().info("finish evolution!");
     }
 
+    /**
+     * Interrupt the islands, e.g. when one of them found a perfect individual, so that run finishes early
+     */
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Stop the islands, and then the EvaluationStage and IStatesUpdater they use
+     */
     public void finish() {
         try {
             executor.shutdown();
-            executor.awaitTermination(10, TimeUnit.SECONDS);
-        } catch (final InterruptedException ignore) {
-
-        } finally {
-            if (!executor.isTerminated()) {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
                 System.out.println("cancel non-finished tasks");
+                executor.shutdownNow();
+                // The islands may be waiting for the EvaluationStage, which does not respond to interrupts
+                executor.awaitTermination(60, TimeUnit.SECONDS);
             }
+        } catch (final InterruptedException ignore) {
             executor.shutdownNow();
+        } finally {
+            statesUpdater.shutdown();
+            if (executor.isTerminated()) {
+                evaluationStage.shutdown();
+            } else {
+                LogUtils.log().warn("Islands still running, the EvaluationStage is not shut down");
+            }
             System.out.println("shutdown finished");
         }
         try {
@@ -151,10 +207,17 @@ public class EvolutionaryAlgorithm {
 
         // naive case that is true still do it randomly
         do {
-            final TreeGroup treeGroup = new TreeGroup(dataManager.getTreeTemplate());
-            final Tree tree = treeGroup.buildTree();
-            final Individual individual = new Individual(tree, treeGroup);
-            initialPopulation.add(individual, behaviourManager);
+            final List<Individual> candidates = new ArrayList<>(Config.POPULATION_SIZE - initialPopulation.size());
+            while (candidates.size() < Config.POPULATION_SIZE - initialPopulation.size()) {
+                final TreeGroup treeGroup = new TreeGroup(dataManager.getTreeTemplate());
+                final Tree tree = treeGroup.buildTree();
+                candidates.add(new Individual(tree, treeGroup));
+            }
+            for (final Individual individual : evaluationStage.computeAll(candidates, behaviourManager, false)) {
+                if (individual != null) {
+                    initialPopulation.add(individual, behaviourManager);
+                }
+            }
         } while (initialPopulation.size() < Config.POPULATION_SIZE);
         System.out.println("created population of " + initialPopulation.size());
     }
@@ -196,13 +259,11 @@ public class EvolutionaryAlgorithm {
                 TreeGroup mutatedTreeGroup = behaviourManager.getMutation().mutate(individual.getTreeGroup(), individual);
                 Tree mutatedTree = mutatedTreeGroup.buildTree();
                 final String newIndividualString = mutatedTree.toString();
-                final Individual newIndividual;
-                if (!AssertionManager.containsAssertion(newIndividualString)) {
+                Individual newIndividual = AssertionManager.getCachedAssertion(newIndividualString, behaviourManager);
+                if (newIndividual == null) {
                     newIndividual = new Individual(mutatedTree, mutatedTreeGroup);
                     newIndividual.compute(behaviourManager);
                     AssertionManager.cacheAssertion(newIndividual);
-                } else {
-                    newIndividual = AssertionManager.getStringToSolution().get(newIndividualString);
                 }
                 initialPopulation.add(newIndividual, behaviourManager);
             }
@@ -216,34 +277,50 @@ class Evolve implements Callable<Void> {
 
     final EvolutionaryAlgorithm evo;
     Population population;
-    int indexFitness;
+    final int island;
+    final AssertionManager.Type criteria;
     long timeLastGeneration;
     long sumTimeEachGeneration = 0L;
     Elitism elitism;
+    // AssertionManager states version for which the fitness of the population was computed
+    int statesVersion;
+    EvaluationStage.Metrics lastEvaluationMetrics;
+    EvaluationStage.Metrics lastPrintEvaluationMetrics;
+    // Individuals and states evaluated by this Evolve instance
+    final EvaluationStage.Counts evaluationCounts;
+    Profiling.Sample lastProfilingSample;
     final Consumer<Integer> onNextGen;
 
-    Evolve(final EvolutionaryAlgorithm evo, final int i, final Population population, Consumer<Integer> onNextGen) {
+    Evolve(final EvolutionaryAlgorithm evo, final int island, final AssertionManager.Type criteria,
+           final Population population, Consumer<Integer> onNextGen) {
         this.evo = evo;
         this.population = population;
-        indexFitness = i;
+        this.island = island;
+        this.criteria = criteria;
         timeLastGeneration = System.currentTimeMillis();
         elitism = new Elitism();
+        statesVersion = AssertionManager.getStatesVersion();
+        lastEvaluationMetrics = evo.evaluationStage.getMetrics();
+        lastPrintEvaluationMetrics = lastEvaluationMetrics;
+        evaluationCounts = new EvaluationStage.Counts();
         this.onNextGen = onNextGen;
     }
 
-    Evolve(final EvolutionaryAlgorithm evo, final int i, final Population population) {
-        this(evo, i, population, null);
+    Evolve(final EvolutionaryAlgorithm evo, final int island, final AssertionManager.Type criteria,
+           final Population population) {
+        this(evo, island, criteria, population, null);
     }
 
     @Override
-    public Void call() throws InterruptedException, BrokenBarrierException {
+    public Void call() throws InterruptedException {
 
         try {
             ch.usi.gassert.util.Memory.printMemory();
 
             int gen = 0;
+            lastProfilingSample = Profiling.Sample.take(evaluationCounts, evo.getSubtreeCache());
             //storeCSV(gen);
-            LogUtils.log().info("START " + CriteriaCompareIndividuals.values()[indexFitness].toString() + " evolution!");
+            LogUtils.log().info("START " + criteria + " evolution on island " + island + "!");
             while (gen <= Config.MAX_GENERATION) {
 
                 // We can use this to check if we are accidentally mutating Individuals in place
@@ -260,7 +337,7 @@ class Evolve implements Callable<Void> {
                 }
 
                 // let only one thread to print the info
-                if (indexFitness == 0 && gen % 10 == 0) {
+                if (island == 0 && gen % 10 == 0) {
                     printInfo(gen, timeLastGeneration);
                     final List<Individual> best = elitism.getBestIndividuals(gen);
                     final Individual bestOfTheBest = elitism.bestOfTheBest;
@@ -271,94 +348,25 @@ class Evolve implements Callable<Void> {
                     this.evo.bestIndividuals.writeIndividuals(gen, best);
                 }
 
-                evo.barrier.await();
-
-                // Synchronize with IStatesUpdater, only one of the Evolutionary instances
-                if (indexFitness == 0) {
-                    evo.recomputeFitness = false;
-                    final Integer timeBudget = Config.GENERATION_STATES_UPDATE_TIME_BUDGET(gen, evo.timestampEnd - System.currentTimeMillis());
-                    if (timeBudget != null) {
-                        final List<ITestExecution> correctTestExecutions
-                                = evo.dataManager.getStatesUpdater().sync(elitism.getBestIndividuals(gen), timeBudget);
-                        if (!correctTestExecutions.isEmpty()) {
-                            evo.dataManager.addCorrectStates(correctTestExecutions);
-                            System.out.println("Correct states: " + evo.dataManager.getCorrectTestExecutions().size()
-                                    + " (+" + correctTestExecutions.size() + ")\n");
-                            Migration.recomputeFitness(evo.behaviourManager);
-                            AssertionManager.clearAll();
-                            evo.recomputeFitness = true;
-                        }
-                    }
+                // Synchronize with the IStatesUpdater running in the background, only the first island
+                if (island == 0) {
+                    Time.getInstance().start(Time.KeysCounter.statesSync);
+                    syncStates(gen);
+                    Time.getInstance().stop(Time.KeysCounter.statesSync);
                 }
 
-                evo.barrier.await();
-
-                // Recompute fitnesses after statesUpdater
-                if (evo.recomputeFitness) {
-                    population.recomputeFitness(evo.behaviourManager);
-                    elitism.recomputeFitness(evo.behaviourManager);
-                }
-
-                synchronized (AssertionManager.class) {
-                    for (final Individual sol : population.population) {
-                        AssertionManager.cacheAssertion(sol);
-                        AssertionManager.cacheIdsData(AssertionManager.Type.FN, sol, gen);
-                        AssertionManager.cacheIdsData(AssertionManager.Type.FP, sol, gen);
-                    }
-                }
-
-                evo.barrier.await();
-
-                // ELITISM
-                final Population newPopulation = new Population();
-
-                final List<Individual> elite = elitism.updateAndGetElitism(population, gen);
-
-                if (evo.behaviourManager.IS_ELITISM_ENABLED && gen % Config.generationElitism == 0) {
-                    newPopulation.addAll(elite);
-                }
-
-                final Individual bestOfTheBest = elitism.getBestOfBestIndividual(gen);
-
-                if (bestOfTheBest != null) {
-                    if (bestOfTheBest.isGood()) {
-                        Stats.getInstance().setIfMissing(Stats.KeysCounter.generationGoodSolution, gen);
-                        Stats.getInstance().setIfMissing(Stats.KeysCounter.timestampGoodSolution, System.currentTimeMillis());
-                    }
-                    if (bestOfTheBest.isPerfect() && gen >= Config.MIN_GENERATION) {
-                        System.out.println("PERFECT INDIVIDUAL: " + bestOfTheBest.toString());
-                        LogUtils.log().info(">>>> FOUND solution with zero FP and zero FN!");
-                        LogUtils.log().info("with fitness function " + CriteriaCompareIndividuals.values()[indexFitness].toString());
-                        evo.finish();
+                evo.statesLock.readLock().lockInterruptibly();
+                try {
+                    if (!evolve(gen)) {
                         return null;
                     }
+                } finally {
+                    evo.statesLock.readLock().unlock();
                 }
 
-                // Store information about the population in this generation
-                Generations.getInstance().addGeneration(indexFitness, population, elitism, elitism.generation == gen, gen);
-
-                // MIGRATION
-                if (evo.behaviourManager.IS_MIGRATION_ENABLED && gen % Config.generationMigration == 0) {
-                    Migration.store(population, indexFitness, gen);
-                    evo.barrier.await();
-                    newPopulation.addAll(Migration.getEliteFromOtherPopulation(indexFitness));
-                }
-
-
-                evo.barrier.await();
-
-                if (Thread.interrupted()) {
-                    return null;
-                }
-
-                crossover(newPopulation, gen);
-
-                if (Thread.interrupted()) {
-                    return null;
-                }
-
-                population.clear();
-                population = newPopulation;
+                final Profiling.Sample profilingSample = Profiling.Sample.take(evaluationCounts, evo.getSubtreeCache());
+                Profiling.getInstance().addGeneration(island, gen, lastProfilingSample, profilingSample);
+                lastProfilingSample = profilingSample;
 
             }
         } catch (final InterruptedException e) {
@@ -370,89 +378,162 @@ class Evolve implements Callable<Void> {
         return null;
     }
 
+    private void syncStates(final int gen) throws InterruptedException {
+        // Add the states collected by the last sync, the islands recompute their fitness for the new states only
+        final List<ITestExecution> correctTestExecutions = evo.statesUpdater.poll();
+        if (!correctTestExecutions.isEmpty()) {
+            // Wait for the other islands to finish their current generation
+            evo.statesLock.writeLock().lockInterruptibly();
+            try {
+                evo.dataManager.addCorrectStates(correctTestExecutions);
+                System.out.println("Correct states: " + evo.dataManager.getCorrectTestExecutions().size()
+                        + " (+" + correctTestExecutions.size() + ")\n");
+                AssertionManager.invalidate();
+            } finally {
+                evo.statesLock.writeLock().unlock();
+            }
+        }
+        final Integer timeBudget = Config.GENERATION_STATES_UPDATE_TIME_BUDGET(gen, evo.timestampEnd - System.currentTimeMillis());
+        if (timeBudget != null && !evo.statesUpdater.submit(elitism.getBestIndividuals(gen), timeBudget)) {
+            LogUtils.log().info("Skipping states update at generation " + gen + ", the previous one is still running");
+        }
+    }
 
-    private void crossover(final Population newPopulation, final int gen) {
-        // I need to compute the size because we might have done the elitism
-        // if is empty no issue it will be 0
-        final int currentSize = newPopulation.size();
-        if (newPopulation.population.size() > Config.POPULATION_SIZE) {
-            newPopulation.population = newPopulation.population.subList(0, Config.POPULATION_SIZE);
-            return;
+    /**
+     * Evolve the population for one generation
+     *
+     * @return false if the evolution must stop
+     */
+    private boolean evolve(final int gen) {
+        // Recompute fitnesses if new states were added since the last generation
+        final int currentStatesVersion = AssertionManager.getStatesVersion();
+        if (statesVersion != currentStatesVersion) {
+            Time.getInstance().start(Time.KeysCounter.evaluation);
+            evo.evaluationStage.recomputeAll(population.population, evo.behaviourManager, evaluationCounts);
+            elitism.recomputeFitness(evo.behaviourManager);
+            Time.getInstance().stop(Time.KeysCounter.evaluation);
+            statesVersion = currentStatesVersion;
         }
-        final CountDownLatch latch = new CountDownLatch(Config.numberWorkingThreads);
-        try {
-            for (int i = 0; i < Config.numberWorkingThreads; i++) {
-                evo.executor.submit(() -> {
-                    try {
-                        final Population partition = new Population((Config.POPULATION_SIZE - currentSize) / Config.numberWorkingThreads);
-                        addWithCrossOver(partition, gen);
-                        synchronized (newPopulation) {
-                            newPopulation.addPartition(partition);
-                        }
-                        latch.countDown();
-                    } catch (final Exception | Error e) {
-                        e.printStackTrace();
-                    }
-                });
+
+        synchronized (AssertionManager.class) {
+            for (final Individual sol : population.population) {
+                AssertionManager.cacheAssertion(sol);
+                AssertionManager.cacheIdsData(AssertionManager.Type.FN, sol, gen);
+                AssertionManager.cacheIdsData(AssertionManager.Type.FP, sol, gen);
             }
-        } catch (final RuntimeException e) {
-            // e.printStackTrace();
         }
-        try {
-            latch.await();
-        } catch (final InterruptedException e) {
-            // e.printStackTrace();
+
+        // ELITISM
+        final Population newPopulation = new Population();
+
+        Time.getInstance().start(Time.KeysCounter.elitism);
+        final List<Individual> elite = elitism.updateAndGetElitism(population, gen);
+        Time.getInstance().stop(Time.KeysCounter.elitism);
+
+        if (evo.behaviourManager.IS_ELITISM_ENABLED && gen % Config.generationElitism == 0) {
+            newPopulation.addAll(elite);
         }
-        // it is possible that now the population has fewer elements because maybe the partitions cannot be divided by the number of threads
-        // or because some generated tests have too high complexity
-        // top up again
-        synchronized (newPopulation) {
-            if (newPopulation.population.size() == Config.POPULATION_SIZE) {
-                return;
+
+        final Individual bestOfTheBest = elitism.getBestOfBestIndividual(gen);
+
+        if (bestOfTheBest != null) {
+            if (bestOfTheBest.isGood()) {
+                Stats.getInstance().setIfMissing(Stats.KeysCounter.generationGoodSolution, gen);
+                Stats.getInstance().setIfMissing(Stats.KeysCounter.timestampGoodSolution, System.currentTimeMillis());
             }
-            addWithCrossOver(newPopulation, gen);
-            if (newPopulation.population.size() > Config.POPULATION_SIZE) {
-                newPopulation.population = newPopulation.population.subList(0, Config.POPULATION_SIZE);
+            if (bestOfTheBest.isPerfect() && gen >= Config.MIN_GENERATION) {
+                System.out.println("PERFECT INDIVIDUAL: " + bestOfTheBest.toString());
+                LogUtils.log().info(">>>> FOUND solution with zero FP and zero FN!");
+                LogUtils.log().info("with fitness criteria " + criteria + " on island " + island);
+                evo.stop();
+                return false;
             }
         }
 
+        // Store information about the population in this generation
+        final EvaluationStage.Metrics evaluationMetrics = evo.evaluationStage.getMetrics();
+        Generations.getInstance().addGeneration(island, population, elitism, elitism.generation == gen, gen,
+                evaluationMetrics.idleRatioSince(lastEvaluationMetrics));
+        lastEvaluationMetrics = evaluationMetrics;
+
+        // MIGRATION
+        if (evo.behaviourManager.IS_MIGRATION_ENABLED && gen % Config.generationMigration == 0) {
+            Time.getInstance().start(Time.KeysCounter.migration);
+            evo.migration.send(population, island, gen);
+            newPopulation.addAll(evo.migration.receive(island, evo.behaviourManager,
+                    evo.evaluationStage, evaluationCounts));
+            Time.getInstance().stop(Time.KeysCounter.migration);
+        }
+
+        if (Thread.interrupted()) {
+            return false;
+        }
+
+        crossover(newPopulation, gen);
+
+        if (Thread.interrupted()) {
+            return false;
+        }
+
+        population.clear();
+        population = newPopulation;
+        return true;
     }
 
 
-    private void addWithCrossOver(final Population partition, final int gen) {
-        do {
-            if (Thread.interrupted()) {
+    private void crossover(final Population newPopulation, final int gen) {
+        if (newPopulation.population.size() > Config.POPULATION_SIZE) {
+            newPopulation.population = newPopulation.population.subList(0, Config.POPULATION_SIZE);
+            return;
+        }
+        final boolean minimize = Config.IS_MINIMIZATION_ENABLED && gen % Config.generationMinimization == 0;
+        // Generate the offsprings, then compute them all at once in the EvaluationStage.
+        // Some offsprings may not be valid, so repeat until the population is full.
+        while (!newPopulation.isFull()) {
+            if (Thread.currentThread().isInterrupted()) {
                 return;
             }
-            Time.getInstance().start(Time.KeysCounter.selection);
-            final Pair<Individual, Individual> parents = evo.behaviourManager.getSelection().select(population.population, indexFitness == 0 ? AssertionManager.Type.FP : AssertionManager.Type.FN);
-            Time.getInstance().stop(Time.KeysCounter.selection);
-
-            final Individual sol1 = parents.getKey();
-            final Individual sol2 = parents.getValue();
-            if (MyRandom.getInstance().nextFloat() <= Config.PROB_CROSSOVER) {
-                Stats.getInstance().increment(Stats.KeysCounter.numberCrossover);
-                Time.getInstance().start(Time.KeysCounter.crossOver);
-                final Pair<TreeGroup, TreeGroup> offsprings = evo.behaviourManager.getCrossover().crossover(sol1.getTreeGroup(), sol2.getTreeGroup(), sol1, sol2);
-                Time.getInstance().stop(Time.KeysCounter.crossOver);
-                addOrMutateWithProb(offsprings.getKey().buildTree(), offsprings.getKey(), partition, gen);
-                addOrMutateWithProb(offsprings.getValue().buildTree(),offsprings.getValue(), partition, gen);
-            } else {
-                addOrMutateWithProb(sol1.getTree(), sol1.getTreeGroup(), partition, gen);
-                addOrMutateWithProb(sol2.getTree(), sol2.getTreeGroup(), partition, gen);
+            final List<Individual> offsprings = new ArrayList<>(Config.POPULATION_SIZE - newPopulation.size() + 1);
+            while (offsprings.size() < Config.POPULATION_SIZE - newPopulation.size()) {
+                addOffsprings(offsprings);
             }
-        } while (!partition.isFull());
+            Time.getInstance().start(Time.KeysCounter.evaluation);
+            final List<Individual> computed = evo.evaluationStage.computeAll(offsprings, evo.behaviourManager, minimize,
+                    evaluationCounts);
+            Time.getInstance().stop(Time.KeysCounter.evaluation);
+            for (final Individual individual : computed) {
+                if (individual != null && !newPopulation.isFull()) {
+                    newPopulation.add(individual, evo.behaviourManager);
+                }
+            }
+        }
     }
 
 
-    private void addOrMutateWithProb(final ITree tree, final TreeGroup treeGroup, final Population population, final int gen) {
-        final Individual individual;
-        final String assertionString = tree.toString();
-        if (AssertionManager.containsAssertion(assertionString)) {
-            individual = AssertionManager.getStringToSolution().get(assertionString);
+    private void addOffsprings(final List<Individual> offsprings) {
+        Time.getInstance().start(Time.KeysCounter.selection);
+        final Pair<Individual, Individual> parents = evo.behaviourManager.getSelection().select(population.population, criteria);
+        Time.getInstance().stop(Time.KeysCounter.selection);
+
+        final Individual sol1 = parents.getKey();
+        final Individual sol2 = parents.getValue();
+        if (MyRandom.getInstance().nextFloat() <= Config.PROB_CROSSOVER) {
+            Stats.getInstance().increment(Stats.KeysCounter.numberCrossover);
+            Time.getInstance().start(Time.KeysCounter.crossOver);
+            final Pair<TreeGroup, TreeGroup> children = evo.behaviourManager.getCrossover().crossover(sol1.getTreeGroup(), sol2.getTreeGroup(), sol1, sol2);
+            Time.getInstance().stop(Time.KeysCounter.crossOver);
+            offsprings.add(mutateWithProb(children.getKey().buildTree(), children.getKey()));
+            offsprings.add(mutateWithProb(children.getValue().buildTree(), children.getValue()));
         } else {
-            individual = new Individual(tree, treeGroup);
+            offsprings.add(mutateWithProb(sol1.getTree(), sol1.getTreeGroup()));
+            offsprings.add(mutateWithProb(sol2.getTree(), sol2.getTreeGroup()));
         }
+    }
+
+
+    private Individual mutateWithProb(final ITree tree, final TreeGroup treeGroup) {
+        final Individual cached = AssertionManager.getCachedAssertion(tree.toString(), evo.behaviourManager);
+        final Individual individual = cached != null ? cached : new Individual(tree, treeGroup);
         Time.getInstance().start(Time.KeysCounter.mutation);
         Individual newIndividual;
         if (MyRandom.getInstance().nextFloat() <= Config.PROB_MUTATION) {
@@ -462,11 +543,7 @@ class Evolve implements Callable<Void> {
             newIndividual = individual;
         }
         Time.getInstance().stop(Time.KeysCounter.mutation);
-        if (Config.IS_MINIMIZATION_ENABLED && gen % Config.generationMinimization == 0) {
-            population.add(MinimizationAssertion.minimize(newIndividual, evo.behaviourManager), evo.behaviourManager);
-        } else {
-            population.add(newIndividual, evo.behaviourManager);
-        }
+        return newIndividual;
     }
 
     public void printInfo(final int gen, final long timeLastGeneration) {
@@ -477,8 +554,17 @@ class Evolve implements Callable<Void> {
         System.out.println("time cost:                 " + TimeUtils.getPrettyPrintTime(timeCurrentGeneration));
         System.out.println("average time cost:         " + (gen > 0 ? TimeUtils.getPrettyPrintTime(sumTimeEachGeneration / gen) : 0));
         System.out.println("AssertionManager cached assertions:          " + AssertionManager.getNumberCachedAssertions());
+        System.out.println("AssertionManager hits/misses/evictions:      " + AssertionManager.getCacheHits()
+                + "/" + AssertionManager.getCacheMisses() + "/" + AssertionManager.getCacheEvictions());
+        final SubtreeCache<?> subtreeCache = evo.getSubtreeCache();
+        if (subtreeCache != null) {
+            System.out.println("SubtreeCache hits/misses/evictions:          " + subtreeCache.getHits()
+                    + "/" + subtreeCache.getMisses() + "/" + subtreeCache.getEvictions());
+        }
         final OperatingSystemMXBean osMxBean = ManagementFactory.getOperatingSystemMXBean();
         System.out.println("CPU load:                  " + String.valueOf(osMxBean.getSystemLoadAverage()));
+        System.out.println("evaluation workers idle:   " + String.format("%.1f%%", 100.0 * evo.evaluationStage.getMetrics().idleRatioSince(lastPrintEvaluationMetrics)));
+        lastPrintEvaluationMetrics = evo.evaluationStage.getMetrics();
 
         final ThreadMXBean threadmxBean = ManagementFactory.getThreadMXBean();
         System.out.println("# running threads:                  " + String.valueOf(threadmxBean.getThreadCount()));
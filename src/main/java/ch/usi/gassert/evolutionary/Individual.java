@@ -5,10 +5,16 @@ import ch.usi.gassert.Config;
 import ch.usi.gassert.data.tree.*;
 import ch.usi.gassert.data.tree.template.TreeGroup;
 import ch.usi.gassert.data.tree.template.TreeTemplate;
+import ch.usi.gassert.evaluator.IEvaluator;
+import ch.usi.gassert.evaluator.IPreparedTree;
 import ch.usi.gassert.evolutionary.fitness.IFitnessFunction;
 import ch.usi.gassert.evolutionary.fitness.IValidator;
+import ch.usi.gassert.util.Bitmap;
 
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * This class represents an individual of the population
@@ -26,6 +32,9 @@ public class Individual {
 
     public long[] idsFPGOOD = null;
     public long[] idsFNGOOD = null;
+    // Bitmap.hash of idsFNGOOD, for the ids it was computed for
+    private long[] signatureIds = null;
+    private int signature = 0;
 
     // Fitness functions
     private int lastComputedCorrectTestExecutionsSize = 0;
@@ -35,6 +44,23 @@ public class Individual {
     private int lastValidatedTestExecutionsSize = 0;
     private long lastValidatedSatisfactionCount = 0;
 
+    // Tree prepared for evaluation, built on first use by the IEvaluator
+    private IEvaluator preparedTreeEvaluator = null;
+    private IPreparedTree preparedTree = null;
+    // Trees of the TreeGroup prepared for evaluation, by TreeTemplate, built on first use by the IEvaluator
+    private IEvaluator preparedMappingsEvaluator = null;
+    private Map<TreeTemplate, IPreparedTree> preparedMappings = null;
+
+    // Results shared by the validators and fitness functions, only while computing
+    private volatile EvaluationContext evaluationContext = null;
+
+    // Computation in progress and the thread running it, guarded by this
+    private CompletableFuture<Void> computation = null;
+    private Thread computingThread = null;
+
+    // Number of computations running in the current thread, which then must not wait for other threads
+    private static final ThreadLocal<int[]> RUNNING_COMPUTATIONS = ThreadLocal.withInitial(() -> new int[1]);
+
     // For testing only
     public Individual(final Boolean valid, final Boolean eliteValid, final Double fitnessValueFP, final Double fitnessValueFN, final Integer complexity) {
         this.tree = null;
@@ -65,6 +91,26 @@ public class Individual {
         this.complexity = tree.getNumberOfNodes();
     }
 
+    /**
+     * @return a copy with its own Tree and TreeGroup and the same computed values, which can be recomputed
+     * independently of this Individual
+     */
+    public Individual copy() {
+        final Individual copy = new Individual(tree.cloneTree(), treeGroup != null ? new TreeGroup(treeGroup) : null);
+        copy.valid = valid;
+        copy.eliteValid = eliteValid;
+        copy.fitnessValueFP = fitnessValueFP;
+        copy.fitnessValueFN = fitnessValueFN;
+        // The bitmaps are replaced rather than modified, so they can be shared
+        copy.idsFPGOOD = idsFPGOOD;
+        copy.idsFNGOOD = idsFNGOOD;
+        copy.lastComputedCorrectTestExecutionsSize = lastComputedCorrectTestExecutionsSize;
+        copy.lastComputedIncorrectTestExecutionsSize = lastComputedIncorrectTestExecutionsSize;
+        copy.lastValidatedTestExecutionsSize = lastValidatedTestExecutionsSize;
+        copy.lastValidatedSatisfactionCount = lastValidatedSatisfactionCount;
+        return copy;
+    }
+
     public String getAssertionAsString() {
         return tree.toString();
     }
@@ -85,6 +131,32 @@ public class Individual {
         return treeGroup;
     }
 
+    public synchronized IPreparedTree getPreparedTree(final IEvaluator evaluator) {
+        if (preparedTree == null || preparedTreeEvaluator != evaluator) {
+            preparedTree = evaluator.prepare(tree.asTree());
+            preparedTreeEvaluator = evaluator;
+        }
+        return preparedTree;
+    }
+
+    /**
+     * @return the tree of the TreeGroup for the given TreeTemplate (e.g. a relation), prepared only once
+     */
+    public synchronized IPreparedTree getPreparedTree(final IEvaluator evaluator, final TreeTemplate template) {
+        if (preparedMappings == null || preparedMappingsEvaluator != evaluator) {
+            preparedMappings = new HashMap<>(4);
+            preparedMappingsEvaluator = evaluator;
+        }
+        return preparedMappings.computeIfAbsent(template, t -> evaluator.prepare(treeGroup.mappings.get(t).asTree()));
+    }
+
+    /**
+     * @return the EvaluationContext while computing the fitness, otherwise null
+     */
+    public EvaluationContext getEvaluationContext() {
+        return evaluationContext;
+    }
+
     public void setIdsFPGOOD(final long[] idsFPGOOD) {
         this.idsFPGOOD = idsFPGOOD;
     }
@@ -93,33 +165,126 @@ public class Individual {
         this.idsFNGOOD = idsFNGOOD;
     }
 
-
-    public void compute(final IValidator validator, final IValidator eliteValidator, final IFitnessFunction fitnessFP, final IFitnessFunction fitnessFN) {
-        if (valid == null) {
-            valid = validator.validate(this);
-            if (valid) {
+    /**
+     * @return hash of idsFNGOOD, computed once for each idsFNGOOD bitmap
+     */
+    public synchronized int getSignature() {
+        final long[] ids = idsFNGOOD;
+        if (ids != signatureIds || signatureIds == null) {
+            signature = Bitmap.hash(ids);
+            signatureIds = ids;
+        }
+        return signature;
+    }
+
+
+    /**
+     * @return whether the fitness has been computed (or recomputed) at least once
+     */
+    public boolean isComputed() {
+        return valid != null;
+    }
+
+    /**
+     * Run the (re)computation of the fitness, with only one computation at a time for each Individual.
+     * <p>
+     * A thread which is not running any computation waits for the running one without holding any lock (within
+     * a ForkJoinPool, CompletableFuture.join lets the pool compensate for the blocked worker), then checks again.
+     * A thread which is running a computation (e.g. a worker which picked up another task while joining its
+     * subtasks) never waits, otherwise two workers could wait for each other: it gives up instead.
+     * If the thread running the computation picks up another one for the same Individual, the nested one runs
+     * with its own EvaluationContext and restores the outer one.
+     *
+     * @return false if given up because another thread is running a computation of this Individual
+     */
+    private boolean computeExclusively(final boolean recompute, final Runnable body) {
+        final Thread thread = Thread.currentThread();
+        final int[] runningComputations = RUNNING_COMPUTATIONS.get();
+        final CompletableFuture<Void> own = new CompletableFuture<>();
+        boolean nested = false;
+        while (true) {
+            final CompletableFuture<Void> running;
+            synchronized (this) {
+                if (!recompute && valid != null) {
+                    return true;
+                }
+                running = computation;
+                if (running == null) {
+                    computation = own;
+                    computingThread = thread;
+                } else if (computingThread == thread) {
+                    nested = true;
+                }
+            }
+            if (running == null || nested) {
+                break;
+            }
+            if (runningComputations[0] > 0) {
+                return false;
+            }
+            try {
+                running.join();
+            } catch (final CompletionException | CancellationException ignored) {}
+        }
+        final EvaluationContext outerContext = evaluationContext;
+        evaluationContext = new EvaluationContext();
+        ++runningComputations[0];
+        try {
+            body.run();
+        } finally {
+            --runningComputations[0];
+            evaluationContext = outerContext;
+            if (!nested) {
+                synchronized (this) {
+                    computation = null;
+                    computingThread = null;
+                }
+                own.complete(null);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compute the fitness, unless already computed
+     *
+     * @return false if another thread is computing it, and the current thread cannot wait (see computeExclusively)
+     */
+    public boolean compute(final IValidator validator, final IValidator eliteValidator, final IFitnessFunction fitnessFP, final IFitnessFunction fitnessFN) {
+        return computeExclusively(false, () -> {
+            final boolean isValid = validator.validate(this);
+            if (isValid) {
                 eliteValid = eliteValidator.validate(this);
                 fitnessFP.computeFitness(this);
                 fitnessFN.computeFitness(this);
             }
-        }
+            // Set last, so that the Individual is not seen as computed before the fitness is
+            valid = isValid;
+        });
     }
 
-    public void compute(final BehaviourManager behaviourManager) {
-        compute(behaviourManager.validator, behaviourManager.eliteValidator, behaviourManager.fitnessFP, behaviourManager.fitnessFN);
+    public boolean compute(final BehaviourManager behaviourManager) {
+        return compute(behaviourManager.validator, behaviourManager.eliteValidator, behaviourManager.fitnessFP, behaviourManager.fitnessFN);
     }
 
-    public void recompute(final IValidator validator, final IValidator eliteValidator, final IFitnessFunction fitnessFP, final IFitnessFunction fitnessFN) {
-        valid = validator.revalidate(this, this.valid);
-        if (valid) {
-            eliteValid = eliteValidator.revalidate(this, this.eliteValid);
-            fitnessFP.recomputeFitness(this);
-            fitnessFN.recomputeFitness(this);
-        }
+    /**
+     * Recompute the fitness over the states added since the last computation
+     *
+     * @return false if another thread is computing it, and the current thread cannot wait (see computeExclusively)
+     */
+    public boolean recompute(final IValidator validator, final IValidator eliteValidator, final IFitnessFunction fitnessFP, final IFitnessFunction fitnessFN) {
+        return computeExclusively(true, () -> {
+            valid = validator.revalidate(this, this.valid);
+            if (valid) {
+                eliteValid = eliteValidator.revalidate(this, this.eliteValid);
+                fitnessFP.recomputeFitness(this);
+                fitnessFN.recomputeFitness(this);
+            }
+        });
     }
 
-    public void recompute(final BehaviourManager behaviourManager) {
-        recompute(behaviourManager.validator, behaviourManager.eliteValidator, behaviourManager.fitnessFP, behaviourManager.fitnessFN);
+    public boolean recompute(final BehaviourManager behaviourManager) {
+        return recompute(behaviourManager.validator, behaviourManager.eliteValidator, behaviourManager.fitnessFP, behaviourManager.fitnessFN);
     }
 
     public int getLastComputedCorrectTestExecutionsSize() {
@@ -1,81 +1,139 @@
 package ch.usi.gassert.evolutionary;
 
 import ch.usi.gassert.Config;
+import ch.usi.gassert.interpreter.AssertionManager;
 import ch.usi.gassert.interpreter.CriteriaCompareIndividuals;
 
-import java.util.List;
-
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Exchange of individuals between the islands of the evolution.
+ * <p>
+ * Each island has an inbox of migrants, so that islands send and receive migrants at their own pace without waiting
+ * for each other. The inbox keeps only the latest migrants of each sender, so a slow island does not pile them up.
+ * The migrants are copied for each receiver, so that islands never share an Individual.
+ * Migrants whose fitness was computed before new states were added are recomputed on receipt,
+ * all together in the EvaluationStage.
+ */
 public class Migration {
 
-
-    static Map<CriteriaCompareIndividuals, List<Individual>> criteria2bestIndividualsFP;
-    static Map<CriteriaCompareIndividuals, List<Individual>> criteria2bestIndividualsFN;
-
-    static {
-        criteria2bestIndividualsFN = new ConcurrentHashMap<>();
-        criteria2bestIndividualsFP = new ConcurrentHashMap<>();
-        for (final CriteriaCompareIndividuals criteria : CriteriaCompareIndividuals.values()) {
-            criteria2bestIndividualsFN.put(criteria, new ArrayList<>());
-            criteria2bestIndividualsFP.put(criteria, new ArrayList<>());
-
-        }
+    public enum Topology {
+        /**
+         * each island sends migrants to the next one
+         */
+        RING,
+        /**
+         * each island sends migrants to all the others
+         */
+        ALL
     }
 
+    private static final class Migrants {
+        final List<Individual> individuals;
+        final int statesVersion;
 
-    static synchronized public void store(final Population population, final int index, final int gen) {
-        if (index == 0) {
-            storeFPorFN(population, criteria2bestIndividualsFP, gen);
-        } else {
-            storeFPorFN(population, criteria2bestIndividualsFN, gen);
+        Migrants(final List<Individual> individuals, final int statesVersion) {
+            this.individuals = individuals;
+            this.statesVersion = statesVersion;
         }
     }
 
+    private final Topology topology;
+    // Latest migrants of each sender, for each island
+    private final List<Map<Integer, Migrants>> inboxes;
 
-    static private void storeFPorFN(final Population population, final Map<CriteriaCompareIndividuals,
-            List<Individual>> bestIndividuals, final int gen) {
-        final List<Individual> p = population.getPopulation();
-        for (final CriteriaCompareIndividuals criteria : CriteriaCompareIndividuals.values()) {
-            final List<Individual> toSort = new ArrayList<>(p.size());
-            toSort.addAll(p);
-            Collections.sort(toSort, criteria.getComparator(gen));
-            bestIndividuals.get(criteria).clear();
-            bestIndividuals.put(criteria, toSort.subList(0, Config.sizeForMigration));
+    public Migration(final int islands, final Topology topology) {
+        this.topology = topology;
+        this.inboxes = new ArrayList<>(islands);
+        for (int i = 0 ; i < islands ; ++i) {
+            inboxes.add(new ConcurrentHashMap<>());
         }
     }
 
-
-    static synchronized public List<Individual> getEliteFromOtherPopulation(final int index) {
-        if (index == 0) {
-            return getFPorFN(criteria2bestIndividualsFN);
-        } else {
-            return getFPorFN(criteria2bestIndividualsFP);
+    /**
+     * Send the best individuals of the population for each criteria to the neighbours of the given island
+     */
+    public void send(final Population population, final int island, final int gen) {
+        final CriteriaCompareIndividuals[] criterias = CriteriaCompareIndividuals.values();
+        final TopIndividuals[] tops = new TopIndividuals[criterias.length];
+        for (int i = 0 ; i < criterias.length ; ++i) {
+            tops[i] = new TopIndividuals(criterias[i].getComparator(gen), Config.sizeForMigration);
         }
-    }
-
-
-    static private List<Individual> getFPorFN(final Map<CriteriaCompareIndividuals, List<Individual>> bestIndividuals) {
-        final List<Individual> elite = new ArrayList<>(Config.sizeForMigration * CriteriaCompareIndividuals.values().length);
-        for (final CriteriaCompareIndividuals criteria : CriteriaCompareIndividuals.values()) {
-            elite.addAll(bestIndividuals.get(criteria));
+        for (final Individual individual : population.getPopulation()) {
+            for (final TopIndividuals top : tops) {
+                top.offer(individual);
+            }
+        }
+        final List<Individual> individuals = new ArrayList<>(Config.sizeForMigration * criterias.length);
+        for (final TopIndividuals top : tops) {
+            individuals.addAll(top.toList());
+        }
+        final int statesVersion = AssertionManager.getStatesVersion();
+        for (final int neighbour : neighbours(island)) {
+            // Copied by the sender, whose own computations of these individuals are done
+            final List<Individual> copies = new ArrayList<>(individuals.size());
+            for (final Individual individual : individuals) {
+                copies.add(individual.copy());
+            }
+            inboxes.get(neighbour).put(island, new Migrants(copies, statesVersion));
         }
-        return elite;
     }
 
-    public static void recomputeFitness(final BehaviourManager behaviourManager) {
-        for (final List<Individual> best : criteria2bestIndividualsFP.values()) {
-            for (final Individual individual : best) {
-                individual.recompute(behaviourManager);
+    /**
+     * @return the migrants received by the given island since the last call, with up-to-date fitness
+     */
+    public List<Individual> receive(final int island, final BehaviourManager behaviourManager,
+                                    final EvaluationStage evaluationStage, final EvaluationStage.Counts counts) {
+        final List<Individual> individuals = new ArrayList<>();
+        final List<Individual> stale = new ArrayList<>();
+        final Map<Integer, Migrants> inbox = inboxes.get(island);
+        for (final Integer sender : new ArrayList<>(inbox.keySet())) {
+            final Migrants migrants = inbox.remove(sender);
+            if (migrants == null) {
+                continue;
+            }
+            if (migrants.statesVersion != AssertionManager.getStatesVersion()) {
+                // Computed from scratch, like new individuals
+                for (final Individual individual : migrants.individuals) {
+                    stale.add(new Individual(individual.getTreeGroup()));
+                }
+            } else {
+                individuals.addAll(migrants.individuals);
             }
         }
-        for (final List<Individual> best : criteria2bestIndividualsFN.values()) {
-            for (final Individual individual : best) {
-                individual.recompute(behaviourManager);
+        if (!stale.isEmpty()) {
+            for (final Individual individual : evaluationStage.computeAll(stale, behaviourManager, false, counts)) {
+                if (individual != null) {
+                    individuals.add(individual);
+                }
             }
         }
+        return individuals;
     }
+
+    private List<Integer> neighbours(final int island) {
+        final int islands = inboxes.size();
+        final List<Integer> neighbours = new ArrayList<>(islands);
+        switch (topology) {
+            case RING:
+                if (islands > 1) {
+                    neighbours.add((island + 1) % islands);
+                }
+                break;
+            case ALL:
+                for (int i = 0 ; i < islands ; ++i) {
+                    if (i != island) {
+                        neighbours.add(i);
+                    }
+                }
+                break;
+            default:
+                throw new RuntimeException("Unsupported migration topology: " + topology);
+        }
+        return neighbours;
+    }
+
 }
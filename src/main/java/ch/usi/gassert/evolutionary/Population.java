@@ -55,13 +55,14 @@ public class Population {
             // Caching
             Individual solCached = null;
             if (Config.IS_CACHE_ENABLED) {
-                solCached = AssertionManager.getStringToSolution().get(sol.getAssertionAsString());
+                solCached = AssertionManager.getCachedAssertion(sol.getAssertionAsString(), behaviourManager);
                 if (solCached != null) {
                     Stats.getInstance().increment(Stats.KeysCounter.numberCacheHitAssertion);
                     sol = solCached;
                 }
             }
-            if (solCached == null) {
+            // Individuals computed by the EvaluationStage are not computed again
+            if (solCached == null && !sol.isComputed()) {
                 Stats.getInstance().increment(Stats.KeysCounter.numberCacheMissAssertion);
                 Time.getInstance().start(Time.KeysCounter.computeFitnessFunction);
                 sol.compute(behaviourManager);
@@ -0,0 +1,91 @@
+package ch.usi.gassert.evolutionary;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * The best k individuals offered, according to the comparator, kept in a bounded heap.
+ * <p>
+ * The result is the same as stable sorting all the offered individuals and taking the first k of them.
+ * If a key is given, only the first individual in that order is kept for each key.
+ */
+public class TopIndividuals {
+
+    private static final class Entry {
+        final Individual individual;
+        final long order;
+        final Object key;
+
+        Entry(final Individual individual, final long order, final Object key) {
+            this.individual = individual;
+            this.order = order;
+            this.key = key;
+        }
+    }
+
+    private final Comparator<Entry> comparator;
+    private final int k;
+    private final Function<Individual, Object> key;
+    // Worst entry first
+    private final PriorityQueue<Entry> heap;
+    private final Map<Object, Entry> bestByKey;
+    private long offered;
+
+    public TopIndividuals(final Comparator<Individual> comparator, final int k) {
+        this(comparator, k, null);
+    }
+
+    public TopIndividuals(final Comparator<Individual> comparator, final int k, final Function<Individual, Object> key) {
+        // Ties are broken by the order in which the individuals were offered, like a stable sort
+        this.comparator = Comparator.<Entry, Individual>comparing(e -> e.individual, comparator)
+                .thenComparingLong(e -> e.order);
+        this.k = k;
+        this.key = key;
+        this.heap = new PriorityQueue<>(Math.max(1, k + 1), this.comparator.reversed());
+        this.bestByKey = key != null ? new HashMap<>() : null;
+        this.offered = 0;
+    }
+
+    public void offer(final Individual individual) {
+        if (k <= 0) {
+            return;
+        }
+        final Entry entry = new Entry(individual, offered++, key != null ? key.apply(individual) : null);
+        if (key != null) {
+            final Entry previous = bestByKey.get(entry.key);
+            if (previous != null) {
+                if (comparator.compare(previous, entry) < 0) {
+                    return;
+                }
+                heap.remove(previous);
+            }
+            bestByKey.put(entry.key, entry);
+        }
+        if (heap.size() < k) {
+            heap.add(entry);
+        } else if (comparator.compare(entry, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(entry);
+        }
+    }
+
+    public void offerAll(final Collection<Individual> individuals) {
+        for (final Individual individual : individuals) {
+            offer(individual);
+        }
+    }
+
+    /**
+     * @return the best individuals, best first
+     */
+    public List<Individual> toList() {
+        final List<Entry> entries = new ArrayList<>(heap);
+        entries.sort(comparator);
+        final List<Individual> individuals = new ArrayList<>(entries.size());
+        for (final Entry entry : entries) {
+            individuals.add(entry.individual);
+        }
+        return individuals;
+    }
+
+}
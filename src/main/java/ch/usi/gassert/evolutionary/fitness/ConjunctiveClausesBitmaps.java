@@ -0,0 +1,150 @@
+package ch.usi.gassert.evolutionary.fitness;
+
+import ch.usi.gassert.data.state.StateBatch;
+import ch.usi.gassert.data.state.StateTable;
+import ch.usi.gassert.data.tree.ConjunctiveClausesTree;
+import ch.usi.gassert.data.tree.Tree;
+import ch.usi.gassert.evaluator.EvalResult;
+import ch.usi.gassert.evaluator.IEvaluator;
+import ch.usi.gassert.evaluator.IPreparedTree;
+import ch.usi.gassert.evolutionary.EvaluationStage;
+import ch.usi.gassert.evolutionary.mutation.conjunctive.RelaxOperatorConjunctiveMutation;
+import ch.usi.gassert.util.Bitmap;
+import ch.usi.methodtest.ConjunctiveMRIPClause;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Results of the clauses of a ConjunctiveClausesTree for the states of a StateTable.
+ * <p>
+ * Every clause is evaluated only once per state, and the result of a ConjunctiveClausesTree is the AND of the
+ * bitmaps of its selected clauses. Errors make a clause false, which makes the whole conjunction false,
+ * same as when evaluating the Tree built by asTree.
+ */
+public class ConjunctiveClausesBitmaps {
+
+    private final StateTable states;
+    private final IEvaluator evaluator;
+    private final Map<String, ClauseBitmap> clauseBitmaps = new ConcurrentHashMap<>();
+
+    private final class ClauseBitmap {
+
+        final IPreparedTree clause;
+        long[] bitmap = Bitmap.create(0);
+        // States for which the clause fails, null if the evaluator cannot tell them apart
+        long[] errors = Bitmap.create(0);
+        int size = 0;
+
+        ClauseBitmap(final Tree clause) {
+            this.clause = evaluator.prepare(clause);
+        }
+
+        /**
+         * @return bitmap of the clause for all the states, evaluating the states added since the last call
+         */
+        synchronized long[] get() {
+            if (size < states.size()) {
+                final StateBatch batch = states.batch(size);
+                final EvalResult result = errors != null ? EvaluationStage.evalAllWithErrors(clause, batch) : null;
+                final long[] newBitmap;
+                if (result != null) {
+                    newBitmap = result.values;
+                    // Same as evalAll for the states with errors
+                    for (int row = Bitmap.nextSetBit(result.errors, size); row >= 0; row = Bitmap.nextSetBit(result.errors, row + 1)) {
+                        if (clause.eval(states, row)) {
+                            Bitmap.set(newBitmap, row);
+                        }
+                    }
+                    Bitmap.orBuckets(errors, result.errors, size);
+                    errors = result.errors;
+                } else {
+                    newBitmap = EvaluationStage.evalAll(clause, batch);
+                    errors = null;
+                }
+                Bitmap.orBuckets(bitmap, newBitmap, size);
+                bitmap = newBitmap;
+                size = batch.getTo();
+            }
+            return bitmap;
+        }
+
+        synchronized long[] getErrors() {
+            get();
+            return errors;
+        }
+
+    }
+
+    /**
+     * @param clauses the original clauses, which are evaluated right away along with their relaxed versions
+     */
+    public ConjunctiveClausesBitmaps(final StateTable states, final IEvaluator evaluator,
+                                     final ConjunctiveMRIPClause[] clauses) {
+        this.states = states;
+        this.evaluator = evaluator;
+        for (final ConjunctiveMRIPClause clause : clauses) {
+            bitmapOf(clause.getTree()).get();
+            if ("==".equals(clause.getTree().getValue())) {
+                for (final String operator : RelaxOperatorConjunctiveMutation.RELAXED_OPERATORS) {
+                    final Tree relaxed = new Tree(clause.getTree());
+                    relaxed.setValue(operator);
+                    bitmapOf(relaxed).get();
+                }
+            }
+        }
+    }
+
+    private ClauseBitmap bitmapOf(final Tree clause) {
+        // Clauses which are not known in advance are evaluated on first use
+        return clauseBitmaps.computeIfAbsent(clause.toString(), c -> new ClauseBitmap(new Tree(clause)));
+    }
+
+    public StateTable getStates() {
+        return states;
+    }
+
+    /**
+     * @return bitmap of the states satisfying the given tree
+     */
+    public long[] evalAll(final ConjunctiveClausesTree tree) {
+        final int size = states.size();
+        final long[] result = Bitmap.create(size);
+        // No selected clauses is "true"
+        Bitmap.flip(result, 0, size);
+        for (int i = 0; i < tree.clauses.length; ++i) {
+            if ((tree.clauseSelected & 1L << i) != 0) {
+                Bitmap.and(result, bitmapOf(tree.clauses[i].getTree()).get());
+            }
+        }
+        return result;
+    }
+
+    public int countSatisfied(final ConjunctiveClausesTree tree) {
+        return Bitmap.countSetBits(evalAll(tree));
+    }
+
+    /**
+     * Same as IPreparedTree.evalAllWithErrors for all the states
+     *
+     * @return the values and errors, or null if the errors of some selected clause are not known
+     */
+    public EvalResult evalAllWithErrors(final ConjunctiveClausesTree tree) {
+        final int size = states.size();
+        final long[] values = evalAll(tree);
+        final long[] errors = Bitmap.create(size);
+        for (int i = 0; i < tree.clauses.length; ++i) {
+            if ((tree.clauseSelected & 1L << i) != 0) {
+                final long[] clauseErrors = bitmapOf(tree.clauses[i].getTree()).getErrors();
+                if (clauseErrors == null) {
+                    return null;
+                }
+                // An error in any of the clauses is an error of the whole conjunction
+                Bitmap.or(errors, clauseErrors);
+            }
+        }
+        Bitmap.andNot(values, errors);
+        return new EvalResult(values, errors);
+    }
+
+}
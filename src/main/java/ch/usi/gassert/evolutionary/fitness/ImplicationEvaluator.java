@@ -0,0 +1,156 @@
+package ch.usi.gassert.evolutionary.fitness;
+
+import ch.usi.gassert.data.state.StateBatch;
+import ch.usi.gassert.data.state.StateTable;
+import ch.usi.gassert.data.tree.ConjunctiveClausesTree;
+import ch.usi.gassert.data.tree.ITree;
+import ch.usi.gassert.data.tree.template.TreeTemplate;
+import ch.usi.gassert.evaluator.EvalResult;
+import ch.usi.gassert.evaluator.IEvaluator;
+import ch.usi.gassert.evaluator.IPreparedTree;
+import ch.usi.gassert.evolutionary.EvaluationContext;
+import ch.usi.gassert.evolutionary.EvaluationStage;
+import ch.usi.gassert.evolutionary.Individual;
+import ch.usi.gassert.util.Bitmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static ch.usi.gassert.util.Assert.assertAlways;
+
+/**
+ * Evaluation of the "IR => OR" assertions of the metamorphic modes, relation by relation.
+ * <p>
+ * The input and output relations are evaluated separately and kept in the EvaluationContext of the Individual,
+ * so that the InputRelationSatisfactionValidator and the fitness functions evaluate each relation only once for
+ * the same states. The implication is then combined bitwise. The states for which either relation fails are
+ * evaluated with the whole assertion, so the results are the same as evaluating the assertion.
+ */
+public class ImplicationEvaluator {
+
+    final TreeTemplate inputRelationTemplate;
+    final TreeTemplate outputRelationTemplate;
+    final IEvaluator evaluator;
+    final List<ConjunctiveClausesBitmaps> clauseBitmaps = new ArrayList<>(2);
+
+    public ImplicationEvaluator(final TreeTemplate implicationTemplate, final IEvaluator evaluator) {
+        assertAlways("=>".equals(implicationTemplate.getValue()), "Template is not an implication: " + implicationTemplate);
+        this.inputRelationTemplate = implicationTemplate.getLeft();
+        this.outputRelationTemplate = implicationTemplate.getRight();
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * Use the given clause results for the input relations which are ConjunctiveClausesTrees
+     */
+    public ImplicationEvaluator addClauseBitmaps(final ConjunctiveClausesBitmaps bitmaps) {
+        clauseBitmaps.add(bitmaps);
+        return this;
+    }
+
+    public TreeTemplate getInputRelationTemplate() {
+        return inputRelationTemplate;
+    }
+
+    public TreeTemplate getOutputRelationTemplate() {
+        return outputRelationTemplate;
+    }
+
+    public IEvaluator getEvaluator() {
+        return evaluator;
+    }
+
+    /**
+     * Same as EvaluationStage.evalAll for the tree of the given relation
+     */
+    public long[] evalRelation(final Individual sol, final TreeTemplate relation, final StateBatch batch) {
+        final ITree tree = sol.getTreeGroup().mappings.get(relation);
+        final ConjunctiveClausesBitmaps bitmaps = clauseBitmapsFor(tree, batch.getTable());
+        if (bitmaps != null) {
+            return Bitmap.range(bitmaps.evalAll((ConjunctiveClausesTree) tree), batch.getFrom(), batch.getTo());
+        }
+        final EvalResult result = evalRelationWithErrors(sol, relation, batch);
+        if (result == null) {
+            return EvaluationStage.evalAll(sol.getPreparedTree(evaluator, relation), batch);
+        }
+        final long[] values = result.values.clone();
+        evalErrors(() -> sol.getPreparedTree(evaluator, relation), batch.getTable(), result.errors, values);
+        return values;
+    }
+
+    /**
+     * Same as EvaluationStage.evalAll for the whole assertion
+     */
+    public long[] evalAll(final Individual sol, final StateBatch batch) {
+        final EvalResult inputRelation = evalRelationWithErrors(sol, inputRelationTemplate, batch);
+        final EvalResult outputRelation = inputRelation != null
+                ? evalRelationWithErrors(sol, outputRelationTemplate, batch) : null;
+        if (outputRelation == null) {
+            return EvaluationStage.evalAll(sol.getPreparedTree(evaluator), batch);
+        }
+        final long[] errors = Arrays.copyOf(inputRelation.errors, Bitmap.bucketsForSize(batch.getTo()));
+        Bitmap.or(errors, outputRelation.errors);
+        // IR => OR is ~IR | OR, except for the errors
+        final long[] result = Arrays.copyOf(inputRelation.values, errors.length);
+        Bitmap.flip(result, 0, batch.getTo());
+        Bitmap.or(result, outputRelation.values);
+        Bitmap.andNot(result, errors);
+        final long[] values = Bitmap.range(result, batch.getFrom(), batch.getTo());
+        evalErrors(() -> sol.getPreparedTree(evaluator), batch.getTable(), errors, values);
+        return values;
+    }
+
+    private EvalResult evalRelationWithErrors(final Individual sol, final TreeTemplate relation, final StateBatch batch) {
+        final EvaluationContext context = sol.getEvaluationContext();
+        if (context == null) {
+            return computeRelationWithErrors(sol, relation, batch);
+        }
+        return context.computeIfAbsent(relation, batch, () -> computeRelationWithErrors(sol, relation, batch));
+    }
+
+    private EvalResult computeRelationWithErrors(final Individual sol, final TreeTemplate relation, final StateBatch batch) {
+        final ITree tree = sol.getTreeGroup().mappings.get(relation);
+        final ConjunctiveClausesBitmaps bitmaps = clauseBitmapsFor(tree, batch.getTable());
+        if (bitmaps != null) {
+            final EvalResult all = bitmaps.evalAllWithErrors((ConjunctiveClausesTree) tree);
+            if (all != null) {
+                return new EvalResult(Bitmap.range(all.values, batch.getFrom(), batch.getTo()),
+                        Bitmap.range(all.errors, batch.getFrom(), batch.getTo()));
+            }
+        }
+        return EvaluationStage.evalAllWithErrors(sol.getPreparedTree(evaluator, relation), batch);
+    }
+
+    private ConjunctiveClausesBitmaps clauseBitmapsFor(final ITree tree, final StateTable states) {
+        if (tree instanceof ConjunctiveClausesTree) {
+            for (final ConjunctiveClausesBitmaps bitmaps : clauseBitmaps) {
+                if (bitmaps.getStates() == states) {
+                    return bitmaps;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Evaluate the states with errors one by one, as evalAll does. The tree is only prepared if there are any.
+     */
+    private static void evalErrors(final Supplier<IPreparedTree> preparedTree, final StateTable states,
+                                   final long[] errors, final long[] values) {
+        int row = Bitmap.nextSetBit(errors, 0);
+        if (row < 0) {
+            return;
+        }
+        final IPreparedTree tree = preparedTree.get();
+        for (; row >= 0; row = Bitmap.nextSetBit(errors, row + 1)) {
+            if (tree.eval(states, row)) {
+                Bitmap.set(values, row);
+            } else {
+                Bitmap.unset(values, row);
+            }
+        }
+    }
+
+}
@@ -1,13 +1,11 @@
 package ch.usi.gassert.evolutionary.fitness;
 
-import ch.usi.gassert.data.state.ITestExecution;
-import ch.usi.gassert.data.tree.Tree;
+import ch.usi.gassert.data.state.StateTable;
 import ch.usi.gassert.data.tree.template.TreeTemplate;
 import ch.usi.gassert.evaluator.IEvaluator;
+import ch.usi.gassert.evolutionary.EvaluationStage;
 import ch.usi.gassert.evolutionary.Individual;
-
-import java.util.List;
-import java.util.stream.Stream;
+import ch.usi.gassert.util.Bitmap;
 
 import static ch.usi.gassert.util.Assert.assertAlways;
 
@@ -17,15 +15,28 @@ import static ch.usi.gassert.util.Assert.assertAlways;
 public class InputRelationSatisfactionValidator implements IValidator {
 
     final TreeTemplate inputRelationTemplate;
-    final List<ITestExecution> testExecutions;
+    final StateTable states;
     final IEvaluator evaluator;
     final double inputRelationSatisfactionThresholdMin;
     final double inputRelationSatisfactionThresholdMax;
+    // Evaluates the input relation once for the validator and the fitness functions, if given
+    final ImplicationEvaluator implicationEvaluator;
 
-    public InputRelationSatisfactionValidator(final TreeTemplate inputRelationTemplate, final List<ITestExecution> testExecutions,
+    public InputRelationSatisfactionValidator(final TreeTemplate inputRelationTemplate, final StateTable states,
                                               final IEvaluator evaluator,
                                               double inputRelationSatisfactionThresholdMin,
                                               double inputRelationSatisfactionThresholdMax) {
+        this(inputRelationTemplate, states, evaluator, null,
+                inputRelationSatisfactionThresholdMin, inputRelationSatisfactionThresholdMax);
+    }
+
+    public InputRelationSatisfactionValidator(final TreeTemplate inputRelationTemplate, final StateTable states,
+                                              final IEvaluator evaluator, final ImplicationEvaluator implicationEvaluator,
+                                              double inputRelationSatisfactionThresholdMin,
+                                              double inputRelationSatisfactionThresholdMax) {
+        assertAlways(implicationEvaluator == null
+                        || implicationEvaluator.getInputRelationTemplate() == inputRelationTemplate,
+                "implicationEvaluator must be for the same input relation");
         assertAlways(inputRelationSatisfactionThresholdMin >= 0.0 && inputRelationSatisfactionThresholdMin <= 1.0,
                 "inputRelationSatisfactionThresholdMin must be a value within [0,1], but is "
                         + inputRelationSatisfactionThresholdMax);
@@ -36,37 +47,40 @@ public class InputRelationSatisfactionValidator implements IValidator {
                 "Invalid inputRelationSatisfactionThresholds: ["
                         + inputRelationSatisfactionThresholdMin + ", " + inputRelationSatisfactionThresholdMax + "]");
         this.inputRelationTemplate = inputRelationTemplate;
-        this.testExecutions = testExecutions;
+        this.states = states;
         this.evaluator = evaluator;
         this.inputRelationSatisfactionThresholdMin = inputRelationSatisfactionThresholdMin;
         this.inputRelationSatisfactionThresholdMax = inputRelationSatisfactionThresholdMax;
+        this.implicationEvaluator = implicationEvaluator;
     }
 
-    protected boolean validateWithExecutions(Individual sol, Stream<ITestExecution> executions, long computedSatisfactionCount) {
+    protected boolean validateWithStates(Individual sol, int firstRow, long computedSatisfactionCount) {
         // The input relation must be satisfied for a number of TestExecutions
         // within the inputRelationSatisfactionThresholds
-        final Tree inputRelation = sol.getTreeGroup().mappings.get(inputRelationTemplate).asTree();
-        final long satisfactionCount = computedSatisfactionCount + executions
-                .filter(e -> evaluator.eval(inputRelation, e.getVariables().getValues()))
-                .count();
+        final int size = states.size();
+        final long[] satisfied;
+        if (implicationEvaluator != null) {
+            satisfied = implicationEvaluator.evalRelation(sol, inputRelationTemplate, states.batch(firstRow));
+        } else {
+            satisfied = EvaluationStage.evalAll(sol.getPreparedTree(evaluator, inputRelationTemplate), states.batch(firstRow));
+        }
+        final long satisfactionCount = computedSatisfactionCount + Bitmap.countSetBits(satisfied);
         // Store information for next revalidation
-        sol.setLastValidatedTestExecutionsSize(testExecutions.size());
+        sol.setLastValidatedTestExecutionsSize(size);
         sol.setLastValidatedSatisfactionCount(satisfactionCount);
         // Validate satisfactionCount
-        return satisfactionCount >= Math.round((double) testExecutions.size() * inputRelationSatisfactionThresholdMin)
-                && satisfactionCount <= Math.round((double) testExecutions.size() * inputRelationSatisfactionThresholdMax);
+        return satisfactionCount >= Math.round((double) size * inputRelationSatisfactionThresholdMin)
+                && satisfactionCount <= Math.round((double) size * inputRelationSatisfactionThresholdMax);
     }
 
     @Override
     public boolean validate(Individual sol) {
-        return validateWithExecutions(sol, testExecutions.stream(), 0);
+        return validateWithStates(sol, 0, 0);
     }
 
     @Override
     public boolean revalidate(Individual sol, Boolean valid) {
-        return validateWithExecutions(sol,
-                testExecutions.stream().skip(sol.getLastValidatedTestExecutionsSize()),
-                sol.getLastValidatedSatisfactionCount());
+        return validateWithStates(sol, sol.getLastValidatedTestExecutionsSize(), sol.getLastValidatedSatisfactionCount());
     }
 
 }
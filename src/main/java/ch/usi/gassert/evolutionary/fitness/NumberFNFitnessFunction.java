@@ -1,8 +1,9 @@
 package ch.usi.gassert.evolutionary.fitness;
 
 import ch.usi.gassert.data.manager.IDataManager;
-import ch.usi.gassert.data.state.ITestExecution;
-import ch.usi.gassert.data.tree.Tree;
+import ch.usi.gassert.data.state.StateBatch;
+import ch.usi.gassert.data.state.StateTable;
+import ch.usi.gassert.evolutionary.EvaluationStage;
 import ch.usi.gassert.evolutionary.Individual;
 import ch.usi.gassert.util.Bitmap;
 import com.udojava.evalex.Expression;
@@ -20,28 +21,32 @@ import java.util.*;
 public class NumberFNFitnessFunction implements IFitnessFunction {
 
     final IDataManager dataManager;
+    // Evaluates "IR => OR" assertions relation by relation, if given
+    final ImplicationEvaluator implicationEvaluator;
 
     public NumberFNFitnessFunction(final IDataManager dataManager) {
+        this(dataManager, null);
+    }
+
+    public NumberFNFitnessFunction(final IDataManager dataManager, final ImplicationEvaluator implicationEvaluator) {
         this.dataManager = dataManager;
+        this.implicationEvaluator = implicationEvaluator;
     }
 
-    protected void computeFitnessWithExecutions(final Individual sol,
-                                                final List<ITestExecution> incorrectTestExecutions,
-                                                final int computedCountStates, double computedCountFN) {
-        if (!incorrectTestExecutions.isEmpty()) {
-            final Tree tree = sol.getTree().asTree();
-            final long[] testFaultyIdsFN = Bitmap.create(dataManager.getIncorrectTestExecutions().size());
-            // Copy precomputed values from sol.idsFNGOOD
-            Bitmap.copyBuckets(sol.idsFNGOOD, testFaultyIdsFN, computedCountStates);
-            // Need to count how many because we might have to remove some for equivalences
-            int countNumberStates = computedCountStates;
-            // Check faulty test executions for FNs
-            for (final ITestExecution testExecution : incorrectTestExecutions) {
-                boolean compliant = dataManager.getAssertionEvaluator().eval(tree, testExecution.getVariables().getValues());
-                if (compliant) computedCountFN += 1.0;
-                else Bitmap.set(testFaultyIdsFN, countNumberStates);
-                ++countNumberStates;
-            }
+    protected void computeFitnessWithStates(final Individual sol,
+                                            final StateTable incorrectStates,
+                                            final int computedCountStates, double computedCountFN) {
+        if (computedCountStates < incorrectStates.size()) {
+            // Check faulty test executions for FNs, the non-compliant ones are GOOD
+            final StateBatch batch = incorrectStates.batch(computedCountStates);
+            final long[] testFaultyIdsFN = implicationEvaluator != null
+                    ? implicationEvaluator.evalAll(sol, batch)
+                    : EvaluationStage.evalAll(sol.getPreparedTree(dataManager.getAssertionEvaluator()), batch);
+            computedCountFN += Bitmap.countSetBits(testFaultyIdsFN);
+            Bitmap.flip(testFaultyIdsFN, batch.getFrom(), batch.getTo());
+            // Merge precomputed values from sol.idsFNGOOD
+            Bitmap.orBuckets(sol.idsFNGOOD, testFaultyIdsFN, computedCountStates);
+            final int countNumberStates = batch.getTo();
             // Save results
             sol.fitnessValueFN = countNumberStates == 0 ? 0.0 : computedCountFN / (double)countNumberStates;
             sol.idsFNGOOD = testFaultyIdsFN;
@@ -51,15 +56,14 @@ public class NumberFNFitnessFunction implements IFitnessFunction {
 
     @Override
     public void computeFitness(final Individual sol) {
-        this.computeFitnessWithExecutions(sol, dataManager.getIncorrectTestExecutions(), 0, 0.0);
+        this.computeFitnessWithStates(sol, dataManager.getIncorrectStates(), 0, 0.0);
     }
 
     @Override
     public void recomputeFitness(Individual sol) {
         final int lastComputedIncorrectTestExecutionsSize = sol.getLastComputedIncorrectTestExecutionsSize();
-        this.computeFitnessWithExecutions(sol,
-                dataManager.getIncorrectTestExecutions()
-                        .subList(lastComputedIncorrectTestExecutionsSize, dataManager.getIncorrectTestExecutions().size()),
+        this.computeFitnessWithStates(sol,
+                dataManager.getIncorrectStates(),
                 lastComputedIncorrectTestExecutionsSize,
                 (double) Math.round(sol.fitnessValueFN * (double)lastComputedIncorrectTestExecutionsSize));
     }
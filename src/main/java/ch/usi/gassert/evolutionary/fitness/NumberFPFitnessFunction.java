@@ -1,15 +1,15 @@
 package ch.usi.gassert.evolutionary.fitness;
 
 import ch.usi.gassert.data.manager.IDataManager;
-import ch.usi.gassert.data.state.ITestExecution;
-import ch.usi.gassert.data.tree.Tree;
+import ch.usi.gassert.data.state.StateBatch;
+import ch.usi.gassert.data.state.StateTable;
+import ch.usi.gassert.evolutionary.EvaluationStage;
 import ch.usi.gassert.evolutionary.Individual;
 import ch.usi.gassert.util.Bitmap;
 import com.udojava.evalex.Expression;
 
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Set;
 import java.util.stream.Stream;
 
@@ -24,28 +24,31 @@ import java.util.stream.Stream;
 public class NumberFPFitnessFunction implements IFitnessFunction {
 
     final IDataManager dataManager;
+    // Evaluates "IR => OR" assertions relation by relation, if given
+    final ImplicationEvaluator implicationEvaluator;
 
     public NumberFPFitnessFunction(final IDataManager dataManager) {
+        this(dataManager, null);
+    }
+
+    public NumberFPFitnessFunction(final IDataManager dataManager, final ImplicationEvaluator implicationEvaluator) {
         this.dataManager = dataManager;
+        this.implicationEvaluator = implicationEvaluator;
     }
 
-    protected void computeFitnessWithExecutions(final Individual sol,
-                                                final List<ITestExecution> correctTestExecutions,
-                                                final int computedCountStates, double computedCountFP) {
-        if (!correctTestExecutions.isEmpty()) {
-            final Tree tree = sol.getTree().asTree();
-            final long[] testCorrectIdsFP = Bitmap.create(dataManager.getCorrectTestExecutions().size());
-            // Copy precomputed values from sol.idsFPGOOD
-            Bitmap.copyBuckets(sol.idsFPGOOD, testCorrectIdsFP, computedCountStates);
-            // Need to count how many because we might have to remove some for equivalences
-            int countNumberStates = computedCountStates;
-            // Check correct test executions for FPs
-            for (final ITestExecution testExecution : correctTestExecutions) {
-                boolean compliant = dataManager.getAssertionEvaluator().eval(tree, testExecution.getVariables().getValues());
-                if (!compliant) computedCountFP += 1.0;
-                else Bitmap.set(testCorrectIdsFP, countNumberStates);
-                ++countNumberStates;
-            }
+    protected void computeFitnessWithStates(final Individual sol,
+                                            final StateTable correctStates,
+                                            final int computedCountStates, double computedCountFP) {
+        if (computedCountStates < correctStates.size()) {
+            // Check correct test executions for FPs, the compliant ones are GOOD
+            final StateBatch batch = correctStates.batch(computedCountStates);
+            final long[] testCorrectIdsFP = implicationEvaluator != null
+                    ? implicationEvaluator.evalAll(sol, batch)
+                    : EvaluationStage.evalAll(sol.getPreparedTree(dataManager.getAssertionEvaluator()), batch);
+            computedCountFP += batch.size() - Bitmap.countSetBits(testCorrectIdsFP);
+            // Merge precomputed values from sol.idsFPGOOD
+            Bitmap.orBuckets(sol.idsFPGOOD, testCorrectIdsFP, computedCountStates);
+            final int countNumberStates = batch.getTo();
             // Save results
             sol.fitnessValueFP = countNumberStates == 0 ? 0.0 : computedCountFP / (double)countNumberStates;
             sol.idsFPGOOD = testCorrectIdsFP;
@@ -55,15 +58,14 @@ public class NumberFPFitnessFunction implements IFitnessFunction {
 
     @Override
     public void computeFitness(final Individual sol) {
-        this.computeFitnessWithExecutions(sol, dataManager.getCorrectTestExecutions(), 0, 0.0);
+        this.computeFitnessWithStates(sol, dataManager.getCorrectStates(), 0, 0.0);
     }
 
     @Override
     public void recomputeFitness(Individual sol) {
         final int lastComputedCorrectTestExecutionsSize = sol.getLastComputedCorrectTestExecutionsSize();
-        this.computeFitnessWithExecutions(sol,
-                dataManager.getCorrectTestExecutions()
-                        .subList(lastComputedCorrectTestExecutionsSize, dataManager.getCorrectTestExecutions().size()),
+        this.computeFitnessWithStates(sol,
+                dataManager.getCorrectStates(),
                 lastComputedCorrectTestExecutionsSize,
                 (double) Math.round(sol.fitnessValueFP * (double)lastComputedCorrectTestExecutionsSize));
     }
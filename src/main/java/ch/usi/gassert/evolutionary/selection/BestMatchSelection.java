@@ -6,7 +6,6 @@ import ch.usi.gassert.interpreter.AssertionManager;
 import ch.usi.gassert.util.Bitmap;
 import ch.usi.gassert.util.random.MyRandom;
 import ch.usi.gassert.util.Pair;
-import ch.usi.gassert.util.random.WeightedMap;
 
 import java.util.List;
 
@@ -26,51 +25,56 @@ public class BestMatchSelection implements ISelection {
 
     private Individual getBestMatch(final Individual parent, AssertionManager.Type type) {
         type = MyRandom.getInstance().nextFloat() < Config.PROB_BEST_SELECTION_SAME_TYPE ? type : (type == AssertionManager.Type.FP ? AssertionManager.Type.FN : AssertionManager.Type.FP);
-        // synchronized (AssertionManager.getDataToSolutions(type)) {
         final AssertionManager.Data bestData = findBestMatch(parent, type);
-        return MyRandom.getInstance().getRandomElementList(AssertionManager.getDataToSolutions(type).get(bestData));
-        //}
+        final List<Individual> individuals = bestData != null ? AssertionManager.getDataToSolutions(type).get(bestData) : null;
+        if (individuals == null) {
+            // Nothing cached yet for this type
+            return parent;
+        }
+        synchronized (individuals) {
+            return MyRandom.getInstance().getRandomElementList(individuals);
+        }
     }
 
     /**
      * return the best Data that maximize coverage
      * <p>
-     * <p>
-     * TODO too expensive
+     * The Data is selected with probability proportional to the number of ids in the parent and not in the Data.
+     * When there are more than Config.BEST_MATCH_SAMPLE_SIZE Data, only a random sample of them is considered.
      *
      * @param parent
      * @param type
      * @return
      */
     private AssertionManager.Data findBestMatch(final Individual parent, final AssertionManager.Type type) {
-        final AssertionManager.Data dataParent = new AssertionManager.Data(type.equals(AssertionManager.Type.FN)
-                ? parent.idsFNGOOD : parent.idsFPGOOD);
-        final WeightedMap<AssertionManager.Data> selector = new WeightedMap<>();
-        for (final AssertionManager.Data data : AssertionManager.getDataToSolutions(type).keySet()) {
-            final int countNewIds = countElementsInBNotInA(dataParent.getIds(), data.getIds());
-            // consider only those that improve something
+        final long[] parentIds = type.equals(AssertionManager.Type.FN) ? parent.idsFNGOOD : parent.idsFPGOOD;
+        final AssertionManager.DataIndex index = AssertionManager.getDataIndex(type);
+        final int size = index.size();
+        if (size == 0) {
+            return null;
+        }
+        final MyRandom random = MyRandom.getInstance();
+        final int parentCount = parentIds != null ? Bitmap.countSetBits(parentIds) : 0;
+        final boolean sample = size > Config.BEST_MATCH_SAMPLE_SIZE;
+        final int candidates = sample ? Config.BEST_MATCH_SAMPLE_SIZE : size;
+        AssertionManager.Data selected = null;
+        long total = 0;
+        // Without any id in the parent, no Data improves something
+        for (int i = 0; i < candidates && parentCount > 0; ++i) {
+            final AssertionManager.Data data = index.get(sample ? random.nextInt(size) : i);
+            if (data == null || data.getIds() == null) {
+                continue;
+            }
+            final int countNewIds = Bitmap.countAndNot(parentIds, data.getIds());
+            // consider only those that improve something, select based on the probability
             if (countNewIds > 0) {
-                selector.add(countNewIds, data);
+                total += countNewIds;
+                if (random.nextDouble() * total < countNewIds) {
+                    selected = data;
+                }
             }
         }
-        // select based on the probability
-        return !selector.isEmpty() ? selector.next() : MyRandom.getInstance().getRandomElementCollection(AssertionManager.getDataToSolutions(type).keySet());
+        return selected != null ? selected : index.get(random.nextInt(size));
     }
 
-
-    /**
-     * thi is much faster than create a new list everytime
-     *
-     * @param aSet
-     * @param bSet
-     * @return
-     */
-    private int countElementsInBNotInA(final long[] aSet, final long[] bSet) {
-        int count = 0;
-        assert aSet.length == bSet.length;
-        for(int i = 0 ; i < aSet.length ; ++i) {
-            count += Bitmap.countSetBits(aSet[i] & ~bSet[i]);
-        }
-        return count;
-    }
 }
@@ -2,10 +2,14 @@ package ch.usi.gassert.interpreter;
 
 
 import ch.usi.gassert.Config;
+import ch.usi.gassert.evolutionary.BehaviourManager;
 import ch.usi.gassert.evolutionary.Individual;
+import ch.usi.gassert.util.Bitmap;
+import ch.usi.gassert.util.SegmentedLruCache;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class store evaluation information
@@ -22,14 +26,23 @@ public class AssertionManager {
     /**
      * cached solutions with a maximum size
      */
-    private static Map<String, Individual> stringToSolution;
+    private static SegmentedLruCache<String, CachedIndividual> stringToSolution;
     private static Map<Data, List<Individual>> fnDataToSolutions;
     private static Map<Data, List<Individual>> fpDataToSolutions;
+    private static DataIndex fnDataIndex;
+    private static DataIndex fpDataIndex;
+
+    /**
+     * incremented whenever new states are added, the cached solutions computed before are recomputed on access
+     */
+    private static final AtomicInteger statesVersion = new AtomicInteger();
 
     static {
         fnDataToSolutions = new ConcurrentHashMap<>();
         fpDataToSolutions = new ConcurrentHashMap<>();
-        stringToSolution = new ConcurrentHashMap<>();
+        fnDataIndex = new DataIndex();
+        fpDataIndex = new DataIndex();
+        stringToSolution = new SegmentedLruCache<>(Config.MAX_SIZE_CACHE);
     }
 
     /**
@@ -41,38 +54,63 @@ public class AssertionManager {
     public static void cacheIdsData(final Type type, final Individual individual, final int gen) {
         final Data data = new Data(type.equals(Type.FN) ? individual.idsFNGOOD : individual.idsFPGOOD);
         final Map<Data, List<Individual>> dataToAssertions = getListBasedOn(type);
-        dataToAssertions.putIfAbsent(data, new ArrayList<>());
-        dataToAssertions.get(data).add(individual);
-        if (dataToAssertions.size() >= Config.MAX_SIZE_FOR_BEST_MATCHING_LIST) {
-            Collections.sort(dataToAssertions.get(data), CriteriaCompareIndividuals.FNplusFP_complexity.getComparator(gen));
-            dataToAssertions.remove(dataToAssertions.size() - 1);
+        final List<Individual> individuals = new ArrayList<>();
+        final List<Individual> previous = dataToAssertions.putIfAbsent(data, individuals);
+        if (previous == null) {
+            getIndexBasedOn(type).add(data);
+        }
+        final List<Individual> assertions = previous != null ? previous : individuals;
+        synchronized (assertions) {
+            assertions.add(individual);
+            if (assertions.size() > Config.MAX_SIZE_FOR_BEST_MATCHING_LIST) {
+                assertions.sort(CriteriaCompareIndividuals.FNplusFP_complexity.getComparator(gen));
+                assertions.remove(assertions.size() - 1);
+            }
         }
     }
 
+    /**
+     * cache a solution, which must be already computed with the current states
+     */
     public static void cacheAssertion(final Individual individual) {
-        if (stringToSolution.size() < Config.MAX_SIZE_CACHE) {
-            stringToSolution.putIfAbsent(individual.getAssertionAsString(), individual);
-        }
+        stringToSolution.putIfAbsent(individual.getAssertionAsString(), new CachedIndividual(individual, statesVersion.get()));
     }
 
-    public static void getCacheAssertion(final String assertion) {
-        if (stringToSolution.containsKey(assertion)) {
-            stringToSolution.get(assertion);
+    /**
+     * @return the cached solution, recomputed if new states were added since it was computed, or null if missing
+     */
+    public static Individual getCachedAssertion(final String assertion, final BehaviourManager behaviourManager) {
+        final CachedIndividual cached = stringToSolution.get(assertion);
+        if (cached == null) {
+            return null;
+        }
+        final int version = statesVersion.get();
+        if (cached.statesVersion != version) {
+            cached.individual.recompute(behaviourManager);
+            cached.statesVersion = version;
         }
+        return cached.individual;
     }
 
     public static boolean containsAssertion(final String assertion) {
         return stringToSolution.containsKey(assertion);
     }
 
-    public static Map<String, Individual> getStringToSolution() {
-        return stringToSolution;
-    }
-
     public static Map<Data, List<Individual>> getDataToSolutions(final Type type) {
         return getListBasedOn(type);
     }
 
+    /**
+     * @return the keys of getDataToSolutions, indexed for random access
+     */
+    public static DataIndex getDataIndex(final Type type) {
+        return getIndexBasedOn(type);
+    }
+
+    private static DataIndex getIndexBasedOn(final Type type) {
+        return type.equals(Type.FN) ? fnDataIndex : fpDataIndex;
+    }
+
 
     private static Map<Data, List<Individual>> getListBasedOn(final Type type) {
         return type.equals(Type.FN) ? fnDataToSolutions : fpDataToSolutions;
@@ -82,9 +120,39 @@ public class AssertionManager {
         return stringToSolution.size();
     }
 
+    public static long getCacheHits() {
+        return stringToSolution.getHits();
+    }
+
+    public static long getCacheMisses() {
+        return stringToSolution.getMisses();
+    }
+
+    public static long getCacheEvictions() {
+        return stringToSolution.getEvictions();
+    }
+
+    public static int getStatesVersion() {
+        return statesVersion.get();
+    }
+
+    /**
+     * New states were added: keep the cached solutions, but recompute them on access.
+     * The data for the ids is discarded, since the ids of the good states change.
+     */
+    public static void invalidate() {
+        fnDataToSolutions.clear();
+        fpDataToSolutions.clear();
+        fnDataIndex.clear();
+        fpDataIndex.clear();
+        statesVersion.incrementAndGet();
+    }
+
     public static void clearAll() {
         fnDataToSolutions.clear();
         fpDataToSolutions.clear();
+        fnDataIndex.clear();
+        fpDataIndex.clear();
         stringToSolution.clear();
     }
 
@@ -92,8 +160,9 @@ public class AssertionManager {
      * For debugging purposes
      */
     public static void checkIntegrity() {
-        for (final String assertionString : stringToSolution.keySet()) {
-            final Individual individual = stringToSolution.get(assertionString);
+        for (final Map.Entry<String, CachedIndividual> entry : stringToSolution.entries()) {
+            final String assertionString = entry.getKey();
+            final Individual individual = entry.getValue().individual;
             if (!individual.getAssertionAsString().equals(assertionString)) {
                 throw new RuntimeException("Cached data corrupted:" +
                         "\nK: " + assertionString +
@@ -102,11 +171,61 @@ public class AssertionManager {
         }
     }
 
+    private static final class CachedIndividual {
+        private final Individual individual;
+        private volatile int statesVersion;
+
+        CachedIndividual(final Individual individual, final int statesVersion) {
+            this.individual = individual;
+            this.statesVersion = statesVersion;
+        }
+    }
+
+    /**
+     * Append-only array of Data, readers can access it while another thread adds to it
+     */
+    public static final class DataIndex {
+        private volatile Data[] data = new Data[256];
+        private volatile int size = 0;
+
+        synchronized void add(final Data newData) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size] = newData;
+            size = size + 1;
+        }
+
+        synchronized void clear() {
+            data = new Data[256];
+            size = 0;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return the Data at the given index, or null if it was cleared meanwhile
+         */
+        public Data get(final int index) {
+            final Data[] current = data;
+            return index < current.length ? current[index] : null;
+        }
+    }
+
+    /**
+     * The ids bitmaps are never modified once computed, so the hash and the number of ids are computed once
+     */
     public static class Data {
         private final long[] ids;
+        private final int hash;
+        private final int count;
 
         public Data(final long[] ids) {
             this.ids = ids;
+            this.hash = Bitmap.hash(ids);
+            this.count = ids != null ? Bitmap.countSetBits(ids) : 0;
         }
 
 
@@ -114,6 +233,10 @@ public class AssertionManager {
             return ids;
         }
 
+        public int getCount() {
+            return count;
+        }
+
         @Override
         public boolean equals(final Object o) {
             if (this == o) {
@@ -123,12 +246,12 @@ public class AssertionManager {
                 return false;
             }
             final Data data = (Data) o;
-            return Arrays.equals(getIds(), data.getIds());
+            return hash == data.hash && count == data.count && Bitmap.equals(getIds(), data.getIds());
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(getIds());
+            return hash;
         }
     }
 }
@@ -12,8 +12,8 @@ import ch.usi.gassert.data.tree.template.TreeTemplate;
 import ch.usi.gassert.evolutionary.BehaviourManager;
 import ch.usi.gassert.evolutionary.Individual;
 import ch.usi.gassert.evolutionary.Population;
+import ch.usi.gassert.util.Bitmap;
 
-import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -47,7 +47,8 @@ public class MinimizationAssertion {
 
             try {
 
-                if (!AssertionManager.containsAssertion(sol.getAssertionAsString())) {
+                final Individual cached = AssertionManager.getCachedAssertion(sol.getAssertionAsString(), behaviourManager);
+                if (cached == null) {
                     Stats.getInstance().increment(Stats.KeysCounter.numberCacheMissAssertion);
                     Time.getInstance().start(Time.KeysCounter.computeFitnessFunction);
                     sol.compute(behaviourManager);
@@ -55,6 +56,8 @@ public class MinimizationAssertion {
                     AssertionManager.cacheAssertion(sol);
                 } else {
                     Stats.getInstance().increment(Stats.KeysCounter.numberCacheHitAssertion);
+                    sol = cached;
+                    bestIndividual = cached;
                 }
                 final long[] solFNIds = sol.idsFNGOOD;
                 final long[] solFPIds = sol.idsFPGOOD;
@@ -135,7 +138,7 @@ public class MinimizationAssertion {
     }
 
     private static boolean isMinEquivalent(final long[] solFNIds, final long[] solFPIds, final long[] minFNIds, final long[] minFPIds) {
-        return Arrays.equals(solFNIds, minFNIds) && Arrays.equals(solFPIds, minFPIds);
+        return Bitmap.equals(solFNIds, minFNIds) && Bitmap.equals(solFPIds, minFPIds);
     }
 
     /**
@@ -154,10 +157,10 @@ public class MinimizationAssertion {
                 minimizedTreeGroup.mappings.put(subTree, minimizedSubTree);
                 final Tree minimizedTree = minimizedTreeGroup.buildTree();
                 Stats.getInstance().increment(Stats.KeysCounter.minimizations);
-                final String assertionString = minimizedTree.toString();
-                if (AssertionManager.getStringToSolution().containsKey(assertionString)) {
+                final Individual cached = AssertionManager.getCachedAssertion(minimizedTree.toString(), behaviourManager);
+                if (cached != null) {
                     Stats.getInstance().increment(Stats.KeysCounter.numberCacheHitAssertion);
-                    individuals.add(AssertionManager.getStringToSolution().get(assertionString));
+                    individuals.add(cached);
                 } else {
                     Stats.getInstance().increment(Stats.KeysCounter.numberCacheMissAssertion);
                     final Individual solSub = new Individual(minimizedTree, minimizedTreeGroup);
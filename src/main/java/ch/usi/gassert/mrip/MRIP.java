@@ -1,51 +1,153 @@
 package ch.usi.gassert.mrip;
 
-import ch.usi.gassert.data.state.VariablesHelper;
+import ch.usi.gassert.Config;
 import ch.usi.gassert.data.tree.Tree;
 import ch.usi.gassert.data.tree.template.TreeGroup;
 import ch.usi.gassert.evaluator.IEvaluator;
+import ch.usi.gassert.util.Bitmap;
 import org.mu.util.Pair;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 public class MRIP {
     public final Tree tree;
     public final TreeGroup treeGroup;
-    public final Set<String> coveredTestCases;
-    // The Pair class overrides Object.equals so that we cannot have 2 distinct pairs with the same test cases selected
-    public final Set<Pair<String, String>> selectedPairs;
+    public final MRIPTestInputs testInputs;
+    // Bitmap indexed by test, see MRIPTestInputs
+    public final long[] coveredTestCases;
+    public final int coveredTestCasesCount;
+    // Bitmap indexed by test pair, see MRIPTestInputs. Allocated on the first selected pair.
+    private long[] selectedPairs;
+    public final int selectedPairsCount;
 
     public MRIP(final TreeGroup treeGroup, final IEvaluator evaluator, final Map<String, Map<String, Object>> testInputs) {
-        this(treeGroup, evaluator, testInputs, Integer.MAX_VALUE);
+        this(treeGroup, evaluator, new MRIPTestInputs(testInputs), Integer.MAX_VALUE);
     }
 
     public MRIP(final TreeGroup treeGroup, final IEvaluator evaluator, final Map<String, Map<String, Object>> testInputs, final int maxCoverage) {
+        this(treeGroup, evaluator, new MRIPTestInputs(testInputs), maxCoverage);
+    }
+
+    public MRIP(final TreeGroup treeGroup, final IEvaluator evaluator, final MRIPTestInputs testInputs) {
+        this(treeGroup, evaluator, testInputs, Integer.MAX_VALUE);
+    }
+
+    public MRIP(final TreeGroup treeGroup, final IEvaluator evaluator, final MRIPTestInputs testInputs, final int maxCoverage) {
         this.tree = treeGroup.buildTree();
         this.treeGroup = treeGroup;
-        this.coveredTestCases = new HashSet<>(testInputs.size());
-        this.selectedPairs = new HashSet<>(testInputs.size());
+        this.testInputs = testInputs;
+        this.coveredTestCases = Bitmap.create(testInputs.size());
+        this.selectedPairs = null;
+        final int size = testInputs.size();
+        // Within a ForkJoinPool, the source tests are evaluated in blocks split across the workers
+        final int rowsPerTask = Math.max(1, Config.EVALUATION_SPLIT_STATES / Math.max(1, size));
+        final int rowsPerBlock = ForkJoinTask.inForkJoinPool()
+                ? rowsPerTask * ForkJoinTask.getPool().getParallelism() : 1;
+        final long[][] followups = new long[Math.min(rowsPerBlock, size)][];
+        int coveredCount = 0;
+        int selectedCount = 0;
         // Test every possible test pair combination (in both ways)
-        for (final String source : testInputs.keySet()) {
-            for (final String followup : testInputs.keySet()) {
-                if (!source.equals(followup)) {
-                    // Build variables combining the source and the follow-up inputs
-                    final Map<String, Object> metamorphicVariables =
-                            VariablesHelper.makeMetamorphic(testInputs.get(source), testInputs.get(followup));
+        search:
+        for (int from = 0 ; from < size ; from += rowsPerBlock) {
+            final int to = Math.min(size, from + rowsPerBlock);
+            final EvalRowsTask task = new EvalRowsTask(evaluator, from, to, rowsPerTask, followups, from);
+            if (to - from > rowsPerTask) {
+                task.invoke();
+            } else {
+                task.compute();
+            }
+            // Merge the pairs in order, so that the result is the same as evaluating them one by one
+            for (int source = from ; source < to ; ++source) {
+                final long[] matches = followups[source - from];
+                for (int followup = Bitmap.nextSetBit(matches, 0) ; followup >= 0 ; followup = Bitmap.nextSetBit(matches, followup + 1)) {
+                    if (selectedPairs == null) {
+                        selectedPairs = Bitmap.create(testInputs.pairsSize());
+                    }
+                    Bitmap.set(selectedPairs, testInputs.pairIndex(source, followup));
+                    ++selectedCount;
+                    if (!Bitmap.isSet(coveredTestCases, source)) {
+                        Bitmap.set(coveredTestCases, source);
+                        ++coveredCount;
+                    }
+                    if (!Bitmap.isSet(coveredTestCases, followup)) {
+                        Bitmap.set(coveredTestCases, followup);
+                        ++coveredCount;
+                    }
+                    if (coveredCount > maxCoverage) {
+                        break search; // Fast path: Bail out if we went over the coverage limit
+                    }
+                }
+            }
+        }
+        this.coveredTestCasesCount = coveredCount;
+        this.selectedPairsCount = selectedCount;
+    }
+
+    /**
+     * Evaluate the pairs of the source tests within [from, to), into a bitmap of matching follow-up tests per source test
+     */
+    private final class EvalRowsTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        final IEvaluator evaluator;
+        final int from;
+        final int to;
+        final int rowsPerTask;
+        final long[][] followups;
+        final int followupsOffset;
+
+        EvalRowsTask(final IEvaluator evaluator, final int from, final int to, final int rowsPerTask,
+                     final long[][] followups, final int followupsOffset) {
+            this.evaluator = evaluator;
+            this.from = from;
+            this.to = to;
+            this.rowsPerTask = rowsPerTask;
+            this.followups = followups;
+            this.followupsOffset = followupsOffset;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > rowsPerTask) {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new EvalRowsTask(evaluator, from, mid, rowsPerTask, followups, followupsOffset),
+                        new EvalRowsTask(evaluator, mid, to, rowsPerTask, followups, followupsOffset));
+                return;
+            }
+            final int size = testInputs.size();
+            final MRIPTestInputs.PairVariables metamorphicVariables = testInputs.newPairVariables();
+            for (int source = from ; source < to ; ++source) {
+                final long[] matches = Bitmap.create(size);
+                for (int followup = 0 ; followup < size ; ++followup) {
                     // Check whether the MRIP matches this pair
-                    if (evaluator.eval(tree, metamorphicVariables)) {
-                        coveredTestCases.add(source);
-                        coveredTestCases.add(followup);
-                        selectedPairs.add(Pair.of(source, followup));
-                        if (coveredTestCases.size() > maxCoverage) {
-                            return; // Fast path: Bail out if we went over the coverage limit
-                        }
+                    if (source != followup && evaluator.eval(tree, metamorphicVariables.select(source, followup))) {
+                        Bitmap.set(matches, followup);
                     }
                 }
+                followups[source - followupsOffset] = matches;
+            }
+        }
+
+    }
+
+    /**
+     * @return the selected test pairs as (source, followup) test ids
+     */
+    public List<Pair<String, String>> getSelectedPairs() {
+        final List<Pair<String, String>> pairs = new ArrayList<>(selectedPairsCount);
+        if (selectedPairs != null) {
+            for (int pair = Bitmap.nextSetBit(selectedPairs, 0) ; pair >= 0 ; pair = Bitmap.nextSetBit(selectedPairs, pair + 1)) {
+                pairs.add(Pair.of(testInputs.getTestId(testInputs.pairSource(pair)),
+                        testInputs.getTestId(testInputs.pairFollowup(pair))));
             }
         }
+        return pairs;
     }
 
     @Override
@@ -60,4 +162,4 @@ public class MRIP {
     public int hashCode() {
         return Objects.hash(tree);
     }
-}
\ No newline at end of file
+}
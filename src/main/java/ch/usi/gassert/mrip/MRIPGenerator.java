@@ -24,6 +24,8 @@ import org.mu.util.Pair;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -43,6 +45,9 @@ public abstract class MRIPGenerator implements Runnable {
     public final IVariablesManager variablesManager;
     public final IEvaluator evaluator;
     public final Map<String, Map<String, Object>> testInputs;
+    public final MRIPTestInputs indexedTestInputs;
+    // Candidate MRIPs are evaluated concurrently in this pool
+    protected final ForkJoinPool pool;
     // Results
     protected MRIPGroup solution;
 
@@ -63,6 +68,8 @@ public abstract class MRIPGenerator implements Runnable {
         this.variablesManager = variablesManager;
         this.evaluator = evaluator;
         this.testInputs = testInputs;
+        this.indexedTestInputs = new MRIPTestInputs(testInputs);
+        this.pool = new ForkJoinPool(Math.max(1, Config.numberWorkingThreads));
         // Results
         this.solution = null;
     }
@@ -71,35 +78,86 @@ public abstract class MRIPGenerator implements Runnable {
         return this.solution;
     }
 
+    /**
+     * Stop the threads of the pool, once the generation is over
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
     public TreeGroup generateNewTree() {
             return new TreeGroup(treeTemplate);
     }
 
     public MRIPGroup generateRandomSolution(Supplier<Boolean> stopCondition) {
         final MRIP[] mrips = new MRIP[mripCount];
-        for (int i = 0 ; i < mripCount ; ++i) {
-            mrips[i] = Utils.repeatUntil(this::generateMRIP, mrip -> isGoodMrip(mrip) || stopCondition.get());
+        int count = 0;
+        while (count < mripCount) {
+            final List<TreeGroup> trees = new ArrayList<>(Config.MRIP_CANDIDATE_BATCH_SIZE);
+            for (int i = 0 ; i < Config.MRIP_CANDIDATE_BATCH_SIZE ; ++i) {
+                trees.add(Utils.repeatUntil(this::generateNewTree, this::isGoodTree));
+            }
+            for (final MRIP mrip : evaluateMRIPs(trees)) {
+                if (count < mripCount && (isGoodMrip(mrip) || stopCondition.get())) {
+                    mrips[count++] = mrip;
+                }
+            }
         }
         return new MRIPGroup(mrips);
     }
 
     public MRIP generateMRIP() {
-        return new MRIP(
-                Utils.repeatUntil(this::generateNewTree, this::isGoodTree),
-                evaluator, testInputs, maxCoverage
-        );
+        return evaluateMRIP(Utils.repeatUntil(this::generateNewTree, this::isGoodTree));
     }
 
     public MRIP generateMRIP(Supplier<Boolean> stopCondition) {
+        final List<MRIP> mrips = generateMRIPs(1, stopCondition);
+        return mrips.isEmpty() ? null : mrips.get(0);
+    }
+
+    /**
+     * Generate up to count MRIPs, fewer if the stop condition is reached while generating their Trees.
+     * The Trees are generated sequentially, so the results only depend on the random seed.
+     */
+    public List<MRIP> generateMRIPs(final int count, final Supplier<Boolean> stopCondition) {
+        final List<TreeGroup> trees = new ArrayList<>(count);
         try {
-            return new MRIP(
-                    Utils.repeatUntil(this::generateNewTree, tree -> isGoodTree(tree) || stopCondition.get()),
-                    evaluator, testInputs, maxCoverage
-            );
+            for (int i = 0 ; i < count ; ++i) {
+                final TreeGroup tree = Utils.repeatUntil(this::generateNewTree, t -> isGoodTree(t) || stopCondition.get());
+                if (!isGoodTree(tree)) {
+                    // Stop condition reached before generating a good Tree
+                    break;
+                }
+                trees.add(tree);
+            }
         } catch (NullPointerException ignored) {
             // Stop condition reached while generating Tree
-            return null;
         }
+        return evaluateMRIPs(trees);
+    }
+
+    public MRIP evaluateMRIP(final TreeGroup tree) {
+        return evaluateMRIPs(Collections.singletonList(tree)).get(0);
+    }
+
+    /**
+     * Evaluate the MRIPs of the given Trees concurrently
+     *
+     * @return the MRIPs in the same order as the Trees
+     */
+    public List<MRIP> evaluateMRIPs(final List<TreeGroup> trees) {
+        final List<ForkJoinTask<MRIP>> tasks = new ArrayList<>(trees.size());
+        for (final TreeGroup tree : trees) {
+            tasks.add(ForkJoinTask.adapt(() -> new MRIP(tree, evaluator, indexedTestInputs, maxCoverage)));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> {
+            ForkJoinTask.invokeAll(tasks);
+        }));
+        final List<MRIP> mrips = new ArrayList<>(tasks.size());
+        for (final ForkJoinTask<MRIP> task : tasks) {
+            mrips.add(task.join());
+        }
+        return mrips;
     }
 
     public boolean isGoodTree(final TreeGroup treeGroup) {
@@ -107,17 +165,17 @@ public abstract class MRIPGenerator implements Runnable {
     }
 
     public boolean isGoodMrip(final MRIP mrip) {
-        return mrip.coveredTestCases.size() >= minCoverage && mrip.coveredTestCases.size() <= maxCoverage;
+        return mrip.coveredTestCasesCount >= minCoverage && mrip.coveredTestCasesCount <= maxCoverage;
     }
 
     public static boolean isBetterMRIP(final MRIP newMRIP, final MRIP oldMRIP) {
-        final int coverageDiff = newMRIP.coveredTestCases.size() - oldMRIP.coveredTestCases.size();
+        final int coverageDiff = newMRIP.coveredTestCasesCount - oldMRIP.coveredTestCasesCount;
         if (coverageDiff != 0) {
             // First, favor candidates with a better test set coverage
             return coverageDiff > 0;
-        } else if (newMRIP.selectedPairs.size() != oldMRIP.selectedPairs.size()) {
+        } else if (newMRIP.selectedPairsCount != oldMRIP.selectedPairsCount) {
             // In case of identical test set coverage, minimize the number of test pairs (to minimize redundant pairings)
-            return newMRIP.selectedPairs.size() < oldMRIP.selectedPairs.size();
+            return newMRIP.selectedPairsCount < oldMRIP.selectedPairsCount;
         } else {
             // Finally, favor MRIPs that have a lower complexity in their expression
             return newMRIP.tree.getNumberOfNodes() < oldMRIP.tree.getNumberOfNodes();
@@ -134,7 +192,7 @@ public abstract class MRIPGenerator implements Runnable {
 
     public static boolean isBetterSolution(final MRIPGroup newSolution, final MRIPGroup oldSolution, int newMRIPIndex) {
         return isBetterSolution(newSolution.mrips[newMRIPIndex], oldSolution.mrips[newMRIPIndex],
-                newSolution.coverage.size(), oldSolution.coverage.size());
+                newSolution.coverageCount, oldSolution.coverageCount);
     }
 
     public static void main(String[] args) {
@@ -223,7 +281,11 @@ public abstract class MRIPGenerator implements Runnable {
                 throw new RuntimeException("Unsupported algorithm: " + algorithm);
         }
         LogUtils.log().info("Coverage threshold: [" + generator.minCoverage + ", " + generator.maxCoverage + "]");
-        generator.run();
+        try {
+            generator.run();
+        } finally {
+            generator.shutdown();
+        }
         final MRIPGroup solution = generator.getSolution();
         // Output results
         List<MRInfo> mrinfos = new ArrayList<>();
@@ -248,7 +310,7 @@ public abstract class MRIPGenerator implements Runnable {
             final String mripName = "MRIP" + (i++);
             outMrips.println(mripName);
             outMrips.println(mrip.tree.toString());
-            for (final Pair<String, String> pair : mrip.selectedPairs) {
+            for (final Pair<String, String> pair : mrip.getSelectedPairs()) {
                 mrinfos.add(new MRInfo(mripName, pair.a, pair.b));
             }
         }
@@ -1,32 +1,31 @@
 package ch.usi.gassert.mrip;
 
-import ch.usi.gassert.util.Utils;
+import ch.usi.gassert.util.Bitmap;
 
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
 import java.util.stream.Stream;
 
 public class MRIPGroup {
 
     public MRIP[] mrips;
-    public Set<String> coverage;
+    // Bitmap indexed by test, see MRIPTestInputs
+    public long[] coverage;
+    public int coverageCount;
 
     public MRIPGroup(final MRIP[] mrips) {
+        this(mrips, getCoverage(Arrays.stream(mrips)));
+    }
+
+    private MRIPGroup(final MRIP[] mrips, final long[] coverage) {
         this.mrips = mrips;
-        this.coverage = getCoverage(Arrays.stream(mrips));
+        this.coverage = coverage;
+        this.coverageCount = Bitmap.countSetBits(coverage);
     }
 
     public MRIPGroup replaceMRIP(final MRIP newMrip, int position) {
-        final MRIP[] newMrips = new MRIP[this.mrips.length];
-        for (int i = 0 ; i < newMrips.length ; ++i) {
-            if (i == position) {
-                newMrips[i] = newMrip;
-            } else {
-                newMrips[i] = this.mrips[i];
-            }
-        }
-        return new MRIPGroup(newMrips);
+        final MRIP[] newMrips = this.mrips.clone();
+        newMrips[position] = newMrip;
+        return new MRIPGroup(newMrips, getCoverage(Arrays.stream(newMrips)));
     }
 
     public MRIPGroup[] replaceMRIP(final MRIP newMrip) {
@@ -37,10 +36,17 @@ public class MRIPGroup {
         return newMripGroups;
     }
 
-    public static Set<String> getCoverage(final Stream<MRIP> mrips) {
+    public static long[] getCoverage(final Stream<MRIP> mrips) {
         return mrips
             .map(mrip -> mrip.coveredTestCases)
-            .reduce(new HashSet<>(64), Utils::unionWith);
+            .reduce(MRIPGroup::union)
+            .orElse(new long[0]);
+    }
+
+    private static long[] union(final long[] a, final long[] b) {
+        final long[] result = Arrays.copyOf(a, Math.max(a.length, b.length));
+        Bitmap.or(result, b);
+        return result;
     }
 
 }
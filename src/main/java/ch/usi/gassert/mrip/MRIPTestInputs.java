@@ -0,0 +1,109 @@
+package ch.usi.gassert.mrip;
+
+import ch.usi.gassert.util.MR;
+
+import java.util.*;
+
+import static ch.usi.gassert.util.Assert.assertAlways;
+
+/**
+ * Test inputs for MRIP generation, indexed by integer so that test coverage can be kept in bitmaps.
+ * <p>
+ * Test pairs are indexed as source * size() + followup.
+ */
+public class MRIPTestInputs {
+
+    private final String[] testIds;
+    private final List<Map<String, Object>> inputs;
+
+    public MRIPTestInputs(final Map<String, Map<String, Object>> testInputs) {
+        assertAlways((long) testInputs.size() * testInputs.size() <= Integer.MAX_VALUE,
+                "Too many test inputs for MRIP generation: " + testInputs.size());
+        this.testIds = testInputs.keySet().stream().sorted().toArray(String[]::new);
+        this.inputs = new ArrayList<>(testIds.length);
+        for (final String testId : testIds) {
+            inputs.add(testInputs.get(testId));
+        }
+    }
+
+    public int size() {
+        return testIds.length;
+    }
+
+    public int pairsSize() {
+        return testIds.length * testIds.length;
+    }
+
+    public String getTestId(final int test) {
+        return testIds[test];
+    }
+
+    public Map<String, Object> getInputs(final int test) {
+        return inputs.get(test);
+    }
+
+    public int pairIndex(final int source, final int followup) {
+        return source * testIds.length + followup;
+    }
+
+    public int pairSource(final int pair) {
+        return pair / testIds.length;
+    }
+
+    public int pairFollowup(final int pair) {
+        return pair % testIds.length;
+    }
+
+    public PairVariables newPairVariables() {
+        return new PairVariables();
+    }
+
+    /**
+     * Metamorphic variables of a source and a follow-up test, same as VariablesHelper.makeMetamorphic,
+     * but reading the inputs of the selected tests instead of copying them into a new map.
+     * <p>
+     * Instances are reused for every pair, so they are not thread safe.
+     */
+    public class PairVariables extends AbstractMap<String, Object> {
+
+        private Map<String, Object> source = Collections.emptyMap();
+        private Map<String, Object> followup = Collections.emptyMap();
+
+        public PairVariables select(final int source, final int followup) {
+            this.source = inputs.get(source);
+            this.followup = inputs.get(followup);
+            return this;
+        }
+
+        @Override
+        public Object get(final Object key) {
+            final String name = key.toString();
+            String variable = MR.SOURCE_TO_VARIABLE(name);
+            if (variable != null) {
+                return source.get(variable);
+            }
+            variable = MR.FOLLOWUP_TO_VARIABLE(name);
+            if (variable != null) {
+                return followup.get(variable);
+            }
+            return null;
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            final Set<Entry<String, Object>> entries = new HashSet<>(source.size() * 2);
+            for (final String variable : source.keySet()) {
+                entries.add(new SimpleImmutableEntry<>(MR.VARIABLE_TO_SOURCE(variable), source.get(variable)));
+                entries.add(new SimpleImmutableEntry<>(MR.VARIABLE_TO_FOLLOWUP(variable), followup.get(variable)));
+            }
+            return entries;
+        }
+
+    }
+
+}
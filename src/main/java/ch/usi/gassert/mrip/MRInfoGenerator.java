@@ -1,6 +1,7 @@
 package ch.usi.gassert.mrip;
 
 import ch.usi.gassert.data.manager.method.MethodDataManager;
+import ch.usi.gassert.data.state.StateDataset;
 import ch.usi.gassert.data.state.TestExecution;
 import ch.usi.gassert.data.state.VariablesHelper;
 import ch.usi.gassert.data.state.VariablesManager;
@@ -10,7 +11,6 @@ import ch.usi.gassert.evaluator.BasicEvaluator;
 import ch.usi.gassert.evaluator.IEvaluator;
 import org.mu.testcase.metamorphic.MRInfo;
 import org.mu.testcase.metamorphic.MRInfoDB;
-import org.mu.util.streams.StreamLoaderFactory;
 
 import java.io.*;
 import java.util.*;
@@ -86,7 +86,7 @@ public class MRInfoGenerator {
         mrinfosFile.getParentFile().mkdirs();
         // Load TestExecutions from file
         final Collection<TestExecution> testExecutions = MethodDataManager.loadAllTestExecutions(
-                StreamLoaderFactory.forPath(statesDir)
+                StateDataset.forPath(statesDir)
         ).get(originalSystemId).values();
         System.out.println("Loaded " + testExecutions.size() + " test executions");
         // Select any test execution and infer variable types
@@ -1,5 +1,6 @@
 package ch.usi.gassert.mrip.algorithm;
 
+import ch.usi.gassert.Config;
 import ch.usi.gassert.data.state.IVariablesManager;
 import ch.usi.gassert.data.tree.template.TreeGroup;
 import ch.usi.gassert.data.tree.template.TreeTemplate;
@@ -11,6 +12,10 @@ import ch.usi.gassert.mrip.MRIPGroup;
 import ch.usi.gassert.util.LogUtils;
 import ch.usi.gassert.util.Utils;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Supplier;
 
@@ -48,8 +53,10 @@ public class MRIPGeneratorHillClimbing extends MRIPGenerator {
             throw new RuntimeException("Time budget expired while generating initial population");
         }
         LogUtils.log().info("Finished generating initial population");
-        LogUtils.log().info("Current test case coverage: " + solution.coverage.size() + "/" + testInputs.size());
-        int previousLoggedCoverage = solution.coverage.size();
+        LogUtils.log().info("Current test case coverage: " + solution.coverageCount + "/" + testInputs.size());
+        int previousLoggedCoverage = solution.coverageCount;
+        // Successive mutations of the current candidate, evaluated ahead in batches
+        final Deque<MRIP> mutations = new ArrayDeque<>(Config.MRIP_CANDIDATE_BATCH_SIZE);
         // Iterate until we run out of time budget
         while (!timeBudgetExpired.get()) {
             // Check candidate
@@ -68,19 +75,27 @@ public class MRIPGeneratorHillClimbing extends MRIPGenerator {
                 ++currentPlateau;
             }
             if (currentPlateau < plateauSize) {
-                // Mutate candidate while checking exit condition
-                final TreeGroup treeGroup = candidate.treeGroup;
-                final TreeGroup newTree = Utils.repeatUntil(
-                        () -> behaviourManager.getMutation().mutate(treeGroup, null),
-                        tree -> isGoodTree(tree) || timeBudgetExpired.get()
-                );
-                if (timeBudgetExpired.get()) {
-                    break;
-                } else {
-                    candidate = new MRIP(newTree, evaluator, testInputs, maxCoverage);
+                if (mutations.isEmpty()) {
+                    // Mutate candidate a batch of times (each mutation from the previous one) while checking exit condition
+                    final List<TreeGroup> newTrees = new ArrayList<>(Config.MRIP_CANDIDATE_BATCH_SIZE);
+                    TreeGroup treeGroup = candidate.treeGroup;
+                    for (int i = 0 ; i < Config.MRIP_CANDIDATE_BATCH_SIZE && !timeBudgetExpired.get() ; ++i) {
+                        final TreeGroup previousTree = treeGroup;
+                        treeGroup = Utils.repeatUntil(
+                                () -> behaviourManager.getMutation().mutate(previousTree, null),
+                                tree -> isGoodTree(tree) || timeBudgetExpired.get()
+                        );
+                        newTrees.add(treeGroup);
+                    }
+                    if (timeBudgetExpired.get()) {
+                        break;
+                    }
+                    mutations.addAll(evaluateMRIPs(newTrees));
                 }
+                candidate = mutations.poll();
             } else {
                 // Plateau: Generate new candidate from scratch and reset plateau
+                mutations.clear();
                 candidate = generateMRIP(timeBudgetExpired);
                 currentPlateau = 0;
                 if (timeBudgetExpired.get()) {
@@ -88,9 +103,9 @@ public class MRIPGeneratorHillClimbing extends MRIPGenerator {
                 }
             }
             // Log progress
-            if (solution.coverage.size() != previousLoggedCoverage) {
-                previousLoggedCoverage = solution.coverage.size();
-                LogUtils.log().info("Current test case coverage: " + solution.coverage.size() + "/" + testInputs.size());
+            if (solution.coverageCount != previousLoggedCoverage) {
+                previousLoggedCoverage = solution.coverageCount;
+                LogUtils.log().info("Current test case coverage: " + solution.coverageCount + "/" + testInputs.size());
             }
         }
         // Time budget expired
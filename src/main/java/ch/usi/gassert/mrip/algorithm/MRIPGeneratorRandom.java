@@ -1,5 +1,6 @@
 package ch.usi.gassert.mrip.algorithm;
 
+import ch.usi.gassert.Config;
 import ch.usi.gassert.data.state.IVariablesManager;
 import ch.usi.gassert.data.tree.template.TreeTemplate;
 import ch.usi.gassert.evaluator.IEvaluator;
@@ -36,24 +37,25 @@ public class MRIPGeneratorRandom extends MRIPGenerator {
             throw new RuntimeException("Time budget expired while generating initial population");
         }
         LogUtils.log().info("Finished generating initial population");
-        LogUtils.log().info("Current test case coverage: " + solution.coverage.size() + "/" + testInputs.size());
-        int previousLoggedCoverage = solution.coverage.size();
+        LogUtils.log().info("Current test case coverage: " + solution.coverageCount + "/" + testInputs.size());
+        int previousLoggedCoverage = solution.coverageCount;
         // Iterate until we run out of time budget
         while (!timeBudgetExpired.get()) {
-            // Generate new candidate
-            final MRIP newMRIP = generateMRIP(timeBudgetExpired);
-            if (newMRIP != null && isGoodMrip(newMRIP)) {
-                // Test replacing every MRIP in the current solution with the new one
-                final MRIPGroup[] candidateSolutions = solution.replaceMRIP(newMRIP);
-                for (int i = 0 ; i < solution.mrips.length ; ++i) {
-                    if (isBetterSolution(candidateSolutions[i], solution, i)) {
-                        solution = candidateSolutions[i];
+            // Generate a batch of new candidates, and check them in order
+            for (final MRIP newMRIP : generateMRIPs(Config.MRIP_CANDIDATE_BATCH_SIZE, timeBudgetExpired)) {
+                if (isGoodMrip(newMRIP)) {
+                    // Test replacing every MRIP in the current solution with the new one
+                    final MRIPGroup[] candidateSolutions = solution.replaceMRIP(newMRIP);
+                    for (int i = 0 ; i < solution.mrips.length ; ++i) {
+                        if (isBetterSolution(candidateSolutions[i], solution, i)) {
+                            solution = candidateSolutions[i];
+                        }
+                    }
+                    // Log progress
+                    if (solution.coverageCount != previousLoggedCoverage) {
+                        previousLoggedCoverage = solution.coverageCount;
+                        LogUtils.log().info("Current test case coverage: " + solution.coverageCount + "/" + testInputs.size());
                     }
-                }
-                // Log progress
-                if (solution.coverage.size() != previousLoggedCoverage) {
-                    previousLoggedCoverage = solution.coverage.size();
-                    LogUtils.log().info("Current test case coverage: " + solution.coverage.size() + "/" + testInputs.size());
                 }
             }
         }
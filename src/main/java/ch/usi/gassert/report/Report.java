@@ -7,7 +7,6 @@ import ch.usi.gassert.evolutionary.Individual;
 import ch.usi.gassert.evolutionary.Population;
 import ch.usi.gassert.interpreter.AssertionManager;
 import ch.usi.gassert.interpreter.CriteriaCompareIndividuals;
-import ch.usi.gassert.util.AtomicBigInteger;
 import ch.usi.gassert.util.MyGson;
 import ch.usi.gassert.util.Statistics;
 import com.google.gson.Gson;
@@ -21,8 +20,8 @@ import java.util.*;
 public class Report {
     protected int generation;
     protected long currentTime;
-    protected Map<Time.KeysCounter, AtomicBigInteger> key2counterTime;
-    protected Map<Stats.KeysCounter, AtomicBigInteger> key2counterStats;
+    protected Map<Time.KeysCounter, Long> key2counterTime;
+    protected Map<Stats.KeysCounter, Long> key2counterStats;
     protected Map<Population.TypeStatistics, Statistics> populationFPstatistics;
     protected Map<Population.TypeStatistics, Statistics> populationFNstatistics;
     protected Map<Integer, Map<CriteriaCompareIndividuals, java.util.List<Individual>>> complexity2Criteria2BestSolutions;
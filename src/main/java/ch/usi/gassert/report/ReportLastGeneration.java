@@ -23,7 +23,7 @@ public class ReportLastGeneration {
         }
         sb.append("TIME: \n");
         for (final Time.KeysCounter key : Time.KeysCounter.values()) {
-            sb.append(key + ": " + TimeUtils.getPrettyPrintTime(report.key2counterTime.get(key).get().longValue()) + "\n");
+            sb.append(key + ": " + TimeUtils.getPrettyPrintTime(report.key2counterTime.get(key)) + "\n");
         }
         sb.append("BEST ASSERTIONS\n");
         for (final Integer complexity : report.complexity2Criteria2BestSolutions.keySet()) {
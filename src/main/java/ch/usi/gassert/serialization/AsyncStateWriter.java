@@ -0,0 +1,203 @@
+package ch.usi.gassert.serialization;
+
+import ch.usi.gassert.data.state.TestExecution;
+import ch.usi.gassert.data.state.Variables;
+import com.google.gson.stream.JsonWriter;
+import org.mu.util.streams.SegmentedStreamLoader;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static ch.usi.gassert.util.FileUtils.SEPARATORS;
+
+/**
+ * Writes TestExecutions in the background, as JSON lines appended to segments (see SegmentedStreamLoader).
+ * <p>
+ * The SUT threads only hand the TestExecutions over to a bounded queue, and wait only if the writer falls behind.
+ * Once the writer is closed or has failed, write refuses the TestExecutions, so that the SUT threads can write them
+ * some other way instead of waiting forever (e.g. during the JVM shutdown).
+ * The writer thread drains the queue in batches and flushes whenever it is empty.
+ * Each instance writes its own segments, so that several processes can share the output directory.
+ * The entries are named like the files written by StateSerializingMethodVisitor, so the loaders are the same.
+ */
+public final class AsyncStateWriter implements AutoCloseable {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    // How often the threads waiting for the queue check whether the writer is still running
+    private static final long POLL_MILLIS = 100;
+
+    // Marks the end of the queue
+    private static final TestExecution END = new TestExecution("", "", new Variables());
+
+    private final Path outdir;
+    private final String prefix;
+    private final long segmentBytes;
+    private final BlockingQueue<TestExecution> queue;
+    private final Thread thread;
+    private volatile boolean closed;
+    private volatile Throwable failure;
+    private volatile boolean failureReported;
+
+    private int segmentIndex;
+    private OutputStream segment;
+    private Writer index;
+    private long segmentOffset;
+
+    public AsyncStateWriter(final Path outdir) {
+        this(outdir, DEFAULT_QUEUE_CAPACITY, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public AsyncStateWriter(final Path outdir, final int queueCapacity, final long segmentBytes) {
+        this.outdir = outdir;
+        this.prefix = "states-" + UUID.randomUUID();
+        this.segmentBytes = segmentBytes;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.closed = false;
+        this.failure = null;
+        this.segmentIndex = 0;
+        this.thread = new Thread(this::run, "async-state-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public static String getEntryName(final TestExecution testExecution) {
+        return testExecution.getSystemId() + SEPARATORS[0] + testExecution.getTestId() + ".state.json";
+    }
+
+    /**
+     * Queue the TestExecution for writing, blocking while the queue is full
+     *
+     * @return false if the writer is closed or has failed, in which case the TestExecution is not written
+     */
+    public boolean write(final TestExecution testExecution) {
+        try {
+            while (!closed && failure == null) {
+                if (queue.offer(testExecution, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    // The writer may have failed before taking it
+                    return failure == null || !queue.remove(testExecution);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted writing TestExecution " + getEntryName(testExecution), e);
+        }
+        if (failure != null && !failureReported) {
+            failureReported = true;
+            System.err.println("AsyncStateWriter failed, TestExecutions are no longer written to " + outdir
+                    + ": " + failure);
+        }
+        return false;
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new RuntimeException("Exception writing TestExecutions to " + outdir, failure);
+        }
+    }
+
+    private void run() {
+        final List<TestExecution> batch = new ArrayList<>();
+        final StringWriter json = new StringWriter();
+        try {
+            boolean end = false;
+            while (!end) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                for (final TestExecution testExecution : batch) {
+                    if (testExecution == END) {
+                        end = true;
+                        break;
+                    }
+                    json.getBuffer().setLength(0);
+                    try (final JsonWriter writer = new JsonWriter(json)) {
+                        testExecution.toJson(writer);
+                    }
+                    append(getEntryName(testExecution), json.toString());
+                }
+                batch.clear();
+                if (queue.isEmpty()) {
+                    flush();
+                }
+            }
+        } catch (Throwable e) {
+            // The SUT threads waiting for space stop once they see the failure
+            failure = e;
+            queue.clear();
+        } finally {
+            closeSegment();
+        }
+    }
+
+    private void append(final String entry, final String json) throws IOException {
+        if (segment == null || segmentOffset >= segmentBytes) {
+            closeSegment();
+            final String name = prefix + "-" + (segmentIndex++);
+            segment = new BufferedOutputStream(new FileOutputStream(
+                    outdir.resolve(name + SegmentedStreamLoader.SEGMENT_EXTENSION).toFile()), 1 << 16);
+            index = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+                    outdir.resolve(name + SegmentedStreamLoader.INDEX_EXTENSION).toFile()), StandardCharsets.UTF_8));
+            segmentOffset = 0;
+        }
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        segment.write(bytes);
+        segment.write('\n');
+        index.write(entry + "\t" + segmentOffset + "\t" + bytes.length + "\n");
+        segmentOffset += bytes.length + 1;
+    }
+
+    /**
+     * The segment first, so that the index does not point past its end
+     */
+    private void flush() throws IOException {
+        if (segment != null) {
+            segment.flush();
+            index.flush();
+        }
+    }
+
+    private void closeSegment() {
+        if (segment != null) {
+            try {
+                segment.close();
+                index.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            segment = null;
+            index = null;
+        }
+    }
+
+    /**
+     * Write the queued TestExecutions and wait for the writer thread to terminate
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            // The writer thread may fail meanwhile, and never take END
+            while (thread.isAlive() && !queue.offer(END, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                // Wait for space
+            }
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkFailure();
+    }
+
+}
@@ -3,12 +3,24 @@ package ch.usi.gassert.serialization;
 import ch.usi.gassert.util.ClassUtils;
 import ch.usi.staticanalysis.PurityAnalysis;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 
+/**
+ * Serializes the public fields of objects recursively, up to maxDepth.
+ * <p>
+ * The reflective lookups are done once per class: each class gets a cached plan with its kind and the
+ * MethodHandles reading its fields. The variable names of the paths are also built only once.
+ */
 public class DefaultSerializer implements ISerializer {
 
     public static final DefaultSerializer INSTANCE = new DefaultSerializer();
@@ -16,10 +28,87 @@ public class DefaultSerializer implements ISerializer {
     public static final PurityAnalysis purityAnalysis = null;
     //public static final PurityAnalysis purityAnalysis = new PurityAnalysis(null);
 
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
     public static DefaultSerializer getInstance() {
         return INSTANCE;
     }
 
+    private enum Kind {
+        IGNORED, BOOLEAN, NUMERIC, SEQUENCE, OBJECT;
+
+        boolean isTerminal() {
+            return this == BOOLEAN || this == NUMERIC || this == SEQUENCE;
+        }
+
+        static Kind of(final Class<?> clazz) {
+            if (Character.class.equals(clazz)) {
+                return IGNORED;
+            } else if (ClassUtils.isBooleanType(clazz)) {
+                return BOOLEAN;
+            } else if (ClassUtils.isNumericType(clazz)) {
+                return NUMERIC;
+            } else if (ClassUtils.isSequenceType(clazz)) {
+                return SEQUENCE;
+            } else {
+                return OBJECT;
+            }
+        }
+    }
+
+    private static final class Accessor {
+        final String name;
+        final MethodHandle getter;
+        final boolean isFinal;
+
+        Accessor(final String name, final MethodHandle getter, final boolean isFinal) {
+            this.name = name;
+            this.getter = getter;
+            this.isFinal = isFinal;
+        }
+    }
+
+    /**
+     * What to do with the objects of a class, computed on first use
+     */
+    private static final class ClassPlan {
+        final Kind kind;
+        final boolean isImmutable;
+        final Accessor[] accessors;
+
+        ClassPlan(final Class<?> clazz) {
+            kind = Kind.of(clazz);
+            isImmutable = kind != Kind.IGNORED && ClassUtils.isImmutable(clazz);
+            accessors = kind == Kind.OBJECT ? findAccessors(clazz) : new Accessor[0];
+        }
+    }
+
+    private static final ClassValue<ClassPlan> PLANS = new ClassValue<ClassPlan>() {
+        @Override
+        protected ClassPlan computeValue(final Class<?> clazz) {
+            return new ClassPlan(clazz);
+        }
+    };
+
+    /**
+     * Path of a serialized value, the paths of its fields are cached
+     */
+    private static final class Path {
+        // Path with a trailing '.', as passed to serializeTerminal
+        final String path;
+        final Map<String, Path> children = new ConcurrentHashMap<>();
+
+        Path(final String path) {
+            this.path = path;
+        }
+
+        Path child(final String field) {
+            return children.computeIfAbsent(field, f -> new Path(path + f + "."));
+        }
+    }
+
+    private final Path root = new Path("");
+
     public final int maxDepth;
 
     private DefaultSerializer() {
@@ -33,37 +122,38 @@ public class DefaultSerializer implements ISerializer {
     @Override
     public void serialize(final Class<?> clazz, final Object obj, final Map<String, Object> vars,
                           boolean serializeImmutable) {
-        serialize(clazz, obj, vars, serializeImmutable, 0, "");
+        serialize(clazz, obj, vars, serializeImmutable, 0, root);
     }
 
     private void serialize(final Class<?> clazz, final Object obj, final Map<String, Object> vars,
-                           boolean serializeImmutable, int depth, String path) {
-        if (this.shouldIgnore(clazz)) {
+                           boolean serializeImmutable, int depth, Path path) {
+        final ClassPlan plan = PLANS.get(clazz);
+        if (plan.kind == Kind.IGNORED) {
             return;
         }
-        final boolean isImmutable = ClassUtils.isImmutable(clazz);
-        if (isImmutable && !serializeImmutable) {
+        if (plan.isImmutable && !serializeImmutable) {
             return;
         }
-        if (this.isTerminal(clazz)) {
-            this.serializeTerminal(clazz, obj, path, vars);
+        if (plan.kind.isTerminal()) {
+            serializeTerminal(clazz, obj, path.path, vars);
         } else if (depth < maxDepth) {
-            this.getFields(clazz, obj).forEach(field -> {
+            for (final Accessor accessor : plan.accessors) {
                 try {
-                    serialize(field.value.getClass(), field.value, vars, serializeImmutable || !isImmutable, depth + 1, path + field.name + ".");
-                } catch (Exception ignored) {}
-            });
+                    final Object value = (Object) accessor.getter.invokeExact(obj);
+                    serialize(value.getClass(), value, vars, serializeImmutable || !plan.isImmutable, depth + 1, path.child(accessor.name));
+                } catch (Throwable ignored) {}
+            }
         }
     }
 
     @Override
     public boolean shouldIgnore(final Class<?> clazz) {
-        return Character.class.equals(clazz);
+        return PLANS.get(clazz).kind == Kind.IGNORED;
     }
 
     @Override
     public boolean isTerminal(final Class<?> clazz) {
-        return ClassUtils.isBooleanType(clazz) || ClassUtils.isNumericType(clazz) || ClassUtils.isSequenceType(clazz);
+        return PLANS.get(clazz).kind.isTerminal();
     }
 
     @Override
@@ -80,18 +170,21 @@ public class DefaultSerializer implements ISerializer {
         }
     }
 
-    @Override
-    public Stream<FieldInfo> getFields(Class<?> clazz, final Object obj) {
-        final Stream.Builder<FieldInfo> stream = Stream.builder();
+    /**
+     * Getters of the public instance fields of the class and its superclasses, and of its pure methods
+     */
+    private static Accessor[] findAccessors(Class<?> clazz) {
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        final List<Accessor> accessors = new ArrayList<>();
         do {
             for (Field field : clazz.getDeclaredFields()) {
                 try {
                     final int mod = field.getModifiers();
                     if (Modifier.isPublic(mod) && !Modifier.isStatic(mod)) {
                         field.setAccessible(true);
-                        // field.get(obj) will automatically wrap primitives into Objects
-                        stream.accept(new FieldInfo(field.getName(), field.get(obj), Modifier.isFinal(mod)));
-                        field.setAccessible(false);
+                        // The getter will automatically wrap primitives into Objects
+                        final MethodHandle getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+                        accessors.add(new Accessor(field.getName(), getter, Modifier.isFinal(mod)));
                     }
                 } catch (Exception ignored) {}
             }
@@ -101,17 +194,29 @@ public class DefaultSerializer implements ISerializer {
                     final Method method = clazz.getDeclaredMethod(methodName);
                     final int mod = method.getModifiers();
                     if (Modifier.isPublic(mod) && !Modifier.isStatic(mod)
-                            && method.getParameters().length == 0 
-                            && this.isTerminal(method.getReturnType())) {
+                            && method.getParameters().length == 0
+                            // Not through PLANS, this runs while computing the plan of clazz
+                            && Kind.of(method.getReturnType()).isTerminal()) {
                         method.setAccessible(true);
-                        stream.accept(new FieldInfo(method.getName() + "()", method.invoke(obj), true));
-                        method.setAccessible(false);
+                        final MethodHandle getter = lookup.unreflect(method).asType(GETTER_TYPE);
+                        accessors.add(new Accessor(method.getName() + "()", getter, true));
                     }
                 } catch (Exception ignored) {}
             }
             }
             clazz = clazz.getSuperclass();
         } while(clazz != null);
+        return accessors.toArray(new Accessor[0]);
+    }
+
+    @Override
+    public Stream<FieldInfo> getFields(Class<?> clazz, final Object obj) {
+        final Stream.Builder<FieldInfo> stream = Stream.builder();
+        for (final Accessor accessor : PLANS.get(clazz).accessors) {
+            try {
+                stream.accept(new FieldInfo(accessor.name, (Object) accessor.getter.invokeExact(obj), accessor.isFinal));
+            } catch (Throwable ignored) {}
+        }
         return stream.build();
     }
 
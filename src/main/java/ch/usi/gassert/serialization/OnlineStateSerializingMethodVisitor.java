@@ -2,6 +2,7 @@ package ch.usi.gassert.serialization;
 
 import ch.usi.gassert.data.state.TestExecution;
 import ch.usi.gassert.data.state.Variables;
+import ch.usi.methodtest.MethodTestExecutor;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -40,8 +41,23 @@ public class OnlineStateSerializingMethodVisitor {
         INSTANCE.observedTestExecutions.clear();
     }
 
+    /**
+     * @return the TestExecutions observed so far, removing them from the observedTestExecutions list
+     */
+    public static List<TestExecution> drainTestExecutions() {
+        synchronized (INSTANCE.observedTestExecutions) {
+            final List<TestExecution> testExecutions = new ArrayList<>(INSTANCE.observedTestExecutions);
+            INSTANCE.observedTestExecutions.clear();
+            return testExecutions;
+        }
+    }
+
+    /**
+     * The testId of the MethodTest running in the thread if any (see MethodTestRunner), otherwise a new number
+     */
     private static String computeTestId(final long tid) {
-        return String.valueOf(CurrentTestId.incrementAndGet());
+        final String methodTestId = MethodTestExecutor.currentTestId.get(tid);
+        return methodTestId != null ? methodTestId : String.valueOf(CurrentTestId.incrementAndGet());
     }
 
     public static String getSerializedVariableName(final String namespace, final String path, final boolean isInput) {
@@ -60,6 +76,9 @@ public class OnlineStateSerializingMethodVisitor {
     // We are serializing/detecting recursive calls, hence the Stack
     private final Map<Long, Stack<TestExecution>> threadId2variables = new ConcurrentHashMap<>();
     private final Map<String, Map<String, Integer>> serializedCount = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> inputVariableNames = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> outputVariableNames = new ConcurrentHashMap<>();
+    private final ThreadLocal<Map<String, Object>> varsBuffer = ThreadLocal.withInitial(HashMap::new);
     public final Vector<TestExecution> observedTestExecutions = new Vector<>();
 
     public OnlineStateSerializingMethodVisitor(final ISerializer serializer, final boolean serializeRecursiveCalls) {
@@ -73,14 +92,36 @@ public class OnlineStateSerializingMethodVisitor {
             final Class<?> clazz = (Class<?>) argsIter.next();
             final Object value = argsIter.next();
             final boolean isRetval = (Boolean) argsIter.next();
-            final Map<String, Object> vars = new HashMap<>();
-            this.serializer.serialize(clazz, value, vars, isInput || isRetval);
-            for (final String var : vars.keySet()) {
-                variables.add(getSerializedVariableName(name, var, isInput), vars.get(var), isInput);
+            // Reuse the map of the thread, unless a serialization is already using it (re-entrant SUT calls)
+            Map<String, Object> vars = varsBuffer.get();
+            if (vars == null) {
+                vars = new HashMap<>();
+            } else {
+                varsBuffer.set(null);
+            }
+            try {
+                this.serializer.serialize(clazz, value, vars, isInput || isRetval);
+                final Map<String, String> names = getSerializedVariableNames(name, isInput);
+                for (final Map.Entry<String, Object> var : vars.entrySet()) {
+                    final String varName = names.computeIfAbsent(var.getKey(),
+                            path -> getSerializedVariableName(name, path, isInput));
+                    variables.add(varName, var.getValue(), isInput);
+                }
+            } finally {
+                vars.clear();
+                varsBuffer.set(vars);
             }
         }
     }
 
+    /**
+     * @return the cache of the serialized variable names of the given namespace, indexed by path
+     */
+    private Map<String, String> getSerializedVariableNames(final String namespace, final boolean isInput) {
+        return (isInput ? inputVariableNames : outputVariableNames)
+                .computeIfAbsent(namespace, n -> new ConcurrentHashMap<>());
+    }
+
     public void addInputVariables(final Variables variables, final Iterator<?> argsIter) {
         this.addVariables(variables, true, argsIter);
     }
@@ -92,16 +133,19 @@ public class OnlineStateSerializingMethodVisitor {
     public void serializeEnter(final Object... args) {
         final Iterator<Object> argsIter = Arrays.stream(args).iterator();
         final long tid = Thread.currentThread().getId();
-        threadId2variables.putIfAbsent(tid, new Stack<>());
-        final Stack<TestExecution> stack = threadId2variables.get(tid);
+        final Stack<TestExecution> stack = threadId2variables.computeIfAbsent(tid, t -> new Stack<>());
         if (serializeRecursiveCalls || stack.isEmpty()) {
             final String systemId = (String) argsIter.next();
             final String methodName = (String) argsIter.next();
             final int methodIndex = (int) argsIter.next();
-            final String testId = computeTestId(tid);
+            // Nested calls get the depth in their testId, so that the call made by the MethodTest keeps its testId
+            final int depth = stack.size();
+            final String baseTestId = depth > 0 ? computeTestId(tid) + "_depth" + depth : computeTestId(tid);
+            // Numbered on entry, so that the outer calls come first
+            final int count = serializedCount.computeIfAbsent(systemId, s -> new ConcurrentHashMap<>())
+                    .merge(baseTestId, 1, Integer::sum) - 1;
+            final String testId = count > 0 ? baseTestId + "_" + count : baseTestId;
             final TestExecution testExecution = new TestExecution(systemId, testId, new Variables());
-            serializedCount.putIfAbsent(systemId, new HashMap<>());
-            serializedCount.get(systemId).putIfAbsent(testId, 0);
             addInputVariables(testExecution.getVariables(), argsIter);
             stack.push(testExecution);
         } else {
@@ -117,16 +161,10 @@ public class OnlineStateSerializingMethodVisitor {
         if (stack.isEmpty()) {
             return; // exit() was called without a matching enter() somehow
         }
-        TestExecution testExecution = stack.pop();
+        final TestExecution testExecution = stack.pop();
         // We push a null value if we have a recursive call but do not want to serialize it
         if (testExecution != null) {
             addOutputVariables(testExecution.getVariables(), argsIter);
-            final int count = serializedCount.get(testExecution.getSystemId()).get(testExecution.getTestId());
-            serializedCount.get(testExecution.getSystemId()).put(testExecution.getTestId(), count + 1);
-            if (count > 0) {
-                testExecution = new TestExecution(testExecution.getSystemId(),
-                        testExecution.getTestId() + "_" + count, testExecution.getVariables());
-            }
             observedTestExecutions.add(testExecution);
         }
     }
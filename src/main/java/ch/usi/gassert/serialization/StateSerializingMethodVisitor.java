@@ -13,12 +13,12 @@ import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
-import static ch.usi.gassert.util.FileUtils.SEPARATORS;
-
 /**
  * MethodVisitor that serializes all the TestExecutions into the directory indicated by the `gassert_outdir` environment variable.
  *
  * Used to collect TestExecutions to use in GAssertMRs from JUnit tests and the like.
+ * If the `gassert_outformat` environment variable is `segments`, the TestExecutions are written in the background
+ * by an AsyncStateWriter instead of one file each.
  */
 /*
  * Serializer calls added indirectly by ch.usi.gassert.filechange.AddInstrumentationMethod
@@ -57,10 +57,15 @@ public class StateSerializingMethodVisitor {
     public final ISerializer serializer;
     public final boolean serializeRecursiveCalls;
     public final Path outdir;
+    // Null if each TestExecution is written to its own file
+    private final AsyncStateWriter asyncWriter;
 
     // We are serializing/detecting recursive calls, hence the Stack
     private final Map<Long, Stack<TestExecution>> threadId2variables = new ConcurrentHashMap<>();
     private final Map<String, Map<String, Integer>> serializedCount = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> inputVariableNames = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> outputVariableNames = new ConcurrentHashMap<>();
+    private final ThreadLocal<Map<String, Object>> varsBuffer = ThreadLocal.withInitial(HashMap::new);
 
     public StateSerializingMethodVisitor(final ISerializer serializer, final boolean serializeRecursiveCalls) {
         this.serializer = serializer;
@@ -70,6 +75,12 @@ public class StateSerializingMethodVisitor {
         if (!outdirfile.isDirectory() && !outdirfile.mkdirs()) {
             throw new RuntimeException("Could not create output directory: " + this.outdir);
         }
+        if ("segments".equals(System.getenv("gassert_outformat"))) {
+            this.asyncWriter = new AsyncStateWriter(this.outdir);
+            Runtime.getRuntime().addShutdownHook(new Thread(this.asyncWriter::close));
+        } else {
+            this.asyncWriter = null;
+        }
     }
 
     public void addVariables(final Variables variables, final boolean isInput, final Iterator<?> argsIter) {
@@ -78,14 +89,36 @@ public class StateSerializingMethodVisitor {
             final Class<?> clazz = (Class<?>) argsIter.next();
             final Object value = argsIter.next();
             final boolean isRetval = (Boolean) argsIter.next();
-            final Map<String, Object> vars = new HashMap<>();
-            this.serializer.serialize(clazz, value, vars, isInput || isRetval);
-            for (final String var : vars.keySet()) {
-                variables.add(getSerializedVariableName(name, var, isInput), vars.get(var), isInput);
+            // Reuse the map of the thread, unless a serialization is already using it (re-entrant SUT calls)
+            Map<String, Object> vars = varsBuffer.get();
+            if (vars == null) {
+                vars = new HashMap<>();
+            } else {
+                varsBuffer.set(null);
+            }
+            try {
+                this.serializer.serialize(clazz, value, vars, isInput || isRetval);
+                final Map<String, String> names = getSerializedVariableNames(name, isInput);
+                for (final Map.Entry<String, Object> var : vars.entrySet()) {
+                    final String varName = names.computeIfAbsent(var.getKey(),
+                            path -> getSerializedVariableName(name, path, isInput));
+                    variables.add(varName, var.getValue(), isInput);
+                }
+            } finally {
+                vars.clear();
+                varsBuffer.set(vars);
             }
         }
     }
 
+    /**
+     * @return the cache of the serialized variable names of the given namespace, indexed by path
+     */
+    private Map<String, String> getSerializedVariableNames(final String namespace, final boolean isInput) {
+        return (isInput ? inputVariableNames : outputVariableNames)
+                .computeIfAbsent(namespace, n -> new ConcurrentHashMap<>());
+    }
+
     public void addInputVariables(final Variables variables, final Iterator<?> argsIter) {
         this.addVariables(variables, true, argsIter);
     }
@@ -137,8 +170,11 @@ public class StateSerializingMethodVisitor {
     }
 
     public void writeTestExecution(final TestExecution testExecution) {
-        final Path path = outdir.resolve(testExecution.getSystemId()
-                + SEPARATORS[0] + testExecution.getTestId() + ".state.json");
+        // Written to its own file if the AsyncStateWriter is closed (e.g. during the JVM shutdown) or failed
+        if (asyncWriter != null && asyncWriter.write(testExecution)) {
+            return;
+        }
+        final Path path = outdir.resolve(AsyncStateWriter.getEntryName(testExecution));
         try (final JsonWriter writer = new JsonWriter(new BufferedWriter(new FileWriter(path.toFile())))) {
             testExecution.toJson(writer);
         } catch (IOException e) {
@@ -1,16 +1,122 @@
 package ch.usi.gassert.util;
 
+import java.util.Arrays;
+
 public final class Bitmap {
 
-    public static int countSetBits(long bucketValue) {
+    public static int countSetBits(final long bucketValue) {
+        return Long.bitCount(bucketValue);
+    }
+
+    public static int countSetBits(final long[] bitmap) {
+        int count = 0;
+        for (final long bucketValue : bitmap) {
+            count += Long.bitCount(bucketValue);
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of bits set in a and not in b
+     */
+    public static int countAndNot(final long[] a, final long[] b) {
+        final int common = Math.min(a.length, b.length);
+        int count = 0;
+        for (int i = 0 ; i < common ; ++i) {
+            count += Long.bitCount(a[i] & ~b[i]);
+        }
+        for (int i = common ; i < a.length ; ++i) {
+            count += Long.bitCount(a[i]);
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of bits set in both a and b
+     */
+    public static int countAnd(final long[] a, final long[] b) {
+        final int common = Math.min(a.length, b.length);
         int count = 0;
-        for(int i = 0 ; i < Long.SIZE ; ++i) {
-            count += bucketValue % 2;
-            bucketValue >>= 1;
+        for (int i = 0 ; i < common ; ++i) {
+            count += Long.bitCount(a[i] & b[i]);
         }
         return count;
     }
 
+    /**
+     * dst = dst &amp; src, the buckets of dst beyond src are cleared
+     */
+    public static void and(final long[] dst, final long[] src) {
+        final int common = Math.min(dst.length, src.length);
+        for (int i = 0 ; i < common ; ++i) {
+            dst[i] &= src[i];
+        }
+        Arrays.fill(dst, common, dst.length, 0L);
+    }
+
+    /**
+     * dst = dst | src, the buckets of src beyond dst are ignored
+     */
+    public static void or(final long[] dst, final long[] src) {
+        final int common = Math.min(dst.length, src.length);
+        for (int i = 0 ; i < common ; ++i) {
+            dst[i] |= src[i];
+        }
+    }
+
+    /**
+     * dst = dst &amp; ~src
+     */
+    public static void andNot(final long[] dst, final long[] src) {
+        final int common = Math.min(dst.length, src.length);
+        for (int i = 0 ; i < common ; ++i) {
+            dst[i] &= ~src[i];
+        }
+    }
+
+    /**
+     * Same bits set, regardless of the trailing empty buckets
+     */
+    public static boolean equals(final long[] a, final long[] b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        final int common = Math.min(a.length, b.length);
+        for (int i = 0 ; i < common ; ++i) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        final long[] longer = a.length >= b.length ? a : b;
+        for (int i = common ; i < longer.length ; ++i) {
+            if (longer[i] != 0L) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hash code consistent with equals, regardless of the trailing empty buckets
+     */
+    public static int hash(final long[] bitmap) {
+        if (bitmap == null) {
+            return 0;
+        }
+        int length = bitmap.length;
+        while (length > 0 && bitmap[length - 1] == 0L) {
+            --length;
+        }
+        int hash = 1;
+        for (int i = 0 ; i < length ; ++i) {
+            hash = 31 * hash + Long.hashCode(bitmap[i]);
+        }
+        return hash;
+    }
+
     public static int bucketsForSize(final int size) {
         return (size + Long.SIZE - 1) / Long.SIZE;
     }
@@ -46,4 +152,60 @@ public final class Bitmap {
         }
     }
 
+    public static void orBuckets(final long[] src, final long[] dst, int length) {
+        // WARNING: We merge the entire last bucket even if length % Long.SIZE != 0
+        for (int i = 0 ; i < bucketsForSize(length) ; ++i) {
+            dst[i] |= src[i];
+        }
+    }
+
+    /**
+     * Flip the bits within [from, to)
+     */
+    public static void flip(final long[] bitmap, final int from, final int to) {
+        for (int i = from ; i < to ; ) {
+            final int bucket = bucketForIndex(i);
+            final int bucketEnd = Math.min(to, (bucket + 1) * Long.SIZE);
+            final int bits = bucketEnd - i;
+            final long mask = (bits == Long.SIZE ? -1L : ((1L << bits) - 1)) << bitForIndex(i);
+            bitmap[bucket] ^= mask;
+            i = bucketEnd;
+        }
+    }
+
+    /**
+     * @return the index of the first set bit from the given one, or -1 if there is none
+     */
+    public static int nextSetBit(final long[] bitmap, final int from) {
+        int bucket = bucketForIndex(from);
+        if (bucket >= bitmap.length) {
+            return -1;
+        }
+        long bits = bitmap[bucket] & (-1L << bitForIndex(from));
+        while (bits == 0) {
+            if (++bucket == bitmap.length) {
+                return -1;
+            }
+            bits = bitmap[bucket];
+        }
+        return bucket * Long.SIZE + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * @return copy of the bitmap with only the bits within [from, to)
+     */
+    public static long[] range(final long[] bitmap, final int from, final int to) {
+        final long[] result = Arrays.copyOf(bitmap, bucketsForSize(to));
+        if (from > 0) {
+            Arrays.fill(result, 0, Math.min(result.length, bucketForIndex(from)), 0L);
+            if (bucketForIndex(from) < result.length) {
+                result[bucketForIndex(from)] &= -1L << bitForIndex(from);
+            }
+        }
+        if (bitForIndex(to) != 0) {
+            result[result.length - 1] &= (1L << bitForIndex(to)) - 1;
+        }
+        return result;
+    }
+
 }
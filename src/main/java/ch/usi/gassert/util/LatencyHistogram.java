@@ -0,0 +1,94 @@
+package ch.usi.gassert.util;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative values (e.g. nanoseconds), with buckets growing exponentially like HdrHistogram.
+ * <p>
+ * Each power of 2 is split in 2^SUB_BUCKET_BITS linear buckets, so the relative error of the percentiles is
+ * below 1 / 2^SUB_BUCKET_BITS. Recording a value does not allocate, and the counters are striped LongAdders,
+ * so that many threads can record concurrently.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final LongAdder[] counts;
+    private final LongAdder count;
+    private final LongAdder sum;
+    private final LongAccumulator max;
+
+    public LatencyHistogram() {
+        counts = new LongAdder[BUCKETS];
+        for (int i = 0 ; i < BUCKETS ; ++i) {
+            counts[i] = new LongAdder();
+        }
+        count = new LongAdder();
+        sum = new LongAdder();
+        max = new LongAccumulator(Math::max, 0L);
+    }
+
+    static int bucketFor(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(0L, value);
+        }
+        // Position of the highest bit, and the next SUB_BUCKET_BITS bits below it
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> exponent) - SUB_BUCKETS;
+        return (exponent + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the highest value which falls in the given bucket
+     */
+    static long highestValueOf(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int exponent = bucket / SUB_BUCKETS - 1;
+        final long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << exponent) - 1;
+    }
+
+    public void record(final long value) {
+        counts[bucketFor(value)].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return an upper bound of the value at the given percentile in [0, 100], 0 if there are no values
+     */
+    public long getPercentile(final double percentile) {
+        final long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1L, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0 ; i < BUCKETS ; ++i) {
+            seen += counts[i].sum();
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+}
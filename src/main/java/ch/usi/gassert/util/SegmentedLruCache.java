@@ -0,0 +1,187 @@
+package ch.usi.gassert.util;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache with segmented LRU eviction.
+ * <p>
+ * New entries go to the probation segment, and are promoted to the protected segment when they are hit again,
+ * so that entries used only once are evicted before those used repeatedly.
+ * The keys are spread over independently locked shards, so that concurrent threads rarely wait for each other.
+ */
+public class SegmentedLruCache<K, V> {
+
+    private static final int SHARDS = 16;
+    private static final double PROTECTED_RATIO = 0.8;
+
+    private final Shard<K, V>[] shards;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public SegmentedLruCache(final int maxSize) {
+        final int shardSize = Math.max(1, (maxSize + SHARDS - 1) / SHARDS);
+        shards = (Shard<K, V>[]) new Shard<?, ?>[SHARDS];
+        for (int i = 0; i < SHARDS; ++i) {
+            shards[i] = new Shard<>(shardSize);
+        }
+    }
+
+    private Shard<K, V> shard(final Object key) {
+        final int hash = key.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & (SHARDS - 1)];
+    }
+
+    /**
+     * @return the cached value, or null if missing
+     */
+    public V get(final K key) {
+        final V value = shard(key).get(key);
+        (value != null ? hits : misses).increment();
+        return value;
+    }
+
+    public boolean containsKey(final K key) {
+        return shard(key).containsKey(key);
+    }
+
+    /**
+     * Add the value if the key is not cached yet
+     *
+     * @return the value already cached, or null if the given value was added
+     */
+    public V putIfAbsent(final K key, final V value) {
+        final Shard<K, V> shard = shard(key);
+        final V previous;
+        final int evicted;
+        synchronized (shard) {
+            previous = shard.peek(key);
+            if (previous != null) {
+                return previous;
+            }
+            evicted = shard.put(key, value);
+        }
+        evictions.add(evicted);
+        return null;
+    }
+
+    public int size() {
+        int size = 0;
+        for (final Shard<K, V> shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (final Shard<K, V> shard : shards) {
+            shard.clear();
+        }
+    }
+
+    /**
+     * @return snapshot of the cached entries
+     */
+    public List<Map.Entry<K, V>> entries() {
+        final List<Map.Entry<K, V>> entries = new ArrayList<>(size());
+        for (final Shard<K, V> shard : shards) {
+            shard.copyEntries(entries);
+        }
+        return entries;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private static final class Shard<K, V> {
+
+        final int maxSize;
+        final int maxProtectedSize;
+        final LinkedHashMap<K, V> probation = new LinkedHashMap<>(16, 0.75f, true);
+        final LinkedHashMap<K, V> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+
+        Shard(final int maxSize) {
+            this.maxSize = maxSize;
+            this.maxProtectedSize = Math.max(1, (int) (maxSize * PROTECTED_RATIO));
+        }
+
+        synchronized V get(final K key) {
+            V value = protectedSegment.get(key);
+            if (value != null) {
+                return value;
+            }
+            value = probation.remove(key);
+            if (value != null) {
+                protectedSegment.put(key, value);
+                // Demote the least recently used protected entries
+                final Iterator<Map.Entry<K, V>> eldest = protectedSegment.entrySet().iterator();
+                while (protectedSegment.size() > maxProtectedSize) {
+                    final Map.Entry<K, V> entry = eldest.next();
+                    eldest.remove();
+                    probation.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return value;
+        }
+
+        synchronized V peek(final K key) {
+            final V value = protectedSegment.get(key);
+            return value != null ? value : probation.get(key);
+        }
+
+        synchronized boolean containsKey(final K key) {
+            return protectedSegment.containsKey(key) || probation.containsKey(key);
+        }
+
+        /**
+         * @return the number of evicted entries
+         */
+        synchronized int put(final K key, final V value) {
+            probation.put(key, value);
+            int evicted = 0;
+            final Iterator<V> eldest = probation.values().iterator();
+            while (size() > maxSize && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+                ++evicted;
+            }
+            return evicted;
+        }
+
+        synchronized int size() {
+            return probation.size() + protectedSegment.size();
+        }
+
+        synchronized void clear() {
+            probation.clear();
+            protectedSegment.clear();
+        }
+
+        synchronized void copyEntries(final List<Map.Entry<K, V>> entries) {
+            for (final Map.Entry<K, V> entry : protectedSegment.entrySet()) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(entry));
+            }
+            for (final Map.Entry<K, V> entry : probation.entrySet()) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(entry));
+            }
+        }
+
+    }
+
+}
@@ -73,6 +73,38 @@ public class MyRandom extends Random {
         return getRandomIndices(collectionSize, indicesCount, new HashSet<>());
     }
 
+    /**
+     * Same as getRandomIndices, for collections that are not materialized and can have more than 2^31 elements
+     */
+    public Set<Long> getRandomLongIndices(final long collectionSize, final int indicesCount, final Set<Long> alreadySelected) {
+        assertAlways(indicesCount <= collectionSize, "collectionSize=" + collectionSize + ", indicesCount=" + indicesCount);
+        final Set<Long> indices = new HashSet<>(Math.max(alreadySelected.size(), indicesCount) * 2);
+        indices.addAll(alreadySelected);
+        while (indices.size() < indicesCount) {
+            indices.add(nextLong(collectionSize));
+        }
+        return indices;
+    }
+
+    /**
+     * @return uniformly distributed value in [0, bound)
+     */
+    public long nextLong(final long bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+        if (bound <= Integer.MAX_VALUE) {
+            return nextInt((int) bound);
+        }
+        long bits;
+        long value;
+        do {
+            bits = nextLong() >>> 1;
+            value = bits % bound;
+        } while (bits - value + (bound - 1) < 0);
+        return value;
+    }
+
     /**
      * wheel based on fitnessvalue
      **/
@@ -1,11 +1,12 @@
 package ch.usi.methodtest;
 
 import ch.usi.gassert.util.FileUtils;
+import ch.usi.gassert.util.LatencyHistogram;
+import ch.usi.gassert.util.Pair;
 import ch.usi.gassert.util.Tuple3;
 import com.thoughtworks.xstream.XStream;
 
 import java.io.*;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
 import java.util.concurrent.*;
@@ -13,7 +14,6 @@ import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
-import static ch.usi.gassert.util.Assert.assertAlways;
 import static ch.usi.gassert.util.FileUtils.SEPARATORS;
 
 public final class MethodTestExecutor {
@@ -46,154 +46,161 @@ public final class MethodTestExecutor {
         return clazz.getDeclaredMethod(method, params);
     }
 
+    private static MethodTestRunner defaultRunner = null;
+
+    /**
+     * @return a MethodTestRunner with a single worker, shared by the executeMethodTest calls,
+     * since the SUTs may share static state and the method tests must not run concurrently
+     */
+    private static synchronized MethodTestRunner getDefaultRunner() {
+        if (defaultRunner == null) {
+            defaultRunner = new MethodTestRunner(1);
+        }
+        return defaultRunner;
+    }
+
     public static void executeMethodTest(final MethodTest methodTest, final String testId)
             throws ExecutionException, InterruptedException, TimeoutException {
-        executeMethodTest(methodTest, testId, args -> {
-            try {
-                return findMethod(args.a, args.b, args.c);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-        });
+        final MethodTestRunner runner = getDefaultRunner();
+        executeMethodTest(methodTest, testId, args -> runner.getMethod(args.a, args.b, args.c));
     }
 
     public static void executeMethodTest(final MethodTest methodTest,
                                          final String testId,
                                          final Function<Tuple3<Class<?>, String, Class<?>[]>, Method> methodGetter)
             throws ExecutionException, InterruptedException, TimeoutException {
-        final MethodParameter thisParameter = methodTest.methodParameters[0];
-        final String sutName = thisParameter.name;
-        final Class<?> sutClass = thisParameter.clazz;
-        final Object sutInstance = thisParameter.value;
-        assertAlways(sutName.equals("this"), "Unexpected first variable: " + sutName);
-        final Class<?>[] parameterClasses = Arrays.stream(methodTest.methodParameters)
-                .skip(1)
-                .map(p -> p.clazz)
-                .toArray(Class[]::new);
-        final Object[] parameterValues = Arrays.stream(methodTest.methodParameters)
-                .skip(1)
-                .map(p -> p.value)
-                .toArray();
-        final ExecutorService executor = Executors.newSingleThreadExecutor();
-        final Future<?> future = executor.submit(() -> {
-            try {
-                final Method method = methodGetter.apply(Tuple3.of(sutClass, methodTest.methodName, parameterClasses));
-                final long tid = Thread.currentThread().getId();
-                method.setAccessible(true);
-                MethodTestExecutor.currentTestId.put(tid, testId);
-                method.invoke(sutInstance, parameterValues);
-                Objects.requireNonNull(MethodTestExecutor.currentTestId.remove(tid));
-                method.setAccessible(false);
-            }catch (InvocationTargetException | IllegalAccessException e) {
-                throw new RuntimeException("Error invoking method", e);
-            }
-        });
-        // I think 3 seconds is generous enough for a single method call
-        future.get(3000, TimeUnit.MILLISECONDS);
-        // If the method enters an infinite loop or something, the thread is stuck running forever and Java
-        // provides no way to cancel it. Since the executor is created in this scope, this will not block
-        // other executions, but the number of running threads will keep increasing until this process terminates.
-        // Therefore, it is safer to invoke this class or only one (or a few) method executions, and split
-        // large amounts of executions into separate processes to avoid lingering threads and eventual CPU overload.
-        executor.shutdownNow();
+        // The runner enforces the timeout, and replaces the worker if the method never returns
+        final MethodTestRunner.Result result = getDefaultRunner().submit(methodTest, testId, methodGetter).get();
+        checkResult(result);
     }
 
-    public static void executeMethodTest(final File inputsFile)  {
-        try {
-            final String inputsFilenameWithoutExtension = FileUtils.splitExtension(inputsFile.getName())[0];
-            final String testId = Arrays
-                .stream(inputsFilenameWithoutExtension.split(Pattern.quote(SEPARATORS[0])))
-                .skip(1)
-                .collect(Collectors.joining(SEPARATORS[0]));
-            final Reader reader = new FileReader(inputsFile);
+    private static void checkResult(final MethodTestRunner.Result result) throws ExecutionException, TimeoutException {
+        if (result.timedOut) {
+            throw new TimeoutException("Method test " + result.testId + " timed out");
+        }
+        if (result.error != null) {
+            throw new ExecutionException(result.error);
+        }
+    }
+
+    private static String getTestId(final File inputsFile) {
+        final String inputsFilenameWithoutExtension = FileUtils.splitExtension(inputsFile.getName())[0];
+        return Arrays
+            .stream(inputsFilenameWithoutExtension.split(Pattern.quote(SEPARATORS[0])))
+            .skip(1)
+            .collect(Collectors.joining(SEPARATORS[0]));
+    }
+
+    /**
+     * @return the MethodTest in the given file, or null if it cannot be read
+     */
+    private static MethodTest readMethodTest(final File inputsFile) {
+        try (final Reader reader = new FileReader(inputsFile)) {
             try {
-                final MethodTest methodTest = (MethodTest) xstream.fromXML(reader);
-                try {
-                    executeMethodTest(methodTest, testId);
-                } catch (ExecutionException e) {
-                    System.err.println("ExecutionException executing method test");
-                    e.getCause().printStackTrace();
-                    System.err.println(inputsFile.getName());
-                } catch (TimeoutException | InterruptedException e) {
-                    System.err.println("Error executing method test: " + e.getClass().getSimpleName());
-                    System.err.println(inputsFile.getName());
-                }
+                return (MethodTest) xstream.fromXML(reader);
             } catch (Exception e) {
                 System.err.println("Error deserializing method inputs: " + e.getClass().getSimpleName());
                 System.err.println(inputsFile.getName());
             }
-            reader.close();
         } catch (IOException e) {
             System.err.println("Error opening inputs file: " + e.getClass().getSimpleName());
             System.err.println(inputsFile.getName());
         }
+        return null;
+    }
+
+    private static void reportResult(final File inputsFile, final MethodTestRunner.Result result) {
+        try {
+            checkResult(result);
+        } catch (ExecutionException e) {
+            System.err.println("ExecutionException executing method test");
+            e.getCause().printStackTrace();
+            System.err.println(inputsFile.getName());
+        } catch (TimeoutException e) {
+            System.err.println("Error executing method test: " + e.getClass().getSimpleName());
+            System.err.println(inputsFile.getName());
+        }
+    }
+
+    public static void executeMethodTest(final File inputsFile)  {
+        executeMethodTests(Collections.singletonList(inputsFile), 1);
     }
 
     public static void executeMethodTests(final List<File> inputsFiles)  {
-        final Map<String, Method> methodsCache = new HashMap<>();
-        for (File inputsFile : inputsFiles) {
-            try {
-                final String inputsFilenameWithoutExtension = FileUtils.splitExtension(inputsFile.getName())[0];
-                final String testId = Arrays
-                    .stream(inputsFilenameWithoutExtension.split(Pattern.quote(SEPARATORS[0])))
-                    .skip(1)
-                    .collect(Collectors.joining(SEPARATORS[0]));
-                final Reader reader = new FileReader(inputsFile);
-                try {
-                    final MethodTest methodTest = (MethodTest) xstream.fromXML(reader);
-                    try {
-                        executeMethodTest(methodTest, testId, args -> {
-                            try {
-                                final String methodSignature = getMethodSignature(args.a, args.b, args.c);
-                                Method method = methodsCache.get(methodSignature);
-                                if (method == null) {
-                                    method = findMethod(args.a, args.b, args.c);
-                                    methodsCache.put(methodSignature, method);
-                                }
-                                return method;
-                            } catch (Exception e) {
-                                throw new RuntimeException(e);
-                            }
-                        });
-                    } catch (ExecutionException e) {
-                        System.err.println("ExecutionException executing method test");
-                        e.getCause().printStackTrace();
-                        System.err.println(inputsFile.getName());
-                    } catch (TimeoutException | InterruptedException e) {
-                        System.err.println("Error executing method test: " + e.getClass().getSimpleName());
-                        System.err.println(inputsFile.getName());
+        executeMethodTests(inputsFiles, 1);
+    }
+
+    /**
+     * Execute the method tests in the given files with the given number of workers, and print the latency of the
+     * method calls. The files are read while the previous method tests are running.
+     */
+    public static void executeMethodTests(final List<File> inputsFiles, final int numberWorkers)  {
+        final LatencyHistogram latencies = new LatencyHistogram();
+        int timeouts = 0;
+        int errors = 0;
+        try (final MethodTestRunner runner = new MethodTestRunner(numberWorkers)) {
+            // Bound the MethodTests in memory
+            final int maxPending = numberWorkers * 4;
+            final Deque<Pair<File, CompletableFuture<MethodTestRunner.Result>>> pending = new ArrayDeque<>(maxPending);
+            final Iterator<File> files = inputsFiles.iterator();
+            while (files.hasNext() || !pending.isEmpty()) {
+                if (files.hasNext() && pending.size() < maxPending) {
+                    final File inputsFile = files.next();
+                    final MethodTest methodTest = readMethodTest(inputsFile);
+                    if (methodTest != null) {
+                        pending.add(Pair.of(inputsFile, runner.submit(methodTest, getTestId(inputsFile))));
                     }
-                } catch (Exception e) {
-                    System.err.println("Error deserializing method inputs: " + e.getClass().getSimpleName());
-                    System.err.println(inputsFile.getName());
+                    continue;
                 }
-                reader.close();
-            } catch (IOException e) {
-                System.err.println("Error opening inputs file: " + e.getClass().getSimpleName());
-                System.err.println(inputsFile.getName());
+                final Pair<File, CompletableFuture<MethodTestRunner.Result>> next = pending.poll();
+                final MethodTestRunner.Result result;
+                try {
+                    result = next.getValue().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+                latencies.record(result.latencyNanos);
+                if (result.timedOut) {
+                    ++timeouts;
+                } else if (result.error != null) {
+                    ++errors;
+                }
+                reportResult(next.getKey(), result);
             }
         }
+        if (inputsFiles.size() > 1) {
+            System.out.println("Executed " + latencies.getCount() + " method tests (" + timeouts + " timeouts, "
+                    + errors + " errors), latency p50/p99/max: "
+                    + TimeUnit.NANOSECONDS.toMicros(latencies.getPercentile(50)) + "/"
+                    + TimeUnit.NANOSECONDS.toMicros(latencies.getPercentile(99)) + "/"
+                    + TimeUnit.NANOSECONDS.toMicros(latencies.getMax()) + " us");
+        }
     }
 
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.err.println("Wrong number of parameters: 1 argument expected, got " + args.length);
+        if (args.length != 1 && args.length != 2) {
+            System.err.println("Wrong number of parameters: 1 or 2 arguments expected, got " + args.length);
             System.err.println("Serialized inputs file or directory");
+            System.err.println("Number of workers (optional, default 1)");
             System.exit(1);
         }
         final String serializedInputsFilename = args[0];
+        final int numberWorkers = args.length > 1 ? Integer.parseInt(args[1]) : 1;
         final File inFile = new File(serializedInputsFilename);
         if (inFile.isDirectory()) {
             System.out.println("Running method tests from " + serializedInputsFilename);
             executeMethodTests(Arrays.asList(Objects.requireNonNull(inFile.listFiles(
-                    (file, name) -> name.endsWith(MethodTest.EXTENSION)))));
+                    (file, name) -> name.endsWith(MethodTest.EXTENSION)))), numberWorkers);
         } else if (inFile.isFile()) {
             //System.out.println("Running method test " + serializedInputsFilename);
             executeMethodTest(inFile);
         } else {
             throw new RuntimeException("Invalid input: " + inFile.getName());
         }
-        System.exit(0); // ExecutorService may prevent the process from terminating if we don't do this
+        System.exit(0); // A stuck method call may prevent the process from terminating if we don't do this
     }
 
 }
@@ -0,0 +1,234 @@
+package ch.usi.methodtest;
+
+import ch.usi.gassert.util.Tuple3;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static ch.usi.gassert.util.Assert.assertAlways;
+
+/**
+ * Executes MethodTests on a bounded pool of daemon worker threads, so that many of them can run in the same JVM.
+ * <p>
+ * Java provides no way to stop a thread stuck in a method call, so a watchdog thread gives up on the tests which
+ * exceed the timeout: their worker is interrupted and retired, and a new worker takes its place.
+ * A retired worker terminates if the method call ever returns. The tests cancelled while queued are not executed.
+ */
+public final class MethodTestRunner implements AutoCloseable {
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = 3000;
+
+    /**
+     * Outcome of a MethodTest, with the time from the start of the method call to its end (or to the timeout)
+     */
+    public static final class Result {
+        public final String testId;
+        public final long latencyNanos;
+        public final boolean timedOut;
+        // Exception thrown by the method (or by its lookup), null if it returned normally
+        public final Throwable error;
+
+        Result(final String testId, final long latencyNanos, final boolean timedOut, final Throwable error) {
+            this.testId = testId;
+            this.latencyNanos = latencyNanos;
+            this.timedOut = timedOut;
+            this.error = error;
+        }
+
+        public boolean isSuccess() {
+            return !timedOut && error == null;
+        }
+    }
+
+    private static final class Task {
+        final MethodTest methodTest;
+        final String testId;
+        final Function<Tuple3<Class<?>, String, Class<?>[]>, Method> methodGetter;
+        final CompletableFuture<Result> result;
+
+        Task(final MethodTest methodTest, final String testId,
+             final Function<Tuple3<Class<?>, String, Class<?>[]>, Method> methodGetter) {
+            this.methodTest = methodTest;
+            this.testId = testId;
+            this.methodGetter = methodGetter;
+            this.result = new CompletableFuture<>();
+        }
+    }
+
+    private final class Worker extends Thread {
+        volatile Task current;
+        volatile long startNanos;
+        volatile boolean retired;
+
+        Worker() {
+            super("method-test-worker-" + workerIds.incrementAndGet());
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!retired && !closed) {
+                    final Task task = queue.take();
+                    if (task.result.isDone()) {
+                        continue; // Cancelled while queued
+                    }
+                    startNanos = System.nanoTime();
+                    current = task;
+                    final Throwable error = execute(task);
+                    final long latencyNanos = System.nanoTime() - startNanos;
+                    current = null;
+                    task.result.complete(new Result(task.testId, latencyNanos, false, error));
+                }
+            } catch (final InterruptedException ignored) {
+                // Retired or closed
+            } finally {
+                workers.remove(this);
+            }
+        }
+    }
+
+    private final long timeoutNanos;
+    private final BlockingQueue<Task> queue;
+    private final Set<Worker> workers;
+    private final AtomicInteger workerIds;
+    private final Map<String, Method> methodsCache;
+    private final Thread watchdog;
+    private volatile boolean closed;
+
+    public MethodTestRunner(final int numberWorkers) {
+        this(numberWorkers, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    public MethodTestRunner(final int numberWorkers, final long timeoutMillis) {
+        assertAlways(numberWorkers > 0, "Invalid number of workers: " + numberWorkers);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.queue = new LinkedBlockingQueue<>();
+        this.workers = ConcurrentHashMap.newKeySet();
+        this.workerIds = new AtomicInteger();
+        this.methodsCache = new ConcurrentHashMap<>();
+        this.closed = false;
+        for (int i = 0 ; i < numberWorkers ; ++i) {
+            startWorker();
+        }
+        final long checkMillis = Math.max(1L, timeoutMillis / 10);
+        this.watchdog = new Thread(() -> {
+            try {
+                while (!closed) {
+                    Thread.sleep(checkMillis);
+                    retireStuckWorkers();
+                }
+            } catch (final InterruptedException ignored) {}
+        }, "method-test-watchdog");
+        this.watchdog.setDaemon(true);
+        this.watchdog.start();
+    }
+
+    private void startWorker() {
+        final Worker worker = new Worker();
+        workers.add(worker);
+        worker.start();
+    }
+
+    private void retireStuckWorkers() {
+        final long now = System.nanoTime();
+        for (final Worker worker : workers) {
+            final Task task = worker.current;
+            // A cancelled task cannot be completed anymore, but its worker is stuck all the same
+            if (task != null && now - worker.startNanos > timeoutNanos
+                    && (task.result.complete(new Result(task.testId, now - worker.startNanos, true, null))
+                        || task.result.isCancelled())) {
+                worker.retired = true;
+                workers.remove(worker);
+                worker.interrupt();
+                if (!closed) {
+                    startWorker();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the Method with the given signature, looked up only once
+     */
+    public Method getMethod(final Class<?> clazz, final String method, final Class<?>[] params) {
+        return methodsCache.computeIfAbsent(MethodTestExecutor.getMethodSignature(clazz, method, params), signature -> {
+            try {
+                final Method found = MethodTestExecutor.findMethod(clazz, method, params);
+                found.setAccessible(true);
+                return found;
+            } catch (final NoSuchMethodException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    public CompletableFuture<Result> submit(final MethodTest methodTest, final String testId) {
+        return submit(methodTest, testId, args -> getMethod(args.a, args.b, args.c));
+    }
+
+    public CompletableFuture<Result> submit(final MethodTest methodTest, final String testId,
+                                            final Function<Tuple3<Class<?>, String, Class<?>[]>, Method> methodGetter) {
+        if (closed) {
+            throw new IllegalStateException("MethodTestRunner closed");
+        }
+        final Task task = new Task(methodTest, testId, methodGetter);
+        queue.add(task);
+        return task.result;
+    }
+
+    /**
+     * @return the exception thrown by the method, or null
+     */
+    private static Throwable execute(final Task task) {
+        final MethodTest methodTest = task.methodTest;
+        final long tid = Thread.currentThread().getId();
+        try {
+            final MethodParameter thisParameter = methodTest.methodParameters[0];
+            assertAlways(thisParameter.name.equals("this"), "Unexpected first variable: " + thisParameter.name);
+            final Class<?>[] parameterClasses = Arrays.stream(methodTest.methodParameters)
+                    .skip(1)
+                    .map(p -> p.clazz)
+                    .toArray(Class[]::new);
+            final Object[] parameterValues = Arrays.stream(methodTest.methodParameters)
+                    .skip(1)
+                    .map(p -> p.value)
+                    .toArray();
+            final Method method = task.methodGetter.apply(Tuple3.of(thisParameter.clazz, methodTest.methodName, parameterClasses));
+            method.setAccessible(true);
+            MethodTestExecutor.currentTestId.put(tid, task.testId);
+            method.invoke(thisParameter.value, parameterValues);
+            return null;
+        } catch (final InvocationTargetException | IllegalAccessException e) {
+            return new RuntimeException("Error invoking method", e);
+        } catch (final Throwable e) {
+            return e;
+        } finally {
+            MethodTestExecutor.currentTestId.remove(tid);
+        }
+    }
+
+    public int getNumberWorkers() {
+        return workers.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        watchdog.interrupt();
+        for (final Worker worker : workers) {
+            worker.interrupt();
+        }
+        Task task;
+        while ((task = queue.poll()) != null) {
+            task.result.cancel(false);
+        }
+    }
+
+}
@@ -3,8 +3,9 @@ package org.mu.util.streams;
 import java.io.BufferedReader;
 import java.util.List;
 
-public interface IStreamLoader {
+public interface IStreamLoader extends AutoCloseable {
     List<String> entries();
     BufferedReader load(String name);
+    @Override
     void close();
 }
@@ -0,0 +1,129 @@
+package org.mu.util.streams;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Loader for a directory with segments, which hold many entries one after the other, along with its regular files.
+ * <p>
+ * Each segment has an index file next to it, with one line for each entry: name, offset and length in bytes,
+ * separated by tabs. Entries of the index past the end of the segment (e.g. after a crash) are ignored.
+ * If an entry is found more than once, the last one in the index wins.
+ */
+public class SegmentedStreamLoader implements IStreamLoader {
+
+    public static final String SEGMENT_EXTENSION = ".segment";
+    public static final String INDEX_EXTENSION = ".segment.index";
+
+    private static final class Location {
+        final FileChannel segment;
+        final long offset;
+        final int length;
+
+        Location(final FileChannel segment, final long offset, final int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final FileStreamLoader files;
+    private final Map<String, Location> locations;
+    private final List<FileChannel> segments;
+
+    public SegmentedStreamLoader(final String path) {
+        this.files = new FileStreamLoader(path);
+        this.locations = new LinkedHashMap<>();
+        this.segments = new ArrayList<>();
+        final File[] indexFiles = Objects.requireNonNull(new File(path).listFiles(
+                (dir, name) -> name.endsWith(INDEX_EXTENSION)));
+        Arrays.sort(indexFiles);
+        for (final File indexFile : indexFiles) {
+            readIndex(indexFile);
+        }
+    }
+
+    public static boolean hasSegments(final File dir) {
+        final String[] indexFiles = dir.list((d, name) -> name.endsWith(INDEX_EXTENSION));
+        return indexFiles != null && indexFiles.length > 0;
+    }
+
+    public static File segmentFileFor(final File indexFile) {
+        final String name = indexFile.getName();
+        return new File(indexFile.getParentFile(),
+                name.substring(0, name.length() - INDEX_EXTENSION.length()) + SEGMENT_EXTENSION);
+    }
+
+    private void readIndex(final File indexFile) {
+        final File segmentFile = segmentFileFor(indexFile);
+        try {
+            final FileChannel segment = FileChannel.open(segmentFile.toPath(), StandardOpenOption.READ);
+            segments.add(segment);
+            final long size = segment.size();
+            for (final String line : Files.readAllLines(indexFile.toPath(), StandardCharsets.UTF_8)) {
+                final String[] fields = line.split("\t");
+                if (fields.length != 3) {
+                    continue;
+                }
+                final long offset = Long.parseLong(fields[1]);
+                final int length = Integer.parseInt(fields[2]);
+                if (offset + length <= size) {
+                    locations.remove(fields[0]);
+                    locations.put(fields[0], new Location(segment, offset, length));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not load segment: " + segmentFile, e);
+        }
+    }
+
+    @Override
+    public List<String> entries() {
+        final List<String> entries = new ArrayList<>();
+        for (final String file : files.entries()) {
+            if (!file.endsWith(SEGMENT_EXTENSION) && !file.endsWith(INDEX_EXTENSION) && !locations.containsKey(file)) {
+                entries.add(file);
+            }
+        }
+        entries.addAll(locations.keySet());
+        return entries;
+    }
+
+    @Override
+    public BufferedReader load(final String name) {
+        final Location location = locations.get(name);
+        if (location == null) {
+            return files.load(name);
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(location.length);
+        try {
+            while (buffer.hasRemaining()) {
+                if (location.segment.read(buffer, location.offset + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of segment");
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not load entry: " + name, e);
+        }
+        return new BufferedReader(new StringReader(new String(buffer.array(), StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public void close() {
+        for (final FileChannel segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException ignored) {}
+        }
+        segments.clear();
+    }
+
+}
@@ -7,7 +7,7 @@ public class StreamLoaderFactory {
     public static IStreamLoader forPath(final String path) {
         final File file = new File(path);
         if (file.isDirectory()) {
-            return new FileStreamLoader(path);
+            return SegmentedStreamLoader.hasSegments(file) ? new SegmentedStreamLoader(path) : new FileStreamLoader(path);
         } else if (file.isFile()) {
             return new ZipStreamLoader(path);
         } else {
@@ -0,0 +1,64 @@
+package ch.usi.gassert.data.manager.method;
+
+import org.junit.Test;
+import org.mu.testcase.classification.Classification;
+import org.mu.testcase.classification.TestClassifications;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.mu.testcase.classification.Classification.*;
+
+public class MetamorphicPairSpaceTest {
+
+    static TestClassifications classifications(final String systemId, final Classification... tests) {
+        final Map<String, Integer> rowIds = new HashMap<>();
+        final Classification[][] data = new Classification[tests.length][1];
+        for (int i = 0; i < tests.length; ++i) {
+            rowIds.put("test" + i, i);
+            data[i][0] = tests[i];
+        }
+        return new TestClassifications(systemId, rowIds, Collections.singletonMap("result", 0), data);
+    }
+
+    @Test
+    public void testAllPairs() {
+        final Map<String, TestClassifications> classifications = new LinkedHashMap<>();
+        classifications.put("S0", classifications("S0", CORRECT, INCORRECT, CORRECT, NONE, CORRECT, INCORRECT));
+        classifications.put("S1", classifications("S1", CORRECT));
+        classifications.put("S2", classifications("S2", INCORRECT, CORRECT, CORRECT));
+        // Enumerate the pairs the same way as the brute force approach
+        final Set<List<String>> correct = new HashSet<>();
+        final Set<List<String>> incorrect = new HashSet<>();
+        classifications.forEach((systemId, system) -> system.rowIds.forEach((test1, row1) ->
+            system.rowIds.forEach((test2, row2) -> {
+                if (!test1.equals(test2)) {
+                    final Classification cls1 = system.get(row1, 0);
+                    final Classification cls2 = system.get(row2, 0);
+                    if (cls1 == CORRECT && cls2 == CORRECT) {
+                        correct.add(Arrays.asList(systemId, test1, test2));
+                    } else if (cls1 == INCORRECT || cls2 == INCORRECT) {
+                        incorrect.add(Arrays.asList(systemId, test1, test2));
+                    }
+                }
+            })));
+        final MetamorphicPairSpace pairs = new MetamorphicPairSpace(classifications);
+        assertEquals(correct.size(), pairs.correctSize());
+        assertEquals(incorrect.size(), pairs.incorrectSize());
+        final Set<List<String>> actualCorrect = new HashSet<>();
+        for (long i = 0; i < pairs.correctSize(); ++i) {
+            final String[] id = pairs.getCorrect(i);
+            actualCorrect.add(Arrays.asList(id));
+            assertTrue(pairs.correctIndicesOf(id[1], id[2]).contains(i));
+        }
+        final Set<List<String>> actualIncorrect = new HashSet<>();
+        for (long i = 0; i < pairs.incorrectSize(); ++i) {
+            final String[] id = pairs.getIncorrect(i);
+            actualIncorrect.add(Arrays.asList(id));
+            assertTrue(pairs.incorrectIndicesOf(id[1], id[2]).contains(i));
+        }
+        assertEquals(correct, actualCorrect);
+        assertEquals(incorrect, actualIncorrect);
+    }
+
+}
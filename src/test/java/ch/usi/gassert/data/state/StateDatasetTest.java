@@ -0,0 +1,71 @@
+package ch.usi.gassert.data.state;
+
+import com.google.gson.stream.JsonReader;
+import org.junit.Test;
+import org.mu.util.streams.StreamLoaderFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class StateDatasetTest {
+
+    static final String[] JSONS = {
+        "{\"systemId\":\"demo.MyClass$sin$0@M7\",\"testId\":\"test2\",\"variables\":{\"inputs\":{\"i_y\":1.5707963267948966,\"i_this.PRECISION\":20.0},\"outputs\":{\"o_return\":0.9999999999965856}}}",
+        "{\"systemId\":\"demo.MyClass$sin$0@M10\",\"testId\":\"test0\",\"variables\":{\"inputs\":{\"i_y\":null,\"i_this.PRECISION\":20.0},\"outputs\":{\"o_return\":\"ERROR[NullPointerException]\"}}}",
+        "{\"systemId\":\"demo.MyClass$sin$0@M10\",\"testId\":\"test1\",\"variables\":{\"inputs\":{\"i_s\":\"$abc\",\"i_b\":true,\"i_a\":[\"A\",1.0,\"NaN\",[\"L\",3.0,\"$x\"]],\"i_o\":{}},\"outputs\":{\"o_return\":false}}}"
+    };
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final Path dir = Files.createTempDirectory("states");
+        final File binary = new File(dir.toFile(), "states" + StateDataset.EXTENSION);
+        try {
+            for (int i = 0; i < JSONS.length; ++i) {
+                Files.write(dir.resolve(i + ".state.json"), JSONS[i].getBytes(StandardCharsets.UTF_8));
+            }
+            StateDataset.write(StreamLoaderFactory.forPath(dir.toString()), binary);
+            final StateDataset dataset = StateDataset.open(binary);
+            assertEquals(JSONS.length, dataset.size());
+            for (int i = 0; i < JSONS.length; ++i) {
+                final TestExecution expected = TestExecution.fromJson(new JsonReader(new StringReader(JSONS[i])));
+                assertEquals(expected, dataset.loadTestExecution(i + ".state.json"));
+                assertEquals(expected, TestExecution.fromJson(new JsonReader(dataset.load(i + ".state.json"))));
+            }
+        } finally {
+            binary.delete();
+            for (int i = 0; i < JSONS.length; ++i) {
+                Files.deleteIfExists(dir.resolve(i + ".state.json"));
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testStaleBinary() throws IOException {
+        final Path dir = Files.createTempDirectory("states");
+        final File binary = StateDataset.binaryFileFor(dir.toFile());
+        final File state = dir.resolve("0.state.json").toFile();
+        try {
+            Files.write(state.toPath(), JSONS[0].getBytes(StandardCharsets.UTF_8));
+            StateDataset.write(StreamLoaderFactory.forPath(dir.toString()), binary);
+            final long now = System.currentTimeMillis();
+            assertTrue(dir.toFile().setLastModified(now - 20000));
+            assertTrue(state.setLastModified(now - 20000));
+            assertTrue(binary.setLastModified(now - 10000));
+            assertTrue(StateDataset.forPath(dir.toString()) instanceof StateDataset);
+            // Editing a state does not change the modification time of the directory
+            assertTrue(state.setLastModified(now));
+            assertTrue(dir.toFile().setLastModified(now - 20000));
+            assertFalse(StateDataset.forPath(dir.toString()) instanceof StateDataset);
+        } finally {
+            binary.delete();
+            state.delete();
+            Files.delete(dir);
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package ch.usi.gassert.data.state;
+
+import ch.usi.gassert.data.types.Sequence;
+import ch.usi.gassert.util.OpaqueObject;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static ch.usi.gassert.util.CollectionUtils.*;
+import static org.junit.Assert.*;
+
+public class StateTableTest {
+
+    static TestExecution execution(final String testId, final Map<String, Object> inputs, final Map<String, Object> outputs) {
+        final Variables variables = new Variables();
+        variables.addInputs(inputs);
+        variables.addOutputs(outputs);
+        return new TestExecution("sys", testId, variables);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        final StateTable table = new StateTable(new StateSchema());
+        final Sequence seq = Sequence.fromValue(array(1, 2, 3));
+        final TestExecution e1 = execution("t1", map("x", 1.5, "b", true), map("o_seq", seq));
+        final TestExecution e2 = execution("t2", map("x", -2.0, "b", false), map("o_seq", seq, "o", OpaqueObject.get()));
+        final List<ITestExecution> rows = table.addAll(list(e1, e2));
+        assertEquals(2, table.size());
+        assertEquals(e1.getVariables(), rows.get(0).getVariables());
+        assertEquals(e2.getVariables(), rows.get(1).getVariables());
+        assertEquals("t2", rows.get(1).getTestId());
+        final int x = table.getSchema().indexOf("x");
+        final int b = table.getSchema().indexOf("b");
+        assertEquals(StateTable.Kind.NUMBER, table.getKind(x));
+        assertEquals(StateTable.Kind.BOOLEAN, table.getKind(b));
+        assertEquals(-2.0, table.getNumber(x, 1), 0.0);
+        assertTrue(table.getBoolean(b, 0));
+        assertSame(seq, table.getSequence(table.getSchema().indexOf("o_seq"), 0));
+        // Missing value
+        assertFalse(table.isPresent(table.getSchema().indexOf("o"), 0));
+        assertNull(table.getValues(0).get("o"));
+        assertEquals(new HashMap<>(e1.getVariables().getValues()), new HashMap<>(table.getValues(0)));
+    }
+
+    @Test
+    public void testMixedKindsAndGrowth() {
+        final StateTable table = new StateTable(new StateSchema());
+        for (int i = 0; i < 200; ++i) {
+            table.add(execution("t" + i, map("v", i == 150 ? (Object) "str" : (Object) (double) i), map()));
+        }
+        final int v = table.getSchema().indexOf("v");
+        assertEquals(StateTable.Kind.OBJECT, table.getKind(v));
+        assertEquals(149.0, table.getNumber(v, 149), 0.0);
+        assertEquals("str", table.get(v, 150));
+        try {
+            table.getNumber(v, 150);
+            fail();
+        } catch (ClassCastException ignored) {}
+    }
+
+}
@@ -0,0 +1,111 @@
+package ch.usi.gassert.data.state.updater;
+
+import ch.usi.gassert.data.state.ITestExecution;
+import ch.usi.gassert.data.state.TestExecution;
+import ch.usi.gassert.data.state.Variables;
+import ch.usi.gassert.data.tree.Tree;
+import ch.usi.gassert.data.tree.template.TreeGroup;
+import ch.usi.gassert.evolutionary.Individual;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncStatesUpdaterTest {
+
+    @Test
+    public void testPollAfterSync() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final ITestExecution state = new TestExecution("sys", "t0", new Variables());
+        final AsyncStatesUpdater updater = new AsyncStatesUpdater(new IStatesUpdater() {
+            @Override
+            public void writeIndividuals(final Collection<Individual> individuals, final int timeBudget) {
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public List<ITestExecution> readStates() {
+                return Collections.singletonList(state);
+            }
+        });
+        try {
+            assertTrue(updater.poll().isEmpty());
+            assertTrue(updater.submit(Collections.emptyList(), 1));
+            // Still running: nothing to poll, and no second sync
+            assertTrue(updater.poll().isEmpty());
+            assertFalse(updater.submit(Collections.emptyList(), 1));
+            release.countDown();
+            assertTrue(updater.awaitSync(10, TimeUnit.SECONDS));
+            assertFalse(updater.isRunning());
+            assertEquals(Collections.singletonList(state), updater.poll());
+            assertTrue(updater.poll().isEmpty());
+            assertTrue(updater.submit(Collections.emptyList(), 1));
+        } finally {
+            updater.shutdown();
+        }
+    }
+
+    @Test
+    public void testSnapshot() throws InterruptedException {
+        final List<Individual> synced = new ArrayList<>();
+        final AsyncStatesUpdater updater = new AsyncStatesUpdater(new IStatesUpdater() {
+            @Override
+            public void writeIndividuals(final Collection<Individual> individuals, final int timeBudget) {
+                synced.addAll(individuals);
+            }
+
+            @Override
+            public List<ITestExecution> readStates() {
+                return NullStatesUpdater.EMPTY_STATES_LIST;
+            }
+        });
+        try {
+            final Individual individual = new Individual(new Tree(true, Tree.Type.BOOLEAN), (TreeGroup) null);
+            individual.fitnessValueFP = 0.5;
+            assertTrue(updater.submit(Collections.singletonList(individual), 1));
+            assertTrue(updater.awaitSync(10, TimeUnit.SECONDS));
+            assertEquals(1, synced.size());
+            assertNotSame(individual, synced.get(0));
+            assertNotSame(individual.getTree(), synced.get(0).getTree());
+            assertEquals(individual.getAssertionAsString(), synced.get(0).getAssertionAsString());
+            assertEquals(individual.fitnessValueFP, synced.get(0).fitnessValueFP);
+        } finally {
+            updater.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedSync() throws InterruptedException {
+        final AsyncStatesUpdater updater = new AsyncStatesUpdater(new IStatesUpdater() {
+            @Override
+            public void writeIndividuals(final Collection<Individual> individuals, final int timeBudget) {
+                throw new IllegalStateException("sync error");
+            }
+
+            @Override
+            public List<ITestExecution> readStates() {
+                return NullStatesUpdater.EMPTY_STATES_LIST;
+            }
+        });
+        try {
+            assertTrue(updater.submit(Collections.emptyList(), 1));
+            assertTrue(updater.awaitSync(10, TimeUnit.SECONDS));
+            // The round is dropped, and the next one can start
+            assertTrue(updater.poll().isEmpty());
+            assertTrue(updater.submit(Collections.emptyList(), 1));
+        } finally {
+            updater.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package ch.usi.gassert.data.state.updater;
+
+import ch.usi.gassert.Mode;
+import ch.usi.gassert.data.manager.IDataManager;
+import ch.usi.gassert.data.state.ITestExecution;
+import ch.usi.gassert.data.tree.template.TreeGroup;
+import ch.usi.gassert.evaluator.BasicEvaluator;
+import ch.usi.gassert.evaluator.IEvaluator;
+import ch.usi.gassert.evolutionary.Individual;
+import ch.usi.gassert.serialization.OnlineStateSerializingMethodVisitor;
+import ch.usi.methodtest.MethodParameter;
+import ch.usi.methodtest.MethodTest;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.*;
+
+import static ch.usi.gassert.evaluator.CompiledEvaluatorTest.tree;
+import static ch.usi.gassert.util.CollectionUtils.map;
+import static org.junit.Assert.*;
+
+public class MethodTestStatesUpdaterTest {
+
+    /**
+     * SUT instrumented by hand, as AddInstrumentationMethod would do
+     */
+    public static class Abs {
+        public static int abs(final int x) {
+            OnlineStateSerializingMethodVisitor.enter("demo.Abs$abs$0@original", "abs", 0, "x", int.class, x, false);
+            final int result = x < 0 ? -x : x;
+            OnlineStateSerializingMethodVisitor.exit("return", int.class, result, true);
+            return result;
+        }
+    }
+
+    static IDataManager dataManager(final IEvaluator evaluator) {
+        return (IDataManager) Proxy.newProxyInstance(IDataManager.class.getClassLoader(),
+                new Class<?>[] { IDataManager.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getMode": return Mode.REGULAR_ASSERTIONS;
+                        case "getAssertionEvaluator": return evaluator;
+                        default: throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    static List<ITestExecution> counterexamples(final File inputs, final IEvaluator evaluator, final String assertion) {
+        final MethodTestStatesUpdater updater = new MethodTestStatesUpdater(Arrays.asList(inputs.getPath(), "2", "10"));
+        updater.setDataManager(dataManager(evaluator));
+        final Individual individual = new Individual(tree(assertion, map("i_x", 1.0, "o_return", 1.0)), (TreeGroup) null);
+        updater.writeIndividuals(Collections.singletonList(individual), 1);
+        return updater.readStates();
+    }
+
+    @Test
+    public void testCounterexamples() throws IOException {
+        final File inputs = File.createTempFile("abs", MethodTest.EXTENSION);
+        try {
+            try (final Writer writer = new FileWriter(inputs)) {
+                new MethodTest("abs", new MethodParameter[] {
+                        new MethodParameter("this", Abs.class, null),
+                        new MethodParameter("x", int.class, 1),
+                }).toXML(writer);
+            }
+            // Mutations of 1 reach 0 easily
+            final List<ITestExecution> counterexamples = counterexamples(inputs, new BasicEvaluator(), "o_return > 0");
+            assertFalse(counterexamples.isEmpty());
+            for (final ITestExecution counterexample : counterexamples) {
+                assertEquals(0.0, ((Number) counterexample.getVariables().getValues().get("o_return")).doubleValue(), 0.0);
+            }
+            assertTrue(counterexamples(inputs, new BasicEvaluator(), "o_return >= 0").isEmpty());
+            // The states on which the evaluation fails are skipped
+            assertTrue(counterexamples(inputs, (tree, values) -> {
+                throw new IllegalStateException("evaluation error");
+            }, "o_return > 0").isEmpty());
+        } finally {
+            Files.delete(inputs.toPath());
+        }
+    }
+
+}
@@ -0,0 +1,35 @@
+package ch.usi.gassert.data.tree;
+
+import ch.usi.gassert.util.LazyMap;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TreeTest {
+
+    final static Map<String, Class<?>> variableTypes = new LazyMap<>(v -> Double.class);
+
+    @Test
+    public void testCachedAfterModification() {
+        final Tree tree = TreeReaderGAssert.getTree("((x + (y * 2)) > z)", variableTypes);
+        final Tree copy = tree.cloneTree();
+        assertEquals("((x + (y * 2)) > z)", tree.toString());
+        assertEquals(7, (int) tree.getNumberOfNodes());
+        assertEquals(tree, copy);
+        assertEquals(tree.hashCode(), copy.hashCode());
+        // Modify a leaf deep in the tree
+        final Tree mul = tree.getLeft().getRight();
+        mul.getRight().setValue("w");
+        assertEquals("((x + (y * w)) > z)", tree.toString());
+        assertNotEquals(tree, copy);
+        assertEquals("((x + (y * 2)) > z)", copy.toString());
+        // Replace a subtree
+        tree.getLeft().substitute(mul, new Tree("y", Tree.Type.NUMBER));
+        assertEquals("((x + y) > z)", tree.toString());
+        assertEquals(5, (int) tree.getNumberOfNodes());
+        assertEquals(TreeReaderGAssert.getTree("((x + y) > z)", variableTypes).hashCode(), tree.hashCode());
+    }
+
+}
@@ -0,0 +1,94 @@
+package ch.usi.gassert.evaluator;
+
+import ch.usi.gassert.data.state.StateSchema;
+import ch.usi.gassert.data.state.StateTable;
+import ch.usi.gassert.data.state.TestExecution;
+import ch.usi.gassert.data.state.Variables;
+import ch.usi.gassert.data.tree.Tree;
+import ch.usi.gassert.data.tree.TreeReaderGAssert;
+import ch.usi.gassert.data.types.Sequence;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static ch.usi.gassert.util.CollectionUtils.*;
+import static org.junit.Assert.*;
+
+public class CompiledEvaluatorTest {
+
+    public static Tree tree(final String expr, final Map<String, Object> vars) {
+        final Map<String, Class<?>> varTypes = new HashMap<>(vars.size());
+        for (Map.Entry<String, Object> e : vars.entrySet()) {
+            varTypes.put(e.getKey(), e.getValue().getClass());
+        }
+        return TreeReaderGAssert.getTree(expr, varTypes);
+    }
+
+    public static void assertSameResult(final String expr, final Map<String, Object> vars) {
+        final Tree tree = tree(expr, vars);
+        assertNotNull("Not compiled: " + expr, TreeCompiler.compile(tree, 0.0001));
+        final boolean expected = new BasicEvaluator().eval(tree, vars);
+        assertEquals(expr, expected, new CompiledEvaluator().prepare(tree).eval(vars));
+        assertEquals(expr, expected, new CompiledEvaluator().prepare(tree).eval(table(vars), 0));
+    }
+
+    public static StateTable table(final Map<String, Object> vars) {
+        final StateTable table = new StateTable(new StateSchema());
+        final Variables variables = new Variables();
+        variables.addInputs(vars);
+        table.add(new TestExecution("sys", "test", variables));
+        return table;
+    }
+
+    @Test
+    public void testConstants() {
+        assertSameResult("true", map());
+        assertSameResult("false || NOT(true)", map());
+        assertSameResult("(6 - 12) < -5.5", map());
+        assertSameResult("ABS(-66.6) == 66.6", map());
+        assertSameResult("(1 / 0) == 1", map());
+        assertSameResult("(2 ^ 10) >= 1024", map());
+    }
+
+    @Test
+    public void testVariables() {
+        IntStream.range(-10, 10).forEach(x -> {
+            assertSameResult("true && (1 + x) < 2", map("x", (double) x));
+            assertSameResult("(x * y / z) <> 0", map("x", (double) x, "y", 2.0, "z", 3.0));
+            assertSameResult("(x > 0) => b", map("x", (double) x, "b", x % 2 == 0));
+            assertSameResult("(x <= 0) <=> b", map("x", (double) x, "b", x % 3 == 0));
+            assertSameResult("(x >= 0) == b", map("x", (double) x, "b", x % 3 == 0));
+        });
+    }
+
+    @Test
+    public void testSequences() {
+        final Map<String, Object> vars = map("x", Sequence.fromValue(array(1, 2, 3, 4)), "n", 45.0);
+        assertSameResult("flip(x) <> x", vars);
+        assertSameResult("remove(flip(x), length(x) - 2) == flip(remove(x, 1))", vars);
+        assertSameResult("sum(string(n)) == 9", vars);
+        assertSameResult("truncate(x, 2) == truncate(x, -2)", vars);
+    }
+
+    @Test
+    public void testErrors() {
+        final Tree tree = tree("(x + 1) > 0", map("x", 1.0));
+        // Missing variable
+        assertFalse(new CompiledEvaluator().prepare(tree).eval(map()));
+        assertTrue(new CompiledEvaluator(true).prepare(tree).eval(map()));
+        assertTrue(new CompiledEvaluator(true).prepare(tree).eval(table(map("y", 1.0)), 0));
+        // Wrong variable type
+        assertFalse(new CompiledEvaluator().prepare(tree).eval(map("x", true)));
+        assertFalse(new CompiledEvaluator().prepare(tree).eval(table(map("x", true)), 0));
+    }
+
+    @Test
+    public void testUnsupported() {
+        final Tree tree = new Tree("%", new Tree(1.0, Tree.Type.NUMBER), new Tree(2.0, Tree.Type.NUMBER), Tree.Type.BOOLEAN);
+        assertNull(TreeCompiler.compile(tree, 0.0001));
+        assertFalse(new CompiledEvaluator().prepare(tree).eval(map()));
+    }
+
+}
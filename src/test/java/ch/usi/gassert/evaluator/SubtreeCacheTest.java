@@ -0,0 +1,66 @@
+package ch.usi.gassert.evaluator;
+
+import ch.usi.gassert.data.state.StateSchema;
+import ch.usi.gassert.data.state.StateTable;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SubtreeCacheTest {
+
+    @Test
+    public void testStoredOnSecondRequest() {
+        final StateTable table = new StateTable(new StateSchema());
+        final SubtreeCache<String> cache = new SubtreeCache<>(1L << 20);
+        assertNull(cache.get("(x * x)", table, 0, 10));
+        assertFalse(cache.put("(x * x)", table, 0, 10, "v", 8));
+        assertNull(cache.get("(x * x)", table, 0, 10));
+        assertTrue(cache.put("(x * x)", table, 0, 10, "v", 8));
+        assertEquals("v", cache.get("(x * x)", table, 0, 10));
+        // Other range or table
+        assertNull(cache.get("(x * x)", table, 10, 10));
+        assertNull(cache.get("(x * x)", new StateTable(new StateSchema()), 0, 10));
+        assertEquals(1, cache.getHits());
+        assertEquals(4, cache.getMisses());
+        assertEquals(1, cache.size());
+        assertEquals(8, cache.getBytes());
+    }
+
+    @Test
+    public void testConcurrentAccess() throws InterruptedException {
+        final StateTable table = new StateTable(new StateSchema());
+        // Room for about half of the subtrees, so that there are evictions
+        final SubtreeCache<Integer> cache = new SubtreeCache<>(16 * 1000);
+        final int threads = 4;
+        final int subtrees = 500;
+        final List<Thread> workers = new ArrayList<>();
+        for (int t = 0 ; t < threads ; ++t) {
+            final Thread worker = new Thread(() -> {
+                for (int round = 0 ; round < 3 ; ++round) {
+                    for (int i = 0 ; i < subtrees ; ++i) {
+                        final String subtree = "(x + " + i + ")";
+                        final Integer value = cache.get(subtree, table, 0, 10);
+                        if (value == null) {
+                            cache.put(subtree, table, 0, 10, i, 40);
+                        } else {
+                            assertEquals(i, value.intValue());
+                        }
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(threads * 3 * subtrees, cache.getHits() + cache.getMisses());
+        assertTrue(cache.getHits() > 0);
+        assertTrue(cache.getEvictions() > 0);
+        assertTrue(cache.getBytes() <= 16 * 1000);
+    }
+
+}
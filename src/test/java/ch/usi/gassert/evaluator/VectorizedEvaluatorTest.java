@@ -0,0 +1,110 @@
+package ch.usi.gassert.evaluator;
+
+import ch.usi.gassert.data.state.StateBatch;
+import ch.usi.gassert.data.state.StateSchema;
+import ch.usi.gassert.data.state.StateTable;
+import ch.usi.gassert.data.state.TestExecution;
+import ch.usi.gassert.data.state.Variables;
+import ch.usi.gassert.data.tree.Tree;
+import ch.usi.gassert.data.types.Sequence;
+import ch.usi.gassert.util.Bitmap;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static ch.usi.gassert.evaluator.CompiledEvaluatorTest.tree;
+import static ch.usi.gassert.util.CollectionUtils.*;
+import static org.junit.Assert.*;
+
+public class VectorizedEvaluatorTest {
+
+    static final int ROWS = 150;
+
+    static StateTable states() {
+        final StateTable table = new StateTable(new StateSchema());
+        for (int i = 0; i < ROWS; ++i) {
+            final Variables variables = new Variables();
+            variables.addInput("x", (double) (i - ROWS / 2));
+            variables.addInput("y", i % 7 == 0 ? 0.0 : (double) (i % 5));
+            variables.addInput("b", i % 3 == 0);
+            // Missing sequence in some rows
+            if (i % 11 != 0) {
+                variables.addInput("s", Sequence.fromValue(array(i % 4, 1, 2)));
+            }
+            table.add(new TestExecution("sys", "t" + i, variables));
+        }
+        return table;
+    }
+
+    static Map<String, Object> sample() {
+        return map("x", 1.0, "y", 1.0, "b", true, "s", Sequence.fromValue(array(1, 2)));
+    }
+
+    static void assertSameResults(final String expr, final StateTable table, final int from) {
+        final Tree tree = tree(expr, sample());
+        for (final boolean onError : new boolean[] { false, true }) {
+            final IEvaluator basic = new BasicEvaluator(onError);
+            final long[] result = new VectorizedEvaluator(new CompiledEvaluator(onError))
+                    .evalAll(tree, new StateBatch(table, from, table.size()));
+            assertEquals(Bitmap.bucketsForSize(table.size()), result.length);
+            for (int row = 0; row < table.size(); ++row) {
+                final boolean expected = row >= from && basic.eval(tree, table.getValues(row));
+                assertEquals(expr + " at row " + row, expected, Bitmap.isSet(result, row));
+            }
+        }
+    }
+
+    @Test
+    public void testSameAsBasicEvaluator() {
+        final StateTable table = states();
+        final String[] exprs = {
+                "true",
+                "NOT(b) || false",
+                "(x / y) > 2",
+                "((x * x) - (y ^ 2)) <= 10",
+                "(ABS(x) == y) <=> b",
+                "(x <> 0) => (b && (y >= 2))",
+                "length(s) < 3",
+                "sum(flip(s)) == sum(s)",
+                "remove(s, y) == truncate(s, 1)",
+                "length(string(x)) > 2",
+        };
+        for (final String expr : exprs) {
+            for (final int from : new int[] { 0, 1, 64, 100, ROWS }) {
+                assertSameResults(expr, table, from);
+            }
+        }
+    }
+
+    @Test
+    public void testWrongVariableKind() {
+        final StateTable table = states();
+        // b is a boolean column, every row fails
+        final Tree tree = tree("(b + 1) > 0", map("b", 1.0));
+        final long[] result = new VectorizedEvaluator(new BasicEvaluator(true)).evalAll(tree, table.batch(0));
+        assertEquals(ROWS, Bitmap.countSetBits(result));
+    }
+
+    @Test
+    public void testSubtreeCache() {
+        final StateTable table = states();
+        final VectorizedEvaluator evaluator = new VectorizedEvaluator(new BasicEvaluator(), 1L << 20);
+        final String[] exprs = {
+                "((x * x) - (y ^ 2)) <= 10",
+                "((x * x) - (y ^ 2)) <= (x * x)",
+                "(((x * x) - (y ^ 2)) <= 10) && b",
+                "((x * x) - (y ^ 2)) <= 10",
+        };
+        final IEvaluator basic = new BasicEvaluator();
+        for (final String expr : exprs) {
+            final Tree tree = tree(expr, sample());
+            final long[] result = evaluator.evalAll(tree, table.batch(0));
+            for (int row = 0; row < table.size(); ++row) {
+                assertEquals(expr + " at row " + row, basic.eval(tree, table.getValues(row)), Bitmap.isSet(result, row));
+            }
+        }
+        assertTrue(evaluator.getSubtreeCache().getHits() > 0);
+        assertTrue(evaluator.getSubtreeCache().size() > 0);
+    }
+
+}
@@ -0,0 +1,120 @@
+package ch.usi.gassert.evolutionary;
+
+import ch.usi.gassert.data.tree.Tree;
+import ch.usi.gassert.data.tree.template.TreeGroup;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class EvaluationStageTest {
+
+    @Test
+    public void testDuplicateIndividuals() {
+        final Map<Individual, AtomicInteger> validations = Collections.synchronizedMap(new IdentityHashMap<>());
+        final BehaviourManager behaviourManager = new BehaviourManager();
+        behaviourManager.setValidator(sol -> {
+            assertNotNull(sol.getEvaluationContext());
+            validations.computeIfAbsent(sol, s -> new AtomicInteger()).incrementAndGet();
+            return true;
+        });
+        behaviourManager.setEliteValidator(sol -> true);
+        behaviourManager.setFitnessFP(sol -> sol.fitnessValueFP = 0.0);
+        behaviourManager.setFitnessFN(sol -> {
+            assertNotNull(sol.getEvaluationContext());
+            sol.fitnessValueFN = 1.0;
+        });
+        final List<Individual> distinct = new ArrayList<>();
+        for (int i = 0 ; i < 10 ; ++i) {
+            distinct.add(new Individual(new Tree(i % 2 == 0, Tree.Type.BOOLEAN), (TreeGroup) null));
+        }
+        final List<Individual> individuals = new ArrayList<>();
+        for (int i = 0 ; i < 100 ; ++i) {
+            individuals.add(distinct.get(i % distinct.size()));
+        }
+        final EvaluationStage stage = new EvaluationStage(4);
+        try {
+            final EvaluationStage.Counts counts = new EvaluationStage.Counts();
+            final List<Individual> computed = stage.computeAll(individuals, behaviourManager, false, counts);
+            assertEquals(individuals.size(), computed.size());
+            for (int i = 0 ; i < individuals.size() ; ++i) {
+                assertSame(individuals.get(i), computed.get(i));
+                assertTrue(computed.get(i).isComputed());
+                assertNull(computed.get(i).getEvaluationContext());
+            }
+            for (final Individual individual : distinct) {
+                assertEquals(1, validations.get(individual).get());
+            }
+            // Concurrent computations of the same Individuals from several threads
+            final Set<Individual> recomputed = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+            behaviourManager.setFitnessFN(sol -> {
+                assertNotNull(sol.getEvaluationContext());
+                recomputed.add(sol);
+            });
+            final List<Thread> threads = new ArrayList<>();
+            for (int t = 0 ; t < 4 ; ++t) {
+                final Thread thread = new Thread(() -> stage.recomputeAll(individuals, behaviourManager));
+                threads.add(thread);
+                thread.start();
+            }
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(distinct.size(), recomputed.size());
+            for (final Individual individual : distinct) {
+                assertNull(individual.getEvaluationContext());
+            }
+        } catch (final InterruptedException e) {
+            fail(e.toString());
+        } finally {
+            stage.shutdown();
+        }
+    }
+
+    @Test
+    public void testNoWaitWhileComputing() throws InterruptedException {
+        final Individual x = new Individual(new Tree(true, Tree.Type.BOOLEAN), (TreeGroup) null);
+        final Individual y = new Individual(new Tree(false, Tree.Type.BOOLEAN), (TreeGroup) null);
+        final CountDownLatch computingY = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean nestedComputed = new AtomicBoolean(true);
+        // Computing x computes y, which another thread is computing
+        final BehaviourManager behaviourManager = new BehaviourManager();
+        behaviourManager.setEliteValidator(sol -> true);
+        behaviourManager.setFitnessFP(sol -> sol.fitnessValueFP = 0.0);
+        behaviourManager.setFitnessFN(sol -> sol.fitnessValueFN = 0.0);
+        behaviourManager.setValidator(sol -> {
+            if (sol == y) {
+                computingY.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            } else {
+                nestedComputed.set(y.compute(behaviourManager));
+            }
+            return true;
+        });
+        final Thread thread = new Thread(() -> y.compute(behaviourManager));
+        thread.start();
+        try {
+            assertTrue(computingY.await(10, TimeUnit.SECONDS));
+            // Gives up on y instead of waiting for it
+            assertTrue(x.compute(behaviourManager));
+            assertFalse(nestedComputed.get());
+            assertTrue(x.isComputed());
+            assertFalse(y.isComputed());
+        } finally {
+            release.countDown();
+            thread.join();
+        }
+        assertTrue(y.isComputed());
+    }
+
+}
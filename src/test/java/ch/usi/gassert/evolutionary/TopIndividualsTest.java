@@ -0,0 +1,46 @@
+package ch.usi.gassert.evolutionary;
+
+import ch.usi.gassert.interpreter.CriteriaCompareIndividuals;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class TopIndividualsTest {
+
+    @Test
+    public void testSameAsSorting() {
+        final Random random = new Random(42);
+        final List<Individual> individuals = new ArrayList<>();
+        for (int i = 0 ; i < 500 ; ++i) {
+            // Few distinct values, so that there are many ties
+            individuals.add(new Individual(true, true, (double) random.nextInt(10) / 10.0,
+                    (double) random.nextInt(10) / 10.0, random.nextInt(5)));
+        }
+        final Function<Individual, Object> key = individual -> individual.fitnessValueFP;
+        for (final CriteriaCompareIndividuals criteria : CriteriaCompareIndividuals.values()) {
+            final Comparator<Individual> comparator = criteria.getComparator(0);
+            for (final int k : new int[] { 0, 1, 7, 100, 1000 }) {
+                final List<Individual> sorted = new ArrayList<>(individuals);
+                sorted.sort(comparator);
+                final TopIndividuals top = new TopIndividuals(comparator, k);
+                top.offerAll(individuals);
+                assertEquals(sorted.subList(0, Math.min(k, sorted.size())), top.toList());
+                // Only the first individual for each key
+                final List<Individual> distinct = new ArrayList<>();
+                final Set<Object> keys = new HashSet<>();
+                for (final Individual individual : sorted) {
+                    if (keys.add(key.apply(individual)) && distinct.size() < k) {
+                        distinct.add(individual);
+                    }
+                }
+                final TopIndividuals topDistinct = new TopIndividuals(comparator, k, key);
+                topDistinct.offerAll(individuals);
+                assertEquals(distinct, topDistinct.toList());
+            }
+        }
+    }
+
+}
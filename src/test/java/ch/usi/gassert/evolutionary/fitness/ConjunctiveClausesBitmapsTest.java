@@ -0,0 +1,56 @@
+package ch.usi.gassert.evolutionary.fitness;
+
+import ch.usi.gassert.data.state.*;
+import ch.usi.gassert.data.tree.ConjunctiveClausesTree;
+import ch.usi.gassert.evaluator.BasicEvaluator;
+import ch.usi.gassert.evaluator.IPreparedTree;
+import ch.usi.gassert.util.Bitmap;
+import ch.usi.gassert.util.LazyMap;
+import ch.usi.methodtest.ConjunctiveMRIPClause;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ConjunctiveClausesBitmapsTest {
+
+    final static Map<String, Class<?>> variableTypes = new LazyMap<>(v -> Double.class);
+
+    static TestExecution execution(final int i) {
+        final Variables variables = new Variables();
+        variables.addInput("x", (double) (i % 7));
+        variables.addInput("y", (double) (i % 5));
+        variables.addInput("z", (double) (i % 3));
+        return new TestExecution("sys", "test" + i, variables);
+    }
+
+    @Test
+    public void testSameAsTree() throws IOException {
+        final StateTable states = new StateTable(new StateSchema());
+        for (int i = 0; i < 100; ++i) {
+            states.add(execution(i));
+        }
+        final ConjunctiveMRIPClause[] clauses = {
+                ConjunctiveMRIPClause.read("(x == y)", variableTypes),
+                ConjunctiveMRIPClause.read("(y == (z + 1))", variableTypes),
+                ConjunctiveMRIPClause.read("(x > z)", variableTypes)
+        };
+        final BasicEvaluator evaluator = new BasicEvaluator();
+        final ConjunctiveClausesBitmaps bitmaps = new ConjunctiveClausesBitmaps(states, evaluator, clauses);
+        // Add some states after computing the bitmaps
+        for (int i = 100; i < 150; ++i) {
+            states.add(execution(i));
+        }
+        // No selected clauses is rejected by ConjunctiveClauseSelectedValidator
+        for (long selected = 1; selected < 8; ++selected) {
+            final ConjunctiveClausesTree tree = new ConjunctiveClausesTree(clauses, selected);
+            tree.clauses[0].getTree().setValue(selected % 2 == 0 ? "==" : "<=");
+            final IPreparedTree expected = evaluator.prepare(tree.asTree());
+            assertArrayEquals(tree.toString(), expected.evalAll(states.batch(0)), bitmaps.evalAll(tree));
+            assertEquals(Bitmap.countSetBits(expected.evalAll(states.batch(0))), bitmaps.countSatisfied(tree));
+        }
+    }
+
+}
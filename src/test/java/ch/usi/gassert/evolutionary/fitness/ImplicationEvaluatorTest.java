@@ -0,0 +1,83 @@
+package ch.usi.gassert.evolutionary.fitness;
+
+import ch.usi.gassert.data.state.*;
+import ch.usi.gassert.data.tree.Tree;
+import ch.usi.gassert.data.tree.TreeFactory;
+import ch.usi.gassert.data.tree.TreeReaderGAssert;
+import ch.usi.gassert.data.tree.builder.GeneratedTreeBuilder;
+import ch.usi.gassert.data.tree.template.TreeTemplate;
+import ch.usi.gassert.data.types.Sequence;
+import ch.usi.gassert.evaluator.BasicEvaluator;
+import ch.usi.gassert.evaluator.CompiledEvaluator;
+import ch.usi.gassert.evaluator.IEvaluator;
+import ch.usi.gassert.evaluator.VectorizedEvaluator;
+import ch.usi.gassert.evolutionary.Individual;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static ch.usi.gassert.data.tree.TreeTemplateTest.makeTreeBehaviourManager;
+import static ch.usi.gassert.util.CollectionUtils.array;
+import static org.junit.Assert.*;
+
+public class ImplicationEvaluatorTest {
+
+    static final int ROWS = 150;
+
+    static StateTable states() {
+        final StateTable table = new StateTable(new StateSchema());
+        for (int i = 0; i < ROWS; ++i) {
+            final Variables variables = new Variables();
+            variables.addInput("x", (double) (i - ROWS / 2));
+            variables.addInput("y", (double) (i % 5));
+            // Missing sequence in some rows, where the relations using it fail
+            if (i % 11 != 0) {
+                variables.addInput("s", Sequence.fromValue(array(i % 4, 1, 2)));
+            }
+            table.add(new TestExecution("sys", "t" + i, variables));
+        }
+        return table;
+    }
+
+    static TreeTemplate implicationTemplate(final VariablesManager variables) {
+        return new TreeTemplate("=>",
+                new TreeTemplate(new GeneratedTreeBuilder(makeTreeBehaviourManager(), new TreeFactory(variables), Tree.Type.BOOLEAN),
+                        Tree.Type.BOOLEAN, TreeTemplate.Mode.GENERATED),
+                new TreeTemplate(new GeneratedTreeBuilder(makeTreeBehaviourManager(), new TreeFactory(variables), Tree.Type.BOOLEAN),
+                        Tree.Type.BOOLEAN, TreeTemplate.Mode.GENERATED),
+                Tree.Type.BOOLEAN, TreeTemplate.Mode.STATIC);
+    }
+
+    @Test
+    public void testSameAsAssertion() {
+        final StateTable states = states();
+        final Map<String, Class<?>> variableTypes = new HashMap<>();
+        variableTypes.put("x", Double.class);
+        variableTypes.put("y", Double.class);
+        variableTypes.put("s", Sequence.class);
+        final TreeTemplate template = implicationTemplate(VariablesManager.fromVariableTypes(variableTypes));
+        final String[] exprs = {
+                "((x > y) => (y < 3))",
+                "((length(s) > 2) => (x > 0))",
+                "((x < 10) => (sum(s) > 4))",
+                "((sum(s) > 3) => (length(s) == 3))",
+        };
+        for (final boolean onError : new boolean[] { false, true }) {
+            final IEvaluator evaluator = new VectorizedEvaluator(new CompiledEvaluator(onError));
+            final IEvaluator basic = new BasicEvaluator(onError);
+            final ImplicationEvaluator implicationEvaluator = new ImplicationEvaluator(template, evaluator);
+            for (final String expr : exprs) {
+                final Individual sol = new Individual(TreeReaderGAssert.getTree(expr, variableTypes), template);
+                for (final int from : new int[] { 0, 1, 64, 100 }) {
+                    final long[] expected = evaluator.evalAll(sol.getTree().asTree(), states.batch(from));
+                    assertArrayEquals(expr + " from " + from, expected, implicationEvaluator.evalAll(sol, states.batch(from)));
+                    final Tree inputRelation = sol.getTreeGroup().mappings.get(template.getLeft()).asTree();
+                    assertArrayEquals(expr + " from " + from, basic.evalAll(inputRelation, states.batch(from)),
+                            implicationEvaluator.evalRelation(sol, template.getLeft(), states.batch(from)));
+                }
+            }
+        }
+    }
+
+}
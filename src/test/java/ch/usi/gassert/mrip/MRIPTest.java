@@ -0,0 +1,58 @@
+package ch.usi.gassert.mrip;
+
+import ch.usi.gassert.data.state.VariablesManager;
+import ch.usi.gassert.data.tree.Tree;
+import ch.usi.gassert.data.tree.TreeFactory;
+import ch.usi.gassert.data.tree.TreeReaderGAssert;
+import ch.usi.gassert.data.tree.builder.GeneratedTreeBuilder;
+import ch.usi.gassert.data.tree.template.TreeGroup;
+import ch.usi.gassert.data.tree.template.TreeTemplate;
+import ch.usi.gassert.evaluator.BasicEvaluator;
+import ch.usi.gassert.evaluator.IEvaluator;
+import ch.usi.gassert.evolutionary.Individual;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static ch.usi.gassert.data.tree.TreeTemplateTest.makeTreeBehaviourManager;
+import static org.junit.Assert.*;
+
+public class MRIPTest {
+
+    @Test
+    public void testSameInForkJoinPool() {
+        final Map<String, Map<String, Object>> inputs = new HashMap<>();
+        for (int i = 0 ; i < 200 ; ++i) {
+            final Map<String, Object> values = new HashMap<>();
+            values.put("x", (double) (i % 37));
+            inputs.put(String.format("t%03d", i), values);
+        }
+        final MRIPTestInputs testInputs = new MRIPTestInputs(inputs);
+        final Map<String, Class<?>> variableTypes = new HashMap<>();
+        variableTypes.put("x_s", Double.class);
+        variableTypes.put("x_f", Double.class);
+        final TreeTemplate template = new TreeTemplate(new GeneratedTreeBuilder(makeTreeBehaviourManager(),
+                new TreeFactory(VariablesManager.fromVariableTypes(variableTypes)), Tree.Type.BOOLEAN),
+                Tree.Type.BOOLEAN, TreeTemplate.Mode.GENERATED);
+        final IEvaluator evaluator = new BasicEvaluator();
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (final String expr : new String[] { "((x_s + 3) == x_f)", "(x_s > 35)", "(x_s > x_f)" }) {
+                final TreeGroup treeGroup = new Individual(TreeReaderGAssert.getTree(expr, variableTypes), template).getTreeGroup();
+                for (final int maxCoverage : new int[] { Integer.MAX_VALUE, 100, 10 }) {
+                    final MRIP expected = new MRIP(treeGroup, evaluator, testInputs, maxCoverage);
+                    final MRIP actual = pool.submit(() -> new MRIP(treeGroup, evaluator, testInputs, maxCoverage)).join();
+                    assertEquals(expr, expected.coveredTestCasesCount, actual.coveredTestCasesCount);
+                    assertEquals(expr, expected.selectedPairsCount, actual.selectedPairsCount);
+                    assertArrayEquals(expr, expected.coveredTestCases, actual.coveredTestCases);
+                    assertEquals(expr, expected.getSelectedPairs(), actual.getSelectedPairs());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+package ch.usi.gassert.mrip;
+
+import ch.usi.gassert.data.state.VariablesHelper;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MRIPTestInputsTest {
+
+    private static Map<String, Object> inputs(final double x, final boolean b) {
+        final Map<String, Object> inputs = new HashMap<>();
+        inputs.put("i_x", x);
+        inputs.put("i_b", b);
+        return inputs;
+    }
+
+    @Test
+    public void testPairVariables() {
+        final Map<String, Map<String, Object>> testInputs = new HashMap<>();
+        testInputs.put("t2", inputs(2.0, false));
+        testInputs.put("t0", inputs(0.0, true));
+        testInputs.put("t1", inputs(1.0, true));
+        final MRIPTestInputs indexed = new MRIPTestInputs(testInputs);
+        assertEquals(3, indexed.size());
+        assertEquals(9, indexed.pairsSize());
+        final MRIPTestInputs.PairVariables pairVariables = indexed.newPairVariables();
+        for (int source = 0 ; source < indexed.size() ; ++source) {
+            assertEquals("t" + source, indexed.getTestId(source));
+            for (int followup = 0 ; followup < indexed.size() ; ++followup) {
+                final int pair = indexed.pairIndex(source, followup);
+                assertEquals(source, indexed.pairSource(pair));
+                assertEquals(followup, indexed.pairFollowup(pair));
+                final Map<String, Object> expected = VariablesHelper.makeMetamorphic(
+                        testInputs.get("t" + source), testInputs.get("t" + followup));
+                pairVariables.select(source, followup);
+                for (final Map.Entry<String, Object> variable : expected.entrySet()) {
+                    assertEquals(variable.getValue(), pairVariables.get(variable.getKey()));
+                }
+                assertEquals(expected, pairVariables);
+                assertNull(pairVariables.get("i_x"));
+            }
+        }
+    }
+
+}
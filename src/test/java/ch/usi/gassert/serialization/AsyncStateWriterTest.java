@@ -0,0 +1,67 @@
+package ch.usi.gassert.serialization;
+
+import ch.usi.gassert.data.state.TestExecution;
+import ch.usi.gassert.data.state.Variables;
+import com.google.gson.stream.JsonReader;
+import org.junit.Test;
+import org.mu.util.streams.IStreamLoader;
+import org.mu.util.streams.SegmentedStreamLoader;
+import org.mu.util.streams.StreamLoaderFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class AsyncStateWriterTest {
+
+    static final String JSON = "{\"systemId\":\"demo.MyClass$sin$0@M10\",\"testId\":\"test0\",\"variables\":{\"inputs\":{\"i_y\":null},\"outputs\":{\"o_return\":\"ERROR[NullPointerException]\"}}}";
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final Path dir = Files.createTempDirectory("states");
+        try {
+            final List<TestExecution> expected = new ArrayList<>();
+            // Small segments and queue, so that there are several segments and the queue fills up
+            final AsyncStateWriter writer = new AsyncStateWriter(dir, 4, 1000);
+            try {
+                for (int i = 0 ; i < 100 ; ++i) {
+                    final Variables variables = new Variables();
+                    variables.add("i_x", (double) i, true);
+                    variables.add("i_s", "$s" + i, true);
+                    variables.add("o_return", i % 2 == 0, false);
+                    final TestExecution testExecution = new TestExecution("demo.MyClass$f$0@original", "test" + i, variables);
+                    expected.add(testExecution);
+                    assertTrue(writer.write(testExecution));
+                }
+            } finally {
+                writer.close();
+            }
+            // Late writes are refused, and left to the caller
+            assertFalse(writer.write(expected.get(0)));
+            Files.write(dir.resolve("file.state.json"), JSON.getBytes(StandardCharsets.UTF_8));
+            final IStreamLoader loader = StreamLoaderFactory.forPath(dir.toString());
+            assertTrue(loader instanceof SegmentedStreamLoader);
+            assertTrue(dir.toFile().list((d, name) -> name.endsWith(SegmentedStreamLoader.SEGMENT_EXTENSION)).length > 1);
+            final Set<String> entries = new HashSet<>(loader.entries());
+            assertEquals(expected.size() + 1, entries.size());
+            for (final TestExecution testExecution : expected) {
+                final String entry = AsyncStateWriter.getEntryName(testExecution);
+                assertTrue(entries.contains(entry));
+                assertEquals(testExecution, TestExecution.fromJson(new JsonReader(loader.load(entry))));
+            }
+            assertEquals("test0", TestExecution.fromJson(new JsonReader(loader.load("file.state.json"))).getTestId());
+            loader.close();
+        } finally {
+            for (final File file : Objects.requireNonNull(dir.toFile().listFiles())) {
+                Files.delete(file.toPath());
+            }
+            Files.delete(dir);
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+package ch.usi.gassert.serialization;
+
+import ch.usi.gassert.data.state.TestExecution;
+import ch.usi.methodtest.MethodTestExecutor;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class OnlineStateSerializingMethodVisitorTest {
+
+    static void fact(final OnlineStateSerializingMethodVisitor visitor, final int n) {
+        visitor.serializeEnter("demo.Fact$fact$0@original", "fact", 0, "n", int.class, n, false);
+        if (n > 1) {
+            fact(visitor, n - 1);
+        }
+        visitor.serializeExit("n", int.class, n, false);
+    }
+
+    @Test
+    public void testRecursiveCalls() {
+        final OnlineStateSerializingMethodVisitor visitor =
+                new OnlineStateSerializingMethodVisitor(DefaultSerializer.getInstance(), true);
+        final long tid = Thread.currentThread().getId();
+        MethodTestExecutor.currentTestId.put(tid, "t0");
+        try {
+            fact(visitor, 3);
+            fact(visitor, 2);
+        } finally {
+            MethodTestExecutor.currentTestId.remove(tid);
+        }
+        final Map<String, Object> inputs = new HashMap<>();
+        for (final TestExecution testExecution : visitor.observedTestExecutions) {
+            assertNull(inputs.put(testExecution.getTestId(), testExecution.getVariables().getValues().get("i_n")));
+        }
+        assertEquals(5, inputs.size());
+        // The calls made by the MethodTest keep its testId, numbered in order
+        assertEquals(3.0, ((Number) inputs.get("t0")).doubleValue(), 0.0);
+        assertEquals(2.0, ((Number) inputs.get("t0_1")).doubleValue(), 0.0);
+        assertEquals(2.0, ((Number) inputs.get("t0_depth1")).doubleValue(), 0.0);
+        assertEquals(1.0, ((Number) inputs.get("t0_depth2")).doubleValue(), 0.0);
+        assertEquals(1.0, ((Number) inputs.get("t0_depth1_1")).doubleValue(), 0.0);
+    }
+
+}
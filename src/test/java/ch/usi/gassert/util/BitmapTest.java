@@ -0,0 +1,60 @@
+package ch.usi.gassert.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BitmapTest {
+
+    @Test
+    public void countSetBits() {
+        assertEquals(0, Bitmap.countSetBits(0L));
+        assertEquals(64, Bitmap.countSetBits(-1L));
+        assertEquals(1, Bitmap.countSetBits(Long.MIN_VALUE));
+        assertEquals(65, Bitmap.countSetBits(new long[] { -1L, 1L }));
+    }
+
+    @Test
+    public void countAndNot() {
+        final long[] a = Bitmap.create(130);
+        final long[] b = Bitmap.create(130);
+        for (int i = 0; i < 130; i += 2) {
+            Bitmap.set(a, i);
+        }
+        for (int i = 0; i < 130; i += 4) {
+            Bitmap.set(b, i);
+        }
+        assertEquals(32, Bitmap.countAndNot(a, b));
+        assertEquals(0, Bitmap.countAndNot(b, a));
+        assertEquals(33, Bitmap.countAnd(a, b));
+    }
+
+    @Test
+    public void bulkOperations() {
+        final long[] a = new long[] { 0b1100L, -1L, 1L };
+        final long[] b = new long[] { 0b1010L, 1L };
+        final long[] and = a.clone();
+        Bitmap.and(and, b);
+        assertArrayEquals(new long[] { 0b1000L, 1L, 0L }, and);
+        final long[] or = a.clone();
+        Bitmap.or(or, b);
+        assertArrayEquals(new long[] { 0b1110L, -1L, 1L }, or);
+        final long[] andNot = a.clone();
+        Bitmap.andNot(andNot, b);
+        assertArrayEquals(new long[] { 0b0100L, -2L, 1L }, andNot);
+    }
+
+    @Test
+    public void equalsAndHash() {
+        final long[] a = new long[] { 5L, 7L };
+        final long[] b = new long[] { 5L, 7L, 0L, 0L };
+        assertTrue(Bitmap.equals(a, b));
+        assertTrue(Bitmap.equals(b, a));
+        assertEquals(Bitmap.hash(a), Bitmap.hash(b));
+        assertEquals(java.util.Arrays.hashCode(a), Bitmap.hash(a));
+        assertFalse(Bitmap.equals(a, new long[] { 5L, 7L, 1L }));
+        assertFalse(Bitmap.equals(a, null));
+        assertTrue(Bitmap.equals(null, null));
+    }
+
+}
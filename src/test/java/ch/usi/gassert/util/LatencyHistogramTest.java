@@ -0,0 +1,40 @@
+package ch.usi.gassert.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        int previous = -1;
+        for (long value = 0 ; value < 100000 ; ++value) {
+            final int bucket = LatencyHistogram.bucketFor(value);
+            assertTrue(bucket == previous || bucket == previous + 1);
+            assertTrue(value <= LatencyHistogram.highestValueOf(bucket));
+            previous = bucket;
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueOf(LatencyHistogram.bucketFor(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(50));
+        for (long value = 1 ; value <= 1000 ; ++value) {
+            histogram.record(value);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500, histogram.getSum());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(1000, histogram.getPercentile(100));
+        // Upper bound within the bucket precision
+        for (final int percentile : new int[] { 1, 50, 90, 99 }) {
+            final long value = histogram.getPercentile(percentile);
+            assertTrue(value >= percentile * 10);
+            assertTrue(value <= percentile * 10 * 9 / 8 + 1);
+        }
+    }
+
+}
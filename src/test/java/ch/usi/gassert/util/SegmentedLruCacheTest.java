@@ -0,0 +1,42 @@
+package ch.usi.gassert.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SegmentedLruCacheTest {
+
+    @Test
+    public void putIfAbsent() {
+        final SegmentedLruCache<String, Integer> cache = new SegmentedLruCache<>(100);
+        assertNull(cache.putIfAbsent("a", 1));
+        assertEquals(Integer.valueOf(1), cache.putIfAbsent("a", 2));
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void bounded() {
+        final SegmentedLruCache<Integer, Integer> cache = new SegmentedLruCache<>(160);
+        for (int i = 0; i < 10000; ++i) {
+            cache.putIfAbsent(i, i);
+        }
+        assertTrue(cache.size() <= 160);
+        assertEquals(10000 - cache.size(), cache.getEvictions());
+    }
+
+    @Test
+    public void keepsEntriesHitAgain() {
+        final SegmentedLruCache<Integer, Integer> cache = new SegmentedLruCache<>(160);
+        cache.putIfAbsent(0, 0);
+        cache.get(0);
+        // Entries used once are evicted first
+        for (int i = 1; i < 10000; ++i) {
+            cache.putIfAbsent(i, i);
+        }
+        assertEquals(Integer.valueOf(0), cache.get(0));
+    }
+
+}
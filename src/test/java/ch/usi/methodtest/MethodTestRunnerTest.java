@@ -0,0 +1,70 @@
+package ch.usi.methodtest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MethodTestRunnerTest {
+
+    public static class Target {
+        static volatile boolean release = false;
+        int value = 0;
+
+        void add(final int x) {
+            value += x;
+        }
+
+        void fail() {
+            throw new IllegalStateException("fail");
+        }
+
+        void hang() {
+            // Ignores interrupts, like a method stuck in a loop
+            while (!release) {
+                Thread.yield();
+            }
+        }
+    }
+
+    private static MethodTest methodTest(final Target target, final String method, final MethodParameter... parameters) {
+        final MethodParameter[] methodParameters = new MethodParameter[parameters.length + 1];
+        methodParameters[0] = new MethodParameter("this", Target.class, target);
+        System.arraycopy(parameters, 0, methodParameters, 1, parameters.length);
+        return new MethodTest(method, methodParameters);
+    }
+
+    @Test
+    public void testResults() throws Exception {
+        final Target target = new Target();
+        try (final MethodTestRunner runner = new MethodTestRunner(2, 200)) {
+            final MethodTestRunner.Result ok = runner.submit(methodTest(target, "add",
+                    new MethodParameter("x", int.class, 3)), "t0").get();
+            assertTrue(ok.isSuccess());
+            assertEquals("t0", ok.testId);
+            assertEquals(3, target.value);
+            final MethodTestRunner.Result error = runner.submit(methodTest(target, "fail"), "t1").get();
+            assertFalse(error.timedOut);
+            assertNotNull(error.error);
+            final MethodTestRunner.Result missing = runner.submit(methodTest(target, "missing"), "t2").get();
+            assertNotNull(missing.error);
+        }
+    }
+
+    @Test
+    public void testTimeoutReplacesWorker() throws Exception {
+        final Target target = new Target();
+        try (final MethodTestRunner runner = new MethodTestRunner(1, 100)) {
+            final MethodTestRunner.Result hung = runner.submit(methodTest(target, "hang"), "t0").get();
+            assertTrue(hung.timedOut);
+            // The stuck worker was replaced, so the next test still runs
+            final MethodTestRunner.Result ok = runner.submit(methodTest(target, "add",
+                    new MethodParameter("x", int.class, 1)), "t1").get();
+            assertTrue(ok.isSuccess());
+            assertEquals(1, target.value);
+            assertEquals(1, runner.getNumberWorkers());
+        } finally {
+            Target.release = true;
+        }
+    }
+
+}